@@ -0,0 +1,573 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.processor;
+
+import com.google.auto.service.AutoService;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code GeneratedMapper} for every class annotated with {@code GenerateMapper}.
+ *
+ * <p>Properties are found with the same rules as the reflection based mapper in {@code
+ * CustomClassMapper}: public getters and fields define the properties, and setters or fields of any
+ * visibility are used to set them. The generated mapper accesses them directly, so setters and
+ * fields that are used to set properties must not be private.
+ */
+@AutoService(Processor.class)
+@SupportedAnnotationTypes(MapperProcessor.GENERATE_MAPPER_ANNOTATION)
+public class MapperProcessor extends AbstractProcessor {
+
+  static final String GENERATE_MAPPER_ANNOTATION = "com.google.firebase.database.GenerateMapper";
+  static final String GENERATED_MAPPER_SUFFIX = "_FirebaseDatabaseMapper";
+
+  private static final String DATABASE_PACKAGE = "com.google.firebase.database";
+  private static final String EXCLUDE_ANNOTATION = DATABASE_PACKAGE + ".Exclude";
+  private static final String PROPERTY_NAME_ANNOTATION = DATABASE_PACKAGE + ".PropertyName";
+
+  private static final ClassName CUSTOM_CLASS_MAPPER =
+      ClassName.get(DATABASE_PACKAGE + ".core.utilities.encoding", "CustomClassMapper");
+  private static final ClassName GENERATED_MAPPER =
+      ClassName.get(DATABASE_PACKAGE + ".core.utilities.encoding", "GeneratedMapper");
+  private static final ClassName GENERIC_TYPE_INDICATOR =
+      ClassName.get(DATABASE_PACKAGE, "GenericTypeIndicator");
+  private static final ClassName NODE = ClassName.get(DATABASE_PACKAGE + ".snapshot", "Node");
+  private static final ClassName NAMED_NODE =
+      ClassName.get(DATABASE_PACKAGE + ".snapshot", "NamedNode");
+
+  private Elements elements;
+  private Types types;
+  private Messager messager;
+
+  /** A property of a mapped class, and how to read and write it. */
+  private static class Property {
+    final String name;
+    ExecutableElement getter;
+    VariableElement readField;
+    ExecutableElement setter;
+    VariableElement writeField;
+    TypeMirror writeType;
+
+    Property(String name) {
+      this.name = name;
+    }
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnvironment) {
+    super.init(processingEnvironment);
+    elements = processingEnvironment.getElementUtils();
+    types = processingEnvironment.getTypeUtils();
+    messager = processingEnvironment.getMessager();
+  }
+
+  @Override
+  public boolean process(
+      Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment) {
+    TypeElement annotation = elements.getTypeElement(GENERATE_MAPPER_ANNOTATION);
+    if (annotation == null) {
+      return false;
+    }
+    for (Element element : roundEnvironment.getElementsAnnotatedWith(annotation)) {
+      if (element.getKind() == ElementKind.CLASS) {
+        processClass((TypeElement) element);
+      } else {
+        error(element, "@GenerateMapper can only be used on classes");
+      }
+    }
+    return false;
+  }
+
+  private void processClass(TypeElement element) {
+    if (!validateClass(element)) {
+      return;
+    }
+    Map<String, Property> properties = findProperties(element);
+    if (properties == null) {
+      return;
+    }
+    if (properties.isEmpty()) {
+      error(element, "No properties to serialize found on class " + element.getQualifiedName());
+      return;
+    }
+
+    ClassName mappedClass = ClassName.get(element);
+    TypeSpec.Builder mapper =
+        TypeSpec.classBuilder(generatedClassName(element))
+            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+            .addOriginatingElement(element)
+            .addSuperinterface(ParameterizedTypeName.get(GENERATED_MAPPER, mappedClass));
+
+    MethodSpec.Builder serialize =
+        MethodSpec.methodBuilder("serialize")
+            .addAnnotation(Override.class)
+            .addModifiers(Modifier.PUBLIC)
+            .returns(
+                ParameterizedTypeName.get(
+                    ClassName.get(Map.class), ClassName.get(String.class), TypeName.OBJECT))
+            .addParameter(mappedClass, "object")
+            .addStatement(
+                "$T<$T, $T> result = new $T<>()",
+                Map.class,
+                String.class,
+                Object.class,
+                HashMap.class);
+    for (Property property : properties.values()) {
+      serialize.addStatement("result.put($S, $L)", property.name, serializedValue(property));
+    }
+    serialize.addStatement("return result");
+    mapper.addMethod(serialize.build());
+
+    MethodSpec.Builder deserialize =
+        MethodSpec.methodBuilder("deserialize")
+            .addAnnotation(Override.class)
+            .addModifiers(Modifier.PUBLIC)
+            .returns(mappedClass)
+            .addParameter(NODE, "node")
+            .addStatement("$T instance = new $T()", mappedClass, mappedClass)
+            .beginControlFlow("for ($T child : node)", NAMED_NODE)
+            .addStatement("$T key = child.getName().asString()", String.class)
+            .beginControlFlow("switch (key)");
+    for (Property property : properties.values()) {
+      if (property.setter == null && property.writeField == null) {
+        // Like the reflection based mapper, treat properties that can't be set as unknown.
+        continue;
+      }
+      CodeBlock value = deserializedValue(property, mapper);
+      deserialize.add("case $S:\n", property.name).indent();
+      if (property.setter != null) {
+        deserialize.addStatement("instance.$N($L)", property.setter.getSimpleName(), value);
+      } else {
+        deserialize.addStatement("instance.$N = $L", property.writeField.getSimpleName(), value);
+      }
+      deserialize.addStatement("break").unindent();
+    }
+    // The names of all properties are passed along to point out case mismatches, like BeanMapper.
+    CodeBlock.Builder propertyNames = CodeBlock.builder();
+    for (Property property : properties.values()) {
+      propertyNames.add(", $S", property.name);
+    }
+    deserialize
+        .add("default:\n")
+        .indent()
+        .addStatement(
+            "$T.onUnknownProperty($T.class, key$L)",
+            CUSTOM_CLASS_MAPPER,
+            mappedClass,
+            propertyNames.build())
+        .unindent()
+        .endControlFlow()
+        .endControlFlow()
+        .addStatement("return instance");
+    mapper.addMethod(deserialize.build());
+
+    JavaFile file = JavaFile.builder(packageName(element), mapper.build()).build();
+    try {
+      file.writeTo(processingEnv.getFiler());
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private boolean validateClass(TypeElement element) {
+    if (element.getNestingKind() == NestingKind.MEMBER
+        && !element.getModifiers().contains(Modifier.STATIC)) {
+      error(element, "@GenerateMapper can't be used on inner classes, make the class static");
+      return false;
+    }
+    if (element.getNestingKind() == NestingKind.LOCAL
+        || element.getNestingKind() == NestingKind.ANONYMOUS) {
+      error(element, "@GenerateMapper can't be used on local classes");
+      return false;
+    }
+    if (element.getModifiers().contains(Modifier.PRIVATE)
+        || element.getModifiers().contains(Modifier.ABSTRACT)) {
+      error(element, "@GenerateMapper can't be used on private or abstract classes");
+      return false;
+    }
+    if (!element.getTypeParameters().isEmpty()) {
+      error(
+          element,
+          "@GenerateMapper can't be used on classes with type parameters, "
+              + "use GenericTypeIndicator instead");
+      return false;
+    }
+    for (ExecutableElement constructor :
+        ElementFilter.constructorsIn(element.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()
+          && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+        return true;
+      }
+    }
+    error(
+        element,
+        "Class " + element.getQualifiedName() + " does not define a non-private no-argument "
+            + "constructor");
+    return false;
+  }
+
+  /**
+   * Finds the properties of a class, or returns null if they can't be mapped. Mirrors the
+   * BeanMapper in CustomClassMapper.
+   */
+  private Map<String, Property> findProperties(TypeElement element) {
+    DeclaredType classType = (DeclaredType) element.asType();
+    String packageName = packageName(element);
+    Map<String, Property> properties = new LinkedHashMap<>();
+    // Case insensitive mapping of property names to their case sensitive versions.
+    Map<String, String> lowerCaseNames = new HashMap<>();
+
+    List<? extends Element> members = elements.getAllMembers(element);
+    for (ExecutableElement method : ElementFilter.methodsIn(members)) {
+      if (isGetter(method)) {
+        String name = propertyName(method);
+        Property property = addProperty(properties, lowerCaseNames, name, method);
+        if (property == null) {
+          return null;
+        }
+        if (property.getter != null) {
+          error(method, "Found conflicting getters for name: " + method.getSimpleName());
+          return null;
+        }
+        property.getter = method;
+      }
+    }
+    for (VariableElement field : ElementFilter.fieldsIn(members)) {
+      if (isPublicField(field)) {
+        Property property = addProperty(properties, lowerCaseNames, propertyName(field), field);
+        if (property == null) {
+          return null;
+        }
+        property.readField = field;
+      }
+    }
+
+    // Setters and fields of any visibility can be used for known properties, where the ones of
+    // subclasses take precedence.
+    TypeElement current = element;
+    while (current != null && !isObject(current)) {
+      for (ExecutableElement method : ElementFilter.methodsIn(current.getEnclosedElements())) {
+        if (!isSetter(method)) {
+          continue;
+        }
+        String name = propertyName(method);
+        String existingName = lowerCaseNames.get(name.toLowerCase(Locale.US));
+        if (existingName == null) {
+          continue;
+        }
+        if (!existingName.equals(name)) {
+          error(method, "Found setter with invalid case-sensitive name: " + method.getSimpleName());
+          return null;
+        }
+        Property property = properties.get(name);
+        if (property.setter == null) {
+          if (!isAccessible(method, packageName)) {
+            error(method, "Setters used by @GenerateMapper must not be private");
+            return null;
+          }
+          property.setter = method;
+          ExecutableType setterType = (ExecutableType) types.asMemberOf(classType, method);
+          property.writeType = setterType.getParameterTypes().get(0);
+        }
+      }
+      for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+        Property property = properties.get(propertyName(field));
+        if (property != null
+            && property.writeField == null
+            && !field.getModifiers().contains(Modifier.STATIC)) {
+          property.writeField = field;
+        }
+      }
+      current = superclass(current);
+    }
+
+    for (Property property : properties.values()) {
+      if (property.setter == null && property.writeField != null) {
+        if (!isAccessible(property.writeField, packageName)
+            || property.writeField.getModifiers().contains(Modifier.FINAL)) {
+          error(
+              property.writeField,
+              "Fields set by @GenerateMapper must not be private or final, or add a setter");
+          return null;
+        }
+        property.writeType = types.asMemberOf(classType, property.writeField);
+      }
+      if (property.writeType != null && property.writeType.getKind() == TypeKind.ARRAY) {
+        error(element, "Converting to Arrays is not supported, please use Lists instead");
+        return null;
+      }
+      if (property.writeType != null && containsTypeVariable(property.writeType)) {
+        error(element, "Property " + property.name + " has an unresolved generic type");
+        return null;
+      }
+    }
+    return properties;
+  }
+
+  private Property addProperty(
+      Map<String, Property> properties,
+      Map<String, String> lowerCaseNames,
+      String name,
+      Element element) {
+    String existing = lowerCaseNames.put(name.toLowerCase(Locale.US), name);
+    if (existing != null && !existing.equals(name)) {
+      error(
+          element,
+          "Found two getters or fields with conflicting case sensitivity for property: "
+              + name.toLowerCase(Locale.US));
+      return null;
+    }
+    Property property = properties.get(name);
+    if (property == null) {
+      property = new Property(name);
+      properties.put(name, property);
+    }
+    return property;
+  }
+
+  private CodeBlock serializedValue(Property property) {
+    CodeBlock value =
+        property.getter != null
+            ? CodeBlock.of("object.$N()", property.getter.getSimpleName())
+            : CodeBlock.of("object.$N", property.readField.getSimpleName());
+    TypeMirror type =
+        property.getter != null ? property.getter.getReturnType() : property.readField.asType();
+    if (isPlainJavaType(type)) {
+      return value;
+    }
+    return CodeBlock.of(
+        "$T.convertToPlainJavaTypes(($T) $L)", CUSTOM_CLASS_MAPPER, Object.class, value);
+  }
+
+  /** Returns whether values of the type are already plain Java types that need no conversion. */
+  private boolean isPlainJavaType(TypeMirror type) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+      case INT:
+      case LONG:
+        return true;
+      case DECLARED:
+        String name = ((TypeElement) types.asElement(type)).getQualifiedName().toString();
+        return name.equals("java.lang.String")
+            || name.equals("java.lang.Boolean")
+            || name.equals("java.lang.Integer")
+            || name.equals("java.lang.Long");
+      default:
+        return false;
+    }
+  }
+
+  private CodeBlock deserializedValue(Property property, TypeSpec.Builder mapper) {
+    TypeMirror type = property.writeType;
+    if (type.getKind() == TypeKind.DECLARED
+        && !((DeclaredType) type).getTypeArguments().isEmpty()) {
+      // Generic types need a GenericTypeIndicator, which is created once per property.
+      TypeName typeName = TypeName.get(type);
+      String fieldName = property.name.replaceAll("[^A-Za-z0-9_]", "_").toUpperCase(Locale.US);
+      fieldName = fieldName + "_TYPE_" + mapper.fieldSpecs.size();
+      ParameterizedTypeName indicator = ParameterizedTypeName.get(GENERIC_TYPE_INDICATOR, typeName);
+      mapper.addField(
+          FieldSpec.builder(indicator, fieldName, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+              .initializer("new $T() {}", indicator)
+              .build());
+      return CodeBlock.of(
+          "$T.convertToCustomClass(child.getNode().getValue(), $N)",
+          CUSTOM_CLASS_MAPPER,
+          fieldName);
+    }
+    return CodeBlock.of(
+        "$T.convertNodeToCustomClass(child.getNode(), $T.class)",
+        CUSTOM_CLASS_MAPPER,
+        TypeName.get(types.erasure(type)));
+  }
+
+  private boolean isGetter(ExecutableElement method) {
+    String name = method.getSimpleName().toString();
+    return (name.startsWith("get") || name.startsWith("is"))
+        && !isObject((TypeElement) method.getEnclosingElement())
+        && method.getModifiers().contains(Modifier.PUBLIC)
+        && !method.getModifiers().contains(Modifier.STATIC)
+        && method.getReturnType().getKind() != TypeKind.VOID
+        && method.getParameters().isEmpty()
+        && !hasAnnotation(method, EXCLUDE_ANNOTATION);
+  }
+
+  private boolean isSetter(ExecutableElement method) {
+    return method.getSimpleName().toString().startsWith("set")
+        && !method.getModifiers().contains(Modifier.STATIC)
+        && method.getReturnType().getKind() == TypeKind.VOID
+        && method.getParameters().size() == 1
+        && !hasAnnotation(method, EXCLUDE_ANNOTATION);
+  }
+
+  private boolean isPublicField(VariableElement field) {
+    return !isObject((TypeElement) field.getEnclosingElement())
+        && field.getModifiers().contains(Modifier.PUBLIC)
+        && !field.getModifiers().contains(Modifier.STATIC)
+        && !field.getModifiers().contains(Modifier.TRANSIENT)
+        && !hasAnnotation(field, EXCLUDE_ANNOTATION);
+  }
+
+  private boolean isAccessible(Element member, String packageName) {
+    if (member.getModifiers().contains(Modifier.PRIVATE)) {
+      return false;
+    }
+    return member.getModifiers().contains(Modifier.PUBLIC)
+        || packageName((TypeElement) member.getEnclosingElement()).equals(packageName);
+  }
+
+  private boolean containsTypeVariable(TypeMirror type) {
+    if (type.getKind() == TypeKind.TYPEVAR || type.getKind() == TypeKind.WILDCARD) {
+      return type.getKind() == TypeKind.TYPEVAR;
+    }
+    if (type.getKind() == TypeKind.DECLARED) {
+      for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+        if (argument.getKind() == TypeKind.TYPEVAR || containsTypeVariable(argument)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private String propertyName(Element element) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+      if (annotationType.getQualifiedName().contentEquals(PROPERTY_NAME_ANNOTATION)) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+            annotation.getElementValues().entrySet()) {
+          if (entry.getKey().getSimpleName().contentEquals("value")) {
+            return (String) entry.getValue().getValue();
+          }
+        }
+      }
+    }
+    if (element.getKind() == ElementKind.FIELD) {
+      return element.getSimpleName().toString();
+    }
+    return serializedName(element.getSimpleName().toString());
+  }
+
+  /** Converts a getter or setter name to a property name, like CustomClassMapper does. */
+  static String serializedName(String methodName) {
+    String strippedName;
+    if (methodName.startsWith("is")) {
+      strippedName = methodName.substring(2);
+    } else {
+      strippedName = methodName.substring(3);
+    }
+    // Make sure the first word or upper-case prefix is converted to lower-case
+    char[] chars = strippedName.toCharArray();
+    int pos = 0;
+    while (pos < chars.length && Character.isUpperCase(chars[pos])) {
+      chars[pos] = Character.toLowerCase(chars[pos]);
+      pos++;
+    }
+    return new String(chars);
+  }
+
+  private static boolean hasAnnotation(Element element, String annotationName) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+      if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private TypeElement superclass(TypeElement element) {
+    TypeMirror superclass = element.getSuperclass();
+    return superclass.getKind() == TypeKind.DECLARED
+        ? (TypeElement) types.asElement(superclass)
+        : null;
+  }
+
+  private static boolean isObject(TypeElement element) {
+    return element.getQualifiedName().contentEquals("java.lang.Object");
+  }
+
+  /**
+   * Returns the name of the mapper for a class, which must match {@code
+   * CustomClassMapper.generatedMapperName}: {@code Parent_Nested_FirebaseDatabaseMapper} for
+   * {@code Parent.Nested}.
+   */
+  static String generatedClassName(TypeElement element) {
+    StringBuilder sb = new StringBuilder(element.getSimpleName().toString());
+    Element enclosingElement = element.getEnclosingElement();
+    while (!(enclosingElement instanceof PackageElement)) {
+      sb.insert(0, '_');
+      sb.insert(0, enclosingElement.getSimpleName().toString());
+      enclosingElement = enclosingElement.getEnclosingElement();
+    }
+    return sb.append(GENERATED_MAPPER_SUFFIX).toString();
+  }
+
+  private static String packageName(TypeElement element) {
+    Element enclosingElement = element.getEnclosingElement();
+    while (!(enclosingElement instanceof PackageElement)) {
+      enclosingElement = enclosingElement.getEnclosingElement();
+    }
+    return ((PackageElement) enclosingElement).getQualifiedName().toString();
+  }
+
+  private void error(Element element, String message) {
+    messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
@@ -261,4 +261,74 @@ public class PerformanceBenchmarks {
     System.err.println(String.format("Benchmark took %dms", System.currentTimeMillis() - start));
     ref.removeEventListener(listener);
   }
+
+  // @Test
+  public void largeListChildMovedPerformance() throws InterruptedException {
+    DatabaseReference ref = IntegrationTestHelpers.getRandomNode();
+
+    final int numberOfChildren = 10000;
+    final int numberOfUpdates = 500;
+
+    Map<String, Object> children = new HashMap<String, Object>();
+    for (int i = 0; i < numberOfChildren; i++) {
+      children.put("k-" + i, new MapBuilder().put("score", i).build());
+    }
+    final Semaphore written = new Semaphore(0);
+    ref.setValue(
+        children,
+        new DatabaseReference.CompletionListener() {
+          @Override
+          public void onComplete(DatabaseError error, DatabaseReference ref) {
+            written.release();
+          }
+        });
+    IntegrationTestHelpers.waitFor(written);
+
+    final Semaphore initialData = new Semaphore(0);
+    final Semaphore moves = new Semaphore(0);
+    ChildEventListener listener =
+        new ChildEventListener() {
+          @Override
+          public void onChildAdded(DataSnapshot snapshot, String previousChildName) {}
+
+          @Override
+          public void onChildChanged(DataSnapshot snapshot, String previousChildName) {}
+
+          @Override
+          public void onChildRemoved(DataSnapshot snapshot) {}
+
+          @Override
+          public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+            moves.release();
+          }
+
+          @Override
+          public void onCancelled(DatabaseError error) {}
+        };
+    Query query = ref.orderByChild("score");
+    query.addChildEventListener(listener);
+    query.addListenerForSingleValueEvent(
+        new ValueEventListener() {
+          @Override
+          public void onDataChange(DataSnapshot snapshot) {
+            initialData.release();
+          }
+
+          @Override
+          public void onCancelled(DatabaseError error) {}
+        });
+    Assert.assertTrue(initialData.tryAcquire(60, TimeUnit.SECONDS));
+
+    System.err.println("Benchmarking...");
+    final long start = System.currentTimeMillis();
+
+    // Each update moves a single child to the end of the list.
+    for (int i = 0; i < numberOfUpdates; i++) {
+      ref.child("k-" + i).child("score").setValue(numberOfChildren + i);
+    }
+
+    Assert.assertTrue(moves.tryAcquire(numberOfUpdates, 60, TimeUnit.SECONDS));
+    System.err.println(String.format("Benchmark took %dms", System.currentTimeMillis() - start));
+    query.removeEventListener(listener);
+  }
 }
@@ -2062,4 +2062,88 @@ public class TransactionTest {
     ref.getDatabase().goOnline();
     IntegrationTestHelpers.waitFor(semaphore);
   }
+
+  @Test
+  public void deltaTransactionIsNotRetriedOnContendedCounter()
+      throws InterruptedException, TestFailure, ExecutionException, TimeoutException {
+    List<DatabaseReference> refs = IntegrationTestHelpers.getRandomNode(2);
+    final DatabaseReference ref1 = refs.get(0);
+    DatabaseReference ref2 = refs.get(1);
+
+    new WriteFuture(ref2, 10).timedGet();
+    new ReadFuture(ref1).timedGet();
+    // A compare-and-set would be rejected by the server until it runs out of retries.
+    ref1.setHijackHash(true);
+
+    final Semaphore done = new Semaphore(0);
+    for (int i = 0; i < 3; i++) {
+      ref1.runTransaction(
+          new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+              Long value = currentData.getValue(Long.class);
+              currentData.setValue(value == null ? 1 : value + 1);
+              return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(
+                DatabaseError error, boolean committed, DataSnapshot currentData) {
+              assertNull(error);
+              assertTrue(committed);
+              done.release();
+            }
+          },
+          true,
+          Transaction.Mode.DELTA);
+    }
+    new WriteFuture(ref2, ServerValue.increment(5)).timedGet();
+
+    IntegrationTestHelpers.waitFor(done, 3);
+    assertEquals(18L, new ReadFuture(ref2).timedGet().get(0).getSnapshot().getValue());
+    ref1.setHijackHash(false);
+  }
+
+  @Test
+  public void deltaTransactionCompletesWithServerResult()
+      throws InterruptedException, TestFailure, ExecutionException, TimeoutException {
+    List<DatabaseReference> refs = IntegrationTestHelpers.getRandomNode(2);
+    final DatabaseReference ref1 = refs.get(0);
+    DatabaseReference ref2 = refs.get(1);
+
+    new WriteFuture(ref2, 10).timedGet();
+    ref1.keepSynced(true);
+    new ReadFuture(ref1).timedGet();
+
+    // The counter changes while the transaction is queued, so the server result differs from the
+    // value the handler computed.
+    ref1.getDatabase().goOffline();
+    new WriteFuture(ref2, ServerValue.increment(5)).timedGet();
+
+    final Semaphore done = new Semaphore(0);
+    final List<Object> completedValues = new ArrayList<Object>();
+    ref1.runTransaction(
+        new Transaction.Handler() {
+          @Override
+          public Transaction.Result doTransaction(MutableData currentData) {
+            currentData.setValue(currentData.getValue(Long.class) + 1);
+            return Transaction.success(currentData);
+          }
+
+          @Override
+          public void onComplete(DatabaseError error, boolean committed, DataSnapshot currentData) {
+            assertNull(error);
+            assertTrue(committed);
+            completedValues.add(currentData.getValue());
+            done.release();
+          }
+        },
+        true,
+        Transaction.Mode.DELTA);
+    ref1.getDatabase().goOnline();
+
+    IntegrationTestHelpers.waitFor(done);
+    assertEquals(Arrays.asList((Object) 16L), completedValues);
+    ref1.keepSynced(false);
+  }
 }
@@ -24,9 +24,16 @@ import static com.google.firebase.database.IntegrationTestHelpers.path;
 import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.firebase.database.DatabaseException;
@@ -41,14 +48,20 @@ import com.google.firebase.database.core.view.QueryParams;
 import com.google.firebase.database.core.view.QuerySpec;
 import com.google.firebase.database.logging.DefaultLogger;
 import com.google.firebase.database.logging.Logger;
+import com.google.firebase.database.snapshot.BinaryNodeEncoding;
 import com.google.firebase.database.snapshot.ChildKey;
 import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.NamedNode;
 import com.google.firebase.database.snapshot.Node;
 import com.google.firebase.database.snapshot.PathIndex;
+import com.google.firebase.database.util.JsonMapper;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import org.junit.After;
@@ -285,6 +298,32 @@ public class SqlPersistenceStorageEngineTest {
     assertEquals(NodeFromJSON("unaffected"), engine.serverCache(path("unaffected")));
   }
 
+  @Test
+  public void testLoadingChildrenOnlyReturnsThoseChildren() {
+    overwriteServerCache(engine, path("foo"), SAMPLE_NODE);
+    overwriteServerCache(engine, path("foo/qux"), NodeFromJSON("later-qux"));
+
+    Node expected = node("{ 'foo': { 'bar': true, 'baz': 'string' }, 'qux': 'later-qux' }");
+    assertEquals(expected, engine.serverCache(path("foo"), childKeySet("foo", "qux", "missing")));
+  }
+
+  @Test
+  public void testLoadingChildrenOfSplitNode() {
+    Map<String, Object> data = new HashMap<String, Object>();
+    for (int i = 0; i < 100; i++) {
+      data.put("child-" + i, leafNodeOfSize(1024).getValue());
+    }
+    Node node = NodeFromJSON(data);
+    // The node is larger than the split threshold, so every child is saved in its own row.
+    overwriteServerCache(engine, path("foo"), node);
+
+    Node expected =
+        EmptyNode.Empty()
+            .updateImmediateChild(ChildKey.fromString("child-1"), node.getChild(path("child-1")))
+            .updateImmediateChild(ChildKey.fromString("child-42"), node.getChild(path("child-42")));
+    assertEquals(expected, engine.serverCache(path("foo"), childKeySet("child-1", "child-42")));
+  }
+
   @Test
   public void testMergeOnEmptyCacheGivesResults() {
 
@@ -708,6 +747,47 @@ public class SqlPersistenceStorageEngineTest {
     assertEquals(childKeySet("b", "c"), engine.loadTrackedQueryKeys(2));
   }
 
+  @Test
+  public void testUpgradingFromVersion3CombinesTrackedKeys() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    String cacheId = "tracked-keys-upgrade";
+    context.deleteDatabase(cacheId);
+    SQLiteDatabase db = context.openOrCreateDatabase(cacheId, Context.MODE_PRIVATE, null);
+    try {
+      db.execSQL("CREATE TABLE serverCache (path TEXT PRIMARY KEY, value BLOB);");
+      db.execSQL(
+          "CREATE TABLE writes (id INTEGER, path TEXT, type TEXT, part INTEGER, node BLOB, "
+              + "UNIQUE (id, part));");
+      db.execSQL(
+          "CREATE TABLE trackedQueries (id INTEGER PRIMARY KEY, path TEXT, "
+              + "queryParams TEXT, lastUse INTEGER, complete INTEGER, active INTEGER);");
+      db.execSQL("CREATE TABLE trackedKeys (id INTEGER, key TEXT);");
+      String[][] legacyKeys = {{"1", "a"}, {"1", "b"}, {"2", "b"}, {"2", "c"}, {"2", "d"}};
+      for (String[] legacyKey : legacyKeys) {
+        ContentValues values = new ContentValues();
+        values.put("id", Long.parseLong(legacyKey[0]));
+        values.put("key", legacyKey[1]);
+        db.insert("trackedKeys", null, values);
+      }
+      db.setVersion(3);
+    } finally {
+      db.close();
+    }
+
+    DatabaseConfig ctx = new DatabaseConfig();
+    ctx.setLogger(new DefaultLogger(Logger.Level.DEBUG, null));
+    SqlPersistenceStorageEngine upgraded = new SqlPersistenceStorageEngine(context, ctx, cacheId);
+    try {
+      assertEquals(childKeySet("a", "b"), upgraded.loadTrackedQueryKeys(1));
+      assertEquals(childKeySet("b", "c", "d"), upgraded.loadTrackedQueryKeys(2));
+      assertEquals(
+          childKeySet("a", "b", "c", "d"), upgraded.loadTrackedQueryKeys(asSet(1L, 2L)));
+    } finally {
+      upgraded.close();
+      context.deleteDatabase(cacheId);
+    }
+  }
+
   @Test
   public void testConcurrentUsageFails() {
     try {
@@ -718,6 +798,202 @@ public class SqlPersistenceStorageEngineTest {
     }
   }
 
+  @Test
+  public void testLegacyJsonRowsAreReadAndMigratedWhenRewritten() throws IOException {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    String cacheId = "json-rows-upgrade";
+    Node foo = node("{ 'a': 1, 'b': { 'c': true, '.priority': 2 } }");
+    Node bar = node("{ 'd': 'string', 'e': 1.5 }");
+    CompoundWrite merge = compoundWrite("{ 'x': 1, 'y/z': 'w' }");
+    createVersion2Database(context, cacheId);
+    SQLiteDatabase db = context.openOrCreateDatabase(cacheId, Context.MODE_PRIVATE, null);
+    try {
+      insertJsonServerCacheRow(db, "/foo/", foo);
+      insertJsonServerCacheRow(db, "/bar/", bar);
+      insertJsonWriteRow(db, 1, "/foo/", "o", foo.getValue(true));
+      insertJsonWriteRow(db, 2, "/bar/", "m", merge.getValue(true));
+    } finally {
+      db.close();
+    }
+
+    DatabaseConfig ctx = new DatabaseConfig();
+    ctx.setLogger(new DefaultLogger(Logger.Level.DEBUG, null));
+    SqlPersistenceStorageEngine upgraded = new SqlPersistenceStorageEngine(context, ctx, cacheId);
+    Node updatedFoo = foo.updateImmediateChild(ChildKey.fromString("a"), NodeFromJSON(2L));
+    try {
+      assertEquals(foo, upgraded.serverCache(path("foo")));
+      assertEquals(bar, upgraded.serverCache(path("bar")));
+      assertEquals(
+          asList(writeRecord(1, path("foo"), foo), writeRecord(2, path("bar"), merge)),
+          upgraded.loadUserWrites());
+
+      overwriteServerCache(upgraded, path("foo"), updatedFoo);
+      saveUserOverwrite(upgraded, path("foo"), updatedFoo, 1);
+    } finally {
+      upgraded.close();
+    }
+
+    db = context.openOrCreateDatabase(cacheId, Context.MODE_PRIVATE, null);
+    try {
+      // Only the rewritten rows are migrated.
+      assertTrue(BinaryNodeEncoding.isBinaryEncoded(readBlob(db, "serverCache", "/foo/")));
+      assertFalse(BinaryNodeEncoding.isBinaryEncoded(readBlob(db, "serverCache", "/bar/")));
+      assertTrue(BinaryNodeEncoding.isBinaryEncoded(readBlob(db, "writes", "/foo/")));
+      assertFalse(BinaryNodeEncoding.isBinaryEncoded(readBlob(db, "writes", "/bar/")));
+    } finally {
+      db.close();
+    }
+
+    upgraded = new SqlPersistenceStorageEngine(context, ctx, cacheId);
+    try {
+      assertEquals(updatedFoo, upgraded.serverCache(path("foo")));
+      assertEquals(bar, upgraded.serverCache(path("bar")));
+      assertEquals(
+          asList(writeRecord(1, path("foo"), updatedFoo), writeRecord(2, path("bar"), merge)),
+          upgraded.loadUserWrites());
+    } finally {
+      upgraded.close();
+      context.deleteDatabase(cacheId);
+    }
+  }
+
+  @Test
+  public void testBinaryServerCacheIsSmallerThanJsonAndLoadsTheSameNode() throws IOException {
+    Map<String, Object> data = new HashMap<>();
+    for (int i = 0; i < 5000; i++) {
+      Map<String, Object> child = new HashMap<>();
+      child.put("name", "user-" + i);
+      child.put("score", i);
+      child.put("ratio", i / 7.0);
+      child.put("active", i % 2 == 0);
+      data.put("child-" + i, child);
+    }
+    Node node = NodeFromJSON(data);
+
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    String cacheId = "json-vs-binary";
+    createVersion2Database(context, cacheId);
+    SQLiteDatabase db = context.openOrCreateDatabase(cacheId, Context.MODE_PRIVATE, null);
+    try {
+      // Large nodes were saved with a row per child, like the binary rows below.
+      db.beginTransaction();
+      for (NamedNode child : node) {
+        insertJsonServerCacheRow(db, "/json/" + child.getName().asString() + "/", child.getNode());
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      db.close();
+    }
+
+    DatabaseConfig ctx = new DatabaseConfig();
+    ctx.setLogger(new DefaultLogger(Logger.Level.DEBUG, null));
+    SqlPersistenceStorageEngine storage = new SqlPersistenceStorageEngine(context, ctx, cacheId);
+    long jsonLoadMs;
+    long binaryLoadMs;
+    try {
+      overwriteServerCache(storage, path("binary"), node);
+
+      long start = SystemClock.elapsedRealtime();
+      assertEquals(node, storage.serverCache(path("json")));
+      jsonLoadMs = SystemClock.elapsedRealtime() - start;
+
+      start = SystemClock.elapsedRealtime();
+      assertEquals(node, storage.serverCache(path("binary")));
+      binaryLoadMs = SystemClock.elapsedRealtime() - start;
+    } finally {
+      storage.close();
+    }
+
+    db = context.openOrCreateDatabase(cacheId, Context.MODE_PRIVATE, null);
+    try {
+      long jsonBytes = storedBytes(db, "/json/");
+      long binaryBytes = storedBytes(db, "/binary/");
+      Log.i(
+          "SqlPersistenceTest",
+          String.format(
+              Locale.US,
+              "Server cache as JSON: %d bytes, loaded in %dms. As binary: %d bytes, loaded in %dms",
+              jsonBytes,
+              jsonLoadMs,
+              binaryBytes,
+              binaryLoadMs));
+      assertTrue(binaryBytes < jsonBytes);
+    } finally {
+      db.close();
+      context.deleteDatabase(cacheId);
+    }
+  }
+
+  /** Creates an empty database with the schema of version 2, which stored nodes as JSON. */
+  private static void createVersion2Database(Context context, String cacheId) {
+    context.deleteDatabase(cacheId);
+    SQLiteDatabase db = context.openOrCreateDatabase(cacheId, Context.MODE_PRIVATE, null);
+    try {
+      db.execSQL("CREATE TABLE serverCache (path TEXT PRIMARY KEY, value BLOB);");
+      db.execSQL(
+          "CREATE TABLE writes (id INTEGER, path TEXT, type TEXT, part INTEGER, node BLOB, "
+              + "UNIQUE (id, part));");
+      db.execSQL(
+          "CREATE TABLE trackedQueries (id INTEGER PRIMARY KEY, path TEXT, "
+              + "queryParams TEXT, lastUse INTEGER, complete INTEGER, active INTEGER);");
+      db.execSQL("CREATE TABLE trackedKeys (id INTEGER, key TEXT);");
+      db.setVersion(2);
+    } finally {
+      db.close();
+    }
+  }
+
+  private static byte[] toJsonBytes(Object value) throws IOException {
+    return JsonMapper.serializeJsonValue(value).getBytes(Charset.forName("UTF-8"));
+  }
+
+  private static void insertJsonServerCacheRow(SQLiteDatabase db, String pathKey, Node node)
+      throws IOException {
+    ContentValues values = new ContentValues();
+    values.put("path", pathKey);
+    values.put("value", toJsonBytes(node.getValue(true)));
+    db.insert("serverCache", null, values);
+  }
+
+  private static void insertJsonWriteRow(
+      SQLiteDatabase db, long writeId, String pathKey, String type, Object value)
+      throws IOException {
+    ContentValues values = new ContentValues();
+    values.put("id", writeId);
+    values.put("path", pathKey);
+    values.put("type", type);
+    values.putNull("part");
+    values.put("node", toJsonBytes(value));
+    db.insert("writes", null, values);
+  }
+
+  private static byte[] readBlob(SQLiteDatabase db, String table, String pathKey) {
+    String column = table.equals("writes") ? "node" : "value";
+    String[] columns = new String[] {column};
+    Cursor cursor = db.query(table, columns, "path = ?", new String[] {pathKey}, null, null, null);
+    try {
+      assertTrue(cursor.moveToFirst());
+      return cursor.getBlob(0);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /** Returns the size of all serverCache rows at or below the given path key. */
+  private static long storedBytes(SQLiteDatabase db, String pathKey) {
+    Cursor cursor =
+        db.rawQuery(
+            "SELECT SUM(LENGTH(value)) FROM serverCache WHERE path >= ? AND path < ?",
+            new String[] {pathKey, pathKey.substring(0, pathKey.length() - 1) + '0'});
+    try {
+      assertTrue(cursor.moveToFirst());
+      return cursor.getLong(0);
+    } finally {
+      cursor.close();
+    }
+  }
+
   private UserWriteRecord writeRecord(long writeId, Path path, Node node) {
     return new UserWriteRecord(writeId, path, node, /*visible=*/ true);
   }
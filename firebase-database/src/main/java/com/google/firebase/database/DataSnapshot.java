@@ -199,8 +199,7 @@ public class DataSnapshot {
    */
   @Nullable
   public <T> T getValue(@NonNull Class<T> valueType) {
-    Object value = node.getNode().getValue();
-    return CustomClassMapper.convertToCustomClass(value, valueType);
+    return CustomClassMapper.convertNodeToCustomClass(node.getNode(), valueType);
   }
 
   /**
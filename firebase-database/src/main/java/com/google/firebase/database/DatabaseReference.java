@@ -481,15 +481,39 @@ public class DatabaseReference extends Query {
    */
   public void runTransaction(
       @NonNull final Transaction.Handler handler, final boolean fireLocalEvents) {
+    runTransaction(handler, fireLocalEvents, Transaction.Mode.COMPARE_AND_SET);
+  }
+
+  /**
+   * Run a transaction on the data at this location. For more information on running transactions,
+   * see {@link com.google.firebase.database.Transaction.Handler Transaction.Handler}.
+   *
+   * <p>Transactions that are started while earlier ones on the same location are still being sent
+   * are sent to the server together. In {@link Transaction.Mode#DELTA} their changes are added up
+   * and sent as a single update, which the server doesn't reject if other clients changed the data.
+   *
+   * @param handler An object to handle running the transaction
+   * @param fireLocalEvents Defaults to true. If set to false, events will only be fired for the
+   *     final result state of the transaction, and not for any intermediate states
+   * @param mode Defaults to {@link Transaction.Mode#COMPARE_AND_SET}. Controls how the result of
+   *     the transaction is sent to the server
+   */
+  public void runTransaction(
+      @NonNull final Transaction.Handler handler,
+      final boolean fireLocalEvents,
+      @NonNull final Transaction.Mode mode) {
     if (handler == null) {
       throw new NullPointerException("Can't pass null for argument 'handler' in runTransaction()");
     }
+    if (mode == null) {
+      throw new NullPointerException("Can't pass null for argument 'mode' in runTransaction()");
+    }
     Validation.validateWritablePath(getPath());
     repo.scheduleNow(
         new Runnable() {
           @Override
           public void run() {
-            repo.startTransaction(getPath(), handler, fireLocalEvents);
+            repo.startTransaction(getPath(), handler, fireLocalEvents, mode);
           }
         });
   }
@@ -0,0 +1,188 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.firebase.database.connection.PersistentConnectionImpl;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.Repo;
+import com.google.firebase.database.core.persistence.DefaultPersistenceManager;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of performance statistics of a {@link FirebaseDatabase} instance, as returned by
+ * {@link FirebaseDatabase#getStats()}. Times are measured from when the instance first accessed
+ * the database, and are -1 until the milestone they describe has been reached.
+ */
+public class DatabaseStats {
+  private final Repo.StartupStats startupStats;
+  @Nullable private final PersistentConnectionImpl.WriteCoalescingStats writeCoalescingStats;
+  private final Map<Path, Repo.TransactionStats> transactionStats;
+  @Nullable private final DefaultPersistenceManager.CacheStats cacheStats;
+
+  DatabaseStats(
+      Repo.StartupStats startupStats,
+      @Nullable PersistentConnectionImpl.WriteCoalescingStats writeCoalescingStats,
+      Map<Path, Repo.TransactionStats> transactionStats,
+      @Nullable DefaultPersistenceManager.CacheStats cacheStats) {
+    this.startupStats = startupStats;
+    this.writeCoalescingStats = writeCoalescingStats;
+    this.transactionStats = transactionStats;
+    this.cacheStats = cacheStats;
+  }
+
+  /**
+   * Returns the time it took to initialize the database, including restoring persisted writes.
+   */
+  public long getInitializationTimeMillis() {
+    return startupStats.getInitializationTimeMs();
+  }
+
+  /** Returns the time until the first connection to the server was established. */
+  public long getTimeToConnectMillis() {
+    return startupStats.getTimeToConnectMs();
+  }
+
+  /** Returns the time until the first event was raised for a listener. */
+  public long getTimeToFirstEventMillis() {
+    return startupStats.getTimeToFirstEventMs();
+  }
+
+  /** Returns whether the first event was raised from cached data before connecting. */
+  public boolean isFirstEventFromCache() {
+    return startupStats.isFirstEventFromCache();
+  }
+
+  /**
+   * Returns the number of multi-path updates that were sent in place of individual writes. See
+   * {@link FirebaseDatabase#setWriteCoalescingWindowMillis(long)}.
+   */
+  public long getCoalescedBatchCount() {
+    return writeCoalescingStats != null ? writeCoalescingStats.getBatchesSent() : 0;
+  }
+
+  /** Returns the number of writes that were sent as part of a multi-path update. */
+  public long getCoalescedWriteCount() {
+    return writeCoalescingStats != null ? writeCoalescingStats.getWritesCoalesced() : 0;
+  }
+
+  /** Returns the mean time that coalesced writes were held back before being sent. */
+  public long getAverageCoalescingDelayMillis() {
+    return writeCoalescingStats != null ? writeCoalescingStats.getAverageQueueDelayMs() : -1;
+  }
+
+  /**
+   * Returns the mean time between making a coalesced write and the server acknowledging it.
+   */
+  public long getAverageCoalescedWriteLatencyMillis() {
+    return writeCoalescingStats != null ? writeCoalescingStats.getAverageAckLatencyMs() : -1;
+  }
+
+  /**
+   * Returns the number of transaction requests sent to the server, each of which may carry several
+   * transactions. Transaction counts cover the 100 most recently used locations.
+   */
+  public long getTransactionRequestCount() {
+    long count = 0;
+    for (Repo.TransactionStats stats : transactionStats.values()) {
+      count += stats.getRequestsSent();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of transaction requests that were sent as increments. See {@link
+   * Transaction.Mode#DELTA}.
+   */
+  public long getDeltaTransactionRequestCount() {
+    long count = 0;
+    for (Repo.TransactionStats stats : transactionStats.values()) {
+      count += stats.getDeltasSent();
+    }
+    return count;
+  }
+
+  /** Returns the number of transaction requests the server rejected because the data changed. */
+  public long getStaleTransactionRejectionCount() {
+    long count = 0;
+    for (Repo.TransactionStats stats : transactionStats.values()) {
+      count += stats.getStaleRejections();
+    }
+    return count;
+  }
+
+  /** Returns the number of times a transaction handler was run again on changed data. */
+  public long getTransactionRerunCount() {
+    long count = 0;
+    for (Repo.TransactionStats stats : transactionStats.values()) {
+      count += stats.getReruns();
+    }
+    return count;
+  }
+
+  /** Returns the number of transactions that were aborted after too many retries. */
+  public long getTransactionMaxRetriesAbortCount() {
+    long count = 0;
+    for (Repo.TransactionStats stats : transactionStats.values()) {
+      count += stats.getMaxRetriesAborts();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of stale transaction rejections of each location that transactions were
+   * sent from, which shows the locations that are contended by other clients.
+   */
+  @NonNull
+  public Map<String, Long> getStaleTransactionRejectionsByPath() {
+    Map<String, Long> rejections = new HashMap<String, Long>();
+    for (Map.Entry<Path, Repo.TransactionStats> entry : transactionStats.entrySet()) {
+      rejections.put(entry.getKey().toString(), entry.getValue().getStaleRejections());
+    }
+    return Collections.unmodifiableMap(rejections);
+  }
+
+  /**
+   * Returns the estimated size of the offline persistence cache, or -1 if persistence is disabled
+   * or the cache hasn't been measured yet. See {@link
+   * FirebaseDatabase#setPersistenceCacheSizeBytes(long)}.
+   */
+  public long getEstimatedCacheSizeBytes() {
+    return cacheStats != null ? cacheStats.getEstimatedSizeBytes() : -1;
+  }
+
+  /** Returns the number of times queries were evicted from the offline persistence cache. */
+  public long getCachePruneCount() {
+    return cacheStats != null ? cacheStats.getPruneIncrements() : 0;
+  }
+
+  /** Returns the number of queries that were evicted from the offline persistence cache. */
+  public long getEvictedQueryCount() {
+    return cacheStats != null ? cacheStats.getQueriesEvicted() : 0;
+  }
+
+  /** Returns the estimated size of the data that was evicted from the offline persistence cache. */
+  public long getEvictedCacheBytes() {
+    return cacheStats != null ? cacheStats.getBytesEvicted() : 0;
+  }
+
+  /** Returns the total time spent evicting queries from the offline persistence cache. */
+  public long getTotalCachePruneTimeMillis() {
+    return cacheStats != null ? cacheStats.getTotalPruneTimeMs() : 0;
+  }
+}
@@ -30,6 +30,7 @@ import com.google.firebase.database.core.utilities.ParsedUrl;
 import com.google.firebase.database.core.utilities.Utilities;
 import com.google.firebase.database.core.utilities.Validation;
 import com.google.firebase.emulators.EmulatedServiceSettings;
+import java.util.concurrent.Executor;
 
 /**
  * The entry point for accessing a Firebase Database. You can get an instance by calling {@link
@@ -38,6 +39,22 @@ import com.google.firebase.emulators.EmulatedServiceSettings;
  */
 public class FirebaseDatabase {
 
+  /** Controls when changes to the disk cache are written. See {@link #setPersistenceWriteMode}. */
+  public enum PersistenceWriteMode {
+    /** Changes are written before the operation that made them completes. */
+    SYNCHRONOUS,
+    /**
+     * Cached server data is written on a background thread. Your own writes are still stored before
+     * the call that made them returns, so they are not lost if the app is killed.
+     */
+    WRITE_BEHIND,
+    /**
+     * All changes, including your own writes, are written on a background thread. Writes made
+     * shortly before the app is killed may be lost and not sent to the server.
+     */
+    WRITE_BEHIND_NON_DURABLE
+  }
+
   private static final String SDK_VERSION = BuildConfig.VERSION_NAME;
 
   private final FirebaseApp app;
@@ -304,6 +321,60 @@ public class FirebaseDatabase {
     this.config.setPersistenceCacheSizeBytes(cacheSizeInBytes);
   }
 
+  /**
+   * By default every write is sent to the server as soon as it is made. Apps that make many small
+   * writes in quick succession, for example to log events, can instead let Firebase Database
+   * coalesce them: a write that follows another one within the given window is held back until the
+   * window has passed, and all writes to unrelated locations that are held back together are sent
+   * as a single multi-path update. This method must be called before creating your first Database
+   * reference.
+   *
+   * <p>Writes are still applied in the order they were made and each completion listener is still
+   * called. If the server rejects a multi-path update, for example because of security rules, its
+   * writes are resent one by one so that only the rejected writes fail. Transactions are never
+   * coalesced.
+   *
+   * @param windowMillis The coalescing window in milliseconds, between 0 (the default, which
+   *     disables coalescing) and 1000.
+   */
+  public synchronized void setWriteCoalescingWindowMillis(long windowMillis) {
+    assertUnfrozen("setWriteCoalescingWindowMillis");
+    this.config.setWriteCoalescingWindowMs(windowMillis);
+  }
+
+  /**
+   * By default, changes to the disk cache are written on the thread that processes database events,
+   * so a large server update delays listeners until it has been stored. In the write-behind modes,
+   * they are instead written on a background thread in batches, and data that has not been written
+   * yet is read from memory. This method must be called before creating your first Database
+   * reference and only has an effect when persistence is enabled.
+   *
+   * @param mode The mode to use for writing to the disk cache. The default is {@link
+   *     PersistenceWriteMode#SYNCHRONOUS}.
+   */
+  public synchronized void setPersistenceWriteMode(@NonNull PersistenceWriteMode mode) {
+    assertUnfrozen("setPersistenceWriteMode");
+    this.config.setPersistenceWriteMode(mode);
+  }
+
+  /**
+   * By default, all listener callbacks are run one after the other on the main thread. Apps with
+   * many listeners can instead run them on an executor, for example a thread pool, so that the
+   * listeners for a location that changes often are called in parallel. This method must be called
+   * before creating your first Database reference.
+   *
+   * <p>The callbacks of each listener are still run one at a time and in order, but the callbacks
+   * of different listeners, and of the same listener added to different queries, may run in
+   * parallel and in any order relative to each other. Completion listeners are run in order with
+   * each other, but not with other listeners.
+   *
+   * @param executor The executor to run listener callbacks on.
+   */
+  public synchronized void setCallbackExecutor(@NonNull Executor executor) {
+    assertUnfrozen("setCallbackExecutor");
+    this.config.setCallbackExecutor(executor);
+  }
+
   /**
    * Modifies this FirebaseDatabase instance to communicate with the Realtime Database emulator.
    *
@@ -321,6 +392,22 @@ public class FirebaseDatabase {
     this.emulatorSettings = new EmulatedServiceSettings(host, port);
   }
 
+  /**
+   * Returns a snapshot of performance statistics of this instance, for example how long it took
+   * until the first listener was called at startup, or how many writes were coalesced.
+   *
+   * @return The current statistics of this instance.
+   */
+  @NonNull
+  public DatabaseStats getStats() {
+    ensureRepo();
+    return new DatabaseStats(
+        repo.getStartupStats(),
+        repo.getWriteCoalescingStats(),
+        repo.getTransactionStats(),
+        repo.getCacheStats());
+  }
+
   /** @return The semver version for this build of the Firebase Database client */
   @NonNull
   public static String getSdkVersion() {
@@ -231,8 +231,7 @@ public class MutableData {
    */
   @Nullable
   public <T> T getValue(@NonNull Class<T> valueType) {
-    Object value = getNode().getValue();
-    return CustomClassMapper.convertToCustomClass(value, valueType);
+    return CustomClassMapper.convertNodeToCustomClass(getNode(), valueType);
   }
 
   /**
@@ -31,6 +31,28 @@ import com.google.firebase.database.snapshot.Node;
  */
 public class Transaction {
 
+  /**
+   * Controls how the result of a transaction is sent to the server. See {@link
+   * DatabaseReference#runTransaction(Handler, boolean, Mode)}.
+   */
+  public enum Mode {
+    /**
+     * The new data is sent together with a hash of the data the handler was run on, and is only
+     * stored if the data hasn't changed on the server in the meantime. Otherwise the handler is run
+     * again on the new data.
+     */
+    COMPARE_AND_SET,
+    /**
+     * If the handler only changed numbers, the difference to the data it was run on is sent as an
+     * atomic increment (see {@link ServerValue#increment(long)}), which the server applies even if
+     * the data has changed in the meantime. The handler is then not run again if other clients
+     * change the data concurrently, so only use this mode if the changes made by the handler are
+     * correct regardless of the current value, such as counting likes. Transactions that change
+     * anything other than numbers are sent as in {@link #COMPARE_AND_SET}.
+     */
+    DELTA
+  }
+
   /**
    * Instances of this class represent the desired outcome of a single run of a {@link Handler}'s
    * doTransaction method. The options are:
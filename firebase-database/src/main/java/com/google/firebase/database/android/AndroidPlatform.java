@@ -34,6 +34,8 @@ import com.google.firebase.database.core.persistence.CachePolicy;
 import com.google.firebase.database.core.persistence.DefaultPersistenceManager;
 import com.google.firebase.database.core.persistence.LRUCachePolicy;
 import com.google.firebase.database.core.persistence.PersistenceManager;
+import com.google.firebase.database.core.persistence.PersistenceStorageEngine;
+import com.google.firebase.database.core.persistence.WriteBehindPersistenceStorageEngine;
 import com.google.firebase.database.core.utilities.DefaultRunLoop;
 import com.google.firebase.database.logging.AndroidLogger;
 import com.google.firebase.database.logging.LogWrapper;
@@ -42,6 +44,13 @@ import java.io.File;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class AndroidPlatform implements Platform {
 
@@ -164,10 +173,62 @@ public class AndroidPlatform implements Platform {
           "SessionPersistenceKey '" + sessionId + "' has already been used.");
     }
     createdPersistenceCaches.add(cacheId);
-    SqlPersistenceStorageEngine engine =
+    PersistenceStorageEngine engine =
         new SqlPersistenceStorageEngine(this.applicationContext, firebaseContext, cacheId);
+    FirebaseDatabase.PersistenceWriteMode writeMode = firebaseContext.getPersistenceWriteMode();
+    if (writeMode != FirebaseDatabase.PersistenceWriteMode.SYNCHRONOUS) {
+      engine =
+          new WriteBehindPersistenceStorageEngine(
+              engine,
+              newPersistenceExecutor(),
+              firebaseContext.getLogger("Persistence"),
+              writeMode == FirebaseDatabase.PersistenceWriteMode.WRITE_BEHIND);
+    }
     CachePolicy cachePolicy = new LRUCachePolicy(firebaseContext.getPersistenceCacheSizeBytes());
-    return new DefaultPersistenceManager(firebaseContext, engine, cachePolicy);
+    DefaultPersistenceManager manager =
+        new DefaultPersistenceManager(firebaseContext, engine, cachePolicy);
+    manager.warmUp(newWarmUpExecutor());
+    return manager;
+  }
+
+  private static Executor newWarmUpExecutor() {
+    // A single thread is enough, since all reads share one database connection. It stops once the
+    // warm-up is done.
+    // TODO(b/258277572): Migrate to go/firebase-android-executors
+    @SuppressLint("ThreadPoolCreation")
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            1,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FirebaseDatabaseWarmUp");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static ScheduledExecutorService newPersistenceExecutor() {
+    // TODO(b/258277572): Migrate to go/firebase-android-executors
+    @SuppressLint("ThreadPoolCreation")
+    ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FirebaseDatabasePersistence");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+    return executor;
   }
 
   @Override
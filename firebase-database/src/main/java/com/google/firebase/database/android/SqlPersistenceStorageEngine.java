@@ -23,6 +23,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabaseLockedException;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import androidx.annotation.Nullable;
 import com.google.firebase.database.DatabaseException;
 import com.google.firebase.database.core.CompoundWrite;
 import com.google.firebase.database.core.Path;
@@ -35,6 +36,7 @@ import com.google.firebase.database.core.utilities.NodeSizeEstimator;
 import com.google.firebase.database.core.utilities.Pair;
 import com.google.firebase.database.core.view.QuerySpec;
 import com.google.firebase.database.logging.LogWrapper;
+import com.google.firebase.database.snapshot.BinaryNodeEncoding;
 import com.google.firebase.database.snapshot.ChildKey;
 import com.google.firebase.database.snapshot.ChildrenNode;
 import com.google.firebase.database.snapshot.EmptyNode;
@@ -42,6 +44,7 @@ import com.google.firebase.database.snapshot.NamedNode;
 import com.google.firebase.database.snapshot.Node;
 import com.google.firebase.database.snapshot.NodeUtilities;
 import com.google.firebase.database.util.JsonMapper;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
@@ -78,10 +81,10 @@ import java.util.Set;
  * and whether it's currently active). These tracked queries are used to determine what serverCache
  * data exists, whether it's complete, and what serverCache data can be pruned.
  *
- * <p>- trackedKeys: Keys in tracked queries. For each query in trackedQueries that is filtered
+ * <p>- trackedKeySets: Keys in tracked queries. For each query in trackedQueries that is filtered
  * (i.e. not a loadsAllData() query), we'll track which keys are in the query. This allows us to
  * re-load only the keys of interest when restoring the query, as well as prune data for keys that
- * aren't tracked by any query.
+ * aren't tracked by any query. All keys of a query are stored in a single row.
  *
  * <p>As mentioned earlier, for "fast writes", serverCache may end up with overlapping rows. As an
  * example, you might have the following rows: /foo/: {"bar": 1, "baz": 2, "qux": 3} /foo/bar/: 4
@@ -94,15 +97,19 @@ import java.util.Set;
  * <p>To ensure prefix queries work on paths, each path must start and end with a '/'.
  *
  * <p>Schema: - writes table + id: unique id across restarts + path: path for this write as string +
- * node: serialized node/merge-map as JSON (utf-8) bytes + part: The part number for
- * multi-part/split writes starting with 0, NULL if not split + type: 'o' for overwrite and 'm' for
- * merge - serverCache + path: path for this node as string + value: serialized node as JSON (utf-8)
- * bytes - trackedQueries + id: unique id across restarts + path: Path of query. + query: A
- * serialization of the query parameters. + lastUse: When this query was last used (e.g. there was
- * an active listener). + complete: Whether serverCache contains complete data for the query. +
- * active: Whether we have an active listener for the query. - trackedKeys + id: id of the
- * trackedQuery for which this is a tracked key. + key: The tracked key belonging to the
- * trackedQuery identified by id.
+ * node: serialized node/merge-map + part: The part number for multi-part/split writes starting with
+ * 0, NULL if not split + type: 'o' for overwrite and 'm' for merge - serverCache + path: path for
+ * this node as string + value: serialized node - trackedQueries + id: unique id across restarts +
+ * path: Path of query. + query: A serialization of the query parameters. + lastUse: When this query
+ * was last used (e.g. there was an active listener). + complete: Whether serverCache contains
+ * complete data for the query. + active: Whether we have an active listener for the query. -
+ * trackedKeySets + id: id of the trackedQuery the keys belong to. + keys: The tracked keys, each
+ * as a 2 byte length followed by the utf-8 bytes of the key.
+ *
+ * <p>Nodes and merges are serialized with {@link BinaryNodeEncoding}. Databases created before
+ * version 3 store them as JSON (utf-8) bytes instead. Both formats can be read, and JSON rows are
+ * replaced by binary ones as they are rewritten. Databases created before version 4 store one
+ * trackedKeys row per key, which are combined into trackedKeySets rows when upgrading.
  */
 public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   private static final String CREATE_SERVER_CACHE =
@@ -135,11 +142,14 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   private static final String TRACKED_QUERY_COMPLETE_COLUMN_NAME = "complete";
   private static final String TRACKED_QUERY_ACTIVE_COLUMN_NAME = "active";
 
-  private static final String CREATE_TRACKED_KEYS =
-      "CREATE TABLE trackedKeys (id INTEGER, key TEXT);";
-  private static final String TRACKED_KEYS_TABLE = "trackedKeys";
-  private static final String TRACKED_KEYS_ID_COLUMN_NAME = "id";
-  private static final String TRACKED_KEYS_KEY_COLUMN_NAME = "key";
+  private static final String CREATE_TRACKED_KEY_SETS =
+      "CREATE TABLE trackedKeySets (id INTEGER PRIMARY KEY, keys BLOB);";
+  private static final String TRACKED_KEY_SETS_TABLE = "trackedKeySets";
+  private static final String TRACKED_KEY_SETS_ID_COLUMN_NAME = "id";
+  private static final String TRACKED_KEY_SETS_KEYS_COLUMN_NAME = "keys";
+
+  // The table of tracked keys before version 4, with a row per key.
+  private static final String LEGACY_TRACKED_KEYS_TABLE = "trackedKeys";
 
   private static final String ROW_ID_COLUMN_NAME = "rowid";
 
@@ -149,6 +159,12 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   /** Serialized leaf nodes above this size will be split into multiple parts */
   private static final int ROW_SPLIT_SIZE = 256 * 1024;
 
+  /**
+   * The maximum number of children to load with a single path-scoped query. Each child takes two
+   * arguments, and SQLite limits the number of arguments per statement to 999.
+   */
+  private static final int MAX_SCOPED_LOAD_CHILDREN = 400;
+
   private static final String PART_KEY_FORMAT = ".part-%04d";
   private static final String FIRST_PART_KEY = ".part-0000";
   private static final String PART_KEY_PREFIX = ".part-";
@@ -156,7 +172,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
 
   private static class PersistentCacheOpenHelper extends SQLiteOpenHelper {
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 4;
 
     public PersistentCacheOpenHelper(Context context, String cacheId) {
       super(context, cacheId, null, DATABASE_VERSION);
@@ -167,7 +183,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
       db.execSQL(CREATE_SERVER_CACHE);
       db.execSQL(CREATE_WRITES);
       db.execSQL(CREATE_TRACKED_QUERIES);
-      db.execSQL(CREATE_TRACKED_KEYS);
+      db.execSQL(CREATE_TRACKED_KEY_SETS);
     }
 
     @Override
@@ -184,11 +200,45 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
         // Drop old completeness table.
         dropTable(db, "complete");
 
-        // Create tracked queries/keys.
-        db.execSQL(CREATE_TRACKED_KEYS);
+        // Create tracked queries.
         db.execSQL(CREATE_TRACKED_QUERIES);
-      } else {
-        throw new AssertionError("We don't handle upgrading to " + newVersion);
+      }
+      // Version 3 switched from JSON to BinaryNodeEncoding. Existing JSON rows stay readable and
+      // are migrated lazily as they are rewritten, so that upgrading doesn't block on re-encoding
+      // the whole cache.
+      if (oldVersion <= 3) {
+        db.execSQL(CREATE_TRACKED_KEY_SETS);
+        if (oldVersion >= 2) {
+          migrateTrackedKeys(db);
+        }
+        dropTable(db, LEGACY_TRACKED_KEYS_TABLE);
+      }
+    }
+
+    /** Combines the rows of the legacy trackedKeys table into one row per tracked query. */
+    private void migrateTrackedKeys(SQLiteDatabase db) {
+      Map<Long, Set<ChildKey>> keysByQuery = new HashMap<Long, Set<ChildKey>>();
+      String[] columns = new String[] {"id", "key"};
+      Cursor cursor = db.query(LEGACY_TRACKED_KEYS_TABLE, columns, null, null, null, null, null);
+      try {
+        while (cursor.moveToNext()) {
+          long id = cursor.getLong(0);
+          Set<ChildKey> keys = keysByQuery.get(id);
+          if (keys == null) {
+            keys = new HashSet<ChildKey>();
+            keysByQuery.put(id, keys);
+          }
+          keys.add(ChildKey.fromString(cursor.getString(1)));
+        }
+      } finally {
+        cursor.close();
+      }
+      for (Map.Entry<Long, Set<ChildKey>> entry : keysByQuery.entrySet()) {
+        db.insertWithOnConflict(
+            TRACKED_KEY_SETS_TABLE,
+            null,
+            trackedKeySetValues(entry.getKey(), entry.getValue()),
+            SQLiteDatabase.CONFLICT_REPLACE);
       }
     }
 
@@ -220,7 +270,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   public void saveUserOverwrite(Path path, Node node, long writeId) {
     verifyInsideTransaction();
     long start = System.currentTimeMillis();
-    byte[] serializedNode = serializeObject(node.getValue(true));
+    byte[] serializedNode = BinaryNodeEncoding.encode(node);
     saveWrite(path, writeId, WRITE_TYPE_OVERWRITE, serializedNode);
     long duration = System.currentTimeMillis() - start;
     if (logger.logsDebug()) {
@@ -232,7 +282,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   public void saveUserMerge(Path path, CompoundWrite children, long writeId) {
     verifyInsideTransaction();
     long start = System.currentTimeMillis();
-    byte[] serializedNode = serializeObject(children.getValue(true));
+    byte[] serializedNode = BinaryNodeEncoding.encode(children);
     saveWrite(path, writeId, WRITE_TYPE_MERGE, serializedNode);
     long duration = System.currentTimeMillis() - start;
     if (logger.logsDebug()) {
@@ -294,15 +344,12 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
           cursor.moveToPrevious();
           serialized = joinBytes(parts);
         }
-        String serializedString = new String(serialized, UTF8_CHARSET);
-        Object writeValue = JsonMapper.parseJsonValue(serializedString);
         UserWriteRecord record;
         if (WRITE_TYPE_OVERWRITE.equals(type)) {
-          Node set = NodeUtilities.NodeFromJSON(writeValue);
+          Node set = deserializeNode(serialized);
           record = new UserWriteRecord(writeId, path, set, /*visible=*/ true);
         } else if (WRITE_TYPE_MERGE.equals(type)) {
-          @SuppressWarnings("unchecked")
-          CompoundWrite merge = CompoundWrite.fromValue((Map<String, Object>) writeValue);
+          CompoundWrite merge = deserializeMerge(serialized);
           record = new UserWriteRecord(writeId, path, merge);
         } else {
           throw new IllegalStateException("Got invalid write type: " + type);
@@ -314,8 +361,6 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
         logger.debug(String.format(Locale.US, "Loaded %d writes in %dms", writes.size(), duration));
       }
       return writes;
-    } catch (IOException e) {
-      throw new RuntimeException("Failed to load writes", e);
     } finally {
       cursor.close();
     }
@@ -349,7 +394,21 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
 
   @Override
   public Node serverCache(Path path) {
-    return loadNested(path);
+    return loadNested(path, null);
+  }
+
+  @Override
+  public Node serverCache(Path path, Set<ChildKey> childKeys) {
+    Node node =
+        childKeys.size() <= MAX_SCOPED_LOAD_CHILDREN
+            ? loadNested(path, childKeys)
+            : loadNested(path, null);
+    // Rows at or above the path may contain other children as well.
+    Node filteredNode = EmptyNode.Empty();
+    for (ChildKey key : childKeys) {
+      filteredNode = filteredNode.updateImmediateChild(key, node.getImmediateChild(key));
+    }
+    return filteredNode;
   }
 
   @Override
@@ -459,8 +518,8 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     String queriesWhereClause = TRACKED_QUERY_ID_COLUMN_NAME + " = ?";
     database.delete(TRACKED_QUERY_TABLE, queriesWhereClause, new String[] {trackedQueryIdStr});
 
-    String keysWhereClause = TRACKED_KEYS_ID_COLUMN_NAME + " = ?";
-    database.delete(TRACKED_KEYS_TABLE, keysWhereClause, new String[] {trackedQueryIdStr});
+    String keysWhereClause = TRACKED_KEY_SETS_ID_COLUMN_NAME + " = ?";
+    database.delete(TRACKED_KEY_SETS_TABLE, keysWhereClause, new String[] {trackedQueryIdStr});
   }
 
   @Override
@@ -540,17 +599,11 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     verifyInsideTransaction();
     long start = System.currentTimeMillis();
 
-    String trackedQueryIdStr = String.valueOf(trackedQueryId);
-    String keysWhereClause = TRACKED_KEYS_ID_COLUMN_NAME + " = ?";
-    database.delete(TRACKED_KEYS_TABLE, keysWhereClause, new String[] {trackedQueryIdStr});
-
-    for (ChildKey addedKey : keys) {
-      ContentValues values = new ContentValues();
-      values.put(TRACKED_KEYS_ID_COLUMN_NAME, trackedQueryId);
-      values.put(TRACKED_KEYS_KEY_COLUMN_NAME, addedKey.asString());
-      database.insertWithOnConflict(
-          TRACKED_KEYS_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
-    }
+    database.insertWithOnConflict(
+        TRACKED_KEY_SETS_TABLE,
+        null,
+        trackedKeySetValues(trackedQueryId, keys),
+        SQLiteDatabase.CONFLICT_REPLACE);
 
     long duration = System.currentTimeMillis() - start;
     if (logger.logsDebug()) {
@@ -569,20 +622,14 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
       long trackedQueryId, Set<ChildKey> added, Set<ChildKey> removed) {
     verifyInsideTransaction();
     long start = System.currentTimeMillis();
-    String whereClause =
-        TRACKED_KEYS_ID_COLUMN_NAME + " = ? AND " + TRACKED_KEYS_KEY_COLUMN_NAME + " = ?";
-    String trackedQueryIdStr = String.valueOf(trackedQueryId);
-    for (ChildKey removedKey : removed) {
-      database.delete(
-          TRACKED_KEYS_TABLE, whereClause, new String[] {trackedQueryIdStr, removedKey.asString()});
-    }
-    for (ChildKey addedKey : added) {
-      ContentValues values = new ContentValues();
-      values.put(TRACKED_KEYS_ID_COLUMN_NAME, trackedQueryId);
-      values.put(TRACKED_KEYS_KEY_COLUMN_NAME, addedKey.asString());
-      database.insertWithOnConflict(
-          TRACKED_KEYS_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
-    }
+    Set<ChildKey> keys = loadTrackedQueryKeys(Collections.singleton(trackedQueryId));
+    keys.removeAll(removed);
+    keys.addAll(added);
+    database.insertWithOnConflict(
+        TRACKED_KEY_SETS_TABLE,
+        null,
+        trackedKeySetValues(trackedQueryId, keys),
+        SQLiteDatabase.CONFLICT_REPLACE);
     long duration = System.currentTimeMillis() - start;
     if (logger.logsDebug()) {
       logger.debug(
@@ -603,27 +650,17 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
 
   @Override
   public Set<ChildKey> loadTrackedQueryKeys(Set<Long> trackedQueryIds) {
-    String[] columns = new String[] {TRACKED_KEYS_KEY_COLUMN_NAME};
+    String[] columns = new String[] {TRACKED_KEY_SETS_KEYS_COLUMN_NAME};
     long start = System.currentTimeMillis();
     String whereClause =
-        TRACKED_KEYS_ID_COLUMN_NAME + " IN (" + commaSeparatedList(trackedQueryIds) + ")";
+        TRACKED_KEY_SETS_ID_COLUMN_NAME + " IN (" + commaSeparatedList(trackedQueryIds) + ")";
     Cursor cursor =
-        database.query(
-            /*distinct=*/ true,
-            TRACKED_KEYS_TABLE,
-            columns,
-            whereClause,
-            null,
-            null,
-            null,
-            null,
-            null);
+        database.query(TRACKED_KEY_SETS_TABLE, columns, whereClause, null, null, null, null);
 
     Set<ChildKey> keys = new HashSet<ChildKey>();
     try {
       while (cursor.moveToNext()) {
-        String key = cursor.getString(0);
-        keys.add(ChildKey.fromString(key));
+        decodeTrackedKeys(cursor.getBlob(0), keys);
       }
       long duration = System.currentTimeMillis() - start;
       if (logger.logsDebug()) {
@@ -641,6 +678,35 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     }
   }
 
+  private static ContentValues trackedKeySetValues(long trackedQueryId, Set<ChildKey> keys) {
+    ContentValues values = new ContentValues();
+    values.put(TRACKED_KEY_SETS_ID_COLUMN_NAME, trackedQueryId);
+    values.put(TRACKED_KEY_SETS_KEYS_COLUMN_NAME, encodeTrackedKeys(keys));
+    return values;
+  }
+
+  private static byte[] encodeTrackedKeys(Set<ChildKey> keys) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(keys.size() * 24);
+    for (ChildKey key : keys) {
+      // Keys are at most 768 bytes long, so their length always fits into 2 bytes.
+      byte[] bytes = key.asString().getBytes(UTF8_CHARSET);
+      out.write(bytes.length >>> 8);
+      out.write(bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static void decodeTrackedKeys(byte[] encoded, Set<ChildKey> keys) {
+    int pos = 0;
+    while (pos < encoded.length) {
+      int length = ((encoded[pos] & 0xff) << 8) | (encoded[pos + 1] & 0xff);
+      pos += 2;
+      keys.add(ChildKey.fromString(new String(encoded, pos, length, UTF8_CHARSET)));
+      pos += length;
+    }
+  }
+
   @Override
   public void pruneCache(Path root, PruneForest pruneForest) {
     if (!pruneForest.prunesAnything()) {
@@ -741,7 +807,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
                   nodesToResave,
                   absolutePath));
         }
-        final Node currentNode = loadNested(absolutePath);
+        final Node currentNode = loadNested(absolutePath, null);
         pruneForest.foldKeptNodes(
             null,
             new ImmutableTree.TreeVisitor<Void, Void>() {
@@ -789,7 +855,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     database.delete(SERVER_CACHE_TABLE, null, null);
     database.delete(WRITES_TABLE, null, null);
     database.delete(TRACKED_QUERY_TABLE, null, null);
-    database.delete(TRACKED_KEYS_TABLE, null, null);
+    database.delete(TRACKED_KEY_SETS_TABLE, null, null);
   }
 
   @Override
@@ -918,7 +984,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   }
 
   private void saveNode(Path path, Node node) {
-    byte[] serialized = serializeObject(node.getValue(true));
+    byte[] serialized = BinaryNodeEncoding.encode(node);
     if (serialized.length >= ROW_SPLIT_SIZE) {
       List<byte[]> parts = splitBytes(serialized, ROW_SPLIT_SIZE);
       if (logger.logsDebug()) {
@@ -945,14 +1011,17 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
    * of the node and combines them. It has no knowledge of whether the data is "complete" or not.
    *
    * @param path The path at which to load the node.
+   * @param childKeys If not null, only rows for these children of the node (and rows at or above
+   *     the path) are read. The loaded node may contain other children from those rows.
    * @return The node that was loaded.
    */
-  private Node loadNested(Path path) {
+  private Node loadNested(Path path, @Nullable Set<ChildKey> childKeys) {
     List<String> pathStrings = new ArrayList<String>();
     List<byte[]> payloads = new ArrayList<byte[]>();
 
     long queryStart = System.currentTimeMillis();
-    Cursor cursor = loadNestedQuery(path, new String[] {PATH_COLUMN_NAME, VALUE_COLUMN_NAME});
+    Cursor cursor =
+        loadNestedQuery(path, childKeys, new String[] {PATH_COLUMN_NAME, VALUE_COLUMN_NAME});
     long queryDuration = System.currentTimeMillis() - queryStart;
     long loadingStart = System.currentTimeMillis();
     try {
@@ -1049,14 +1118,37 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   }
 
   private Cursor loadNestedQuery(Path path, String[] columns) {
-    String pathPrefixStart = pathToKey(path);
-    String pathPrefixEnd = pathPrefixStartToPrefixEnd(pathPrefixStart);
+    return loadNestedQuery(path, null, columns);
+  }
 
-    String[] arguments = new String[path.size() + 3];
-    String whereClause = buildAncestorWhereClause(path, arguments);
-    whereClause += " OR (" + PATH_COLUMN_NAME + " > ? AND " + PATH_COLUMN_NAME + " < ?)";
-    arguments[path.size() + 1] = pathPrefixStart;
-    arguments[path.size() + 2] = pathPrefixEnd;
+  /**
+   * Queries the rows at or above the path and below it. If childKeys is given, only the rows below
+   * the path that belong to these children are returned.
+   */
+  private Cursor loadNestedQuery(Path path, @Nullable Set<ChildKey> childKeys, String[] columns) {
+    String[] arguments;
+    String whereClause;
+    if (childKeys == null) {
+      String pathPrefixStart = pathToKey(path);
+      String pathPrefixEnd = pathPrefixStartToPrefixEnd(pathPrefixStart);
+
+      arguments = new String[path.size() + 3];
+      whereClause = buildAncestorWhereClause(path, arguments);
+      whereClause += " OR (" + PATH_COLUMN_NAME + " > ? AND " + PATH_COLUMN_NAME + " < ?)";
+      arguments[path.size() + 1] = pathPrefixStart;
+      arguments[path.size() + 2] = pathPrefixEnd;
+    } else {
+      arguments = new String[path.size() + 1 + 2 * childKeys.size()];
+      StringBuilder where = new StringBuilder(buildAncestorWhereClause(path, arguments));
+      int argument = path.size() + 1;
+      for (ChildKey childKey : childKeys) {
+        String childPrefixStart = pathToKey(path.child(childKey));
+        where.append(" OR (" + PATH_COLUMN_NAME + " >= ? AND " + PATH_COLUMN_NAME + " < ?)");
+        arguments[argument++] = childPrefixStart;
+        arguments[argument++] = pathPrefixStartToPrefixEnd(childPrefixStart);
+      }
+      whereClause = where.toString();
+    }
     String orderBy = PATH_COLUMN_NAME;
     // TODO: We need to modify this to make sure that we limit based on trackedquerykeys
 
@@ -1126,15 +1218,11 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     return buffer;
   }
 
-  private byte[] serializeObject(Object object) {
-    try {
-      return JsonMapper.serializeJsonValue(object).getBytes(UTF8_CHARSET);
-    } catch (IOException e) {
-      throw new RuntimeException("Could not serialize leaf node", e);
-    }
-  }
-
   private Node deserializeNode(byte[] value) {
+    if (BinaryNodeEncoding.isBinaryEncoded(value)) {
+      return BinaryNodeEncoding.decodeNode(value);
+    }
+    // Written by an older version of the SDK.
     try {
       Object o = JsonMapper.parseJsonValue(new String(value, UTF8_CHARSET));
       return NodeUtilities.NodeFromJSON(o);
@@ -1144,6 +1232,21 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     }
   }
 
+  private CompoundWrite deserializeMerge(byte[] value) {
+    if (BinaryNodeEncoding.isBinaryEncoded(value)) {
+      return BinaryNodeEncoding.decodeMerge(value);
+    }
+    // Written by an older version of the SDK.
+    try {
+      @SuppressWarnings("unchecked")
+      Map<String, Object> merge =
+          (Map<String, Object>) JsonMapper.parseJsonValue(new String(value, UTF8_CHARSET));
+      return CompoundWrite.fromValue(merge);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to load writes", e);
+    }
+  }
+
   private String commaSeparatedList(Collection<Long> items) {
     StringBuilder list = new StringBuilder();
     boolean first = true;
@@ -27,6 +27,7 @@ public class ConnectionContext {
   private final String userAgent;
   private final String applicationId;
   private final String sslCacheDirectory;
+  private final long writeCoalescingWindowMs;
 
   public ConnectionContext(
       Logger logger,
@@ -37,7 +38,8 @@ public class ConnectionContext {
       String clientSdkVersion,
       String userAgent,
       String applicationId,
-      String sslCacheDirectory) {
+      String sslCacheDirectory,
+      long writeCoalescingWindowMs) {
     this.logger = logger;
     this.authTokenProvider = authTokenProvider;
     this.appCheckTokenProvider = appCheckTokenProvider;
@@ -47,6 +49,7 @@ public class ConnectionContext {
     this.userAgent = userAgent;
     this.applicationId = applicationId;
     this.sslCacheDirectory = sslCacheDirectory;
+    this.writeCoalescingWindowMs = writeCoalescingWindowMs;
   }
 
   public Logger getLogger() {
@@ -84,4 +87,9 @@ public class ConnectionContext {
   public String getApplicationId() {
     return applicationId;
   }
+
+  /** Returns how long writes may be held back to coalesce them, or 0 to not coalesce writes. */
+  public long getWriteCoalescingWindowMs() {
+    return writeCoalescingWindowMs;
+  }
 }
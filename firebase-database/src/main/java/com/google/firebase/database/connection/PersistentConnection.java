@@ -77,6 +77,8 @@ public interface PersistentConnection {
 
   void merge(List<String> path, Map<String, Object> data, RequestResultCallback onComplete);
 
+  PersistentConnectionImpl.WriteCoalescingStats getWriteCoalescingStats();
+
   // Disconnects
 
   void onDisconnectPut(List<String> path, Object data, RequestResultCallback onComplete);
@@ -152,12 +152,14 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     private Map<String, Object> request;
     private RequestResultCallback onComplete;
     private boolean sent;
+    private final long createTimeMs;
 
     private OutstandingPut(
         String action, Map<String, Object> request, RequestResultCallback onComplete) {
       this.action = action;
       this.request = request;
       this.onComplete = onComplete;
+      this.createTimeMs = System.currentTimeMillis();
     }
 
     public String getAction() {
@@ -212,6 +214,48 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     }
   }
 
+  /** Counters for writes that were coalesced into multi-path merges. */
+  public static final class WriteCoalescingStats {
+    private final long batchesSent;
+    private final long writesCoalesced;
+    private final long averageQueueDelayMs;
+    private final long averageAckLatencyMs;
+
+    private WriteCoalescingStats(
+        long batchesSent,
+        long writesCoalesced,
+        long averageQueueDelayMs,
+        long averageAckLatencyMs) {
+      this.batchesSent = batchesSent;
+      this.writesCoalesced = writesCoalesced;
+      this.averageQueueDelayMs = averageQueueDelayMs;
+      this.averageAckLatencyMs = averageAckLatencyMs;
+    }
+
+    /** Returns the number of multi-path merges sent in place of individual writes. */
+    public long getBatchesSent() {
+      return batchesSent;
+    }
+
+    /** Returns the number of writes that were sent as part of a multi-path merge. */
+    public long getWritesCoalesced() {
+      return writesCoalesced;
+    }
+
+    /** Returns the mean time coalesced writes waited before being sent, or -1 if there are none. */
+    public long getAverageQueueDelayMs() {
+      return averageQueueDelayMs;
+    }
+
+    /**
+     * Returns the mean time between issuing a coalesced write and the server acknowledging it, or
+     * -1 if no coalesced write has been acknowledged yet.
+     */
+    public long getAverageAckLatencyMs() {
+      return averageAckLatencyMs;
+    }
+  }
+
   private enum ConnectionState {
     Disconnected,
     GettingToken,
@@ -282,6 +326,9 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
    */
   private static final long INVALID_TOKEN_THRESHOLD = 3;
 
+  /** The maximum number of writes sent as a single multi-path merge. */
+  private static final int MAX_COALESCED_WRITES = 100;
+
   private static final String SERVER_KILL_INTERRUPT_REASON = "server_kill";
   private static final String IDLE_INTERRUPT_REASON = "connection_idle";
   private static final String TOKEN_REFRESH_INTERRUPT_REASON = "token_refresh";
@@ -327,6 +374,19 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
   private long lastWriteTimestamp;
   private boolean hasOnDisconnects;
 
+  private final long writeCoalescingWindowMs;
+  private final WriteCoalescer writeCoalescer = new WriteCoalescer();
+  private ScheduledFuture<?> writeCoalescingTimer = null;
+  private long lastWriteSentTimeMs;
+  // The ids of the writes in the multi-path merge that awaits its response, if any. Later writes
+  // are held back until it is answered, so that its writes can be resent one by one if it fails.
+  private List<Long> coalescedWritesInFlight = null;
+  private long coalescedBatchesSent;
+  private long coalescedWritesSent;
+  private long totalCoalescingQueueDelayMs;
+  private long coalescedWritesAcked;
+  private long totalCoalescedAckLatencyMs;
+
   public PersistentConnectionImpl(
       ConnectionContext context, HostInfo info, final Delegate delegate) {
     this.delegate = delegate;
@@ -335,6 +395,7 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     this.authTokenProvider = context.getAuthTokenProvider();
     this.appCheckTokenProvider = context.getAppCheckTokenProvider();
     this.hostInfo = info;
+    this.writeCoalescingWindowMs = context.getWriteCoalescingWindowMs();
     this.listens = new HashMap<QuerySpec, OutstandingListen>();
     this.requestCBHash = new HashMap<Long, ConnectionRequestCallback>();
     this.outstandingPuts = new HashMap<Long, OutstandingPut>();
@@ -461,6 +522,7 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
 
   @Override
   public void purgeOutstandingWrites() {
+    cancelCoalescedWrites();
     for (OutstandingPut put : this.outstandingPuts.values()) {
       if (put.onComplete != null) {
         put.onComplete.onRequestResult("write_canceled", null);
@@ -514,6 +576,8 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     this.realtime = null;
     this.hasOnDisconnects = false;
     requestCBHash.clear();
+    // Writes that were waiting to be coalesced are still outstanding and get restored in order.
+    cancelCoalescedWrites();
     cancelSentTransactions();
     if (shouldReconnect()) {
       long timeSinceLastConnectSucceeded =
@@ -827,14 +891,20 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     this.authToken = authToken;
     this.appCheckToken = appCheckToken;
     this.connectionState = ConnectionState.Connecting;
-    realtime =
-        new Connection(
-            this.context, this.hostInfo, this.cachedHost, this, this.lastSessionId, appCheckToken);
+    realtime = createRealtimeConnection(appCheckToken);
     realtime.open();
   }
 
+  // Overridden by tests to talk to a fake server.
+  Connection createRealtimeConnection(String appCheckToken) {
+    return new Connection(
+        this.context, this.hostInfo, this.cachedHost, this, this.lastSessionId, appCheckToken);
+  }
+
   private void sendOnDisconnect(
       String action, List<String> path, Object data, final RequestResultCallback onComplete) {
+    // Make sure earlier writes reach the server first.
+    flushCoalescedWrites();
     Map<String, Object> request = new HashMap<String, Object>();
     request.put(REQUEST_PATH, ConnectionUtils.pathToString(path));
     request.put(REQUEST_DATA_PAYLOAD, data);
@@ -1223,13 +1293,31 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     long writeId = this.writeCounter++;
 
     outstandingPuts.put(writeId, new OutstandingPut(action, request, onComplete));
-    if (canSendWrites()) {
-      sendPut(writeId);
+    if (canSendWrites() && coalescedWritesInFlight == null) {
+      sendOrCoalescePut(writeId);
     }
     this.lastWriteTimestamp = System.currentTimeMillis();
     doIdleCheck();
   }
 
+  @SuppressWarnings("unchecked")
+  private void sendOrCoalescePut(long writeId) {
+    OutstandingPut put = outstandingPuts.get(writeId);
+    Map<String, Object> request = put.getRequest();
+    if (writeCoalescingWindowMs > 0 && !request.containsKey(REQUEST_DATA_HASH)) {
+      coalesceWrite(
+          writeId,
+          ConnectionUtils.stringToPath((String) request.get(REQUEST_PATH)),
+          request.get(REQUEST_DATA_PAYLOAD),
+          put.getAction().equals(REQUEST_ACTION_MERGE));
+    } else {
+      flushCoalescedWrites();
+      if (coalescedWritesInFlight == null) {
+        sendPut(writeId);
+      }
+    }
+  }
+
   private void sendPut(final long putId) {
     hardAssert(
         canSendWrites(),
@@ -1239,6 +1327,7 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     final String action = put.getAction();
 
     put.markSent();
+    lastWriteSentTimeMs = System.currentTimeMillis();
     sendAction(
         action,
         put.getRequest(),
@@ -1270,8 +1359,180 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
         });
   }
 
+  /**
+   * Sends a write right away if no write was sent within the coalescing window. Otherwise, holds it
+   * back until the window has passed so that it can be sent along with other writes that are issued
+   * in the meantime. A write that overlaps a pending write flushes the pending writes first.
+   */
+  private void coalesceWrite(long writeId, List<String> path, Object data, boolean isMerge) {
+    if (!writeCoalescer.canAdd(path, data, isMerge)) {
+      flushCoalescedWrites();
+      if (coalescedWritesInFlight != null) {
+        // Held back until the merge that was just sent is answered.
+        return;
+      }
+      if (!writeCoalescer.canAdd(path, data, isMerge)) {
+        sendPut(writeId);
+        return;
+      }
+    }
+
+    long now = System.currentTimeMillis();
+    long flushDelayMs = lastWriteSentTimeMs + writeCoalescingWindowMs - now;
+    writeCoalescer.add(writeId, path, data, isMerge);
+    if (flushDelayMs <= 0 || writeCoalescer.size() >= MAX_COALESCED_WRITES) {
+      flushCoalescedWrites();
+    } else if (writeCoalescingTimer == null) {
+      writeCoalescingTimer =
+          executorService.schedule(
+              new Runnable() {
+                @Override
+                public void run() {
+                  writeCoalescingTimer = null;
+                  flushCoalescedWrites();
+                }
+              },
+              flushDelayMs,
+              TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void flushCoalescedWrites() {
+    if (writeCoalescingTimer != null) {
+      writeCoalescingTimer.cancel(false);
+      writeCoalescingTimer = null;
+    }
+    if (writeCoalescer.isEmpty() || !canSendWrites()) {
+      return;
+    }
+    if (writeCoalescer.size() == 1) {
+      long writeId = writeCoalescer.getWriteIds().get(0);
+      writeCoalescer.clear();
+      sendPut(writeId);
+      return;
+    }
+
+    List<String> ancestor = writeCoalescer.getCommonAncestor();
+    Map<String, Object> data = writeCoalescer.getMergeData(ancestor);
+    List<Long> writeIds = new ArrayList<Long>(writeCoalescer.getWriteIds());
+    writeCoalescer.clear();
+    sendCoalescedPuts(writeIds, getPutObject(ancestor, data, /*hash=*/ null));
+  }
+
+  private void cancelCoalescedWrites() {
+    if (writeCoalescingTimer != null) {
+      writeCoalescingTimer.cancel(false);
+      writeCoalescingTimer = null;
+    }
+    writeCoalescer.clear();
+    coalescedWritesInFlight = null;
+  }
+
+  /**
+   * Sends several outstanding writes as one multi-path merge. If the merge succeeds, each write's
+   * callback is called. If it fails, the writes are resent individually, and later writes are held
+   * back until then so that they are still applied in order.
+   */
+  private void sendCoalescedPuts(final List<Long> writeIds, Map<String, Object> request) {
+    final List<OutstandingPut> puts = new ArrayList<OutstandingPut>(writeIds.size());
+    long now = System.currentTimeMillis();
+    long queueDelayMs = 0;
+    for (Long writeId : writeIds) {
+      OutstandingPut put = outstandingPuts.get(writeId);
+      put.markSent();
+      puts.add(put);
+      queueDelayMs += now - put.createTimeMs;
+    }
+    recordCoalescedBatch(writeIds.size(), queueDelayMs);
+    coalescedWritesInFlight = writeIds;
+    lastWriteSentTimeMs = now;
+    if (logger.logsDebug()) {
+      logger.debug("Coalesced " + writeIds.size() + " writes into a single merge");
+    }
+
+    sendAction(
+        REQUEST_ACTION_MERGE,
+        request,
+        new ConnectionRequestCallback() {
+          @Override
+          public void onResponse(Map<String, Object> response) {
+            if (logger.logsDebug()) logger.debug("coalesced merge response: " + response);
+
+            coalescedWritesInFlight = null;
+            String status = (String) response.get(REQUEST_STATUS);
+            boolean ok = status.equals("ok");
+            if (!ok && logger.logsDebug()) {
+              logger.debug("Coalesced merge failed with " + status + ", resending its writes");
+            }
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < writeIds.size(); i++) {
+              long putId = writeIds.get(i);
+              OutstandingPut put = puts.get(i);
+              if (outstandingPuts.get(putId) != put) {
+                if (logger.logsDebug())
+                  logger.debug(
+                      "Ignoring on complete for put " + putId + " because it was removed already.");
+              } else if (ok) {
+                outstandingPuts.remove(putId);
+                recordCoalescedAck(now - put.createTimeMs);
+                if (put.getOnComplete() != null) {
+                  put.getOnComplete().onRequestResult(null, null);
+                }
+              } else {
+                // The merge is applied atomically, so none of its writes were applied. Sending them
+                // one by one makes only the writes that the server rejects fail.
+                sendPut(putId);
+              }
+            }
+            sendHeldWrites();
+            doIdleCheck();
+          }
+        });
+  }
+
+  /** Sends the writes that were held back while a coalesced merge awaited its response. */
+  private void sendHeldWrites() {
+    List<Long> heldWriteIds = new ArrayList<Long>();
+    for (Map.Entry<Long, OutstandingPut> entry : outstandingPuts.entrySet()) {
+      if (!entry.getValue().wasSent()) {
+        heldWriteIds.add(entry.getKey());
+      }
+    }
+    Collections.sort(heldWriteIds);
+    for (Long writeId : heldWriteIds) {
+      if (coalescedWritesInFlight != null) {
+        // The remaining writes wait for the merge that was just sent.
+        return;
+      }
+      sendOrCoalescePut(writeId);
+    }
+  }
+
+  private synchronized void recordCoalescedBatch(int writeCount, long queueDelayMs) {
+    coalescedBatchesSent++;
+    coalescedWritesSent += writeCount;
+    totalCoalescingQueueDelayMs += queueDelayMs;
+  }
+
+  private synchronized void recordCoalescedAck(long latencyMs) {
+    coalescedWritesAcked++;
+    totalCoalescedAckLatencyMs += latencyMs;
+  }
+
+  /** Returns counters for the writes this connection coalesced into multi-path merges. */
+  @Override
+  public synchronized WriteCoalescingStats getWriteCoalescingStats() {
+    return new WriteCoalescingStats(
+        coalescedBatchesSent,
+        coalescedWritesSent,
+        coalescedWritesSent == 0 ? -1 : totalCoalescingQueueDelayMs / coalescedWritesSent,
+        coalescedWritesAcked == 0 ? -1 : totalCoalescedAckLatencyMs / coalescedWritesAcked);
+  }
+
   private void sendGet(final Long readId) {
     hardAssert(canSendReads(), "sendGet called when we can't send gets");
+    // Make sure the server sees earlier writes before serving the read.
+    flushCoalescedWrites();
     OutstandingGet get = outstandingGets.get(readId);
     if (!get.markSent()) {
       if (logger.logsDebug()) {
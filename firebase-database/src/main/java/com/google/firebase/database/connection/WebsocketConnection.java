@@ -250,10 +250,10 @@ class WebsocketConnection {
     frameReader.addString(message);
     totalFrames -= 1;
     if (totalFrames == 0) {
-      // Decode JSON
+      // Decode JSON straight from the frames, without joining them into one String first.
       try {
         frameReader.freeze();
-        Map<String, Object> decoded = JsonMapper.parseJson(frameReader.toString());
+        Map<String, Object> decoded = JsonMapper.parseJson(frameReader);
         frameReader = null;
         if (logger.logsDebug()) logger.debug("handleIncomingFrame complete frame: " + decoded);
         delegate.onMessage(decoded);
@@ -0,0 +1,141 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects consecutive writes to disjoint paths so that they can be sent as a single multi-path
+ * merge.
+ *
+ * <p>A put at a path and a merge of a set of paths both overwrite the data at each of those paths,
+ * so as long as no pending path is a prefix of another, the combined merge at their common ancestor
+ * has exactly the same effect as sending the writes one after the other.
+ */
+class WriteCoalescer {
+  private final List<Long> writeIds = new ArrayList<Long>();
+  private final List<List<String>> paths = new ArrayList<List<String>>();
+  private final List<Object> values = new ArrayList<Object>();
+
+  /**
+   * Returns whether the given write can be added to the pending writes without changing the result
+   * of applying them in order. Merges without any children are never coalesced.
+   */
+  boolean canAdd(List<String> path, Object data, boolean isMerge) {
+    List<List<String>> writePaths = writePaths(path, data, isMerge);
+    if (writePaths.isEmpty()) {
+      return false;
+    }
+    for (List<String> writePath : writePaths) {
+      for (List<String> pending : paths) {
+        if (isPrefix(writePath, pending) || isPrefix(pending, writePath)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Adds a write. {@link #canAdd} must have returned true for it. */
+  @SuppressWarnings("unchecked")
+  void add(long writeId, List<String> path, Object data, boolean isMerge) {
+    writeIds.add(writeId);
+    if (isMerge) {
+      for (Map.Entry<String, Object> child : ((Map<String, Object>) data).entrySet()) {
+        paths.add(childPath(path, child.getKey()));
+        values.add(child.getValue());
+      }
+    } else {
+      paths.add(path);
+      values.add(data);
+    }
+  }
+
+  boolean isEmpty() {
+    return writeIds.isEmpty();
+  }
+
+  /** Returns the number of pending writes. */
+  int size() {
+    return writeIds.size();
+  }
+
+  /** Returns the ids of the pending writes in the order they were added. */
+  List<Long> getWriteIds() {
+    return Collections.unmodifiableList(writeIds);
+  }
+
+  /** Returns the deepest path that is an ancestor of all pending write paths. */
+  List<String> getCommonAncestor() {
+    List<String> ancestor = paths.get(0);
+    for (List<String> path : paths) {
+      int length = 0;
+      while (length < ancestor.size()
+          && length < path.size()
+          && ancestor.get(length).equals(path.get(length))) {
+        length++;
+      }
+      ancestor = ancestor.subList(0, length);
+    }
+    if (paths.size() == 1 && !ancestor.isEmpty()) {
+      // The merge needs at least one child key relative to the ancestor.
+      ancestor = ancestor.subList(0, ancestor.size() - 1);
+    }
+    return new ArrayList<String>(ancestor);
+  }
+
+  /** Returns the merge data for all pending writes, relative to the given ancestor. */
+  Map<String, Object> getMergeData(List<String> ancestor) {
+    Map<String, Object> data = new HashMap<String, Object>();
+    for (int i = 0; i < paths.size(); i++) {
+      List<String> path = paths.get(i);
+      List<String> relativePath = path.subList(ancestor.size(), path.size());
+      data.put(ConnectionUtils.pathToString(relativePath), values.get(i));
+    }
+    return data;
+  }
+
+  void clear() {
+    writeIds.clear();
+    paths.clear();
+    values.clear();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<List<String>> writePaths(List<String> path, Object data, boolean isMerge) {
+    if (!isMerge) {
+      return Collections.singletonList(path);
+    }
+    List<List<String>> writePaths = new ArrayList<List<String>>();
+    for (String key : ((Map<String, Object>) data).keySet()) {
+      writePaths.add(childPath(path, key));
+    }
+    return writePaths;
+  }
+
+  private static List<String> childPath(List<String> path, String relativePath) {
+    List<String> childPath = new ArrayList<String>(path);
+    childPath.addAll(ConnectionUtils.stringToPath(relativePath));
+    return childPath;
+  }
+
+  private static boolean isPrefix(List<String> prefix, List<String> path) {
+    return prefix.size() <= path.size() && prefix.equals(path.subList(0, prefix.size()));
+  }
+}
@@ -30,6 +30,7 @@ import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.logging.Logger;
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 
 public class Context {
@@ -38,6 +39,7 @@ public class Context {
 
   protected Logger logger;
   protected EventTarget eventTarget;
+  protected Executor callbackExecutor;
   protected TokenProvider authTokenProvider;
   protected TokenProvider appCheckTokenProvider;
   protected RunLoop runLoop;
@@ -47,6 +49,9 @@ public class Context {
   protected Logger.Level logLevel = Logger.Level.INFO;
   protected boolean persistenceEnabled;
   protected long cacheSize = DEFAULT_CACHE_SIZE;
+  protected long writeCoalescingWindowMs = 0;
+  protected FirebaseDatabase.PersistenceWriteMode persistenceWriteMode =
+      FirebaseDatabase.PersistenceWriteMode.SYNCHRONOUS;
   protected FirebaseApp firebaseApp;
   private PersistenceManager forcedPersistenceManager;
   private boolean frozen = false;
@@ -149,7 +154,8 @@ public class Context {
         FirebaseDatabase.getSdkVersion(),
         this.getUserAgent(),
         firebaseApp.getOptions().getApplicationId(),
-        this.getSSLCacheDirectory().getAbsolutePath());
+        this.getSSLCacheDirectory().getAbsolutePath(),
+        this.getWriteCoalescingWindowMs());
   }
 
   PersistenceManager getPersistenceManager(String firebaseId) {
@@ -178,6 +184,14 @@ public class Context {
     return this.cacheSize;
   }
 
+  public long getWriteCoalescingWindowMs() {
+    return this.writeCoalescingWindowMs;
+  }
+
+  public FirebaseDatabase.PersistenceWriteMode getPersistenceWriteMode() {
+    return this.persistenceWriteMode;
+  }
+
   // For testing
   void forcePersistenceManager(PersistenceManager persistenceManager) {
     this.forcedPersistenceManager = persistenceManager;
@@ -240,7 +254,11 @@ public class Context {
 
   private void ensureEventTarget() {
     if (eventTarget == null) {
-      eventTarget = getPlatform().newEventTarget(this);
+      if (callbackExecutor != null) {
+        eventTarget = new ExecutorEventTarget(callbackExecutor, getLogger("EventTarget"));
+      } else {
+        eventTarget = getPlatform().newEventTarget(this);
+      }
     }
   }
 
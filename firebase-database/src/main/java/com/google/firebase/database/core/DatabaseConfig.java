@@ -16,8 +16,10 @@ package com.google.firebase.database.core;
 
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.Logger;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * TODO: Merge this class with Context and clean this up. Some methods may need to be re-added to
@@ -25,6 +27,8 @@ import java.util.List;
  */
 public class DatabaseConfig extends Context {
 
+  private static final long MAX_WRITE_COALESCING_WINDOW_MS = 1000;
+
   // TODO: Remove this from the public API since we currently can't pass logging
   // across AIDL interface.
   /**
@@ -54,6 +58,7 @@ public class DatabaseConfig extends Context {
   public synchronized void setEventTarget(EventTarget eventTarget) {
     assertUnfrozen();
     this.eventTarget = eventTarget;
+    this.callbackExecutor = null;
   }
 
   /**
@@ -173,6 +178,59 @@ public class DatabaseConfig extends Context {
     this.cacheSize = cacheSizeInBytes;
   }
 
+  /**
+   * Sets how long writes may be held back so that consecutive writes to unrelated locations are
+   * sent to the server as a single multi-path update. A value of 0 disables coalescing.
+   *
+   * @param windowMs The coalescing window in milliseconds, at most 1000.
+   */
+  public synchronized void setWriteCoalescingWindowMs(long windowMs) {
+    assertUnfrozen();
+
+    if (windowMs < 0 || windowMs > MAX_WRITE_COALESCING_WINDOW_MS) {
+      throw new DatabaseException(
+          "The write coalescing window must be between 0 and "
+              + MAX_WRITE_COALESCING_WINDOW_MS
+              + "ms");
+    }
+
+    this.writeCoalescingWindowMs = windowMs;
+  }
+
+  /**
+   * Sets when changes to the disk cache are written. See {@link
+   * FirebaseDatabase#setPersistenceWriteMode} for details.
+   *
+   * @param mode The persistence write mode.
+   */
+  public synchronized void setPersistenceWriteMode(FirebaseDatabase.PersistenceWriteMode mode) {
+    assertUnfrozen();
+
+    if (mode == null) {
+      throw new DatabaseException("The persistence write mode must not be null");
+    }
+
+    this.persistenceWriteMode = mode;
+  }
+
+  /**
+   * Runs callbacks on the given executor instead of the default event target. See {@link
+   * FirebaseDatabase#setCallbackExecutor} for details.
+   *
+   * @param executor The executor to run callbacks on.
+   */
+  public synchronized void setCallbackExecutor(Executor executor) {
+    assertUnfrozen();
+
+    if (executor == null) {
+      throw new DatabaseException("The callback executor must not be null");
+    }
+
+    // The event target is created once the config is frozen, so that it can log to the logger.
+    this.callbackExecutor = executor;
+    this.eventTarget = null;
+  }
+
   public synchronized void setFirebaseApp(FirebaseApp app) {
     this.firebaseApp = app;
   }
@@ -0,0 +1,132 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import com.google.firebase.database.logging.LogWrapper;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An event target that runs callbacks on an executor. Callbacks that are posted with the same
+ * ordering key are run one at a time and in the order they were posted, while callbacks with
+ * different keys may run in parallel.
+ *
+ * <p>Each ordering key has its own queue, which hands its next callback to the executor once the
+ * previous one has finished. This lets callbacks for many listeners fan out over a thread pool
+ * without a listener ever seeing its events out of order.
+ */
+public class ExecutorEventTarget implements EventTarget {
+
+  private final Executor executor;
+  private final LogWrapper logger;
+  private final Object defaultKey = new Object();
+  private final Map<Object, SerialQueue> queues = new HashMap<Object, SerialQueue>();
+
+  /** The callbacks posted for one ordering key. Queues are removed once they are drained. */
+  private class SerialQueue implements Runnable {
+    private final Object key;
+    private final Queue<Runnable> pending = new ArrayDeque<Runnable>();
+
+    SerialQueue(Object key) {
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      Runnable next;
+      synchronized (queues) {
+        next = pending.poll();
+      }
+      try {
+        next.run();
+      } finally {
+        synchronized (queues) {
+          if (pending.isEmpty()) {
+            queues.remove(key);
+          } else {
+            // Go back to the executor after every callback, so that a listener with many events
+            // doesn't starve the others.
+            try {
+              execute(this);
+            } catch (RejectedExecutionException e) {
+              // This runs on the executor's thread, where no caller would report the rejection.
+              // The next callback posted with this key starts a new queue.
+              logger.error("Callback executor rejected " + pending.size() + " callback(s)", e);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  public ExecutorEventTarget(Executor executor, LogWrapper logger) {
+    this.executor = executor;
+    this.logger = logger;
+  }
+
+  /**
+   * Hands a queue to the executor. If the executor rejects it, the queue and its pending callbacks
+   * are dropped, so that the next callback posted with its key starts a new queue.
+   */
+  private void execute(SerialQueue queue) {
+    try {
+      executor.execute(queue);
+    } catch (RejectedExecutionException e) {
+      queues.remove(queue.key);
+      throw e;
+    }
+  }
+
+  /** Posts a callback that is ordered with all other callbacks posted without a key. */
+  @Override
+  public void postEvent(Runnable r) {
+    postEvent(defaultKey, r);
+  }
+
+  /**
+   * Posts a callback that is run after all callbacks previously posted with an equal key.
+   *
+   * @param key The ordering key of the callback
+   * @param r The callback to be run
+   * @throws RejectedExecutionException If the executor rejected the callback
+   */
+  public void postEvent(Object key, Runnable r) {
+    synchronized (queues) {
+      SerialQueue queue = queues.get(key);
+      if (queue == null) {
+        queue = new SerialQueue(key);
+        queues.put(key, queue);
+        queue.pending.add(r);
+        execute(queue);
+      } else {
+        queue.pending.add(r);
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    // No-op, the executor is owned by the app.
+  }
+
+  @Override
+  public void restart() {
+    // No-op
+  }
+}
@@ -17,6 +17,7 @@ package com.google.firebase.database.core;
 import static com.google.firebase.database.core.utilities.Utilities.hardAssert;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.firebase.database.DataSnapshot;
@@ -33,7 +34,9 @@ import com.google.firebase.database.annotations.NotNull;
 import com.google.firebase.database.connection.HostInfo;
 import com.google.firebase.database.connection.ListenHashProvider;
 import com.google.firebase.database.connection.PersistentConnection;
+import com.google.firebase.database.connection.PersistentConnectionImpl;
 import com.google.firebase.database.connection.RequestResultCallback;
+import com.google.firebase.database.core.persistence.DefaultPersistenceManager;
 import com.google.firebase.database.core.persistence.NoopPersistenceManager;
 import com.google.firebase.database.core.persistence.PersistenceManager;
 import com.google.firebase.database.core.utilities.DefaultClock;
@@ -53,6 +56,7 @@ import com.google.firebase.database.snapshot.RangeMerge;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -79,9 +83,19 @@ public class Repo implements PersistentConnection.Delegate {
   private long nextWriteId = 1;
   private SyncTree infoSyncTree;
   private SyncTree serverSyncTree;
+  private PersistenceManager persistenceManager;
   private FirebaseDatabase database;
   private boolean loggedTransactionPersistenceWarning = false;
 
+  // When this repo was created, and how long after that startup milestones were reached, or -1
+  // until they are. Guarded by startupLock.
+  private final long creationTimeMs = System.currentTimeMillis();
+  private final Object startupLock = new Object();
+  private long initializationTimeMs = -1;
+  private long timeToConnectMs = -1;
+  private long timeToFirstEventMs = -1;
+  private boolean firstEventFromCache = false;
+
   Repo(RepoInfo repoInfo, Context ctx, FirebaseDatabase database) {
     this.repoInfo = repoInfo;
     this.ctx = ctx;
@@ -153,7 +167,7 @@ public class Repo implements PersistentConnection.Delegate {
     // This relies on the fact that all callbacks run on repo's runloop.
     connection.initialize();
 
-    PersistenceManager persistenceManager = ctx.getPersistenceManager(repoInfo.host);
+    persistenceManager = ctx.getPersistenceManager(repoInfo.host);
 
     infoData = new SnapshotHolder();
     onDisconnect = new SparseSnapshotTree();
@@ -229,6 +243,13 @@ public class Repo implements PersistentConnection.Delegate {
 
     updateInfo(Constants.DOT_INFO_AUTHENTICATED, false);
     updateInfo(Constants.DOT_INFO_CONNECTED, false);
+
+    synchronized (startupLock) {
+      initializationTimeMs = System.currentTimeMillis() - creationTimeMs;
+    }
+    if (operationLogger.logsDebug()) {
+      operationLogger.debug("Initialized in " + initializationTimeMs + "ms");
+    }
   }
 
   private void restoreWrites(PersistenceManager persistenceManager) {
@@ -316,10 +337,98 @@ public class Repo implements PersistentConnection.Delegate {
 
   private void postEvents(final List<? extends Event> events) {
     if (!events.isEmpty()) {
+      recordFirstEvent(events.get(0).getPath());
       this.eventRaiser.raiseEvents(events);
     }
   }
 
+  private void recordFirstEvent(Path path) {
+    if (!path.isEmpty() && path.getFront().equals(Constants.DOT_INFO)) {
+      return;
+    }
+    synchronized (startupLock) {
+      if (timeToFirstEventMs != -1) {
+        return;
+      }
+      timeToFirstEventMs = System.currentTimeMillis() - creationTimeMs;
+      firstEventFromCache = timeToConnectMs == -1;
+    }
+    if (operationLogger.logsDebug()) {
+      operationLogger.debug(
+          "First event raised after "
+              + timeToFirstEventMs
+              + "ms"
+              + (firstEventFromCache ? " from cache" : ""));
+    }
+  }
+
+  /** Timings of the startup of a repo, to help measure how quickly apps can show cached data. */
+  public static final class StartupStats {
+    private final long initializationTimeMs;
+    private final long timeToConnectMs;
+    private final long timeToFirstEventMs;
+    private final boolean firstEventFromCache;
+
+    private StartupStats(
+        long initializationTimeMs,
+        long timeToConnectMs,
+        long timeToFirstEventMs,
+        boolean firstEventFromCache) {
+      this.initializationTimeMs = initializationTimeMs;
+      this.timeToConnectMs = timeToConnectMs;
+      this.timeToFirstEventMs = timeToFirstEventMs;
+      this.firstEventFromCache = firstEventFromCache;
+    }
+
+    /**
+     * Returns the time it took to initialize the repo, including restoring persisted writes, or -1
+     * if it isn't initialized yet.
+     */
+    public long getInitializationTimeMs() {
+      return initializationTimeMs;
+    }
+
+    /** Returns the time until the first connection to the server was established, or -1. */
+    public long getTimeToConnectMs() {
+      return timeToConnectMs;
+    }
+
+    /** Returns the time until the first event was raised for a listener, or -1. */
+    public long getTimeToFirstEventMs() {
+      return timeToFirstEventMs;
+    }
+
+    /** Returns whether the first event was raised from cached data before the repo connected. */
+    public boolean isFirstEventFromCache() {
+      return firstEventFromCache;
+    }
+  }
+
+  /** Returns the startup timings of this repo, measured from when it was created. */
+  public StartupStats getStartupStats() {
+    synchronized (startupLock) {
+      return new StartupStats(
+          initializationTimeMs, timeToConnectMs, timeToFirstEventMs, firstEventFromCache);
+    }
+  }
+
+  /**
+   * Returns the counters of the writes that were coalesced into multi-path merges, or null if the
+   * connection has not been created yet.
+   */
+  @Nullable
+  public PersistentConnectionImpl.WriteCoalescingStats getWriteCoalescingStats() {
+    PersistentConnection connection = this.connection;
+    return connection != null ? connection.getWriteCoalescingStats() : null;
+  }
+
+  /** Returns the statistics of the persistence cache, or null if persistence is disabled. */
+  @Nullable
+  public DefaultPersistenceManager.CacheStats getCacheStats() {
+    PersistenceManager persistenceManager = this.persistenceManager;
+    return persistenceManager != null ? persistenceManager.getCacheStats() : null;
+  }
+
   public long getServerTime() {
     return serverClock.millis();
   }
@@ -719,6 +828,11 @@ public class Repo implements PersistentConnection.Delegate {
 
   @Override
   public void onConnect() {
+    synchronized (startupLock) {
+      if (timeToConnectMs == -1) {
+        timeToConnectMs = System.currentTimeMillis() - creationTimeMs;
+      }
+    }
     onServerInfoUpdate(Constants.DOT_INFO_CONNECTED, true);
   }
 
@@ -838,6 +952,103 @@ public class Repo implements PersistentConnection.Delegate {
   private static final String TRANSACTION_TOO_MANY_RETRIES = "maxretries";
   private static final String TRANSACTION_OVERRIDE_BY_SET = "overriddenBySet";
 
+  /** Counters for the transactions run at one location, to help find contended locations. */
+  public static final class TransactionStats {
+    private final long requestsSent;
+    private final long deltasSent;
+    private final long staleRejections;
+    private final long reruns;
+    private final long maxRetriesAborts;
+
+    private TransactionStats(
+        long requestsSent,
+        long deltasSent,
+        long staleRejections,
+        long reruns,
+        long maxRetriesAborts) {
+      this.requestsSent = requestsSent;
+      this.deltasSent = deltasSent;
+      this.staleRejections = staleRejections;
+      this.reruns = reruns;
+      this.maxRetriesAborts = maxRetriesAborts;
+    }
+
+    /** Returns the number of requests sent, each of which may carry several transactions. */
+    public long getRequestsSent() {
+      return requestsSent;
+    }
+
+    /** Returns the number of requests that were sent as increments instead of compare-and-set. */
+    public long getDeltasSent() {
+      return deltasSent;
+    }
+
+    /** Returns the number of requests the server rejected because the data had changed. */
+    public long getStaleRejections() {
+      return staleRejections;
+    }
+
+    /** Returns the number of times a transaction handler was run again on changed data. */
+    public long getReruns() {
+      return reruns;
+    }
+
+    /** Returns the number of transactions that were aborted after too many retries. */
+    public long getMaxRetriesAborts() {
+      return maxRetriesAborts;
+    }
+  }
+
+  private static class TransactionCounters {
+    private long requestsSent;
+    private long deltasSent;
+    private long staleRejections;
+    private long reruns;
+    private long maxRetriesAborts;
+  }
+
+  /** Only the most recently used locations are tracked, so their number stays bounded. */
+  private static final int MAX_TRANSACTION_STATS_LOCATIONS = 100;
+
+  private final Map<Path, TransactionCounters> transactionCounters =
+      new LinkedHashMap<Path, TransactionCounters>(16, 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, TransactionCounters> eldest) {
+          return size() > MAX_TRANSACTION_STATS_LOCATIONS;
+        }
+      };
+
+  private TransactionCounters countersFor(Path path) {
+    TransactionCounters counters = transactionCounters.get(path);
+    if (counters == null) {
+      counters = new TransactionCounters();
+      transactionCounters.put(path, counters);
+    }
+    return counters;
+  }
+
+  /**
+   * Returns the transaction counters of the most recently used locations that transactions were
+   * sent from. Queues of transactions are sent from the location of their outermost transaction.
+   */
+  public Map<Path, TransactionStats> getTransactionStats() {
+    synchronized (transactionCounters) {
+      Map<Path, TransactionStats> stats = new HashMap<Path, TransactionStats>();
+      for (Map.Entry<Path, TransactionCounters> entry : transactionCounters.entrySet()) {
+        TransactionCounters counters = entry.getValue();
+        stats.put(
+            entry.getKey(),
+            new TransactionStats(
+                counters.requestsSent,
+                counters.deltasSent,
+                counters.staleRejections,
+                counters.reruns,
+                counters.maxRetriesAborts));
+      }
+      return stats;
+    }
+  }
+
   private enum TransactionStatus {
     INITIALIZING,
     // We've run the transaction and updated transactionResultData_ with the result, but it isn't
@@ -867,6 +1078,7 @@ public class Repo implements PersistentConnection.Delegate {
     private TransactionStatus status;
     private long order;
     private boolean applyLocally;
+    private Transaction.Mode mode;
     private int retryCount;
     private DatabaseError abortReason;
     private long currentWriteId;
@@ -880,6 +1092,7 @@ public class Repo implements PersistentConnection.Delegate {
         ValueEventListener outstandingListener,
         TransactionStatus status,
         boolean applyLocally,
+        Transaction.Mode mode,
         long order) {
       this.path = path;
       this.handler = handler;
@@ -887,6 +1100,7 @@ public class Repo implements PersistentConnection.Delegate {
       this.status = status;
       this.retryCount = 0;
       this.applyLocally = applyLocally;
+      this.mode = mode;
       this.order = order;
       this.abortReason = null;
       this.currentInputSnapshot = null;
@@ -906,7 +1120,11 @@ public class Repo implements PersistentConnection.Delegate {
     }
   }
 
-  public void startTransaction(Path path, final Transaction.Handler handler, boolean applyLocally) {
+  public void startTransaction(
+      Path path,
+      final Transaction.Handler handler,
+      boolean applyLocally,
+      Transaction.Mode mode) {
     if (operationLogger.logsDebug()) {
       operationLogger.debug("transaction: " + path);
     }
@@ -949,6 +1167,7 @@ public class Repo implements PersistentConnection.Delegate {
             listener,
             TransactionStatus.INITIALIZING,
             applyLocally,
+            mode,
             nextTransactionOrder());
 
     // Run transaction initially.
@@ -1094,15 +1313,18 @@ public class Repo implements PersistentConnection.Delegate {
       snapToSend = snapToSend.updateChild(relativePath, txn.currentOutputSnapshotRaw);
     }
 
-    Object dataToSend = snapToSend.getValue(true);
+    final TransactionDelta delta = deltaOfTransactionQueue(queue, path);
+    synchronized (transactionCounters) {
+      TransactionCounters counters = countersFor(path);
+      counters.requestsSent++;
+      if (delta != null) {
+        counters.deltasSent++;
+      }
+    }
 
     final Repo repo = this;
 
-    // Send the put.
-    connection.compareAndPut(
-        path.asList(),
-        dataToSend,
-        latestHash,
+    RequestResultCallback onComplete =
         new RequestResultCallback() {
           @Override
           public void onRequestResult(String optErrorCode, String optErrorMessage) {
@@ -1117,10 +1339,14 @@ public class Repo implements PersistentConnection.Delegate {
                 events.addAll(
                     serverSyncTree.ackUserWrite(
                         txn.currentWriteId, /*revert=*/ false, /*persist=*/ false, serverClock));
-
+              }
+              for (final TransactionData txn : queue) {
                 // We never unset the output snapshot, and given that this
-                // transaction is complete, it should be set
-                Node node = txn.currentOutputSnapshotResolved;
+                // transaction is complete, it should be set. Increments are applied to whatever
+                // the server has, so their result is the server's data, which it sends to our
+                // outstanding listener before acknowledging the write.
+                Node node =
+                    delta == null ? txn.currentOutputSnapshotResolved : getLatestState(txn.path);
                 final DataSnapshot snap =
                     InternalHelpers.createDataSnapshot(
                         InternalHelpers.createReference(repo, txn.path), IndexedNode.from(node));
@@ -1155,6 +1381,9 @@ public class Repo implements PersistentConnection.Delegate {
             } else {
               // transactions are no longer sent. Update their status appropriately
               if (error.getCode() == DatabaseError.DATA_STALE) {
+                synchronized (transactionCounters) {
+                  countersFor(path).staleRejections++;
+                }
                 for (TransactionData transaction : queue) {
                   if (transaction.status == TransactionStatus.SENT_NEEDS_ABORT) {
                     transaction.status = TransactionStatus.NEEDS_ABORT;
@@ -1174,7 +1403,34 @@ public class Repo implements PersistentConnection.Delegate {
               rerunTransactions(path);
             }
           }
-        });
+        };
+
+    if (delta == null) {
+      connection.compareAndPut(path.asList(), snapToSend.getValue(true), latestHash, onComplete);
+    } else if (delta.getIncrementAtRoot() != null) {
+      connection.put(path.asList(), delta.getIncrementAtRoot(), onComplete);
+    } else {
+      connection.merge(path.asList(), delta.getUpdate(), onComplete);
+    }
+  }
+
+  /**
+   * Returns the changes of a queue of delta transactions as increments, or null if the queue has to
+   * be sent as a compare-and-set. Increments are applied by the server regardless of the current
+   * data, so contended counters don't need to be retried.
+   */
+  private TransactionDelta deltaOfTransactionQueue(List<TransactionData> queue, Path path) {
+    TransactionDelta delta = new TransactionDelta();
+    for (TransactionData txn : queue) {
+      if (txn.mode != Transaction.Mode.DELTA
+          || !delta.add(
+              Path.getRelative(path, txn.path),
+              txn.currentInputSnapshot,
+              txn.currentOutputSnapshotRaw)) {
+        return null;
+      }
+    }
+    return delta.isEmpty() ? null : delta;
   }
 
   private void pruneCompletedTransactions(Tree<List<TransactionData>> node) {
@@ -1254,6 +1510,9 @@ public class Repo implements PersistentConnection.Delegate {
         }
       } else if (transaction.status == TransactionStatus.RUN) {
         if (transaction.retryCount >= TRANSACTION_MAX_RETRIES) {
+          synchronized (transactionCounters) {
+            countersFor(path).maxRetriesAborts++;
+          }
           abortTransaction = true;
           abortReason = DatabaseError.fromStatus(TRANSACTION_TOO_MANY_RETRIES);
           events.addAll(
@@ -1261,6 +1520,9 @@ public class Repo implements PersistentConnection.Delegate {
                   transaction.currentWriteId, /*revert=*/ true, /*persist=*/ false, serverClock));
         } else {
           // This code reruns a transaction
+          synchronized (transactionCounters) {
+            countersFor(path).reruns++;
+          }
           Node currentNode = this.getLatestState(transaction.path, setsToIgnore);
           transaction.currentInputSnapshot = currentNode;
           MutableData mutableCurrent = InternalHelpers.createMutableData(currentNode);
@@ -0,0 +1,140 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.NamedNode;
+import com.google.firebase.database.snapshot.Node;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The combined changes of a queue of {@link com.google.firebase.database.Transaction.Mode#DELTA}
+ * transactions, expressed as server-side increments.
+ *
+ * <p>A transaction can only be sent as a delta if every value it changed is a number that was a
+ * number (or didn't exist) before. The deltas of all transactions in a queue are summed up per
+ * location, so that the whole queue is sent as a single update.
+ */
+class TransactionDelta {
+
+  private final Map<Path, Number> increments = new LinkedHashMap<Path, Number>();
+
+  /**
+   * Adds the change a transaction made to the data at a path.
+   *
+   * @return false if the change can't be expressed as increments, in which case this delta must
+   *     no longer be used
+   */
+  boolean add(Path path, Node before, Node after) {
+    if (before.equals(after)) {
+      return true;
+    }
+    if (!before.getPriority().equals(after.getPriority())) {
+      return false;
+    }
+    if (after.isLeafNode() || before.isLeafNode()) {
+      return addLeaf(path, before, after);
+    }
+    Set<ChildKey> children = new HashSet<ChildKey>();
+    for (NamedNode child : before) {
+      children.add(child.getName());
+    }
+    for (NamedNode child : after) {
+      children.add(child.getName());
+    }
+    for (ChildKey child : children) {
+      if (!add(
+          path.child(child), before.getImmediateChild(child), after.getImmediateChild(child))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean addLeaf(Path path, Node before, Node after) {
+    if (after.isEmpty() || !(after.getValue() instanceof Number)) {
+      return false;
+    }
+    Number from;
+    if (before.isEmpty()) {
+      from = 0L;
+    } else if (before.isLeafNode() && before.getValue() instanceof Number) {
+      from = (Number) before.getValue();
+    } else {
+      return false;
+    }
+    Number previous = increments.get(path);
+    if (previous == null) {
+      // Transactions at different locations may have seen the same location as a number and as a
+      // parent of numbers, and an update can't write to both.
+      for (Path other : increments.keySet()) {
+        if (other.contains(path) || path.contains(other)) {
+          return false;
+        }
+      }
+    }
+    Number delta = subtract((Number) after.getValue(), from);
+    increments.put(path, previous == null ? delta : add(previous, delta));
+    return true;
+  }
+
+  boolean isEmpty() {
+    return increments.isEmpty();
+  }
+
+  /**
+   * Returns the increment for the location the queue was run at, or null if the delta changes
+   * locations below it.
+   */
+  Object getIncrementAtRoot() {
+    Number delta = increments.get(Path.getEmptyPath());
+    return delta == null ? null : toServerValue(delta);
+  }
+
+  /** Returns the delta as the children of an update at the location the queue was run at. */
+  Map<String, Object> getUpdate() {
+    Map<String, Object> update = new LinkedHashMap<String, Object>();
+    for (Map.Entry<Path, Number> increment : increments.entrySet()) {
+      update.put(increment.getKey().wireFormat(), toServerValue(increment.getValue()));
+    }
+    return update;
+  }
+
+  private static Object toServerValue(Number delta) {
+    if (delta instanceof Long) {
+      return ServerValue.increment(delta.longValue());
+    } else {
+      return ServerValue.increment(delta.doubleValue());
+    }
+  }
+
+  private static Number subtract(Number a, Number b) {
+    if (a instanceof Long && b instanceof Long) {
+      return a.longValue() - b.longValue();
+    }
+    return a.doubleValue() - b.doubleValue();
+  }
+
+  private static Number add(Number a, Number b) {
+    if (a instanceof Long && b instanceof Long) {
+      return a.longValue() + b.longValue();
+    }
+    return a.doubleValue() + b.doubleValue();
+  }
+}
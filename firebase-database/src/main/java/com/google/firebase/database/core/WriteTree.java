@@ -16,6 +16,7 @@ package com.google.firebase.database.core;
 
 import static com.google.firebase.database.core.utilities.Utilities.hardAssert;
 
+import com.google.firebase.database.core.utilities.ImmutableTree;
 import com.google.firebase.database.core.utilities.Predicate;
 import com.google.firebase.database.core.view.CacheNode;
 import com.google.firebase.database.snapshot.ChildKey;
@@ -24,8 +25,10 @@ import com.google.firebase.database.snapshot.Index;
 import com.google.firebase.database.snapshot.NamedNode;
 import com.google.firebase.database.snapshot.Node;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Defines a single user-initiated write operation. May be the result of a set(), transaction(), or
@@ -41,11 +44,18 @@ public class WriteTree {
   private CompoundWrite visibleWrites;
 
   /**
-   * A list of all pending writes, regardless of visibility and shadowed-ness. Used to calculate
+   * All pending writes by write id, regardless of visibility and shadowed-ness. Used to calculate
    * arbitrary sets of the changed data, such as hidden writes (from transactions) or changes with
-   * certain writes excluded (also used by transactions).
+   * certain writes excluded (also used by transactions). Write ids only increase, so iterating
+   * this map visits the writes in the order they were made.
    */
-  private List<UserWriteRecord> allWrites;
+  private TreeMap<Long, UserWriteRecord> allWrites;
+
+  /**
+   * The ids of all pending writes by the path they were made at. Lets us find the writes that
+   * overlap with a path without looking at the writes to unrelated locations.
+   */
+  private ImmutableTree<List<Long>> writeIdsByPath;
 
   private Long lastWriteId;
 
@@ -56,7 +66,8 @@ public class WriteTree {
    */
   public WriteTree() {
     this.visibleWrites = CompoundWrite.emptyWrite();
-    this.allWrites = new ArrayList<UserWriteRecord>();
+    this.allWrites = new TreeMap<Long, UserWriteRecord>();
+    this.writeIdsByPath = ImmutableTree.emptyInstance();
     this.lastWriteId = -1L;
   }
 
@@ -70,7 +81,7 @@ public class WriteTree {
   /** Record a new overwrite from user code. */
   public void addOverwrite(Path path, Node snap, Long writeId, boolean visible) {
     hardAssert(writeId > this.lastWriteId); // Stacking an older write on top of newer ones
-    this.allWrites.add(new UserWriteRecord(writeId, path, snap, visible));
+    this.addRecord(new UserWriteRecord(writeId, path, snap, visible));
     if (visible) {
       this.visibleWrites = this.visibleWrites.addWrite(path, snap);
     }
@@ -80,25 +91,21 @@ public class WriteTree {
   /** Record a new merge from user code. */
   public void addMerge(Path path, CompoundWrite changedChildren, Long writeId) {
     hardAssert(writeId > this.lastWriteId); // Stacking an older write on top of newer ones
-    this.allWrites.add(new UserWriteRecord(writeId, path, changedChildren));
+    this.addRecord(new UserWriteRecord(writeId, path, changedChildren));
     this.visibleWrites = this.visibleWrites.addWrites(path, changedChildren);
     this.lastWriteId = writeId;
   }
 
   public UserWriteRecord getWrite(long writeId) {
-    for (UserWriteRecord record : this.allWrites) {
-      if (record.getWriteId() == writeId) {
-        return record;
-      }
-    }
-    return null;
+    return this.allWrites.get(writeId);
   }
 
   public List<UserWriteRecord> purgeAllWrites() {
-    List<UserWriteRecord> purgedWrites = new ArrayList<UserWriteRecord>(this.allWrites);
+    List<UserWriteRecord> purgedWrites = new ArrayList<UserWriteRecord>(this.allWrites.values());
     // Reset everything
     this.visibleWrites = CompoundWrite.emptyWrite();
-    this.allWrites = new ArrayList<UserWriteRecord>();
+    this.allWrites = new TreeMap<Long, UserWriteRecord>();
+    this.writeIdsByPath = ImmutableTree.emptyInstance();
     return purgedWrites;
   }
 
@@ -118,44 +125,54 @@ public class WriteTree {
     // fb.core.util.assert(validClear, "Either we don't have this write, or it's the first one in
     //      the queue");
 
-    // TODO: maybe use hashmap
-    UserWriteRecord writeToRemove = null;
-    int idx = 0;
-    for (UserWriteRecord record : this.allWrites) {
-      if (record.getWriteId() == writeId) {
-        writeToRemove = record;
-        break;
-      }
-      idx++;
-    }
+    UserWriteRecord writeToRemove = this.allWrites.get(writeId);
     hardAssert(writeToRemove != null, "removeWrite called with nonexistent writeId");
 
-    this.allWrites.remove(writeToRemove);
+    this.removeRecord(writeToRemove);
 
+    Path removedPath = writeToRemove.getPath();
     boolean removedWriteWasVisible = writeToRemove.isVisible();
     boolean removedWriteOverlapsWithOtherWrites = false;
-    int i = this.allWrites.size() - 1;
-
-    while (removedWriteWasVisible && i >= 0) {
-      UserWriteRecord currentWrite = this.allWrites.get(i);
-      if (currentWrite.isVisible()) {
-        if (i >= idx && this.recordContainsPath(currentWrite, writeToRemove.getPath())) {
-          // The removed write was completely shadowed by a subsequent write.
-          removedWriteWasVisible = false;
-        } else if (writeToRemove.getPath().contains(currentWrite.getPath())) {
-          // Either we're covering some writes or they're covering part of us (depending on which
-          // came first).
-          removedWriteOverlapsWithOtherWrites = true;
+    boolean removedWriteHasAncestorWrites = false;
+
+    // Only writes at the removed path, above it or below it can shadow or overlap with it.
+    if (removedWriteWasVisible) {
+      for (long otherId : this.writeIdsOnBranch(removedPath)) {
+        UserWriteRecord currentWrite = this.allWrites.get(otherId);
+        if (!currentWrite.getPath().equals(removedPath)
+            && currentWrite.getPath().contains(removedPath)) {
+          removedWriteHasAncestorWrites = true;
+        }
+        if (currentWrite.isVisible()) {
+          if (otherId > writeId && this.recordContainsPath(currentWrite, removedPath)) {
+            // The removed write was completely shadowed by a subsequent write.
+            removedWriteWasVisible = false;
+            break;
+          } else if (removedPath.contains(currentWrite.getPath())) {
+            // Either we're covering some writes or they're covering part of us (depending on which
+            // came first).
+            removedWriteOverlapsWithOtherWrites = true;
+          }
         }
       }
-      i--;
     }
 
     if (!removedWriteWasVisible) {
       return false;
     } else if (removedWriteOverlapsWithOtherWrites) {
-      // There's some shadowing going on. Just rebuild the visible writes from scratch.
-      this.resetTree();
+      if (removedWriteHasAncestorWrites) {
+        // Writes above us may have been merged with ours. Just rebuild the visible writes from
+        // scratch.
+        this.resetTree();
+      } else {
+        // All the writes that affect the removed path are at or below it, so only that subtree
+        // needs to be rebuilt.
+        CompoundWrite subtreeWrites =
+            WriteTree.layerTree(
+                this.writesOnBranch(removedPath), WriteTree.DEFAULT_FILTER, removedPath);
+        this.visibleWrites =
+            this.visibleWrites.removeWrite(removedPath).addWrites(removedPath, subtreeWrites);
+      }
       return true;
     } else {
       // There's no shadowing.  We can safely just remove the write(s) from visibleWrites.
@@ -240,7 +257,8 @@ public class WriteTree {
                 }
               };
           Node layeredCache;
-          CompoundWrite mergeAtPath = WriteTree.layerTree(this.allWrites, filter, treePath);
+          CompoundWrite mergeAtPath =
+              WriteTree.layerTree(this.writesOnBranch(treePath), filter, treePath);
           layeredCache = completeServerCache != null ? completeServerCache : EmptyNode.Empty();
           return mergeAtPath.apply(layeredCache);
         }
@@ -397,12 +415,61 @@ public class WriteTree {
     }
   }
 
+  private void addRecord(UserWriteRecord record) {
+    this.allWrites.put(record.getWriteId(), record);
+    List<Long> idsAtPath = this.writeIdsByPath.get(record.getPath());
+    if (idsAtPath == null) {
+      idsAtPath = new ArrayList<Long>();
+      this.writeIdsByPath = this.writeIdsByPath.set(record.getPath(), idsAtPath);
+    }
+    idsAtPath.add(record.getWriteId());
+  }
+
+  private void removeRecord(UserWriteRecord record) {
+    this.allWrites.remove(record.getWriteId());
+    List<Long> idsAtPath = this.writeIdsByPath.get(record.getPath());
+    idsAtPath.remove(Long.valueOf(record.getWriteId()));
+    if (idsAtPath.isEmpty()) {
+      this.writeIdsByPath = this.writeIdsByPath.remove(record.getPath());
+    }
+  }
+
+  /**
+   * Returns the ids of the writes at the given path, above it and below it, which are the only
+   * writes that can affect the data at that path, in the order they were made.
+   */
+  private List<Long> writeIdsOnBranch(Path path) {
+    List<Long> writeIds = new ArrayList<Long>();
+    ImmutableTree<List<Long>> tree = this.writeIdsByPath;
+    for (ChildKey key : path) {
+      if (tree.getValue() != null) {
+        writeIds.addAll(tree.getValue());
+      }
+      tree = tree.getChild(key);
+    }
+    for (List<Long> idsBelow : tree.values()) {
+      writeIds.addAll(idsBelow);
+    }
+    Collections.sort(writeIds);
+    return writeIds;
+  }
+
+  private List<UserWriteRecord> writesOnBranch(Path path) {
+    List<Long> writeIds = this.writeIdsOnBranch(path);
+    List<UserWriteRecord> writes = new ArrayList<UserWriteRecord>(writeIds.size());
+    for (long writeId : writeIds) {
+      writes.add(this.allWrites.get(writeId));
+    }
+    return writes;
+  }
+
   /** Re-layer the writes and merges into a tree so we can efficiently calculate event snapshots */
   private void resetTree() {
     this.visibleWrites =
-        WriteTree.layerTree(this.allWrites, WriteTree.DEFAULT_FILTER, Path.getEmptyPath());
+        WriteTree.layerTree(
+            this.allWrites.values(), WriteTree.DEFAULT_FILTER, Path.getEmptyPath());
     if (this.allWrites.size() > 0) {
-      this.lastWriteId = this.allWrites.get(this.allWrites.size() - 1).getWriteId();
+      this.lastWriteId = this.allWrites.lastKey();
     } else {
       this.lastWriteId = -1L;
     }
@@ -422,7 +489,7 @@ public class WriteTree {
    * construct a merge at that path.
    */
   private static CompoundWrite layerTree(
-      List<UserWriteRecord> writes, Predicate<UserWriteRecord> filter, Path treeRoot) {
+      Iterable<UserWriteRecord> writes, Predicate<UserWriteRecord> filter, Path treeRoot) {
     CompoundWrite compoundWrite = CompoundWrite.emptyWrite();
     for (UserWriteRecord write : writes) {
       // Theory, a later set will either:
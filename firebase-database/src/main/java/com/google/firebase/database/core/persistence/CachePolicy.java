@@ -23,6 +23,8 @@ public interface CachePolicy {
 
   public long getMaxNumberOfQueriesToKeep();
 
+  public long getMaxQueriesToPruneAtOnce();
+
   public static CachePolicy NONE =
       new CachePolicy() {
         @Override
@@ -44,5 +46,10 @@ public interface CachePolicy {
         public long getMaxNumberOfQueriesToKeep() {
           return Long.MAX_VALUE;
         }
+
+        @Override
+        public long getMaxQueriesToPruneAtOnce() {
+          return 0;
+        }
       };
 }
@@ -26,22 +26,89 @@ import com.google.firebase.database.core.view.CacheNode;
 import com.google.firebase.database.core.view.QuerySpec;
 import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.snapshot.ChildKey;
-import com.google.firebase.database.snapshot.EmptyNode;
 import com.google.firebase.database.snapshot.IndexedNode;
 import com.google.firebase.database.snapshot.Node;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 public class DefaultPersistenceManager implements PersistenceManager {
 
+  /** A snapshot of the size of the server cache and of what pruning has removed from it. */
+  public static final class CacheStats {
+    private final long estimatedSizeBytes;
+    private final long pruneIncrements;
+    private final long queriesEvicted;
+    private final long bytesEvicted;
+    private final long totalPruneTimeMs;
+
+    CacheStats(
+        long estimatedSizeBytes,
+        long pruneIncrements,
+        long queriesEvicted,
+        long bytesEvicted,
+        long totalPruneTimeMs) {
+      this.estimatedSizeBytes = estimatedSizeBytes;
+      this.pruneIncrements = pruneIncrements;
+      this.queriesEvicted = queriesEvicted;
+      this.bytesEvicted = bytesEvicted;
+      this.totalPruneTimeMs = totalPruneTimeMs;
+    }
+
+    /** The estimated size of the server cache, or -1 if it hasn't been measured yet. */
+    public long getEstimatedSizeBytes() {
+      return estimatedSizeBytes;
+    }
+
+    /** The number of times queries were pruned. */
+    public long getPruneIncrements() {
+      return pruneIncrements;
+    }
+
+    public long getQueriesEvicted() {
+      return queriesEvicted;
+    }
+
+    /** The estimated size of the data that was cached for the evicted queries. */
+    public long getBytesEvicted() {
+      return bytesEvicted;
+    }
+
+    public long getTotalPruneTimeMs() {
+      return totalPruneTimeMs;
+    }
+  }
+
   private final PersistenceStorageEngine storageLayer;
   private final TrackedQueryManager trackedQueryManager;
   private final LogWrapper logger;
   private final CachePolicy cachePolicy;
   private long serverCacheUpdatesSinceLastPruneCheck = 0;
 
+  // Whether the cache was too big at the last check and hasn't been pruned enough yet. While this
+  // is set, every server update prunes one more increment.
+  private boolean pruning = false;
+
+  // The size of the server cache as measured at the last check, adjusted by the footprints of the
+  // queries that were updated or pruned since. -1 until the first check.
+  private long estimatedCacheSizeBytes = -1;
+
+  private long pruneIncrements = 0;
+  private long queriesEvicted = 0;
+  private long bytesEvicted = 0;
+  private long totalPruneTimeMs = 0;
+
+  // Data loaded by warmUp() before it was asked for. Each is used at most once, and is dropped
+  // as soon as the data it was loaded from changes.
+  private FutureTask<List<UserWriteRecord>> prefetchedUserWrites;
+  private final Map<QuerySpec, FutureTask<Node>> prefetchedServerCaches =
+      new HashMap<QuerySpec, FutureTask<Node>>();
+
   public DefaultPersistenceManager(
       Context ctx, PersistenceStorageEngine engine, CachePolicy cachePolicy) {
     this(ctx, engine, cachePolicy, new DefaultClock());
@@ -55,6 +122,99 @@ public class DefaultPersistenceManager implements PersistenceManager {
     this.cachePolicy = cachePolicy;
   }
 
+  /**
+   * Starts loading the persisted user writes and the server cache of the complete queries that
+   * were active when the app last ran on {@code executor}, so that they are ready by the time the
+   * app listens to those queries again. Data that is asked for before it has been prefetched is
+   * loaded on the calling thread instead.
+   */
+  public void warmUp(Executor executor) {
+    long start = System.currentTimeMillis();
+    prefetchedUserWrites =
+        prefetch(
+            executor,
+            new Callable<List<UserWriteRecord>>() {
+              @Override
+              public List<UserWriteRecord> call() {
+                return storageLayer.loadUserWrites();
+              }
+            });
+    for (final TrackedQuery trackedQuery : trackedQueryManager.getPreviouslyActiveQueries()) {
+      if (!trackedQuery.complete) {
+        // Incomplete data doesn't raise value events, so there is little to gain from it early.
+        continue;
+      }
+      final Path path = trackedQuery.querySpec.getPath();
+      final boolean filtered = !trackedQuery.querySpec.loadsAllData();
+      prefetchedServerCaches.put(
+          trackedQuery.querySpec,
+          prefetch(
+              executor,
+              new Callable<Node>() {
+                @Override
+                public Node call() {
+                  if (filtered) {
+                    Set<ChildKey> keys = storageLayer.loadTrackedQueryKeys(trackedQuery.id);
+                    return storageLayer.serverCache(path, keys);
+                  } else {
+                    return storageLayer.serverCache(path);
+                  }
+                }
+              }));
+    }
+    if (logger.logsDebug()) {
+      logger.debug(
+          "Prefetching user writes and "
+              + prefetchedServerCaches.size()
+              + " queries, started in "
+              + (System.currentTimeMillis() - start)
+              + "ms");
+    }
+  }
+
+  private <T> FutureTask<T> prefetch(Executor executor, final Callable<T> callable) {
+    FutureTask<T> task = new FutureTask<T>(callable);
+    executor.execute(task);
+    return task;
+  }
+
+  /**
+   * Returns the result of a prefetch, running it on the calling thread if the executor hasn't
+   * started it yet, or null if it failed or is still running on the executor.
+   */
+  private <T> T getPrefetched(FutureTask<T> task) {
+    task.run();
+    if (!task.isDone()) {
+      // The executor is still loading it, and may be waiting for a storage transaction that the
+      // calling thread holds. Don't wait for it, the caller loads the data itself instead.
+      task.cancel(false);
+      return null;
+    }
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      logger.warn("Failed to prefetch persisted data.", e.getCause());
+      return null;
+    }
+  }
+
+  private void discardPrefetchedUserWrites() {
+    if (prefetchedUserWrites != null) {
+      prefetchedUserWrites.cancel(false);
+      prefetchedUserWrites = null;
+    }
+  }
+
+  private void discardPrefetchedServerCaches() {
+    for (FutureTask<Node> task : prefetchedServerCaches.values()) {
+      task.cancel(false);
+    }
+    prefetchedServerCaches.clear();
+  }
+
   /**
    * Save a user overwrite
    *
@@ -64,6 +224,7 @@ public class DefaultPersistenceManager implements PersistenceManager {
    */
   @Override
   public void saveUserOverwrite(Path path, Node node, long writeId) {
+    discardPrefetchedUserWrites();
     this.storageLayer.saveUserOverwrite(path, node, writeId);
   }
 
@@ -76,6 +237,7 @@ public class DefaultPersistenceManager implements PersistenceManager {
    */
   @Override
   public void saveUserMerge(Path path, CompoundWrite children, long writeId) {
+    discardPrefetchedUserWrites();
     this.storageLayer.saveUserMerge(path, children, writeId);
   }
 
@@ -86,11 +248,13 @@ public class DefaultPersistenceManager implements PersistenceManager {
    */
   @Override
   public void removeUserWrite(long writeId) {
+    discardPrefetchedUserWrites();
     this.storageLayer.removeUserWrite(writeId);
   }
 
   @Override
   public void removeAllUserWrites() {
+    discardPrefetchedUserWrites();
     this.storageLayer.removeAllUserWrites();
   }
 
@@ -105,6 +269,7 @@ public class DefaultPersistenceManager implements PersistenceManager {
     // different value).
     // TODO[persistence]: Consider reworking.
     if (!this.trackedQueryManager.hasActiveDefaultQuery(path)) {
+      discardPrefetchedServerCaches();
       this.storageLayer.overwriteServerCache(path, node);
       this.trackedQueryManager.ensureCompleteTrackedQuery(path);
     }
@@ -127,6 +292,13 @@ public class DefaultPersistenceManager implements PersistenceManager {
    */
   @Override
   public List<UserWriteRecord> loadUserWrites() {
+    if (prefetchedUserWrites != null) {
+      List<UserWriteRecord> writes = getPrefetched(prefetchedUserWrites);
+      prefetchedUserWrites = null;
+      if (writes != null) {
+        return writes;
+      }
+    }
     return this.storageLayer.loadUserWrites();
   }
 
@@ -139,6 +311,20 @@ public class DefaultPersistenceManager implements PersistenceManager {
    */
   @Override
   public CacheNode serverCache(QuerySpec query) {
+    if (!prefetchedServerCaches.isEmpty()) {
+      QuerySpec trackedQuerySpec =
+          query.loadsAllData() ? QuerySpec.defaultQueryAtPath(query.getPath()) : query;
+      FutureTask<Node> prefetched = prefetchedServerCaches.remove(trackedQuerySpec);
+      Node node = prefetched != null ? getPrefetched(prefetched) : null;
+      if (node != null) {
+        // Only complete queries are prefetched, and nothing changed since.
+        return new CacheNode(
+            IndexedNode.from(node, query.getIndex()),
+            /*fullyInitialized=*/ true,
+            /*filtered=*/ !query.loadsAllData());
+      }
+    }
+
     Set<ChildKey> trackedKeys;
     boolean complete;
     // TODO[persistence]: Should we use trackedKeys to find out if this location is a child of a
@@ -147,7 +333,7 @@ public class DefaultPersistenceManager implements PersistenceManager {
       complete = true;
       TrackedQuery trackedQuery = this.trackedQueryManager.findTrackedQuery(query);
       if (!query.loadsAllData() && trackedQuery != null && trackedQuery.complete) {
-        trackedKeys = this.storageLayer.loadTrackedQueryKeys(trackedQuery.id);
+        trackedKeys = this.trackedQueryManager.getTrackedKeys(trackedQuery.id);
       } else {
         trackedKeys = null;
       }
@@ -156,17 +342,14 @@ public class DefaultPersistenceManager implements PersistenceManager {
       trackedKeys = trackedQueryManager.getKnownCompleteChildren(query.getPath());
     }
 
-    // TODO[persistence]: Only load the tracked key data rather than load everything and then filter
-    Node serverCacheNode = storageLayer.serverCache(query.getPath());
     if (trackedKeys != null) {
-      Node filteredNode = EmptyNode.Empty();
-      for (ChildKey key : trackedKeys) {
-        filteredNode =
-            filteredNode.updateImmediateChild(key, serverCacheNode.getImmediateChild(key));
-      }
+      // Only read the tracked children, so that e.g. a limited query over a large list doesn't
+      // load the whole list from disk.
+      Node filteredNode = storageLayer.serverCache(query.getPath(), trackedKeys);
       return new CacheNode(
           IndexedNode.from(filteredNode, query.getIndex()), complete, /*filtered=*/ true);
     } else {
+      Node serverCacheNode = storageLayer.serverCache(query.getPath());
       return new CacheNode(
           IndexedNode.from(serverCacheNode, query.getIndex()), complete, /*filtered=*/ false);
     }
@@ -174,17 +357,21 @@ public class DefaultPersistenceManager implements PersistenceManager {
 
   @Override
   public void updateServerCache(QuerySpec query, Node node) {
+    discardPrefetchedServerCaches();
     if (query.loadsAllData()) {
       this.storageLayer.overwriteServerCache(query.getPath(), node);
     } else {
       this.storageLayer.mergeIntoServerCache(query.getPath(), node);
     }
     setQueryComplete(query);
+    adjustEstimatedCacheSize(trackedQueryManager.updateFootprints(query, node));
     doPruneCheckAfterServerUpdate();
   }
 
   @Override
   public void updateServerCache(Path path, CompoundWrite children) {
+    discardPrefetchedServerCaches();
+    adjustEstimatedCacheSize(trackedQueryManager.updateFootprintsForMerge(path, children));
     this.storageLayer.mergeIntoServerCache(path, children);
     doPruneCheckAfterServerUpdate();
   }
@@ -216,7 +403,8 @@ public class DefaultPersistenceManager implements PersistenceManager {
         trackedQuery != null && trackedQuery.active,
         "We only expect tracked keys for currently-active queries.");
 
-    this.storageLayer.saveTrackedQueryKeys(trackedQuery.id, keys);
+    discardPrefetchedServerCaches();
+    this.trackedQueryManager.setTrackedKeys(trackedQuery.id, keys);
     // TODO: In the future we may want to try to prune the no-longer-tracked keys.
   }
 
@@ -228,7 +416,8 @@ public class DefaultPersistenceManager implements PersistenceManager {
         trackedQuery != null && trackedQuery.active,
         "We only expect tracked keys for currently-active queries.");
 
-    this.storageLayer.updateTrackedQueryKeys(trackedQuery.id, added, removed);
+    discardPrefetchedServerCaches();
+    this.trackedQueryManager.updateTrackedKeys(trackedQuery.id, added, removed);
     // TODO: In the future we may want to try to prune the no-longer-tracked keys.
   }
 
@@ -247,31 +436,84 @@ public class DefaultPersistenceManager implements PersistenceManager {
     }
   }
 
+  @Override
+  public synchronized CacheStats getCacheStats() {
+    return new CacheStats(
+        estimatedCacheSizeBytes, pruneIncrements, queriesEvicted, bytesEvicted, totalPruneTimeMs);
+  }
+
+  private synchronized void updateEstimatedCacheSize(long sizeBytes) {
+    estimatedCacheSizeBytes = sizeBytes;
+  }
+
+  private synchronized void adjustEstimatedCacheSize(long changeBytes) {
+    if (estimatedCacheSizeBytes >= 0) {
+      estimatedCacheSizeBytes = Math.max(0, estimatedCacheSizeBytes + changeBytes);
+    }
+  }
+
+  private synchronized void recordPruneIncrement(
+      TrackedQueryManager.PruneResult result, long durationMs) {
+    pruneIncrements++;
+    queriesEvicted += result.queriesPruned;
+    bytesEvicted += result.bytesPruned;
+    totalPruneTimeMs += durationMs;
+    estimatedCacheSizeBytes = Math.max(0, estimatedCacheSizeBytes - result.bytesPruned);
+  }
+
   private void doPruneCheckAfterServerUpdate() {
     serverCacheUpdatesSinceLastPruneCheck++;
-    if (cachePolicy.shouldCheckCacheSize(serverCacheUpdatesSinceLastPruneCheck)) {
+    if (pruning) {
+      pruneIncrement();
+    } else if (cachePolicy.shouldCheckCacheSize(serverCacheUpdatesSinceLastPruneCheck)) {
       if (logger.logsDebug()) {
         logger.debug("Reached prune check threshold.");
       }
       serverCacheUpdatesSinceLastPruneCheck = 0;
-      boolean canPrune = true;
-      long cacheSize = storageLayer.serverCacheEstimatedSizeInBytes();
+      updateEstimatedCacheSize(storageLayer.serverCacheEstimatedSizeInBytes());
       if (logger.logsDebug()) {
-        logger.debug("Cache size: " + cacheSize);
+        logger.debug("Cache size: " + estimatedCacheSizeBytes);
       }
-      while (canPrune
-          && cachePolicy.shouldPrune(cacheSize, trackedQueryManager.countOfPrunableQueries())) {
-        PruneForest pruneForest = this.trackedQueryManager.pruneOldQueries(cachePolicy);
-        if (pruneForest.prunesAnything()) {
-          this.storageLayer.pruneCache(Path.getEmptyPath(), pruneForest);
-        } else {
-          canPrune = false;
-        }
-        cacheSize = storageLayer.serverCacheEstimatedSizeInBytes();
-        if (logger.logsDebug()) {
-          logger.debug("Cache size after prune: " + cacheSize);
-        }
+      if (cachePolicy.shouldPrune(
+          estimatedCacheSizeBytes, trackedQueryManager.countOfPrunableQueries())) {
+        // The cache size was just measured, so only the footprints need to be brought up to date.
+        trackedQueryManager.refreshStaleFootprints();
       }
+      pruning = true;
+      pruneIncrement();
+    }
+  }
+
+  /**
+   * Prunes one bounded increment of queries if the cache is still too big. Rather than measuring
+   * the cache again, which requires reading all of it, the size of the pruned data is estimated
+   * from the footprints of the pruned queries.
+   */
+  private void pruneIncrement() {
+    if (!cachePolicy.shouldPrune(
+        estimatedCacheSizeBytes, trackedQueryManager.countOfPrunableQueries())) {
+      pruning = false;
+      return;
+    }
+    long start = System.currentTimeMillis();
+    // If no footprints are known, assume that every query caches an equal share.
+    long trackedQueries = trackedQueryManager.countOfTrackedQueries();
+    long defaultFootprint = trackedQueries > 0 ? estimatedCacheSizeBytes / trackedQueries : 0;
+    TrackedQueryManager.PruneResult result =
+        trackedQueryManager.pruneQueries(cachePolicy, defaultFootprint);
+    if (!result.pruneForest.prunesAnything()) {
+      pruning = false;
+      return;
+    }
+    discardPrefetchedServerCaches();
+    this.storageLayer.pruneCache(Path.getEmptyPath(), result.pruneForest);
+    recordPruneIncrement(result, System.currentTimeMillis() - start);
+    if (logger.logsDebug()) {
+      logger.debug(
+          "Pruned "
+              + result.queriesPruned
+              + " queries. Estimated cache size after prune: "
+              + estimatedCacheSizeBytes);
     }
   }
 }
@@ -19,6 +19,8 @@ public class LRUCachePolicy implements CachePolicy {
   private static final long MAX_NUMBER_OF_PRUNABLE_QUERIES_TO_KEEP = 1000;
   private static final float PERCENT_OF_QUERIES_TO_PRUNE_AT_ONCE =
       0.2f; // 20% at a time until we're below our max.
+  // Bounds the work done by a single prune, which runs on the run loop.
+  private static final long MAX_NUMBER_OF_QUERIES_TO_PRUNE_AT_ONCE = 50;
 
   public final long maxSizeBytes;
 
@@ -46,4 +48,9 @@ public class LRUCachePolicy implements CachePolicy {
   public long getMaxNumberOfQueriesToKeep() {
     return MAX_NUMBER_OF_PRUNABLE_QUERIES_TO_KEEP;
   }
+
+  @Override
+  public long getMaxQueriesToPruneAtOnce() {
+    return MAX_NUMBER_OF_QUERIES_TO_PRUNE_AT_ONCE;
+  }
 }
@@ -134,6 +134,11 @@ public class NoopPersistenceManager implements PersistenceManager {
     }
   }
 
+  @Override
+  public DefaultPersistenceManager.CacheStats getCacheStats() {
+    return null;
+  }
+
   private void verifyInsideTransaction() {
     hardAssert(this.insideTransaction, "Transaction expected to already be in progress.");
   }
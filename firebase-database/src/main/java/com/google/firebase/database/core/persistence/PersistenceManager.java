@@ -114,4 +114,7 @@ public interface PersistenceManager {
   public void updateTrackedQueryKeys(QuerySpec query, Set<ChildKey> added, Set<ChildKey> removed);
 
   public <T> T runInTransaction(Callable<T> callable);
+
+  /** Returns the cache size and eviction statistics, or null if nothing is cached. */
+  public DefaultPersistenceManager.CacheStats getCacheStats();
 }
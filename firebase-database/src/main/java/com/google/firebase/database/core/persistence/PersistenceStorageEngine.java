@@ -71,6 +71,16 @@ public interface PersistenceStorageEngine {
    */
   public Node serverCache(Path path);
 
+  /**
+   * Loads the given children of the node at a path, without reading the data of any other children
+   * where possible. It has no knowledge of whether the data is "complete" or not.
+   *
+   * @param path The path of the parent node.
+   * @param childKeys The children to load.
+   * @return A node containing only the loaded children.
+   */
+  public Node serverCache(Path path, Set<ChildKey> childKeys);
+
   /**
    * Overwrite the server cache at the given path with the given node.
    *
@@ -16,15 +16,18 @@ package com.google.firebase.database.core.persistence;
 
 import static com.google.firebase.database.core.utilities.Utilities.hardAssert;
 
+import com.google.firebase.database.core.CompoundWrite;
 import com.google.firebase.database.core.Path;
 import com.google.firebase.database.core.utilities.Clock;
 import com.google.firebase.database.core.utilities.ImmutableTree;
+import com.google.firebase.database.core.utilities.NodeSizeEstimator;
 import com.google.firebase.database.core.utilities.Predicate;
 import com.google.firebase.database.core.utilities.Utilities;
 import com.google.firebase.database.core.view.QueryParams;
 import com.google.firebase.database.core.view.QuerySpec;
 import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.Node;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -45,6 +48,14 @@ public class TrackedQueryManager {
         }
       };
 
+  private static final Predicate<Map<QueryParams, TrackedQuery>> HAS_DEFAULT_PREDICATE =
+      new Predicate<Map<QueryParams, TrackedQuery>>() {
+        @Override
+        public boolean evaluate(Map<QueryParams, TrackedQuery> trackedQueries) {
+          return trackedQueries.containsKey(QueryParams.DEFAULT_PARAMS);
+        }
+      };
+
   private static final Predicate<Map<QueryParams, TrackedQuery>> HAS_ACTIVE_DEFAULT_PREDICATE =
       new Predicate<Map<QueryParams, TrackedQuery>>() {
         @Override
@@ -79,9 +90,28 @@ public class TrackedQueryManager {
   private final LogWrapper logger;
   private final Clock clock;
 
+  // Estimated size of the data each tracked query has cached, by tracked query id. Only known for
+  // queries that received data since the app started. Data is only counted for the deepest default
+  // query it is cached for, so that overlapping queries don't count it twice. Filtered queries
+  // within a default query therefore have no footprint of their own.
+  private final Map<Long, Long> queryFootprints = new HashMap<Long, Long>();
+
+  // Default queries whose footprint is out of date, because they received merges below their
+  // location. Measuring the replaced data would mean reading it from the DB for every merge, so
+  // their footprints are measured again before the next time queries are pruned.
+  private final Set<QuerySpec> staleFootprints = new HashSet<QuerySpec>();
+
+  // In-memory copy of the tracked keys of filtered queries, by tracked query id. The keys of a
+  // query are loaded from the DB the first time they're needed and kept in sync with it after
+  // that, so that serving a filtered query from cache doesn't have to read them each time.
+  private final Map<Long, Set<ChildKey>> trackedKeys = new HashMap<Long, Set<ChildKey>>();
+
   // ID we'll assign to the next tracked query.
   private long currentQueryId = 0;
 
+  // The queries that were active when the app last ran, which it is likely to listen to again.
+  private final List<TrackedQuery> previouslyActiveQueries = new ArrayList<TrackedQuery>();
+
   private static void assertValidTrackedQuery(QuerySpec query) {
     hardAssert(
         !query.loadsAllData() || query.isDefault(),
@@ -101,28 +131,38 @@ public class TrackedQueryManager {
     this.clock = clock;
     this.trackedQueryTree = new ImmutableTree<Map<QueryParams, TrackedQuery>>(null);
 
-    resetPreviouslyActiveTrackedQueries();
-
-    // Populate our cache from the storage layer.
+    // Populate our cache from the storage layer. Queries that were active are loaded before they
+    // are reset, so that we know which ones they were.
+    long lastUse = clock.millis();
     List<TrackedQuery> trackedQueries = this.storageLayer.loadTrackedQueries();
+    resetPreviouslyActiveTrackedQueries(lastUse);
     for (TrackedQuery query : trackedQueries) {
       currentQueryId = Math.max(query.id + 1, currentQueryId);
+      if (query.active) {
+        query = query.updateLastUse(lastUse).setActiveState(false);
+        previouslyActiveQueries.add(query);
+      }
       cacheTrackedQuery(query);
     }
   }
 
-  private void resetPreviouslyActiveTrackedQueries() {
+  private void resetPreviouslyActiveTrackedQueries(long lastUse) {
     // Minor hack: We do most of our transactions at the SyncTree level, but it is very inconvenient
     // to do so here, so the transaction goes here. :-/
     try {
       this.storageLayer.beginTransaction();
-      this.storageLayer.resetPreviouslyActiveTrackedQueries(clock.millis());
+      this.storageLayer.resetPreviouslyActiveTrackedQueries(lastUse);
       this.storageLayer.setTransactionSuccessful();
     } finally {
       this.storageLayer.endTransaction();
     }
   }
 
+  /** Returns the queries that were active when the app last ran, as they were at startup. */
+  public List<TrackedQuery> getPreviouslyActiveQueries() {
+    return Collections.unmodifiableList(previouslyActiveQueries);
+  }
+
   public TrackedQuery findTrackedQuery(QuerySpec query) {
     query = normalizeQuery(query);
     Map<QueryParams, TrackedQuery> set = this.trackedQueryTree.get(query.getPath());
@@ -135,6 +175,9 @@ public class TrackedQueryManager {
     hardAssert(trackedQuery != null, "Query must exist to be removed.");
 
     this.storageLayer.deleteTrackedQuery(trackedQuery.id);
+    this.queryFootprints.remove(trackedQuery.id);
+    this.staleFootprints.remove(trackedQuery.querySpec);
+    this.trackedKeys.remove(trackedQuery.id);
     Map<QueryParams, TrackedQuery> trackedQueries = this.trackedQueryTree.get(query.getPath());
     trackedQueries.remove(query.getParams());
     if (trackedQueries.isEmpty()) {
@@ -209,7 +252,34 @@ public class TrackedQueryManager {
     }
   }
 
+  /** The tracked queries removed by one increment of pruning. */
+  public static class PruneResult {
+    public final PruneForest pruneForest;
+    public final int queriesPruned;
+    /** The estimated size of the data the pruned queries had cached. */
+    public final long bytesPruned;
+
+    PruneResult(PruneForest pruneForest, int queriesPruned, long bytesPruned) {
+      this.pruneForest = pruneForest;
+      this.queriesPruned = queriesPruned;
+      this.bytesPruned = bytesPruned;
+    }
+  }
+
   public PruneForest pruneOldQueries(CachePolicy cachePolicy) {
+    return pruneQueries(cachePolicy, 0).pruneForest;
+  }
+
+  /**
+   * Removes prunable queries, starting with the ones with the highest eviction score, which is the
+   * time since the query was last used multiplied by the size of the data it has cached. Queries
+   * with equal footprints are therefore pruned least recently used first.
+   *
+   * @param cachePolicy Decides how many queries to prune at once.
+   * @param defaultFootprintBytes The footprint to assume for queries whose footprint isn't known if
+   *     no footprint is known at all, for example because the app was just restarted.
+   */
+  public PruneResult pruneQueries(CachePolicy cachePolicy, long defaultFootprintBytes) {
     List<TrackedQuery> prunable = getQueriesMatching(IS_QUERY_PRUNABLE_PREDICATE);
     long countToPrune = calculateCountToPrune(cachePolicy, prunable.size());
     PruneForest forest = new PruneForest();
@@ -222,19 +292,40 @@ public class TrackedQueryManager {
               + countToPrune);
     }
 
+    final Map<Long, Long> footprints = new HashMap<Long, Long>();
+    long unknownFootprint = averageKnownFootprint(defaultFootprintBytes);
+    for (TrackedQuery query : prunable) {
+      Long footprint = queryFootprints.get(query.id);
+      footprints.put(query.id, footprint != null ? footprint : unknownFootprint);
+    }
+    final long now = clock.millis();
     Collections.sort(
         prunable,
         new Comparator<TrackedQuery>() {
           @Override
           public int compare(TrackedQuery q1, TrackedQuery q2) {
-            return Utilities.compareLongs(q1.lastUse, q2.lastUse);
+            return Double.compare(
+                evictionScore(q2, footprints.get(q2.id), now),
+                evictionScore(q1, footprints.get(q1.id), now));
           }
         });
 
+    long bytesPruned = 0;
     for (int i = 0; i < countToPrune; i++) {
       TrackedQuery toPrune = prunable.get(i);
       forest = forest.prune(toPrune.querySpec.getPath());
+      Long knownFootprint = queryFootprints.get(toPrune.id);
       removeTrackedQuery(toPrune.querySpec);
+      TrackedQuery owner = findDeepestDefaultQuery(toPrune.querySpec.getPath());
+      if (owner == null) {
+        bytesPruned += footprints.get(toPrune.id);
+      } else if (knownFootprint != null && queryFootprints.containsKey(owner.id)) {
+        // The data is kept for the enclosing default query, which owns it from now on.
+        queryFootprints.put(owner.id, queryFootprints.get(owner.id) + knownFootprint);
+        if (footprints.containsKey(owner.id)) {
+          footprints.put(owner.id, footprints.get(owner.id) + knownFootprint);
+        }
+      }
     }
 
     // Keep the rest of the prunable queries.
@@ -252,7 +343,146 @@ public class TrackedQueryManager {
       forest = forest.keep(toKeep.querySpec.getPath());
     }
 
-    return forest;
+    return new PruneResult(forest, (int) countToPrune, bytesPruned);
+  }
+
+  private static double evictionScore(TrackedQuery query, long footprintBytes, long now) {
+    // Count every query as at least one byte, so that recency still matters for empty queries.
+    long age = Math.max(0, now - query.lastUse) + 1;
+    return (double) age * (footprintBytes + 1);
+  }
+
+  private long averageKnownFootprint(long defaultFootprintBytes) {
+    if (queryFootprints.isEmpty()) {
+      return defaultFootprintBytes;
+    }
+    long sum = 0;
+    for (long footprint : queryFootprints.values()) {
+      sum += footprint;
+    }
+    return sum / queryFootprints.size();
+  }
+
+  /**
+   * Records the size of the data a tracked query received as its footprint, and as the footprints
+   * of the default queries below it for the parts of the data they own.
+   *
+   * @return The change of the total footprint of the tracked queries.
+   */
+  public long updateFootprints(QuerySpec query, Node node) {
+    TrackedQuery trackedQuery = findTrackedQuery(query);
+    if (trackedQuery == null) {
+      return 0;
+    }
+    Path path = trackedQuery.querySpec.getPath();
+    if (!trackedQuery.querySpec.loadsAllData()) {
+      long footprint =
+          findDeepestDefaultQuery(path) != null
+              ? 0
+              : NodeSizeEstimator.estimateSerializedNodeSize(node);
+      return setFootprint(trackedQuery.id, footprint);
+    }
+    staleFootprints.remove(trackedQuery.querySpec);
+    long[] footprintChange = {0};
+    long ownedBelow = assignFootprintsBelow(trackedQueryTree.subtree(path), node, footprintChange);
+    long size = NodeSizeEstimator.estimateSerializedNodeSize(node);
+    return footprintChange[0] + setFootprint(trackedQuery.id, Math.max(0, size - ownedBelow));
+  }
+
+  /**
+   * Updates the footprints of the default queries that own the data a merge replaces. If only part
+   * of a query's data is replaced, the size of the replaced data isn't known, so the query's
+   * footprint is only marked as stale until {@link #refreshStaleFootprints} measures it again.
+   *
+   * @return The change of the total footprint of the tracked queries, as far as it is known.
+   */
+  public long updateFootprintsForMerge(Path path, CompoundWrite children) {
+    long[] footprintChange = {0};
+    for (Map.Entry<Path, Node> child : children) {
+      Path location = path.child(child.getKey());
+      Node node = child.getValue();
+      ImmutableTree<Map<QueryParams, TrackedQuery>> subtree = trackedQueryTree.subtree(location);
+      long ownedBelow = assignFootprintsBelow(subtree, node, footprintChange);
+      TrackedQuery owner = findDeepestDefaultQuery(location);
+      if (owner == null) {
+        continue;
+      }
+      if (owner.querySpec.getPath().equals(location)) {
+        long ownedSize = NodeSizeEstimator.estimateSerializedNodeSize(node) - ownedBelow;
+        footprintChange[0] += setFootprint(owner.id, Math.max(0, ownedSize));
+        staleFootprints.remove(owner.querySpec);
+      } else if (queryFootprints.containsKey(owner.id)) {
+        staleFootprints.add(owner.querySpec);
+      }
+    }
+    return footprintChange[0];
+  }
+
+  /**
+   * Measures the footprints that merges made stale again by reading the data of their queries from
+   * the server cache. This reads all data of these queries, so it should only be called when the
+   * footprints are about to be used.
+   *
+   * @return The change of the total footprint of the tracked queries.
+   */
+  public long refreshStaleFootprints() {
+    long footprintChange = 0;
+    for (QuerySpec query : new ArrayList<QuerySpec>(staleFootprints)) {
+      footprintChange += updateFootprints(query, storageLayer.serverCache(query.getPath()));
+    }
+    staleFootprints.clear();
+    return footprintChange;
+  }
+
+  /**
+   * Splits the data at the root of a tree of tracked queries among the default queries below the
+   * root, each of which owns its part of the data apart from the parts owned by deeper queries.
+   *
+   * @param footprintChange The footprints of the queries are set to the sizes of their parts, and
+   *     the change is added to its only element.
+   * @return The size of the data owned by the queries below the root.
+   */
+  private long assignFootprintsBelow(
+      ImmutableTree<Map<QueryParams, TrackedQuery>> tree, Node node, long[] footprintChange) {
+    long owned = 0;
+    for (Map.Entry<ChildKey, ImmutableTree<Map<QueryParams, TrackedQuery>>> child :
+        tree.getChildren()) {
+      Node childNode = node.getImmediateChild(child.getKey());
+      ImmutableTree<Map<QueryParams, TrackedQuery>> childTree = child.getValue();
+      long ownedBelow = assignFootprintsBelow(childTree, childNode, footprintChange);
+      Map<QueryParams, TrackedQuery> queries = childTree.getValue();
+      TrackedQuery query = queries != null ? queries.get(QueryParams.DEFAULT_PARAMS) : null;
+      if (query == null) {
+        owned += ownedBelow;
+        continue;
+      }
+      long size = NodeSizeEstimator.estimateSerializedNodeSize(childNode);
+      footprintChange[0] += setFootprint(query.id, Math.max(0, size - ownedBelow));
+      staleFootprints.remove(query.querySpec);
+      owned += size;
+    }
+    return owned;
+  }
+
+  /** Returns the change of the footprint. */
+  private long setFootprint(long queryId, long footprintBytes) {
+    Long previous = queryFootprints.put(queryId, footprintBytes);
+    return footprintBytes - (previous != null ? previous : 0);
+  }
+
+  /** Returns the deepest tracked default query at or above the given path, if any. */
+  private TrackedQuery findDeepestDefaultQuery(Path path) {
+    Map<QueryParams, TrackedQuery> queries =
+        trackedQueryTree.leafMostValueMatching(path, HAS_DEFAULT_PREDICATE);
+    return queries != null ? queries.get(QueryParams.DEFAULT_PARAMS) : null;
+  }
+
+  public long countOfTrackedQueries() {
+    long count = 0;
+    for (Map.Entry<Path, Map<QueryParams, TrackedQuery>> entry : this.trackedQueryTree) {
+      count += entry.getValue().size();
+    }
+    return count;
   }
 
   private static long calculateCountToPrune(CachePolicy cachePolicy, long prunableCount) {
@@ -265,8 +495,39 @@ public class TrackedQueryManager {
     // Make sure we're not keeping more than the max.
     countToKeep = Math.min(countToKeep, cachePolicy.getMaxNumberOfQueriesToKeep());
 
-    // Now we know how many to prune.
-    return prunableCount - countToKeep;
+    // Prune in bounded increments, so that a single prune doesn't block for too long.
+    return Math.min(prunableCount - countToKeep, cachePolicy.getMaxQueriesToPruneAtOnce());
+  }
+
+  /** Returns the keys tracked for a filtered query, which must not be modified. */
+  public Set<ChildKey> getTrackedKeys(long trackedQueryId) {
+    return Collections.unmodifiableSet(loadTrackedKeys(trackedQueryId));
+  }
+
+  /** Replaces the keys tracked for a filtered query. */
+  public void setTrackedKeys(long trackedQueryId, Set<ChildKey> keys) {
+    this.storageLayer.saveTrackedQueryKeys(trackedQueryId, keys);
+    this.trackedKeys.put(trackedQueryId, new HashSet<ChildKey>(keys));
+  }
+
+  /**
+   * Adds and removes keys tracked for a filtered query. The updated keys are written to the DB as a
+   * whole, so that the DB doesn't need to read them back.
+   */
+  public void updateTrackedKeys(long trackedQueryId, Set<ChildKey> added, Set<ChildKey> removed) {
+    Set<ChildKey> keys = loadTrackedKeys(trackedQueryId);
+    keys.removeAll(removed);
+    keys.addAll(added);
+    this.storageLayer.saveTrackedQueryKeys(trackedQueryId, keys);
+  }
+
+  private Set<ChildKey> loadTrackedKeys(long trackedQueryId) {
+    Set<ChildKey> keys = this.trackedKeys.get(trackedQueryId);
+    if (keys == null) {
+      keys = new HashSet<ChildKey>(this.storageLayer.loadTrackedQueryKeys(trackedQueryId));
+      this.trackedKeys.put(trackedQueryId, keys);
+    }
+    return keys;
   }
 
   /**
@@ -282,8 +543,8 @@ public class TrackedQueryManager {
     Set<ChildKey> completeChildren = new HashSet<ChildKey>();
     // First, get complete children from any queries at this location.
     Set<Long> queryIds = filteredQueryIdsAtPath(path);
-    if (!queryIds.isEmpty()) {
-      completeChildren.addAll(storageLayer.loadTrackedQueryKeys(queryIds));
+    for (long queryId : queryIds) {
+      completeChildren.addAll(loadTrackedKeys(queryId));
     }
 
     // Second, get any complete default queries immediately below us.
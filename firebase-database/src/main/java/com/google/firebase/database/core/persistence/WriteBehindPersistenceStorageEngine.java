@@ -0,0 +1,695 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core.persistence;
+
+import static com.google.firebase.database.core.utilities.Utilities.hardAssert;
+
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.UserWriteRecord;
+import com.google.firebase.database.logging.LogWrapper;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.NamedNode;
+import com.google.firebase.database.snapshot.Node;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A PersistenceStorageEngine that applies writes to another engine on a background executor, so
+ * that the caller does not wait for the disk.
+ *
+ * <p>Writes are queued in memory and committed in batches, one storage transaction per batch and at
+ * most one batch per {@link #COMMIT_INTERVAL_MS}, which bounds the number of disk syncs. The writes
+ * of one caller transaction are only committed together. A server cache write that replaces the
+ * data of earlier queued server cache writes drops them from the queue, and so does a save of the
+ * tracked keys of a query for its earlier queued key writes.
+ *
+ * <p>Server cache reads are answered by reading the wrapped engine and applying the queued server
+ * cache writes on top. All other reads, as well as reads while a prune is queued, first commit the
+ * queued writes on the calling thread. Writes of a caller transaction that is still in progress
+ * are never committed, so that they can still be rolled back.
+ *
+ * <p>If a commit fails, its writes are dropped and the next call that reads or writes throws the
+ * error.
+ *
+ * <p>If user writes are durable, a caller transaction that saves or removes a user write does not
+ * return before it has been committed.
+ */
+public class WriteBehindPersistenceStorageEngine implements PersistenceStorageEngine {
+
+  /** The minimum time between two commits, which is also the maximum time a write is queued. */
+  static final long COMMIT_INTERVAL_MS = 250;
+
+  /** A queued write. */
+  private abstract static class PendingWrite {
+    /** Whether the write is not part of a transaction that is still in progress. */
+    boolean committable = false;
+
+    /** The server cache locations this write overwrites, or null if it doesn't change them. */
+    List<NamedPath> serverCacheOverwrites() {
+      return null;
+    }
+
+    /** The id of the tracked query whose keys this write changes, or null. */
+    Long trackedKeysQueryId() {
+      return null;
+    }
+
+    /** Whether this write replaces all keys of {@link #trackedKeysQueryId()}. */
+    boolean replacesTrackedKeys() {
+      return false;
+    }
+
+    boolean isUserWrite() {
+      return false;
+    }
+
+    boolean isPrune() {
+      return false;
+    }
+
+    abstract void apply(PersistenceStorageEngine engine);
+  }
+
+  /** A node to be written at a path. */
+  private static class NamedPath {
+    final Path path;
+    final Node node;
+
+    NamedPath(Path path, Node node) {
+      this.path = path;
+      this.node = node;
+    }
+  }
+
+  private final PersistenceStorageEngine engine;
+  private final ScheduledExecutorService executor;
+  private final LogWrapper logger;
+  private final boolean durableUserWrites;
+
+  /**
+   * Held while using the wrapped engine. While it is held, the queue contains exactly the writes
+   * that the engine does not have yet. Must be acquired before {@link #queueLock}.
+   */
+  private final Object engineLock = new Object();
+
+  /** Guards the queue and transaction state below. Never held while using the wrapped engine. */
+  private final Object queueLock = new Object();
+
+  private final List<PendingWrite> pendingWrites = new ArrayList<PendingWrite>();
+  private final List<PendingWrite> transactionWrites = new ArrayList<PendingWrite>();
+  private boolean insideTransaction = false;
+  private boolean transactionSuccessful = false;
+  private boolean transactionHasUserWrite = false;
+  private boolean commitScheduled = false;
+  private long lastCommitTimeMs = 0;
+  private RuntimeException commitFailure = null;
+
+  /**
+   * Creates an engine that writes to {@code engine} on {@code executor}. The executor is shut down
+   * when this engine is closed.
+   */
+  public WriteBehindPersistenceStorageEngine(
+      PersistenceStorageEngine engine,
+      ScheduledExecutorService executor,
+      LogWrapper logger,
+      boolean durableUserWrites) {
+    this.engine = engine;
+    this.executor = executor;
+    this.logger = logger;
+    this.durableUserWrites = durableUserWrites;
+  }
+
+  @Override
+  public void saveUserOverwrite(final Path path, final Node node, final long writeId) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          boolean isUserWrite() {
+            return true;
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.saveUserOverwrite(path, node, writeId);
+          }
+        });
+  }
+
+  @Override
+  public void saveUserMerge(final Path path, final CompoundWrite children, final long writeId) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          boolean isUserWrite() {
+            return true;
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.saveUserMerge(path, children, writeId);
+          }
+        });
+  }
+
+  @Override
+  public void removeUserWrite(final long writeId) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          boolean isUserWrite() {
+            return true;
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.removeUserWrite(writeId);
+          }
+        });
+  }
+
+  @Override
+  public List<UserWriteRecord> loadUserWrites() {
+    synchronized (engineLock) {
+      commit();
+      return engine.loadUserWrites();
+    }
+  }
+
+  @Override
+  public void removeAllUserWrites() {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          boolean isUserWrite() {
+            return true;
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.removeAllUserWrites();
+          }
+        });
+  }
+
+  @Override
+  public Node serverCache(Path path) {
+    List<NamedPath> overwrites;
+    Node node;
+    synchronized (engineLock) {
+      overwrites = pendingServerCacheOverwrites();
+      node = engine.serverCache(path);
+    }
+    return applyOverwrites(path, node, overwrites);
+  }
+
+  @Override
+  public Node serverCache(Path path, Set<ChildKey> childKeys) {
+    List<NamedPath> overwrites;
+    Node node;
+    synchronized (engineLock) {
+      overwrites = pendingServerCacheOverwrites();
+      node = engine.serverCache(path, childKeys);
+    }
+    if (overwrites.isEmpty()) {
+      return node;
+    }
+    Node updated = applyOverwrites(path, node, overwrites);
+    Node filtered = EmptyNode.Empty();
+    for (ChildKey key : childKeys) {
+      filtered = filtered.updateImmediateChild(key, updated.getImmediateChild(key));
+    }
+    return filtered;
+  }
+
+  @Override
+  public void overwriteServerCache(final Path path, final Node node) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          List<NamedPath> serverCacheOverwrites() {
+            return Collections.singletonList(new NamedPath(path, node));
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.overwriteServerCache(path, node);
+          }
+        });
+  }
+
+  @Override
+  public void mergeIntoServerCache(final Path path, final Node node) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          List<NamedPath> serverCacheOverwrites() {
+            List<NamedPath> overwrites = new ArrayList<NamedPath>();
+            for (NamedNode child : node) {
+              overwrites.add(new NamedPath(path.child(child.getName()), child.getNode()));
+            }
+            return overwrites;
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.mergeIntoServerCache(path, node);
+          }
+        });
+  }
+
+  @Override
+  public void mergeIntoServerCache(final Path path, final CompoundWrite children) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          List<NamedPath> serverCacheOverwrites() {
+            List<NamedPath> overwrites = new ArrayList<NamedPath>();
+            for (Map.Entry<Path, Node> write : children) {
+              overwrites.add(new NamedPath(path.child(write.getKey()), write.getValue()));
+            }
+            return overwrites;
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.mergeIntoServerCache(path, children);
+          }
+        });
+  }
+
+  @Override
+  public long serverCacheEstimatedSizeInBytes() {
+    // This is only an estimate, so there is no need to wait for queued writes.
+    synchronized (engineLock) {
+      return engine.serverCacheEstimatedSizeInBytes();
+    }
+  }
+
+  @Override
+  public void saveTrackedQuery(final TrackedQuery trackedQuery) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.saveTrackedQuery(trackedQuery);
+          }
+        });
+  }
+
+  @Override
+  public void deleteTrackedQuery(final long trackedQueryId) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.deleteTrackedQuery(trackedQueryId);
+          }
+        });
+  }
+
+  @Override
+  public List<TrackedQuery> loadTrackedQueries() {
+    synchronized (engineLock) {
+      commit();
+      return engine.loadTrackedQueries();
+    }
+  }
+
+  @Override
+  public void resetPreviouslyActiveTrackedQueries(final long lastUse) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.resetPreviouslyActiveTrackedQueries(lastUse);
+          }
+        });
+  }
+
+  @Override
+  public void saveTrackedQueryKeys(final long trackedQueryId, Set<ChildKey> keys) {
+    final Set<ChildKey> keysCopy = new HashSet<ChildKey>(keys);
+    enqueue(
+        new PendingWrite() {
+          @Override
+          Long trackedKeysQueryId() {
+            return trackedQueryId;
+          }
+
+          @Override
+          boolean replacesTrackedKeys() {
+            return true;
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.saveTrackedQueryKeys(trackedQueryId, keysCopy);
+          }
+        });
+  }
+
+  @Override
+  public void updateTrackedQueryKeys(
+      final long trackedQueryId, Set<ChildKey> added, Set<ChildKey> removed) {
+    final Set<ChildKey> addedCopy = new HashSet<ChildKey>(added);
+    final Set<ChildKey> removedCopy = new HashSet<ChildKey>(removed);
+    enqueue(
+        new PendingWrite() {
+          @Override
+          Long trackedKeysQueryId() {
+            return trackedQueryId;
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.updateTrackedQueryKeys(trackedQueryId, addedCopy, removedCopy);
+          }
+        });
+  }
+
+  @Override
+  public Set<ChildKey> loadTrackedQueryKeys(long trackedQueryId) {
+    synchronized (engineLock) {
+      commit();
+      return engine.loadTrackedQueryKeys(trackedQueryId);
+    }
+  }
+
+  @Override
+  public Set<ChildKey> loadTrackedQueryKeys(Set<Long> trackedQueryIds) {
+    synchronized (engineLock) {
+      commit();
+      return engine.loadTrackedQueryKeys(trackedQueryIds);
+    }
+  }
+
+  @Override
+  public void pruneCache(final Path root, final PruneForest pruneForest) {
+    enqueue(
+        new PendingWrite() {
+          @Override
+          boolean isPrune() {
+            return true;
+          }
+
+          @Override
+          void apply(PersistenceStorageEngine engine) {
+            engine.pruneCache(root, pruneForest);
+          }
+        });
+  }
+
+  @Override
+  public void beginTransaction() {
+    synchronized (queueLock) {
+      hardAssert(
+          !insideTransaction,
+          "runInTransaction called when an existing transaction is already in progress.");
+      insideTransaction = true;
+      transactionSuccessful = false;
+      transactionHasUserWrite = false;
+    }
+  }
+
+  @Override
+  public void endTransaction() {
+    boolean waitForCommit;
+    synchronized (queueLock) {
+      insideTransaction = false;
+      if (transactionSuccessful) {
+        for (PendingWrite write : transactionWrites) {
+          write.committable = true;
+          dropWritesReplacedBy(write);
+        }
+        waitForCommit = transactionHasUserWrite && durableUserWrites;
+      } else {
+        // Drop the writes of the failed transaction.
+        pendingWrites.removeAll(transactionWrites);
+        waitForCommit = false;
+      }
+      transactionWrites.clear();
+      if (!waitForCommit) {
+        scheduleCommit();
+      }
+    }
+    if (waitForCommit) {
+      synchronized (engineLock) {
+        commit();
+      }
+    }
+  }
+
+  @Override
+  public void setTransactionSuccessful() {
+    synchronized (queueLock) {
+      transactionSuccessful = true;
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (engineLock) {
+      commit();
+      engine.close();
+    }
+    executor.shutdown();
+  }
+
+  private void enqueue(PendingWrite write) {
+    boolean waitForCommit = false;
+    synchronized (queueLock) {
+      throwIfCommitFailed();
+      pendingWrites.add(write);
+      if (insideTransaction) {
+        transactionWrites.add(write);
+        transactionHasUserWrite = transactionHasUserWrite || write.isUserWrite();
+      } else {
+        write.committable = true;
+        dropWritesReplacedBy(write);
+        waitForCommit = write.isUserWrite() && durableUserWrites;
+        if (!waitForCommit) {
+          scheduleCommit();
+        }
+      }
+    }
+    if (waitForCommit) {
+      synchronized (engineLock) {
+        commit();
+      }
+    }
+  }
+
+  /**
+   * Drops the queued server cache writes before the given write that only write at or below the
+   * path it overwrites, and the queued tracked key writes of a query whose keys it replaces, since
+   * their data is replaced. Must only be called once the given write is committable, so that it
+   * can no longer be discarded.
+   */
+  private void dropWritesReplacedBy(PendingWrite replacement) {
+    if (replacement.replacesTrackedKeys()) {
+      Long queryId = replacement.trackedKeysQueryId();
+      Iterator<PendingWrite> iterator = pendingWrites.iterator();
+      while (iterator.hasNext()) {
+        PendingWrite pending = iterator.next();
+        if (pending == replacement) {
+          return;
+        }
+        if (queryId.equals(pending.trackedKeysQueryId())) {
+          iterator.remove();
+        }
+      }
+      return;
+    }
+    List<NamedPath> replacementOverwrites = replacement.serverCacheOverwrites();
+    if (replacementOverwrites == null || replacementOverwrites.size() != 1) {
+      return;
+    }
+    Path path = replacementOverwrites.get(0).path;
+    Iterator<PendingWrite> iterator = pendingWrites.iterator();
+    while (iterator.hasNext()) {
+      PendingWrite pending = iterator.next();
+      if (pending == replacement) {
+        return;
+      }
+      List<NamedPath> overwrites = pending.serverCacheOverwrites();
+      if (overwrites != null && !overwrites.isEmpty() && allBelow(overwrites, path)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static boolean allBelow(List<NamedPath> overwrites, Path path) {
+    for (NamedPath overwrite : overwrites) {
+      if (!path.contains(overwrite.path)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the server cache overwrites of all queued writes, in order. Must be called while
+   * holding {@link #engineLock}.
+   */
+  private List<NamedPath> pendingServerCacheOverwrites() {
+    List<PendingWrite> writes = queuedWrites();
+    for (PendingWrite write : writes) {
+      if (write.isPrune() && write.committable) {
+        // Pruning doesn't overwrite data, so the queued writes can't be applied on top of a read.
+        commit();
+        writes = queuedWrites();
+        break;
+      }
+    }
+    // Only writes of a transaction in progress may be left, whose prunes are skipped. A prune only
+    // removes the data of queries that are no longer tracked, which the transaction doesn't read.
+    List<NamedPath> overwrites = new ArrayList<NamedPath>();
+    for (PendingWrite write : writes) {
+      List<NamedPath> writeOverwrites = write.serverCacheOverwrites();
+      if (writeOverwrites != null) {
+        overwrites.addAll(writeOverwrites);
+      }
+    }
+    return overwrites;
+  }
+
+  private List<PendingWrite> queuedWrites() {
+    synchronized (queueLock) {
+      throwIfCommitFailed();
+      return new ArrayList<PendingWrite>(pendingWrites);
+    }
+  }
+
+  private static Node applyOverwrites(Path path, Node node, List<NamedPath> overwrites) {
+    for (NamedPath overwrite : overwrites) {
+      if (overwrite.path.contains(path)) {
+        node = overwrite.node.getChild(Path.getRelative(overwrite.path, path));
+      } else if (path.contains(overwrite.path)) {
+        node = node.updateChild(Path.getRelative(path, overwrite.path), overwrite.node);
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Schedules a commit of the committable writes. Must be called while holding {@link #queueLock}.
+   */
+  private void scheduleCommit() {
+    if (commitScheduled || pendingWrites.isEmpty() || !pendingWrites.get(0).committable) {
+      return;
+    }
+    commitScheduled = true;
+    long delayMs = Math.max(0, lastCommitTimeMs + COMMIT_INTERVAL_MS - System.currentTimeMillis());
+    executor.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            synchronized (engineLock) {
+              synchronized (queueLock) {
+                commitScheduled = false;
+              }
+              try {
+                commit();
+              } catch (RuntimeException e) {
+                synchronized (queueLock) {
+                  commitFailure = e;
+                }
+              }
+            }
+          }
+        },
+        delayMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Commits the committable queued writes in one storage transaction. Must be called while holding
+   * {@link #engineLock}. If the commit fails, its writes are dropped from the queue.
+   */
+  private void commit() {
+    List<PendingWrite> batch = new ArrayList<PendingWrite>();
+    synchronized (queueLock) {
+      for (PendingWrite write : pendingWrites) {
+        if (!write.committable) {
+          break;
+        }
+        batch.add(write);
+      }
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      engine.beginTransaction();
+      try {
+        for (PendingWrite write : batch) {
+          write.apply(engine);
+        }
+        engine.setTransactionSuccessful();
+      } finally {
+        engine.endTransaction();
+      }
+    } catch (RuntimeException e) {
+      logger.error(
+          "Failed to write to the persistent cache, dropped " + batch.size() + " writes.", e);
+      synchronized (queueLock) {
+        removeFromQueue(batch);
+      }
+      throw e;
+    }
+    long now = System.currentTimeMillis();
+    if (logger.logsDebug()) {
+      logger.debug("Committed " + batch.size() + " queued writes in " + (now - start) + "ms.");
+    }
+
+    synchronized (queueLock) {
+      removeFromQueue(batch);
+      lastCommitTimeMs = now;
+      scheduleCommit();
+    }
+  }
+
+  /** Removes a committed batch from the queue. Must be called while holding {@link #queueLock}. */
+  private void removeFromQueue(List<PendingWrite> batch) {
+    // Writes may have been dropped from the queue in the meantime, but the rest of the batch is
+    // still at its front since new writes are only ever appended.
+    Set<PendingWrite> committed = new HashSet<PendingWrite>(batch);
+    int count = 0;
+    while (count < pendingWrites.size() && committed.contains(pendingWrites.get(count))) {
+      count++;
+    }
+    pendingWrites.subList(0, count).clear();
+  }
+
+  /** Throws the error of a failed background commit, once. */
+  private void throwIfCommitFailed() {
+    if (commitFailure != null) {
+      RuntimeException failure = commitFailure;
+      commitFailure = null;
+      throw new RuntimeException("Failed to write to the persistent cache.", failure);
+    }
+  }
+}
@@ -23,6 +23,9 @@ import com.google.firebase.database.GenericTypeIndicator;
 import com.google.firebase.database.IgnoreExtraProperties;
 import com.google.firebase.database.PropertyName;
 import com.google.firebase.database.ThrowOnExtraProperties;
+import com.google.firebase.database.core.utilities.Utilities;
+import com.google.firebase.database.snapshot.NamedNode;
+import com.google.firebase.database.snapshot.Node;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -50,6 +53,14 @@ public class CustomClassMapper {
 
   private static final ConcurrentMap<Class<?>, BeanMapper<?>> mappers = new ConcurrentHashMap<>();
 
+  /** Suffix of the names of the mappers generated for classes annotated with GenerateMapper. */
+  private static final String GENERATED_MAPPER_SUFFIX = "_FirebaseDatabaseMapper";
+
+  // Generated mappers by class, with NO_GENERATED_MAPPER for classes that don't have one.
+  private static final ConcurrentMap<Class<?>, Object> generatedMappers =
+      new ConcurrentHashMap<>();
+  private static final Object NO_GENERATED_MAPPER = new Object();
+
   /**
    * Converts a Java representation of JSON data to standard library Java data types: Map, Array,
    * String, Double, Integer and Boolean. POJOs are converted to Java Maps.
@@ -80,6 +91,65 @@ public class CustomClassMapper {
     return deserializeToClass(object, clazz);
   }
 
+  /**
+   * Converts a node to an object of the provided class. Classes that are mapped from a Map are
+   * created directly from the children of the node, without first converting the node to standard
+   * library Java types.
+   *
+   * @param node The node to convert
+   * @param clazz The class of the object to convert to
+   * @return The POJO object, or null if the node is empty.
+   */
+  public static <T> T convertNodeToCustomClass(Node node, Class<T> clazz) {
+    if (node.isEmpty()) {
+      return null;
+    } else if (node.isLeafNode() || !isBeanClass(clazz) || hasOnlyArrayKeys(node)) {
+      return deserializeToClass(node.getValue(), clazz);
+    }
+    GeneratedMapper<T> generatedMapper = loadGeneratedMapperForClass(clazz);
+    if (generatedMapper != null) {
+      return generatedMapper.deserialize(node);
+    }
+    return loadOrCreateBeanMapperForClass(clazz).deserialize(node);
+  }
+
+  /**
+   * Returns the name of the mapper generated for a class annotated with GenerateMapper. It is in
+   * the same package, and named after the class and the classes it is nested in.
+   */
+  public static String generatedMapperName(Class<?> clazz) {
+    String packagePrefix = "";
+    String className = clazz.getName();
+    int lastDot = className.lastIndexOf('.');
+    if (lastDot >= 0) {
+      packagePrefix = className.substring(0, lastDot + 1);
+      className = className.substring(lastDot + 1);
+    }
+    return packagePrefix + className.replace('$', '_') + GENERATED_MAPPER_SUFFIX;
+  }
+
+  /**
+   * Handles a property without a setter or field in a generated mapper, in the same way as for
+   * classes that are mapped by reflection.
+   *
+   * @param knownProperties The names of all properties of the class
+   */
+  public static void onUnknownProperty(
+      Class<?> clazz, String propertyName, String... knownProperties) {
+    String message = "No setter/field for " + propertyName + " found on class " + clazz.getName();
+    for (String knownProperty : knownProperties) {
+      if (knownProperty.toLowerCase(Locale.US).equals(propertyName.toLowerCase(Locale.US))) {
+        message += " (fields/setters are case sensitive!)";
+        break;
+      }
+    }
+    if (clazz.isAnnotationPresent(ThrowOnExtraProperties.class)) {
+      throw new DatabaseException(message);
+    } else if (!clazz.isAnnotationPresent(IgnoreExtraProperties.class)) {
+      Log.w(LOG_TAG, message);
+    }
+  }
+
   /**
    * Converts a standard library Java representation of JSON data to an object of the class provided
    * through the GenericTypeIndicator
@@ -164,11 +234,55 @@ public class CustomClassMapper {
       return ((Enum<?>) o).name();
     } else {
       Class<T> clazz = (Class<T>) o.getClass();
+      GeneratedMapper<T> generatedMapper = loadGeneratedMapperForClass(clazz);
+      if (generatedMapper != null) {
+        return generatedMapper.serialize(o);
+      }
       BeanMapper<T> mapper = loadOrCreateBeanMapperForClass(clazz);
       return mapper.serialize(o);
     }
   }
 
+  /** Returns whether objects of the class are deserialized from a Map by a BeanMapper. */
+  private static boolean isBeanClass(Class<?> clazz) {
+    return !clazz.isPrimitive()
+        && !Number.class.isAssignableFrom(clazz)
+        && !Boolean.class.isAssignableFrom(clazz)
+        && !Character.class.isAssignableFrom(clazz)
+        && !String.class.isAssignableFrom(clazz)
+        && !clazz.isArray()
+        && clazz.getTypeParameters().length == 0
+        && !clazz.equals(Object.class)
+        && !clazz.isEnum();
+  }
+
+  /**
+   * Returns whether all keys of the node are array indices, in which case {@link Node#getValue()}
+   * may convert it to a List rather than a Map.
+   */
+  private static boolean hasOnlyArrayKeys(Node node) {
+    for (NamedNode child : node) {
+      String key = child.getName().asString();
+      if (key.length() > 1 && key.charAt(0) == '0') {
+        return false;
+      }
+      Integer index = Utilities.tryParseInt(key);
+      if (index == null || index < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Deserializes a node to a type, without converting it to Java types first where possible. */
+  @SuppressWarnings({"unchecked", "TypeParameterUnusedInFormals"})
+  private static <T> T deserializeNodeToType(Node node, Type type) {
+    if (type instanceof Class) {
+      return convertNodeToCustomClass(node, (Class<T>) type);
+    }
+    return deserializeToType(node.getValue(), type);
+  }
+
   @SuppressWarnings({"unchecked", "TypeParameterUnusedInFormals"})
   private static <T> T deserializeToType(Object o, Type type) {
     if (o == null) {
@@ -335,6 +449,26 @@ public class CustomClassMapper {
     return mapper;
   }
 
+  @SuppressWarnings("unchecked")
+  private static <T> GeneratedMapper<T> loadGeneratedMapperForClass(Class<T> clazz) {
+    Object mapper = generatedMappers.get(clazz);
+    if (mapper == null) {
+      String mapperName = generatedMapperName(clazz);
+      try {
+        mapper = Class.forName(mapperName, true, clazz.getClassLoader()).newInstance();
+      } catch (ClassNotFoundException e) {
+        mapper = NO_GENERATED_MAPPER;
+      } catch (InstantiationException e) {
+        throw new DatabaseException("Failed to create " + mapperName, e);
+      } catch (IllegalAccessException e) {
+        throw new DatabaseException("Failed to create " + mapperName, e);
+      }
+      // Like for BeanMappers, it's okay if multiple threads create a mapper for the same class.
+      generatedMappers.put(clazz, mapper);
+    }
+    return mapper != NO_GENERATED_MAPPER ? (GeneratedMapper<T>) mapper : null;
+  }
+
   @SuppressWarnings("unchecked")
   private static Map<String, Object> expectMap(Object object) {
     if (object instanceof Map) {
@@ -564,6 +698,33 @@ public class CustomClassMapper {
     }
 
     public T deserialize(Map<String, Object> values, Map<TypeVariable<Class<T>>, Type> types) {
+      T instance = newInstance();
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        String propertyName = entry.getKey();
+        Type propertyType = propertyType(propertyName, types);
+        if (propertyType != null) {
+          Object value = CustomClassMapper.deserializeToType(entry.getValue(), propertyType);
+          setProperty(instance, propertyName, value);
+        }
+      }
+      return instance;
+    }
+
+    public T deserialize(Node node) {
+      Map<TypeVariable<Class<T>>, Type> types = Collections.emptyMap();
+      T instance = newInstance();
+      for (NamedNode child : node) {
+        String propertyName = child.getName().asString();
+        Type propertyType = propertyType(propertyName, types);
+        if (propertyType != null) {
+          Object value = CustomClassMapper.deserializeNodeToType(child.getNode(), propertyType);
+          setProperty(instance, propertyName, value);
+        }
+      }
+      return instance;
+    }
+
+    private T newInstance() {
       if (this.constructor == null) {
         throw new DatabaseException(
             "Class "
@@ -571,9 +732,8 @@ public class CustomClassMapper {
                 + " does not define a no-argument constructor. If you are using ProGuard, make "
                 + "sure these constructors are not stripped.");
       }
-      T instance;
       try {
-        instance = this.constructor.newInstance();
+        return this.constructor.newInstance();
       } catch (InstantiationException e) {
         throw new RuntimeException(e);
       } catch (IllegalAccessException e) {
@@ -581,51 +741,53 @@ public class CustomClassMapper {
       } catch (InvocationTargetException e) {
         throw new RuntimeException(e);
       }
-      for (Map.Entry<String, Object> entry : values.entrySet()) {
-        String propertyName = entry.getKey();
-        if (this.setters.containsKey(propertyName)) {
-          Method setter = this.setters.get(propertyName);
-          Type[] params = setter.getGenericParameterTypes();
-          if (params.length != 1) {
-            throw new IllegalStateException("Setter does not have exactly one parameter");
-          }
-          Type resolvedType = resolveType(params[0], types);
-          Object value = CustomClassMapper.deserializeToType(entry.getValue(), resolvedType);
-          try {
-            setter.invoke(instance, value);
-          } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-          } catch (InvocationTargetException e) {
-            throw new RuntimeException(e);
-          }
-        } else if (this.fields.containsKey(propertyName)) {
-          Field field = this.fields.get(propertyName);
-          Type resolvedType = resolveType(field.getGenericType(), types);
-          Object value = CustomClassMapper.deserializeToType(entry.getValue(), resolvedType);
-          try {
-            field.set(instance, value);
-          } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-          }
-        } else {
-          String message =
-              "No setter/field for "
-                  + propertyName
-                  + " found "
-                  + "on class "
-                  + this.clazz.getName();
-          if (this.properties.containsKey(propertyName.toLowerCase(Locale.US))) {
-            message += " (fields/setters are case sensitive!)";
-          }
-          if (this.throwOnUnknownProperties) {
-            throw new DatabaseException(message);
-          } else if (this.warnOnUnknownProperties) {
-            // TODO: replace Android logging with "our" logging
-            Log.w(LOG_TAG, message);
-          }
+    }
+
+    /**
+     * Returns the type of the setter or field for a property, or null if there is none and unknown
+     * properties don't throw.
+     */
+    private Type propertyType(String propertyName, Map<TypeVariable<Class<T>>, Type> types) {
+      if (this.setters.containsKey(propertyName)) {
+        Method setter = this.setters.get(propertyName);
+        Type[] params = setter.getGenericParameterTypes();
+        if (params.length != 1) {
+          throw new IllegalStateException("Setter does not have exactly one parameter");
+        }
+        return resolveType(params[0], types);
+      } else if (this.fields.containsKey(propertyName)) {
+        return resolveType(this.fields.get(propertyName).getGenericType(), types);
+      }
+      String message =
+          "No setter/field for " + propertyName + " found on class " + this.clazz.getName();
+      if (this.properties.containsKey(propertyName.toLowerCase(Locale.US))) {
+        message += " (fields/setters are case sensitive!)";
+      }
+      if (this.throwOnUnknownProperties) {
+        throw new DatabaseException(message);
+      } else if (this.warnOnUnknownProperties) {
+        // TODO: replace Android logging with "our" logging
+        Log.w(LOG_TAG, message);
+      }
+      return null;
+    }
+
+    private void setProperty(T instance, String propertyName, Object value) {
+      if (this.setters.containsKey(propertyName)) {
+        try {
+          this.setters.get(propertyName).invoke(instance, value);
+        } catch (IllegalAccessException e) {
+          throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+          throw new RuntimeException(e);
+        }
+      } else {
+        try {
+          this.fields.get(propertyName).set(instance, value);
+        } catch (IllegalAccessException e) {
+          throw new RuntimeException(e);
         }
       }
-      return instance;
     }
 
     private Type resolveType(Type type, Map<TypeVariable<Class<T>>, Type> types) {
@@ -0,0 +1,35 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core.utilities.encoding;
+
+import com.google.firebase.database.snapshot.Node;
+import java.util.Map;
+
+/**
+ * Converts a class to and from database values without reflection. Implementations are generated
+ * at compile time for classes annotated with {@link com.google.firebase.database.GenerateMapper},
+ * and are found by {@link CustomClassMapper} through their name, see {@link
+ * CustomClassMapper#generatedMapperName}.
+ *
+ * @param <T> The class this mapper converts.
+ */
+public interface GeneratedMapper<T> {
+
+  /** Converts an object to a map of plain Java types, like {@link CustomClassMapper} does. */
+  Map<String, Object> serialize(T object);
+
+  /** Creates an object from a node with children. */
+  T deserialize(Node node);
+}
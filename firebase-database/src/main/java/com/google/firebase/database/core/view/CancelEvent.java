@@ -35,6 +35,11 @@ public class CancelEvent implements Event {
     return this.path;
   }
 
+  @Override
+  public EventRegistration getEventRegistration() {
+    return this.eventRegistration;
+  }
+
   @Override
   public void fire() {
     this.eventRegistration.fireCancelEvent(this.error);
@@ -46,6 +46,11 @@ public class DataEvent implements Event {
     }
   }
 
+  @Override
+  public EventRegistration getEventRegistration() {
+    return this.eventRegistration;
+  }
+
   public DataSnapshot getSnapshot() {
     return this.snapshot;
   }
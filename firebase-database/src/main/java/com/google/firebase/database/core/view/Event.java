@@ -14,6 +14,7 @@
 
 package com.google.firebase.database.core.view;
 
+import com.google.firebase.database.core.EventRegistration;
 import com.google.firebase.database.core.Path;
 
 public interface Event {
@@ -29,6 +30,8 @@ public interface Event {
 
   public Path getPath();
 
+  public EventRegistration getEventRegistration();
+
   public void fire();
 
   @Override
@@ -48,29 +48,34 @@ public class EventGenerator {
         filteredChanges.add(change);
       }
     }
-    Collections.sort(filteredChanges, changeComparator());
+    if (filteredChanges.size() > 1) {
+      Collections.sort(filteredChanges, changeComparator());
+    }
     for (Change change : filteredChanges) {
+      // The previous child name only depends on the change, so it is looked up at most once no
+      // matter how many registrations respond to it.
+      Change changeWithPrevName = null;
       for (EventRegistration registration : eventRegistrations) {
         if (registration.respondsTo(type)) {
-          events.add(generateEvent(change, registration, eventCache));
+          if (changeWithPrevName == null) {
+            changeWithPrevName = withPrevName(change, eventCache);
+          }
+          events.add(registration.createEvent(changeWithPrevName, this.query));
         }
       }
     }
   }
 
-  private DataEvent generateEvent(
-      Change change, EventRegistration registration, IndexedNode eventCache) {
-    Change newChange;
+  private Change withPrevName(Change change, IndexedNode eventCache) {
     if (change.getEventType().equals(Event.EventType.VALUE)
         || change.getEventType().equals(Event.EventType.CHILD_REMOVED)) {
-      newChange = change;
+      return change;
     } else {
       ChildKey prevChildKey =
           eventCache.getPredecessorChildName(
               change.getChildKey(), change.getIndexedNode().getNode(), this.index);
-      newChange = change.changeWithPrevName(prevChildKey);
+      return change.changeWithPrevName(prevChildKey);
     }
-    return registration.createEvent(newChange, this.query);
   }
 
   public List<DataEvent> generateEventsForChanges(
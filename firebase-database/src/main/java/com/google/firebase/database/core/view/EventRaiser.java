@@ -15,10 +15,15 @@
 package com.google.firebase.database.core.view;
 
 import com.google.firebase.database.core.Context;
+import com.google.firebase.database.core.EventRegistration;
 import com.google.firebase.database.core.EventTarget;
+import com.google.firebase.database.core.ExecutorEventTarget;
 import com.google.firebase.database.logging.LogWrapper;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Each view owns an instance of this class, and it is used to send events to the event target
@@ -27,6 +32,9 @@ import java.util.List;
  * <p>Note that it is safe to post events directly to that thread, since a shutdown will not occur
  * unless there are no listeners. If there are no listeners, all instances of this class will be
  * cleaned up.
+ *
+ * <p>If the event target runs callbacks in parallel, the events are posted per event registration,
+ * so that each listener still receives its events in order.
  */
 public class EventRaiser {
 
@@ -42,19 +50,44 @@ public class EventRaiser {
     if (logger.logsDebug()) {
       logger.debug("Raising " + events.size() + " event(s)");
     }
-    // TODO: Use an immutable data structure for events so we don't have to clone to be safe.
-    final ArrayList<Event> eventsClone = new ArrayList<Event>(events);
-    eventTarget.postEvent(
-        new Runnable() {
-          @Override
-          public void run() {
-            for (Event event : eventsClone) {
-              if (logger.logsDebug()) {
-                logger.debug("Raising " + event.toString());
-              }
-              event.fire();
-            }
+    if (eventTarget instanceof ExecutorEventTarget) {
+      Map<EventRegistration, List<Event>> eventsByRegistration =
+          new LinkedHashMap<EventRegistration, List<Event>>();
+      for (Event event : events) {
+        List<Event> registrationEvents = eventsByRegistration.get(event.getEventRegistration());
+        if (registrationEvents == null) {
+          registrationEvents = new ArrayList<Event>();
+          eventsByRegistration.put(event.getEventRegistration(), registrationEvents);
+        }
+        registrationEvents.add(event);
+      }
+      ExecutorEventTarget executorEventTarget = (ExecutorEventTarget) eventTarget;
+      for (Map.Entry<EventRegistration, List<Event>> entry : eventsByRegistration.entrySet()) {
+        try {
+          executorEventTarget.postEvent(entry.getKey(), newFireEventsRunnable(entry.getValue()));
+        } catch (RejectedExecutionException e) {
+          // The app's executor is saturated or shut down. The other listeners still get their
+          // events, and this one gets the next ones if the executor accepts them again.
+          logger.error("Callback executor rejected " + entry.getValue().size() + " event(s)", e);
+        }
+      }
+    } else {
+      // TODO: Use an immutable data structure for events so we don't have to clone to be safe.
+      eventTarget.postEvent(newFireEventsRunnable(new ArrayList<Event>(events)));
+    }
+  }
+
+  private Runnable newFireEventsRunnable(final List<Event> events) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        for (Event event : events) {
+          if (logger.logsDebug()) {
+            logger.debug("Raising " + event.toString());
           }
-        });
+          event.fire();
+        }
+      }
+    };
   }
 }
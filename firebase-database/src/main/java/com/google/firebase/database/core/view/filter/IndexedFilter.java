@@ -23,6 +23,8 @@ import com.google.firebase.database.snapshot.Index;
 import com.google.firebase.database.snapshot.IndexedNode;
 import com.google.firebase.database.snapshot.NamedNode;
 import com.google.firebase.database.snapshot.Node;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Doesn't really filter nodes but applies an index to the node and keeps track of any changes */
 public class IndexedFilter implements NodeFilter {
@@ -86,8 +88,10 @@ public class IndexedFilter implements NodeFilter {
     hardAssert(
         newSnap.hasIndex(this.index), "Can't use IndexedNode that doesn't have filter's index");
     if (optChangeAccumulator != null) {
+      List<ChildKey> changedChildren = new ArrayList<ChildKey>();
       for (NamedNode child : oldSnap.getNode()) {
         if (!newSnap.getNode().hasChild(child.getName())) {
+          changedChildren.add(child.getName());
           optChangeAccumulator.trackChildChange(
               Change.childRemovedChange(child.getName(), child.getNode()));
         }
@@ -97,15 +101,20 @@ public class IndexedFilter implements NodeFilter {
           if (oldSnap.getNode().hasChild(child.getName())) {
             Node oldChild = oldSnap.getNode().getImmediateChild(child.getName());
             if (!oldChild.equals(child.getNode())) {
+              changedChildren.add(child.getName());
               optChangeAccumulator.trackChildChange(
                   Change.childChangedChange(child.getName(), child.getNode(), oldChild));
             }
           } else {
+            changedChildren.add(child.getName());
             optChangeAccumulator.trackChildChange(
                 Change.childAddedChange(child.getName(), child.getNode()));
           }
         }
       }
+      // Events need the children in index order. Rather than sorting all children again, only
+      // re-sort the ones that changed.
+      return newSnap.withIndexFrom(oldSnap, changedChildren);
     }
     return newSnap;
   }
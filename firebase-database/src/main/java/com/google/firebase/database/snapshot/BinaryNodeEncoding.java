@@ -0,0 +1,379 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.util.JsonMapper;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of nodes, used by the persistent cache.
+ *
+ * <p>An encoded value starts with a two byte header (a zero byte, which never starts a JSON
+ * document, followed by the format version) and a dictionary of all child keys in the value. Nodes
+ * follow as a tag byte and a payload:
+ *
+ * <ul>
+ *   <li>Children nodes store the number of children, followed by each child's index into the key
+ *       dictionary and the child itself. Children are written in key order, so no sorting is
+ *       needed when decoding.
+ *   <li>Strings are stored as a varint length followed by UTF-8 bytes, longs as zig-zag varints,
+ *       doubles as 8 bytes and booleans in the tag itself.
+ *   <li>If the node has a priority, the tag has {@link #FLAG_PRIORITY} set and the priority node
+ *       follows the tag.
+ * </ul>
+ */
+public final class BinaryNodeEncoding {
+
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  private static final byte HEADER_MARKER = 0;
+  private static final byte FORMAT_VERSION = 1;
+
+  private static final int TAG_EMPTY = 0;
+  private static final int TAG_CHILDREN = 1;
+  private static final int TAG_STRING = 2;
+  private static final int TAG_LONG = 3;
+  private static final int TAG_DOUBLE = 4;
+  private static final int TAG_TRUE = 5;
+  private static final int TAG_FALSE = 6;
+  private static final int TAG_DEFERRED = 7;
+  private static final int TAG_MERGE = 8;
+
+  private static final int FLAG_PRIORITY = 0x80;
+  private static final int TAG_MASK = 0x7F;
+
+  private BinaryNodeEncoding() {}
+
+  /**
+   * Returns whether the given bytes were produced by this class, as opposed to being a JSON
+   * serialization of a node.
+   */
+  public static boolean isBinaryEncoded(byte[] bytes) {
+    return bytes.length >= 2 && bytes[0] == HEADER_MARKER;
+  }
+
+  /** Encodes the given node. */
+  public static byte[] encode(Node node) {
+    Encoder encoder = new Encoder();
+    encoder.writeNode(node);
+    return encoder.finish();
+  }
+
+  /** Encodes the given merge. */
+  public static byte[] encode(CompoundWrite merge) {
+    Encoder encoder = new Encoder();
+    List<Map.Entry<Path, Node>> writes = new ArrayList<>();
+    for (Map.Entry<Path, Node> write : merge) {
+      writes.add(write);
+    }
+    encoder.body.writeByte(TAG_MERGE);
+    encoder.body.writeVarint(writes.size());
+    for (Map.Entry<Path, Node> write : writes) {
+      encoder.body.writeString(write.getKey().toString());
+      encoder.writeNode(write.getValue());
+    }
+    return encoder.finish();
+  }
+
+  /** Decodes a node that was encoded with {@link #encode(Node)}. */
+  public static Node decodeNode(byte[] bytes) {
+    Decoder decoder = new Decoder(bytes);
+    Node node = decoder.readNode();
+    decoder.checkFullyRead();
+    return node;
+  }
+
+  /** Decodes a merge that was encoded with {@link #encode(CompoundWrite)}. */
+  public static CompoundWrite decodeMerge(byte[] bytes) {
+    Decoder decoder = new Decoder(bytes);
+    int tag = decoder.reader.readByte();
+    if (tag != TAG_MERGE) {
+      throw new DatabaseException("Expected an encoded merge, but found tag " + tag);
+    }
+    int count = decoder.reader.readVarint();
+    Map<Path, Node> writes = new HashMap<>(count);
+    for (int i = 0; i < count; i++) {
+      Path path = new Path(decoder.reader.readString());
+      writes.put(path, decoder.readNode());
+    }
+    decoder.checkFullyRead();
+    return CompoundWrite.fromPathMerge(writes);
+  }
+
+  private static class Encoder {
+    private final Map<String, Integer> keyDictionary = new LinkedHashMap<>();
+    private final ByteWriter body = new ByteWriter();
+
+    private void writeNode(Node node) {
+      if (node.isEmpty()) {
+        body.writeByte(TAG_EMPTY);
+        return;
+      }
+
+      Node priority = node.getPriority();
+      int flags = priority.isEmpty() ? 0 : FLAG_PRIORITY;
+      if (node instanceof ChildrenNode) {
+        body.writeByte(TAG_CHILDREN | flags);
+        writePriority(priority);
+        body.writeVarint(node.getChildCount());
+        for (NamedNode child : node) {
+          body.writeVarint(keyIndex(child.getName()));
+          writeNode(child.getNode());
+        }
+      } else if (node instanceof StringNode) {
+        body.writeByte(TAG_STRING | flags);
+        writePriority(priority);
+        body.writeString((String) node.getValue());
+      } else if (node instanceof LongNode) {
+        body.writeByte(TAG_LONG | flags);
+        writePriority(priority);
+        long value = (Long) node.getValue();
+        body.writeVarLong((value << 1) ^ (value >> 63));
+      } else if (node instanceof DoubleNode) {
+        body.writeByte(TAG_DOUBLE | flags);
+        writePriority(priority);
+        body.writeFixedLong(Double.doubleToLongBits((Double) node.getValue()));
+      } else if (node instanceof BooleanNode) {
+        body.writeByte(((Boolean) node.getValue() ? TAG_TRUE : TAG_FALSE) | flags);
+        writePriority(priority);
+      } else if (node instanceof DeferredValueNode) {
+        // Server values are rare and only occur in user writes, so they are kept as JSON.
+        body.writeByte(TAG_DEFERRED | flags);
+        writePriority(priority);
+        try {
+          body.writeString(JsonMapper.serializeJsonValue(node.getValue()));
+        } catch (IOException e) {
+          throw new DatabaseException("Could not serialize server value", e);
+        }
+      } else {
+        throw new DatabaseException("Can't encode node of type " + node.getClass().getName());
+      }
+    }
+
+    private void writePriority(Node priority) {
+      if (!priority.isEmpty()) {
+        writeNode(priority);
+      }
+    }
+
+    private int keyIndex(ChildKey key) {
+      String name = key.asString();
+      Integer index = keyDictionary.get(name);
+      if (index == null) {
+        index = keyDictionary.size();
+        keyDictionary.put(name, index);
+      }
+      return index;
+    }
+
+    private byte[] finish() {
+      ByteWriter header = new ByteWriter();
+      header.writeByte(HEADER_MARKER);
+      header.writeByte(FORMAT_VERSION);
+      header.writeVarint(keyDictionary.size());
+      for (String key : keyDictionary.keySet()) {
+        header.writeString(key);
+      }
+      header.write(body.buffer, 0, body.size);
+      return header.toByteArray();
+    }
+  }
+
+  private static class Decoder {
+    private final ByteReader reader;
+    private final ChildKey[] keyDictionary;
+
+    private Decoder(byte[] bytes) {
+      if (!isBinaryEncoded(bytes)) {
+        throw new DatabaseException("Value is not a binary encoded node");
+      }
+      reader = new ByteReader(bytes);
+      reader.readByte(); // HEADER_MARKER
+      int version = reader.readByte();
+      if (version != FORMAT_VERSION) {
+        throw new DatabaseException("Unsupported node encoding version " + version);
+      }
+      keyDictionary = new ChildKey[reader.readVarint()];
+      for (int i = 0; i < keyDictionary.length; i++) {
+        keyDictionary[i] = ChildKey.fromString(reader.readString());
+      }
+    }
+
+    private Node readNode() {
+      int tagAndFlags = reader.readByte();
+      int tag = tagAndFlags & TAG_MASK;
+      if (tag == TAG_EMPTY) {
+        return EmptyNode.Empty();
+      }
+
+      Node priority =
+          (tagAndFlags & FLAG_PRIORITY) != 0 ? readNode() : PriorityUtilities.NullPriority();
+      switch (tag) {
+        case TAG_CHILDREN:
+          int count = reader.readVarint();
+          List<ChildKey> keys = new ArrayList<>(count);
+          Map<ChildKey, Node> children = new HashMap<>(count);
+          for (int i = 0; i < count; i++) {
+            ChildKey key = keyDictionary[reader.readVarint()];
+            keys.add(key);
+            children.put(key, readNode());
+          }
+          return new ChildrenNode(CompactLeafMap.buildFrom(keys, children), priority);
+        case TAG_STRING:
+          return new StringNode(reader.readString(), priority);
+        case TAG_LONG:
+          long zigZag = reader.readVarLong();
+          return new LongNode((zigZag >>> 1) ^ -(zigZag & 1), priority);
+        case TAG_DOUBLE:
+          return new DoubleNode(Double.longBitsToDouble(reader.readFixedLong()), priority);
+        case TAG_TRUE:
+          return new BooleanNode(true, priority);
+        case TAG_FALSE:
+          return new BooleanNode(false, priority);
+        case TAG_DEFERRED:
+          try {
+            @SuppressWarnings("unchecked")
+            Map<Object, Object> value = (Map) JsonMapper.parseJson(reader.readString());
+            return new DeferredValueNode(value, priority);
+          } catch (IOException e) {
+            throw new DatabaseException("Could not parse server value", e);
+          }
+        default:
+          throw new DatabaseException("Unknown node tag " + tag);
+      }
+    }
+
+    private void checkFullyRead() {
+      if (reader.position != reader.bytes.length) {
+        throw new DatabaseException("Unexpected trailing data in encoded node");
+      }
+    }
+  }
+
+  private static class ByteWriter {
+    private byte[] buffer = new byte[256];
+    private int size;
+
+    private void ensureCapacity(int additional) {
+      if (size + additional > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+      }
+    }
+
+    private void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) value;
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, offset, buffer, size, length);
+      size += length;
+    }
+
+    private void writeVarint(int value) {
+      writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[size++] = (byte) value;
+    }
+
+    private void writeFixedLong(long value) {
+      ensureCapacity(8);
+      for (int i = 0; i < 8; i++) {
+        buffer[size++] = (byte) (value >>> (8 * i));
+      }
+    }
+
+    private void writeString(String value) {
+      byte[] bytes = value.getBytes(UTF8_CHARSET);
+      writeVarint(bytes.length);
+      write(bytes, 0, bytes.length);
+    }
+
+    private byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+  }
+
+  private static class ByteReader {
+    private final byte[] bytes;
+    private int position;
+
+    private ByteReader(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    private void require(int length) {
+      if (position + length > bytes.length) {
+        throw new DatabaseException("Unexpected end of encoded node");
+      }
+    }
+
+    private int readByte() {
+      require(1);
+      return bytes[position++] & 0xFF;
+    }
+
+    private int readVarint() {
+      return (int) readVarLong();
+    }
+
+    private long readVarLong() {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new DatabaseException("Malformed varint in encoded node");
+    }
+
+    private long readFixedLong() {
+      require(8);
+      long result = 0;
+      for (int i = 0; i < 8; i++) {
+        result |= (long) (bytes[position++] & 0xFF) << (8 * i);
+      }
+      return result;
+    }
+
+    private String readString() {
+      int length = readVarint();
+      require(length);
+      String result = new String(bytes, position, length, UTF8_CHARSET);
+      position += length;
+      return result;
+    }
+  }
+}
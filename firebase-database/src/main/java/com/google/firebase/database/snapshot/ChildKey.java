@@ -31,6 +31,14 @@ public class ChildKey implements Comparable<ChildKey> {
   private static final ChildKey PRIORITY_CHILD_KEY = new ChildKey(".priority");
   private static final ChildKey INFO_CHILD_KEY = new ChildKey(".info");
 
+  /**
+   * Recently created keys, so that the same key in many children, such as the field names of a list
+   * of objects, is only kept in memory once. Each key can only be kept in one slot, so unique keys
+   * such as push ids replace each other instead of growing the pool. Keys only have final fields,
+   * which makes it safe to share them between threads without synchronization.
+   */
+  private static final ChildKey[] INTERNED_KEYS = new ChildKey[4096];
+
   public static ChildKey getMinName() {
     return MIN_KEY;
   }
@@ -112,15 +120,28 @@ public class ChildKey implements Comparable<ChildKey> {
   }
 
   public static ChildKey fromString(String key) {
+    int slot = internSlot(key);
+    ChildKey interned = INTERNED_KEYS[slot];
+    if (interned != null && interned.key.equals(key)) {
+      return interned;
+    }
+    ChildKey childKey;
     Integer intValue = Utilities.tryParseInt(key);
     if (intValue != null) {
-      return new IntegerChildKey(key, intValue);
+      childKey = new IntegerChildKey(key, intValue);
     } else if (key.equals(".priority")) {
       return PRIORITY_CHILD_KEY;
     } else {
       hardAssert(!key.contains("/"));
-      return new ChildKey(key);
+      childKey = new ChildKey(key);
     }
+    INTERNED_KEYS[slot] = childKey;
+    return childKey;
+  }
+
+  private static int internSlot(String key) {
+    int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & (INTERNED_KEYS.length - 1);
   }
 
   private static class IntegerChildKey extends ChildKey {
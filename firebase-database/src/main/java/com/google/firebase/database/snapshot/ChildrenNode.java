@@ -181,16 +181,7 @@ public class ChildrenNode implements Node {
       toHash.append(priority.getHashRepresentation(HashVersion.V1));
       toHash.append(":");
     }
-    List<NamedNode> nodes = new ArrayList<NamedNode>();
-    boolean sawPriority = false;
-    for (NamedNode node : this) {
-      nodes.add(node);
-      sawPriority = sawPriority || !node.getNode().getPriority().isEmpty();
-    }
-    if (sawPriority) {
-      Collections.sort(nodes, PriorityIndex.getInstance());
-    }
-    for (NamedNode node : nodes) {
+    for (NamedNode node : childrenInHashOrder()) {
       String hashString = node.getNode().getHash();
       if (!hashString.equals("")) {
         toHash.append(":");
@@ -205,12 +196,48 @@ public class ChildrenNode implements Node {
   @Override
   public String getHash() {
     if (this.lazyHash == null) {
-      String hashString = getHashRepresentation(HashVersion.V1);
-      this.lazyHash = hashString.isEmpty() ? "" : Utilities.sha1HexDigest(hashString);
+      // Equivalent to hashing getHashRepresentation(HashVersion.V1), but without building the
+      // representation of large nodes in memory.
+      StreamingHasher hasher = new StreamingHasher();
+      if (!priority.isEmpty()) {
+        hasher.append("priority:");
+        hasher.append(priority.getHashRepresentation(HashVersion.V1));
+        hasher.append(":");
+      }
+      for (NamedNode node : childrenInHashOrder()) {
+        String hashString = node.getNode().getHash();
+        if (!hashString.equals("")) {
+          hasher.append(":");
+          hasher.append(node.getName().asString());
+          hasher.append(":");
+          hasher.append(hashString);
+        }
+      }
+      this.lazyHash = hasher.length() == 0 ? "" : hasher.finish();
     }
     return this.lazyHash;
   }
 
+  /** Returns the children in the order in which they contribute to the hash. */
+  private Iterable<NamedNode> childrenInHashOrder() {
+    boolean sawPriority = false;
+    for (NamedNode node : this) {
+      if (!node.getNode().getPriority().isEmpty()) {
+        sawPriority = true;
+        break;
+      }
+    }
+    if (!sawPriority) {
+      return this;
+    }
+    List<NamedNode> nodes = new ArrayList<NamedNode>(getChildCount());
+    for (NamedNode node : this) {
+      nodes.add(node);
+    }
+    Collections.sort(nodes, PriorityIndex.getInstance());
+    return nodes;
+  }
+
   @Override
   public boolean isLeafNode() {
     return false;
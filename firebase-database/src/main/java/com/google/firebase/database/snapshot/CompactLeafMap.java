@@ -0,0 +1,293 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.database.collection.LLRBNode;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The children of a node whose children are all leaves without priorities, stored in columns
+ * instead of as one {@link LeafNode} per child. Leaf nodes are created when a child is read, which
+ * costs an allocation per read but saves most of the memory of large, leaf-heavy nodes such as
+ * lists of counters or sets of ids.
+ *
+ * <p>Updates turn the map into a regular tree map, which can then be updated in logarithmic time.
+ * Compact maps are built when nodes are created in bulk, from server data or the disk cache.
+ */
+class CompactLeafMap extends ImmutableSortedMap<ChildKey, Node> {
+
+  /** Nodes with fewer children are built as regular maps, which are cheap at that size. */
+  static final int MIN_COMPACT_SIZE = 25;
+
+  private static final byte TYPE_LONG = 0;
+  private static final byte TYPE_DOUBLE = 1;
+  private static final byte TYPE_BOOLEAN = 2;
+  private static final byte TYPE_STRING = 3;
+
+  private final ChildKey[] keys;
+  private final byte[] types;
+  // Longs, the bits of doubles, and booleans as 0 or 1. Null if all children are strings.
+  private final long[] numbers;
+  // Null if no child is a string.
+  private final String[] strings;
+
+  private CompactLeafMap(ChildKey[] keys, byte[] types, long[] numbers, String[] strings) {
+    this.keys = keys;
+    this.types = types;
+    this.numbers = numbers;
+    this.strings = strings;
+  }
+
+  /**
+   * Builds the children of a node, compactly if they are all leaves without priorities.
+   *
+   * @param keys The keys of the children, which are sorted in place
+   */
+  static ImmutableSortedMap<ChildKey, Node> buildFrom(
+      List<ChildKey> keys, Map<ChildKey, Node> children) {
+    if (keys.size() < MIN_COMPACT_SIZE || !allCompactLeaves(children.values())) {
+      return ImmutableSortedMap.Builder.buildFrom(
+          keys,
+          children,
+          ImmutableSortedMap.Builder.<ChildKey>identityTranslator(),
+          ChildrenNode.NAME_ONLY_COMPARATOR);
+    }
+    Collections.sort(keys, ChildrenNode.NAME_ONLY_COMPARATOR);
+    int size = keys.size();
+    ChildKey[] keyArray = keys.toArray(new ChildKey[size]);
+    byte[] types = new byte[size];
+    long[] numbers = null;
+    String[] strings = null;
+    for (int i = 0; i < size; i++) {
+      Node child = children.get(keyArray[i]);
+      if (child instanceof StringNode) {
+        if (strings == null) {
+          strings = new String[size];
+        }
+        types[i] = TYPE_STRING;
+        strings[i] = (String) child.getValue();
+      } else {
+        if (numbers == null) {
+          numbers = new long[size];
+        }
+        if (child instanceof LongNode) {
+          types[i] = TYPE_LONG;
+          numbers[i] = (Long) child.getValue();
+        } else if (child instanceof DoubleNode) {
+          types[i] = TYPE_DOUBLE;
+          numbers[i] = Double.doubleToRawLongBits((Double) child.getValue());
+        } else {
+          types[i] = TYPE_BOOLEAN;
+          numbers[i] = (Boolean) child.getValue() ? 1 : 0;
+        }
+      }
+    }
+    return new CompactLeafMap(keyArray, types, numbers, strings);
+  }
+
+  /** Builds the children of a node, see {@link #buildFrom(List, Map)}. */
+  static ImmutableSortedMap<ChildKey, Node> fromMap(Map<ChildKey, Node> children) {
+    return buildFrom(new ArrayList<ChildKey>(children.keySet()), children);
+  }
+
+  private static boolean allCompactLeaves(Iterable<Node> children) {
+    for (Node child : children) {
+      if (!(child instanceof LongNode
+              || child instanceof DoubleNode
+              || child instanceof BooleanNode
+              || child instanceof StringNode)
+          || !child.getPriority().isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Node nodeAt(int pos) {
+    Node priority = PriorityUtilities.NullPriority();
+    switch (types[pos]) {
+      case TYPE_LONG:
+        return new LongNode(numbers[pos], priority);
+      case TYPE_DOUBLE:
+        return new DoubleNode(Double.longBitsToDouble(numbers[pos]), priority);
+      case TYPE_BOOLEAN:
+        return new BooleanNode(numbers[pos] != 0, priority);
+      default:
+        return new StringNode(strings[pos], priority);
+    }
+  }
+
+  private int findKey(ChildKey key) {
+    int pos = Arrays.binarySearch(keys, key, ChildrenNode.NAME_ONLY_COMPARATOR);
+    return pos >= 0 ? pos : -1;
+  }
+
+  private int findKeyOrInsertPosition(ChildKey key) {
+    int pos = Arrays.binarySearch(keys, key, ChildrenNode.NAME_ONLY_COMPARATOR);
+    return pos >= 0 ? pos : -(pos + 1);
+  }
+
+  /** Converts this map into a regular map, which can be updated without copying the columns. */
+  private ImmutableSortedMap<ChildKey, Node> toRegularMap() {
+    Map<ChildKey, Node> children = new HashMap<ChildKey, Node>(keys.length);
+    for (int i = 0; i < keys.length; i++) {
+      children.put(keys[i], nodeAt(i));
+    }
+    return ImmutableSortedMap.Builder.buildFrom(
+        new ArrayList<ChildKey>(Arrays.asList(keys)),
+        children,
+        ImmutableSortedMap.Builder.<ChildKey>identityTranslator(),
+        ChildrenNode.NAME_ONLY_COMPARATOR);
+  }
+
+  @Override
+  public boolean containsKey(ChildKey key) {
+    return findKey(key) != -1;
+  }
+
+  @Override
+  public Node get(ChildKey key) {
+    int pos = findKey(key);
+    return pos != -1 ? nodeAt(pos) : null;
+  }
+
+  @Override
+  public ImmutableSortedMap<ChildKey, Node> remove(ChildKey key) {
+    if (findKey(key) == -1) {
+      return this;
+    }
+    return toRegularMap().remove(key);
+  }
+
+  @Override
+  public ImmutableSortedMap<ChildKey, Node> insert(ChildKey key, Node value) {
+    return toRegularMap().insert(key, value);
+  }
+
+  @Override
+  public ChildKey getMinKey() {
+    return keys.length > 0 ? keys[0] : null;
+  }
+
+  @Override
+  public ChildKey getMaxKey() {
+    return keys.length > 0 ? keys[keys.length - 1] : null;
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return keys.length == 0;
+  }
+
+  @Override
+  public void inOrderTraversal(LLRBNode.NodeVisitor<ChildKey, Node> visitor) {
+    for (int i = 0; i < keys.length; i++) {
+      visitor.visitEntry(keys[i], nodeAt(i));
+    }
+  }
+
+  private Iterator<Map.Entry<ChildKey, Node>> iterator(final int pos, final boolean reverse) {
+    return new Iterator<Map.Entry<ChildKey, Node>>() {
+      int currentPos = pos;
+
+      @Override
+      public boolean hasNext() {
+        return reverse ? currentPos >= 0 : currentPos < keys.length;
+      }
+
+      @Override
+      public Map.Entry<ChildKey, Node> next() {
+        Map.Entry<ChildKey, Node> entry =
+            new AbstractMap.SimpleImmutableEntry<ChildKey, Node>(
+                keys[currentPos], nodeAt(currentPos));
+        currentPos = reverse ? currentPos - 1 : currentPos + 1;
+        return entry;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Can't remove elements from ImmutableSortedMap");
+      }
+    };
+  }
+
+  @Override
+  public Iterator<Map.Entry<ChildKey, Node>> iterator() {
+    return iterator(0, false);
+  }
+
+  @Override
+  public Iterator<Map.Entry<ChildKey, Node>> iteratorFrom(ChildKey key) {
+    return iterator(findKeyOrInsertPosition(key), false);
+  }
+
+  @Override
+  public Iterator<Map.Entry<ChildKey, Node>> reverseIteratorFrom(ChildKey key) {
+    int pos = findKeyOrInsertPosition(key);
+    // Without an exact match, start just before the position the key would be inserted at.
+    if (pos < keys.length && ChildrenNode.NAME_ONLY_COMPARATOR.compare(keys[pos], key) == 0) {
+      return iterator(pos, true);
+    } else {
+      return iterator(pos - 1, true);
+    }
+  }
+
+  @Override
+  public Iterator<Map.Entry<ChildKey, Node>> reverseIterator() {
+    return iterator(keys.length - 1, true);
+  }
+
+  @Override
+  public ChildKey getPredecessorKey(ChildKey key) {
+    int pos = findKey(key);
+    if (pos == -1) {
+      throw new IllegalArgumentException("Can't find predecessor of nonexistent key");
+    }
+    return pos > 0 ? keys[pos - 1] : null;
+  }
+
+  @Override
+  public ChildKey getSuccessorKey(ChildKey key) {
+    int pos = findKey(key);
+    if (pos == -1) {
+      throw new IllegalArgumentException("Can't find successor of nonexistent key");
+    }
+    return pos < keys.length - 1 ? keys[pos + 1] : null;
+  }
+
+  @Override
+  public int indexOf(ChildKey key) {
+    return findKey(key);
+  }
+
+  @Override
+  public Comparator<ChildKey> getComparator() {
+    return ChildrenNode.NAME_ONLY_COMPARATOR;
+  }
+}
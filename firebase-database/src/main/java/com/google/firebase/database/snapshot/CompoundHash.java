@@ -77,7 +77,7 @@ public class CompoundHash {
   static class CompoundHashBuilder {
     // NOTE: We use the existence of this to know if we've started building a range (i.e.
     // encountered a leaf node).
-    private StringBuilder optHashValueBuilder = null;
+    private StreamingHasher optHasher = null;
 
     // The current path as a stack. This is used in combination with currentPathDepth to
     // simultaneously store the last leaf node path. The depth is changed when descending and
@@ -101,11 +101,11 @@ public class CompoundHash {
     }
 
     public boolean buildingRange() {
-      return this.optHashValueBuilder != null;
+      return this.optHasher != null;
     }
 
     public int currentHashLength() {
-      return this.optHashValueBuilder.length();
+      return this.optHasher.length();
     }
 
     public Path currentPath() {
@@ -122,25 +122,25 @@ public class CompoundHash {
 
     private void ensureRange() {
       if (!buildingRange()) {
-        optHashValueBuilder = new StringBuilder();
-        optHashValueBuilder.append("(");
+        optHasher = new StreamingHasher();
+        optHasher.append("(");
         for (ChildKey key : currentPath(currentPathDepth)) {
-          appendKey(optHashValueBuilder, key);
-          optHashValueBuilder.append(":(");
+          appendKey(optHasher, key);
+          optHasher.append(":(");
         }
         needsComma = false;
       }
     }
 
-    private void appendKey(StringBuilder builder, ChildKey key) {
-      builder.append(Utilities.stringHashV2Representation(key.asString()));
+    private void appendKey(StreamingHasher hasher, ChildKey key) {
+      hasher.append(Utilities.stringHashV2Representation(key.asString()));
     }
 
     private void processLeaf(LeafNode<?> node) {
       ensureRange();
 
       lastLeafDepth = currentPathDepth;
-      optHashValueBuilder.append(node.getHashRepresentation(Node.HashVersion.V2));
+      node.appendHashRepresentation(Node.HashVersion.V2, optHasher);
       needsComma = true;
       if (splitStrategy.shouldSplit(this)) {
         endRange();
@@ -151,10 +151,10 @@ public class CompoundHash {
       ensureRange();
 
       if (needsComma) {
-        optHashValueBuilder.append(",");
+        optHasher.append(",");
       }
-      appendKey(optHashValueBuilder, key);
-      optHashValueBuilder.append(":(");
+      appendKey(optHasher, key);
+      optHasher.append(":(");
 
       if (currentPathDepth == currentPath.size()) {
         currentPath.add(key);
@@ -168,7 +168,7 @@ public class CompoundHash {
     private void endChild() {
       currentPathDepth--;
       if (buildingRange()) {
-        optHashValueBuilder.append(")");
+        optHasher.append(")");
       }
       needsComma = true;
     }
@@ -186,16 +186,16 @@ public class CompoundHash {
       hardAssert(buildingRange(), "Can't end range without starting a range!");
       // Add closing parenthesis for current depth
       for (int i = 0; i < currentPathDepth; i++) {
-        optHashValueBuilder.append(")");
+        optHasher.append(")");
       }
-      optHashValueBuilder.append(")");
+      optHasher.append(")");
 
       Path lastLeafPath = currentPath(lastLeafDepth);
-      String hash = Utilities.sha1HexDigest(optHashValueBuilder.toString());
+      String hash = optHasher.finish();
       currentHashes.add(hash);
       currentPaths.add(lastLeafPath);
 
-      optHashValueBuilder = null;
+      optHasher = null;
     }
   }
 
@@ -17,6 +17,7 @@ package com.google.firebase.database.snapshot;
 import com.google.android.gms.common.internal.Objects;
 import com.google.firebase.database.collection.ImmutableSortedSet;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -133,6 +134,37 @@ public class IndexedNode implements Iterable<NamedNode> {
     }
   }
 
+  /**
+   * Returns this node with the index of {@code previous} carried over, if {@code previous} has
+   * already built its index and this node has not. This node must only differ from {@code previous}
+   * in {@code changedChildren}, so only those children need to be re-sorted instead of rebuilding
+   * the whole index when it is next used.
+   */
+  public IndexedNode withIndexFrom(IndexedNode previous, Collection<ChildKey> changedChildren) {
+    if (this.indexed != null
+        || previous.indexed == null
+        || Objects.equal(previous.indexed, FALLBACK_INDEX)
+        || !previous.index.equals(this.index)
+        || !(this.node instanceof ChildrenNode)
+        || !(previous.node instanceof ChildrenNode)
+        || changedChildren.size() > this.node.getChildCount() / 2) {
+      return this;
+    }
+    ImmutableSortedSet<NamedNode> newIndexed = previous.indexed;
+    for (ChildKey key : changedChildren) {
+      Node oldChild = previous.node.getImmediateChild(key);
+      if (!oldChild.isEmpty()) {
+        newIndexed = newIndexed.remove(new NamedNode(key, oldChild));
+      }
+      Node newChild = this.node.getImmediateChild(key);
+      if (!newChild.isEmpty()) {
+        newIndexed = newIndexed.insert(new NamedNode(key, newChild));
+      }
+    }
+    this.indexed = newIndexed;
+    return this;
+  }
+
   public IndexedNode updatePriority(Node priority) {
     return new IndexedNode(node.updatePriority(priority), this.index, this.indexed);
   }
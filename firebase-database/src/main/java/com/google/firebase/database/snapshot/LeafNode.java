@@ -17,7 +17,6 @@ package com.google.firebase.database.snapshot;
 import static com.google.firebase.database.core.utilities.Utilities.hardAssert;
 
 import com.google.firebase.database.core.Path;
-import com.google.firebase.database.core.utilities.Utilities;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -134,11 +133,21 @@ public abstract class LeafNode<T extends LeafNode> implements Node {
   @Override
   public String getHash() {
     if (this.lazyHash == null) {
-      this.lazyHash = Utilities.sha1HexDigest(getHashRepresentation(HashVersion.V1));
+      StreamingHasher hasher = new StreamingHasher();
+      appendHashRepresentation(HashVersion.V1, hasher);
+      this.lazyHash = hasher.finish();
     }
     return this.lazyHash;
   }
 
+  /**
+   * Appends the hash representation to the given hasher. Subclasses with potentially large values
+   * override this to avoid building the representation as a String.
+   */
+  void appendHashRepresentation(HashVersion version, StreamingHasher hasher) {
+    hasher.append(getHashRepresentation(version));
+  }
+
   protected String getPriorityHash(HashVersion version) {
     switch (version) {
       case V1:
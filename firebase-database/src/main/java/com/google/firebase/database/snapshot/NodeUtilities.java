@@ -15,7 +15,6 @@
 package com.google.firebase.database.snapshot;
 
 import com.google.firebase.database.DatabaseException;
-import com.google.firebase.database.collection.ImmutableSortedMap;
 import com.google.firebase.database.core.ServerValues;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -94,9 +93,7 @@ public class NodeUtilities {
         if (childData.isEmpty()) {
           return EmptyNode.Empty();
         } else {
-          ImmutableSortedMap<ChildKey, Node> childSet =
-              ImmutableSortedMap.Builder.fromMap(childData, ChildrenNode.NAME_ONLY_COMPARATOR);
-          return new ChildrenNode(childSet, priority);
+          return new ChildrenNode(CompactLeafMap.fromMap(childData), priority);
         }
       } else {
         throw new DatabaseException(
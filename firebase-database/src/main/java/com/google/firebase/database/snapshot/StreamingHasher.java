@@ -0,0 +1,105 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import android.util.Base64;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Computes the SHA-1 hash of a hash representation while it is being built, instead of building the
+ * whole representation as a String first.
+ *
+ * <p>The result is identical to calling {@link
+ * com.google.firebase.database.core.utilities.Utilities#sha1HexDigest} on the concatenation of all
+ * appended strings: strings are encoded as UTF-8, with unpaired surrogates replaced by '?' like
+ * {@link String#getBytes(String)} does.
+ */
+final class StreamingHasher {
+  private static final int INITIAL_BUFFER_SIZE = 64;
+  private static final int MAX_BUFFER_SIZE = 8 * 1024;
+
+  /** The maximum number of bytes a single char (or surrogate pair) encodes to. */
+  private static final int MAX_BYTES_PER_CHAR = 4;
+
+  private final MessageDigest digest;
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+  private int bufferPosition;
+  private int length;
+
+  StreamingHasher() {
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Missing SHA-1 MessageDigest provider.", e);
+    }
+  }
+
+  /** Returns the number of chars appended so far. */
+  int length() {
+    return length;
+  }
+
+  StreamingHasher append(String value) {
+    int count = value.length();
+    for (int i = 0; i < count; i++) {
+      ensureCapacity();
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer[bufferPosition++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[bufferPosition++] = (byte) (0xC0 | (c >> 6));
+        buffer[bufferPosition++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < count
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[bufferPosition++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[bufferPosition++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[bufferPosition++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[bufferPosition++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        buffer[bufferPosition++] = '?';
+      } else {
+        buffer[bufferPosition++] = (byte) (0xE0 | (c >> 12));
+        buffer[bufferPosition++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[bufferPosition++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    length += count;
+    return this;
+  }
+
+  /** Returns the Base64 encoded hash of everything appended. The hasher can't be used after. */
+  String finish() {
+    digest.update(buffer, 0, bufferPosition);
+    bufferPosition = 0;
+    return Base64.encodeToString(digest.digest(), Base64.NO_WRAP);
+  }
+
+  private void ensureCapacity() {
+    if (bufferPosition + MAX_BYTES_PER_CHAR <= buffer.length) {
+      return;
+    }
+    if (buffer.length < MAX_BUFFER_SIZE) {
+      // Most hashed values are small, so the buffer only grows as needed.
+      buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_BUFFER_SIZE));
+    } else {
+      digest.update(buffer, 0, bufferPosition);
+      bufferPosition = 0;
+    }
+  }
+}
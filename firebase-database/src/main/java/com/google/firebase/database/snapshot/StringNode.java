@@ -44,6 +44,26 @@ public class StringNode extends LeafNode<StringNode> {
     }
   }
 
+  @Override
+  void appendHashRepresentation(HashVersion version, StreamingHasher hasher) {
+    switch (version) {
+      case V1:
+        hasher.append(getPriorityHash(version)).append("string:").append(value);
+        break;
+      case V2:
+        hasher.append(getPriorityHash(version)).append("string:");
+        if (value.indexOf('\\') == -1 && value.indexOf('"') == -1) {
+          // Nothing to escape, so skip the copy made by stringHashV2Representation().
+          hasher.append("\"").append(value).append("\"");
+        } else {
+          hasher.append(Utilities.stringHashV2Representation(value));
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Invalid hash version for string node: " + version);
+    }
+  }
+
   @Override
   public StringNode updatePriority(Node priority) {
     return new StringNode(value, priority);
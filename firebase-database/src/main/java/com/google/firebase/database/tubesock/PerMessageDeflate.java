@@ -0,0 +1,215 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.tubesock;
+
+import android.os.Build;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Implements the permessage-deflate extension from RFC 7692. Messages are compressed with a single
+ * Deflater and decompressed with a single Inflater, which keep their sliding window across messages
+ * unless the peer asked for no context takeover.
+ *
+ * <p>The compressing half is used by the writer under its lock and the decompressing half only by
+ * the reader thread, so the two halves don't share any state. The native zlib streams are released
+ * by {@link #close} once the connection is torn down.
+ */
+class PerMessageDeflate {
+  static final String EXTENSION_NAME = "permessage-deflate";
+
+  // Every flushed message ends with an empty stored block, which is not sent over the wire.
+  private static final byte[] DEFLATE_TAIL = {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+  // Small messages such as keep-alives don't get smaller, so they are sent as they are.
+  static final int MIN_COMPRESSED_MESSAGE_SIZE = 64;
+
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+  // Buffers that have grown for a large message are dropped afterwards above this size.
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+  private final boolean clientNoContextTakeover;
+  private final boolean serverNoContextTakeover;
+
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, /*nowrap=*/ true);
+  private byte[] deflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+  private int deflatedLength = 0;
+
+  private final Inflater inflater = new Inflater(/*nowrap=*/ true);
+  private byte[] inflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+  private int inflatedLength = 0;
+
+  private volatile boolean closed = false;
+
+  PerMessageDeflate(boolean clientNoContextTakeover, boolean serverNoContextTakeover) {
+    this.clientNoContextTakeover = clientNoContextTakeover;
+    this.serverNoContextTakeover = serverNoContextTakeover;
+  }
+
+  /** Whether the platform supports the flush mode the extension requires. */
+  static boolean isSupported() {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+  }
+
+  /**
+   * The extension offer sent in the handshake. The Deflater always uses a 15 bit window, so the
+   * client_max_window_bits parameter is not offered, which means the server can't ask for less.
+   */
+  static String getOffer() {
+    return EXTENSION_NAME;
+  }
+
+  /**
+   * Parses the Sec-WebSocket-Extensions header of the server handshake.
+   *
+   * @return The negotiated extension, or null if the server did not accept it
+   */
+  static PerMessageDeflate fromServerResponse(String extensionsHeader) {
+    if (extensionsHeader == null || extensionsHeader.trim().isEmpty()) {
+      return null;
+    }
+    String[] extensions = extensionsHeader.split(",");
+    if (extensions.length > 1) {
+      throw new WebSocketException("connection failed: server accepted more than one extension");
+    }
+    String[] parameters = extensions[0].split(";");
+    if (!EXTENSION_NAME.equals(parameters[0].trim().toLowerCase(Locale.US))) {
+      throw new WebSocketException(
+          "connection failed: unsupported extension: " + parameters[0].trim());
+    }
+    boolean clientNoContextTakeover = false;
+    boolean serverNoContextTakeover = false;
+    for (int i = 1; i < parameters.length; i++) {
+      String[] nameValue = parameters[i].split("=", 2);
+      String name = nameValue[0].trim().toLowerCase(Locale.US);
+      if (name.equals("client_no_context_takeover")) {
+        clientNoContextTakeover = true;
+      } else if (name.equals("server_no_context_takeover")) {
+        serverNoContextTakeover = true;
+      } else if (name.equals("server_max_window_bits")) {
+        // The Inflater always uses the largest window, which can read any smaller one.
+      } else {
+        throw new WebSocketException(
+            "connection failed: unsupported " + EXTENSION_NAME + " parameter: " + name);
+      }
+    }
+    return new PerMessageDeflate(clientNoContextTakeover, serverNoContextTakeover);
+  }
+
+  /**
+   * Compresses a message into the deflate buffer. The result is only valid until the next call.
+   *
+   * @return The number of compressed bytes, see {@link #getDeflatedBytes}
+   */
+  int deflate(byte[] data) {
+    ensureOpen();
+    deflater.setInput(data);
+    deflatedLength = 0;
+    while (true) {
+      if (deflatedLength == deflateBuffer.length) {
+        deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+      }
+      deflatedLength +=
+          deflater.deflate(
+              deflateBuffer,
+              deflatedLength,
+              deflateBuffer.length - deflatedLength,
+              Deflater.SYNC_FLUSH);
+      // A sync flush that doesn't fill the buffer has consumed and written all input.
+      if (deflatedLength < deflateBuffer.length) {
+        break;
+      }
+    }
+    if (clientNoContextTakeover) {
+      deflater.reset();
+    }
+    deflatedLength -= DEFLATE_TAIL.length;
+    return deflatedLength;
+  }
+
+  byte[] getDeflatedBytes() {
+    return deflateBuffer;
+  }
+
+  /** Releases the deflate buffer if a large message made it grow. */
+  void releaseDeflateBuffer() {
+    if (deflateBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+      deflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+  }
+
+  /**
+   * Decompresses the payload of a frame of a compressed message. The decompressed message is
+   * returned by {@link #takeInflatedMessage} after its last frame.
+   */
+  void inflate(byte[] payload, boolean fin) {
+    ensureOpen();
+    try {
+      inflateInput(payload);
+      if (fin) {
+        inflateInput(DEFLATE_TAIL);
+        if (serverNoContextTakeover || inflater.finished()) {
+          inflater.reset();
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new WebSocketException("Failed to decompress message", e);
+    }
+  }
+
+  private void inflateInput(byte[] input) throws DataFormatException {
+    inflater.setInput(input);
+    while (true) {
+      if (inflatedLength == inflateBuffer.length) {
+        inflateBuffer = Arrays.copyOf(inflateBuffer, inflateBuffer.length * 2);
+      }
+      int count =
+          inflater.inflate(inflateBuffer, inflatedLength, inflateBuffer.length - inflatedLength);
+      inflatedLength += count;
+      if (count == 0
+          && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+        break;
+      }
+    }
+  }
+
+  byte[] takeInflatedMessage() {
+    byte[] message = Arrays.copyOf(inflateBuffer, inflatedLength);
+    inflatedLength = 0;
+    if (inflateBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+      inflateBuffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+    return message;
+  }
+
+  /**
+   * Releases the native memory held by the Deflater and the Inflater. Must only be called once the
+   * writer and the reader no longer use the extension.
+   */
+  void close() {
+    closed = true;
+    deflater.end();
+    inflater.end();
+  }
+
+  private void ensureOpen() {
+    if (closed) {
+      throw new WebSocketException(EXTENSION_NAME + " used after the connection was closed");
+    }
+  }
+}
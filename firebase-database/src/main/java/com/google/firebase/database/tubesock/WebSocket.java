@@ -419,9 +419,15 @@ public class WebSocket {
             keyValue[0].toLowerCase(Locale.US), keyValue[1].toLowerCase(Locale.US));
       }
       handshake.verifyServerHandshakeHeaders(lowercaseHeaders);
+      PerMessageDeflate deflate = handshake.getNegotiatedExtension(lowercaseHeaders);
+      if (deflate != null) {
+        logger.debug("Using " + PerMessageDeflate.EXTENSION_NAME);
+      }
 
       writer.setOutput(output);
+      writer.setPerMessageDeflate(deflate);
       receiver.setInput(input);
+      receiver.setPerMessageDeflate(deflate);
       state = WebSocket.State.CONNECTED;
       writer.getInnerThread().start();
       eventHandler.onOpen();
@@ -432,6 +438,9 @@ public class WebSocket {
       eventHandler.onError(new WebSocketException("error while connecting: " + t.getMessage(), t));
     } finally {
       close();
+      // The reader is done, and the writer no longer compresses messages once it has been
+      // stopped, so the native memory of the extension can be released.
+      writer.closePerMessageDeflate();
     }
   }
 
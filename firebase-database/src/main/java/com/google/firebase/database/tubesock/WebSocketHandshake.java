@@ -28,12 +28,14 @@ class WebSocketHandshake {
   private String protocol = null;
   private String nonce = null;
   private Map<String, String> extraHeaders = null;
+  private boolean offerPerMessageDeflate = false;
 
   public WebSocketHandshake(URI url, String protocol, Map<String, String> extraHeaders) {
     this.url = url;
     this.protocol = protocol;
     this.extraHeaders = extraHeaders;
     this.nonce = this.createNonce();
+    this.offerPerMessageDeflate = PerMessageDeflate.isSupported();
   }
 
   public byte[] getHandshake() {
@@ -57,6 +59,10 @@ class WebSocketHandshake {
       header.put("Sec-WebSocket-Protocol", this.protocol);
     }
 
+    if (this.offerPerMessageDeflate) {
+      header.put("Sec-WebSocket-Extensions", PerMessageDeflate.getOffer());
+    }
+
     if (this.extraHeaders != null) {
       for (String fieldName : this.extraHeaders.keySet()) {
         // Only checks for Field names with the exact same text,
@@ -116,6 +122,21 @@ class WebSocketHandshake {
     }
   }
 
+  /**
+   * Returns the compression extension the server accepted, or null if the connection isn't
+   * compressed.
+   */
+  public PerMessageDeflate getNegotiatedExtension(HashMap<String, String> lowercaseHeaders) {
+    String extensions = lowercaseHeaders.get("sec-websocket-extensions");
+    if (!offerPerMessageDeflate) {
+      if (extensions != null) {
+        throw new WebSocketException("connection failed: server accepted an extension not offered");
+      }
+      return null;
+    }
+    return PerMessageDeflate.fromServerResponse(extensions);
+  }
+
   private int rand(int min, int max) {
     int rand = (int) (Math.random() * max + min);
     return rand;
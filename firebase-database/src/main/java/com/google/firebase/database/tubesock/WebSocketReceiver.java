@@ -29,6 +29,8 @@ class WebSocketReceiver {
   private WebSocketEventHandler eventHandler = null;
   private byte[] inputHeader = new byte[112];
   private MessageBuilderFactory.Builder pendingBuilder;
+  private PerMessageDeflate deflate;
+  private boolean pendingCompressed = false;
 
   private volatile boolean stop = false;
 
@@ -40,6 +42,10 @@ class WebSocketReceiver {
     this.input = input;
   }
 
+  void setPerMessageDeflate(PerMessageDeflate deflate) {
+    this.deflate = deflate;
+  }
+
   void run() {
     this.eventHandler = websocket.getEventHandler();
     while (!stop) {
@@ -47,11 +53,16 @@ class WebSocketReceiver {
         int offset = 0;
         offset += read(inputHeader, offset, 1);
         boolean fin = (inputHeader[0] & 0x80) != 0;
-        boolean rsv = (inputHeader[0] & 0x70) != 0;
-        if (rsv) {
+        // RSV1 marks the first frame of a compressed message, the other bits are not used.
+        boolean compressed = (inputHeader[0] & 0x40) != 0;
+        boolean rsv = (inputHeader[0] & 0x30) != 0;
+        byte opcode = (byte) (inputHeader[0] & 0xf);
+        if (rsv
+            || (compressed
+                && (deflate == null
+                    || (opcode != WebSocket.OPCODE_TEXT && opcode != WebSocket.OPCODE_BINARY)))) {
           throw new WebSocketException("Invalid frame received");
         } else {
-          byte opcode = (byte) (inputHeader[0] & 0xf);
           offset += read(inputHeader, offset, 1);
           byte length = inputHeader[1];
           long payload_length = 0;
@@ -80,7 +91,7 @@ class WebSocketReceiver {
               || opcode == WebSocket.OPCODE_PING
               || opcode == WebSocket.OPCODE_NONE) {
             // It's some form of application data. Decode the payload
-            appendBytes(fin, opcode, payload);
+            appendBytes(fin, opcode, compressed, payload);
           } else {
             // Unsupported opcode
             throw new WebSocketException("Unsupported opcode: " + opcode);
@@ -96,7 +107,7 @@ class WebSocketReceiver {
     }
   }
 
-  private void appendBytes(boolean fin, byte opcode, byte[] data) {
+  private void appendBytes(boolean fin, byte opcode, boolean compressed, byte[] data) {
     // A ping can show up in the middle of another fragmented message
     if (opcode == WebSocket.OPCODE_PING) {
       if (fin) {
@@ -114,8 +125,17 @@ class WebSocketReceiver {
         if (pendingBuilder == null) {
           // We aren't continuing another message
           pendingBuilder = MessageBuilderFactory.builder(opcode);
+          pendingCompressed = compressed;
+        }
+        if (pendingCompressed) {
+          // Frames are decompressed as they arrive, but the message is decoded once it's complete
+          // since a frame boundary can split a character of the decompressed text.
+          deflate.inflate(data, fin);
+          if (fin) {
+            data = deflate.takeInflatedMessage();
+          }
         }
-        if (!pendingBuilder.appendBytes(data)) {
+        if ((!pendingCompressed || fin) && !pendingBuilder.appendBytes(data)) {
           throw new WebSocketException("Failed to decode frame");
         } else if (fin) {
           WebSocketMessage message = pendingBuilder.toMessage();
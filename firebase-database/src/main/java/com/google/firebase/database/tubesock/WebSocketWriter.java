@@ -35,6 +35,7 @@ class WebSocketWriter {
   private boolean closeSent = false;
   private WebSocket websocket;
   private WritableByteChannel channel;
+  private volatile PerMessageDeflate deflate;
   private final Thread innerThread;
 
   WebSocketWriter(WebSocket websocket, String threadBaseName, int clientId) {
@@ -57,12 +58,29 @@ class WebSocketWriter {
     channel = Channels.newChannel(output);
   }
 
-  private ByteBuffer frameInBuffer(byte opcode, boolean masking, byte[] data) throws IOException {
+  void setPerMessageDeflate(PerMessageDeflate deflate) {
+    this.deflate = deflate;
+  }
+
+  /**
+   * Stops compressing messages and releases the extension. Runs under the lock so that a message
+   * that is being compressed finishes first.
+   */
+  synchronized void closePerMessageDeflate() {
+    PerMessageDeflate deflate = this.deflate;
+    this.deflate = null;
+    if (deflate != null) {
+      deflate.close();
+    }
+  }
+
+  private ByteBuffer frameInBuffer(
+      byte opcode, boolean compressed, boolean masking, byte[] data, int length)
+      throws IOException {
     int headerLength = 2; // This is just an assumed headerLength, as we use a ByteArrayOutputStream
     if (masking) {
       headerLength += 4;
     }
-    int length = data.length;
     if (length < 126) {
       // nothing add to header length
     } else if (length <= 65535) {
@@ -70,19 +88,21 @@ class WebSocketWriter {
     } else {
       headerLength += 8;
     }
-    ByteBuffer frame = ByteBuffer.allocate(data.length + headerLength);
+    ByteBuffer frame = ByteBuffer.allocate(length + headerLength);
 
     byte fin = (byte) 0x80;
-    byte startByte = (byte) (fin | opcode);
+    byte rsv1 = compressed ? (byte) 0x40 : 0;
+    byte startByte = (byte) (fin | rsv1 | opcode);
     frame.put(startByte);
 
     int length_field;
 
     if (length < 126) {
+      length_field = length;
       if (masking) {
-        length = 0x80 | length;
+        length_field = 0x80 | length_field;
       }
-      frame.put((byte) length);
+      frame.put((byte) length_field);
     } else if (length <= 65535) {
       length_field = 126;
       if (masking) {
@@ -107,7 +127,7 @@ class WebSocketWriter {
       mask = generateMask();
       frame.put(mask);
 
-      for (int i = 0; i < data.length; i++) {
+      for (int i = 0; i < length; i++) {
         frame.put((byte) (data[i] ^ mask[i % 4]));
       }
     }
@@ -123,10 +143,24 @@ class WebSocketWriter {
   }
 
   synchronized void send(byte opcode, boolean masking, byte[] data) throws IOException {
-    ByteBuffer frame = frameInBuffer(opcode, masking, data);
+    // Check before compressing, a compressed message that isn't sent would corrupt the context.
     if (stop && (closeSent || opcode != WebSocket.OPCODE_CLOSE)) {
       throw new WebSocketException("Shouldn't be sending");
     }
+    ByteBuffer frame;
+    PerMessageDeflate deflate = this.deflate;
+    if (deflate != null
+        && (opcode == WebSocket.OPCODE_TEXT || opcode == WebSocket.OPCODE_BINARY)
+        && data.length >= PerMessageDeflate.MIN_COMPRESSED_MESSAGE_SIZE) {
+      // The message is compressed into a reusable buffer, which is copied into the frame here.
+      int length = deflate.deflate(data);
+      frame =
+          frameInBuffer(
+              opcode, /*compressed=*/ true, masking, deflate.getDeflatedBytes(), length);
+      deflate.releaseDeflateBuffer();
+    } else {
+      frame = frameInBuffer(opcode, /*compressed=*/ false, masking, data, data.length);
+    }
     if (opcode == WebSocket.OPCODE_CLOSE) {
       closeSent = true;
     }
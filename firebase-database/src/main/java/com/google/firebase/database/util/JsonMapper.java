@@ -14,7 +14,10 @@
 
 package com.google.firebase.database.util;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -94,6 +97,24 @@ public class JsonMapper {
     }
   }
 
+  /**
+   * Parses a JSON object while it is read from the given reader. Unlike {@link #parseJson(String)},
+   * this neither requires the whole document as a single String nor builds an intermediate org.json
+   * representation. Numbers are decoded to the same types as with org.json.
+   */
+  public static Map<String, Object> parseJson(Reader json) throws IOException {
+    JsonReader reader = new JsonReader(json);
+    reader.setLenient(true);
+    try {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        throw new IOException("Expected a JSON object, but got " + reader.peek());
+      }
+      return readObject(reader);
+    } catch (IllegalStateException | NumberFormatException e) {
+      throw new IOException(e);
+    }
+  }
+
   public static Object parseJsonValue(String json) throws IOException {
     try {
       return unwrapJson(new JSONTokener(json).nextValue());
@@ -120,6 +141,59 @@ public class JsonMapper {
     return list;
   }
 
+  private static Map<String, Object> readObject(JsonReader reader) throws IOException {
+    Map<String, Object> map = new HashMap<String, Object>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String key = reader.nextName();
+      map.put(key, readValue(reader));
+    }
+    reader.endObject();
+    return map;
+  }
+
+  private static Object readValue(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        return readObject(reader);
+      case BEGIN_ARRAY:
+        List<Object> list = new ArrayList<Object>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          list.add(readValue(reader));
+        }
+        reader.endArray();
+        return list;
+      case STRING:
+        return reader.nextString();
+      case NUMBER:
+        return parseNumber(reader.nextString());
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return null;
+      default:
+        throw new IOException("Unexpected JSON token: " + reader.peek());
+    }
+  }
+
+  /** Matches how org.json decodes numbers: Integer or Long if possible, otherwise Double. */
+  private static Object parseNumber(String literal) {
+    if (literal.indexOf('.') == -1) {
+      try {
+        long longValue = Long.parseLong(literal);
+        if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+          return (int) longValue;
+        }
+        return longValue;
+      } catch (NumberFormatException e) {
+        // Not an integer (e.g. it has an exponent) or out of range. Fall through to double.
+      }
+    }
+    return Double.valueOf(literal);
+  }
+
   private static Object unwrapJson(Object o) throws JSONException {
     if (o instanceof JSONObject) {
       return unwrapJsonObject((JSONObject) o);
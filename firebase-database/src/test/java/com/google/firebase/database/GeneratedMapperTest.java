@@ -0,0 +1,177 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database;
+
+import static com.google.firebase.database.UnitTestHelpers.fromSingleQuotedString;
+import static com.google.firebase.database.UnitTestHelpers.node;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.database.core.utilities.encoding.CustomClassMapper;
+import com.google.firebase.database.core.utilities.encoding.GeneratedMapper;
+import com.google.firebase.database.snapshot.Node;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeneratedMapperTest {
+
+  @GenerateMapper
+  @IgnoreExtraProperties
+  public static class Message {
+    public String text;
+    public long timestamp;
+    private boolean read;
+    private Author author;
+    private List<String> tags;
+    private Map<String, Long> reactions;
+
+    public boolean isRead() {
+      return read;
+    }
+
+    public void setRead(boolean read) {
+      this.read = read;
+    }
+
+    public Author getAuthor() {
+      return author;
+    }
+
+    public void setAuthor(Author author) {
+      this.author = author;
+    }
+
+    @PropertyName("labels")
+    public List<String> getTags() {
+      return tags;
+    }
+
+    @PropertyName("labels")
+    public void setTags(List<String> tags) {
+      this.tags = tags;
+    }
+
+    public Map<String, Long> getReactions() {
+      return reactions;
+    }
+
+    public void setReactions(Map<String, Long> reactions) {
+      this.reactions = reactions;
+    }
+
+    @Exclude
+    public String getPreview() {
+      return text.substring(0, 1);
+    }
+  }
+
+  public static class Author {
+    public String name;
+    public Author nested;
+  }
+
+  @GenerateMapper
+  @ThrowOnExtraProperties
+  public static class StrictMessage {
+    public String text;
+  }
+
+  private static final String MESSAGE_JSON =
+      "{'text': 'hi', 'timestamp': 42, 'read': true, 'labels': ['a', 'b'],"
+          + " 'reactions': {'like': 3}, 'author': {'name': 'ann', 'nested': {'name': 'bob'}},"
+          + " 'unknown': 1}";
+
+  @Test
+  public void mapperIsGeneratedForAnnotatedClasses() throws Exception {
+    Class<?> mapperClass = Class.forName(CustomClassMapper.generatedMapperName(Message.class));
+    assertTrue(GeneratedMapper.class.isAssignableFrom(mapperClass));
+    assertEquals(
+        "com.google.firebase.database.GeneratedMapperTest_Message_FirebaseDatabaseMapper",
+        mapperClass.getName());
+  }
+
+  @Test
+  public void generatedMapperDeserializesFromNode() {
+    Message message =
+        CustomClassMapper.convertNodeToCustomClass(node(MESSAGE_JSON), Message.class);
+    assertEquals("hi", message.text);
+    assertEquals(42L, message.timestamp);
+    assertTrue(message.isRead());
+    assertEquals("ann", message.getAuthor().name);
+    assertEquals("bob", message.getAuthor().nested.name);
+    assertNull(message.getAuthor().nested.nested);
+    assertEquals(2, message.getTags().size());
+    assertEquals("b", message.getTags().get(1));
+    assertEquals((Long) 3L, message.getReactions().get("like"));
+  }
+
+  @Test
+  public void generatedMapperMatchesReflectionBasedMapper() {
+    Map<String, Object> json = fromSingleQuotedString(MESSAGE_JSON);
+    Message fromMap = CustomClassMapper.convertToCustomClass(json, Message.class);
+    Message fromNode =
+        CustomClassMapper.convertNodeToCustomClass(node(MESSAGE_JSON), Message.class);
+    Object serialized = CustomClassMapper.convertToPlainJavaTypes(fromNode);
+    assertEquals(CustomClassMapper.convertToPlainJavaTypes(fromMap), serialized);
+    assertEquals(Arrays.asList("a", "b"), ((Map<?, ?>) serialized).get("labels"));
+  }
+
+  @Test
+  public void unknownPropertiesPointOutCaseMismatches() {
+    try {
+      CustomClassMapper.convertNodeToCustomClass(node("{'Text': 'hi'}"), StrictMessage.class);
+      fail("Expected the unknown property to be rejected");
+    } catch (DatabaseException e) {
+      assertEquals(
+          "No setter/field for Text found on class "
+              + StrictMessage.class.getName()
+              + " (fields/setters are case sensitive!)",
+          e.getMessage());
+    }
+  }
+
+  @Test
+  public void reflectiveBeansAreDeserializedFromNode() {
+    Author author =
+        CustomClassMapper.convertNodeToCustomClass(
+            node("{'name': 'ann', 'nested': {'name': 'bob'}}"), Author.class);
+    assertEquals("ann", author.name);
+    assertEquals("bob", author.nested.name);
+  }
+
+  @Test
+  public void nodesThatAreListsAreNotDeserializedAsBeans() {
+    Node listNode = NodeFromJSON(Arrays.asList("a", "b"));
+    List<?> list = CustomClassMapper.convertNodeToCustomClass(listNode, List.class);
+    assertEquals(2, list.size());
+    assertNull(CustomClassMapper.convertNodeToCustomClass(node("{}"), Author.class));
+    assertEquals(
+        (Long) 1L, CustomClassMapper.convertNodeToCustomClass(NodeFromJSON(1L), Long.class));
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void nodesThatAreListsCantBeConvertedToBeans() {
+    CustomClassMapper.convertNodeToCustomClass(NodeFromJSON(Arrays.asList("a", "b")), Author.class);
+  }
+}
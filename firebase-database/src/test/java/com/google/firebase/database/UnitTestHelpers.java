@@ -15,6 +15,7 @@
 package com.google.firebase.database;
 
 import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -32,6 +33,7 @@ import com.google.firebase.database.core.Path;
 import com.google.firebase.database.core.utilities.DefaultRunLoop;
 import com.google.firebase.database.core.view.QuerySpec;
 import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.Node;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -225,6 +227,11 @@ public class UnitTestHelpers {
     return fromJsonString(json.replace("'", "\""));
   }
 
+  /** Parses a JSON object literal that uses single quotes into a Node. */
+  public static Node node(String json) {
+    return NodeFromJSON(fromSingleQuotedString(json));
+  }
+
   public static String repeatedString(String s, int n) {
     String result = "";
 
@@ -0,0 +1,231 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import com.google.firebase.database.logging.DefaultLogger;
+import com.google.firebase.database.logging.Logger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PersistentConnectionImplTest {
+  private static final long COALESCING_WINDOW_MS = 200;
+
+  private ScheduledExecutorService executor;
+  private PersistentConnectionImpl connection;
+  private final List<Map<String, Object>> sentRequests =
+      Collections.synchronizedList(new ArrayList<Map<String, Object>>());
+  private final Map<String, String> results = new ConcurrentHashMap<>();
+
+  @Before
+  public void setUp() throws Exception {
+    executor = Executors.newSingleThreadScheduledExecutor();
+    final Connection realtime = mock(Connection.class);
+    doAnswer(
+            invocation -> {
+              sentRequests.add(invocation.getArgument(0));
+              return null;
+            })
+        .when(realtime)
+        .sendRequest(any(), anyBoolean());
+
+    ConnectionTokenProvider noToken = (forceRefresh, callback) -> callback.onSuccess(null);
+    ConnectionContext context =
+        new ConnectionContext(
+            new DefaultLogger(Logger.Level.NONE, null),
+            noToken,
+            noToken,
+            executor,
+            /* persistenceEnabled= */ false,
+            "test",
+            "test",
+            "test",
+            null,
+            COALESCING_WINDOW_MS);
+    connection =
+        new PersistentConnectionImpl(
+            context,
+            new HostInfo("localhost", "test-namespace", /* secure= */ false),
+            mock(PersistentConnection.Delegate.class)) {
+          @Override
+          Connection createRealtimeConnection(String appCheckToken) {
+            return realtime;
+          }
+        };
+
+    onExecutor(() -> connection.initialize());
+    verify(realtime, timeout(10_000)).open();
+    onExecutor(() -> connection.onReady(System.currentTimeMillis(), "session"));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private void onExecutor(Runnable runnable) throws Exception {
+    executor.submit(runnable).get(10, TimeUnit.SECONDS);
+  }
+
+  private static List<String> path(String path) {
+    return ConnectionUtils.stringToPath(path);
+  }
+
+  private RequestResultCallback recordResult(final String name) {
+    return (optErrorCode, optErrorMessage) ->
+        results.put(name, optErrorCode == null ? "ok" : optErrorCode);
+  }
+
+  /** Returns the puts and merges sent so far, in order. */
+  private List<Map<String, Object>> sentWrites() {
+    List<Map<String, Object>> writes = new ArrayList<>();
+    synchronized (sentRequests) {
+      for (Map<String, Object> request : sentRequests) {
+        Object action = request.get("a");
+        if (action.equals("p") || action.equals("m")) {
+          writes.add(request);
+        }
+      }
+    }
+    return writes;
+  }
+
+  private List<Map<String, Object>> awaitWrites(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (sentWrites().size() < count) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Expected " + count + " writes, but got " + sentWrites());
+      }
+      Thread.sleep(10);
+    }
+    List<Map<String, Object>> writes = sentWrites();
+    assertEquals(count, writes.size());
+    return writes;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> payload(Map<String, Object> request) {
+    return (Map<String, Object>) request.get("b");
+  }
+
+  private void respond(Map<String, Object> request, String status) throws Exception {
+    final Map<String, Object> body = new HashMap<>();
+    body.put("s", status);
+    body.put("d", status.equals("ok") ? null : "Rejected");
+    final Map<String, Object> message = new HashMap<>();
+    message.put("r", (int) (long) (Long) request.get("r"));
+    message.put("b", body);
+    onExecutor(() -> connection.onDataMessage(message));
+  }
+
+  @Test
+  public void writesWithinTheWindowAreSentAsOneMerge() throws Exception {
+    onExecutor(
+        () -> {
+          connection.put(path("logs/a"), "a", recordResult("a"));
+          connection.put(path("logs/b"), "b", recordResult("b"));
+          connection.put(path("logs/c"), "c", recordResult("c"));
+        });
+
+    List<Map<String, Object>> writes = awaitWrites(2);
+    // The first write goes out right away, the others wait for the window to pass.
+    assertEquals("p", writes.get(0).get("a"));
+    assertEquals("logs/a", payload(writes.get(0)).get("p"));
+    assertEquals("m", writes.get(1).get("a"));
+    assertEquals("logs", payload(writes.get(1)).get("p"));
+    Map<String, Object> expectedData = new HashMap<>();
+    expectedData.put("b", "b");
+    expectedData.put("c", "c");
+    assertEquals(expectedData, payload(writes.get(1)).get("d"));
+
+    respond(writes.get(0), "ok");
+    respond(writes.get(1), "ok");
+    assertEquals("ok", results.get("a"));
+    assertEquals("ok", results.get("b"));
+    assertEquals("ok", results.get("c"));
+
+    PersistentConnectionImpl.WriteCoalescingStats stats = connection.getWriteCoalescingStats();
+    assertEquals(1, stats.getBatchesSent());
+    assertEquals(2, stats.getWritesCoalesced());
+  }
+
+  @Test
+  public void rejectedMergeIsResentAsIndividualWrites() throws Exception {
+    onExecutor(
+        () -> {
+          connection.put(path("logs/a"), "a", recordResult("a"));
+          connection.put(path("logs/b"), "b", recordResult("b"));
+          connection.put(path("logs/c"), "c", recordResult("c"));
+        });
+    List<Map<String, Object>> writes = awaitWrites(2);
+    respond(writes.get(0), "ok");
+
+    // Writes made while the merge awaits its response are held back.
+    onExecutor(() -> connection.put(path("logs/b"), "d", recordResult("d")));
+    Thread.sleep(2 * COALESCING_WINDOW_MS);
+    assertEquals(2, sentWrites().size());
+
+    respond(writes.get(1), "permission_denied");
+    writes = awaitWrites(5);
+    assertEquals("logs/b", payload(writes.get(2)).get("p"));
+    assertEquals("logs/c", payload(writes.get(3)).get("p"));
+    assertEquals("logs/b", payload(writes.get(4)).get("p"));
+    assertEquals("d", payload(writes.get(4)).get("d"));
+
+    respond(writes.get(2), "ok");
+    respond(writes.get(3), "permission_denied");
+    respond(writes.get(4), "ok");
+    assertEquals("ok", results.get("b"));
+    assertEquals("permission_denied", results.get("c"));
+    assertEquals("ok", results.get("d"));
+  }
+
+  @Test
+  public void writesSentDirectlyStartTheWindow() throws Exception {
+    onExecutor(
+        () -> {
+          connection.compareAndPut(path("counter"), 1L, "hash", recordResult("transaction"));
+          connection.put(path("logs/a"), "a", recordResult("a"));
+        });
+
+    // The transaction was just sent, so the put waits for the window to pass.
+    assertEquals(1, sentWrites().size());
+    List<Map<String, Object>> writes = awaitWrites(2);
+    assertEquals("counter", payload(writes.get(0)).get("p"));
+    assertEquals("logs/a", payload(writes.get(1)).get("p"));
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class WriteCoalescerTest {
+
+  private static List<String> path(String path) {
+    return ConnectionUtils.stringToPath(path);
+  }
+
+  @Test
+  public void combinesSiblingPuts() {
+    WriteCoalescer coalescer = new WriteCoalescer();
+    coalescer.add(1, path("logs/a"), "one", /*isMerge=*/ false);
+    assertTrue(coalescer.canAdd(path("logs/b"), 2L, /*isMerge=*/ false));
+    coalescer.add(2, path("logs/b"), 2L, /*isMerge=*/ false);
+
+    assertEquals(Arrays.asList(1L, 2L), coalescer.getWriteIds());
+    List<String> ancestor = coalescer.getCommonAncestor();
+    assertEquals(path("logs"), ancestor);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("a", "one");
+    expected.put("b", 2L);
+    assertEquals(expected, coalescer.getMergeData(ancestor));
+  }
+
+  @Test
+  public void flattensMerges() {
+    WriteCoalescer coalescer = new WriteCoalescer();
+    Map<String, Object> merge = new HashMap<>();
+    merge.put("x", true);
+    merge.put("y/z", null);
+    coalescer.add(1, path("a/b"), merge, /*isMerge=*/ true);
+    coalescer.add(2, path("a/c/d"), "leaf", /*isMerge=*/ false);
+
+    List<String> ancestor = coalescer.getCommonAncestor();
+    assertEquals(path("a"), ancestor);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("b/x", true);
+    expected.put("b/y/z", null);
+    expected.put("c/d", "leaf");
+    assertEquals(expected, coalescer.getMergeData(ancestor));
+  }
+
+  @Test
+  public void usesRootAsAncestorForUnrelatedPaths() {
+    WriteCoalescer coalescer = new WriteCoalescer();
+    coalescer.add(1, path("a"), 1L, /*isMerge=*/ false);
+    coalescer.add(2, path("b/c"), 2L, /*isMerge=*/ false);
+
+    List<String> ancestor = coalescer.getCommonAncestor();
+    assertTrue(ancestor.isEmpty());
+    assertEquals(2, coalescer.getMergeData(ancestor).size());
+    assertEquals(2L, coalescer.getMergeData(ancestor).get("b/c"));
+  }
+
+  @Test
+  public void rejectsOverlappingWrites() {
+    WriteCoalescer coalescer = new WriteCoalescer();
+    coalescer.add(1, path("a/b"), "value", /*isMerge=*/ false);
+
+    assertFalse(coalescer.canAdd(path("a/b"), "other", /*isMerge=*/ false));
+    assertFalse(coalescer.canAdd(path("a"), "parent", /*isMerge=*/ false));
+    assertFalse(coalescer.canAdd(path("a/b/c"), "child", /*isMerge=*/ false));
+    assertFalse(
+        coalescer.canAdd(
+            path("a"), Collections.<String, Object>singletonMap("b/c", 1L), /*isMerge=*/ true));
+    assertTrue(coalescer.canAdd(path("a/bc"), "sibling", /*isMerge=*/ false));
+  }
+
+  @Test
+  public void rejectsEmptyMerges() {
+    WriteCoalescer coalescer = new WriteCoalescer();
+    assertFalse(
+        coalescer.canAdd(path("a"), Collections.<String, Object>emptyMap(), /*isMerge=*/ true));
+  }
+
+  @Test
+  public void clearRemovesPendingWrites() {
+    WriteCoalescer coalescer = new WriteCoalescer();
+    coalescer.add(1, path("a"), 1L, /*isMerge=*/ false);
+    assertEquals(1, coalescer.size());
+    coalescer.clear();
+    assertTrue(coalescer.isEmpty());
+    assertTrue(coalescer.canAdd(path("a"), 2L, /*isMerge=*/ false));
+  }
+}
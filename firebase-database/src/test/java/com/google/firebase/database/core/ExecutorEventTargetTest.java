@@ -0,0 +1,236 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.database.logging.DefaultLogger;
+import com.google.firebase.database.logging.LogWrapper;
+import com.google.firebase.database.logging.Logger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ExecutorEventTargetTest {
+
+  private static final LogWrapper LOGGER =
+      new LogWrapper(new DefaultLogger(Logger.Level.NONE, null), "ExecutorEventTargetTest");
+
+  /** An executor that only runs tasks when asked to. */
+  private static class ManualExecutor implements Executor {
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+
+  private static Runnable record(final List<String> log, final String entry) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        log.add(entry);
+      }
+    };
+  }
+
+  @Test
+  public void callbacksWithDifferentKeysAreInterleaved() {
+    ManualExecutor executor = new ManualExecutor();
+    ExecutorEventTarget target = new ExecutorEventTarget(executor, LOGGER);
+    List<String> log = new ArrayList<>();
+    target.postEvent("a", record(log, "a1"));
+    target.postEvent("a", record(log, "a2"));
+    target.postEvent("b", record(log, "b1"));
+    target.postEvent("b", record(log, "b2"));
+
+    assertEquals(2, executor.tasks.size());
+    executor.runAll();
+    assertEquals(Arrays.asList("a1", "b1", "a2", "b2"), log);
+  }
+
+  @Test
+  public void callbacksWithoutKeyAreOrdered() {
+    ManualExecutor executor = new ManualExecutor();
+    ExecutorEventTarget target = new ExecutorEventTarget(executor, LOGGER);
+    List<String> log = new ArrayList<>();
+    target.postEvent(record(log, "1"));
+    target.postEvent(record(log, "2"));
+
+    assertEquals(1, executor.tasks.size());
+    executor.runAll();
+    assertEquals(Arrays.asList("1", "2"), log);
+  }
+
+  @Test
+  public void failingCallbackDoesNotBlockItsKey() {
+    ManualExecutor executor = new ManualExecutor();
+    ExecutorEventTarget target = new ExecutorEventTarget(executor, LOGGER);
+    List<String> log = new ArrayList<>();
+    target.postEvent(
+        "a",
+        new Runnable() {
+          @Override
+          public void run() {
+            throw new RuntimeException("listener failed");
+          }
+        });
+    target.postEvent("a", record(log, "a2"));
+
+    try {
+      executor.tasks.remove(0).run();
+    } catch (RuntimeException expected) {
+      // The executor would report this on its thread.
+    }
+    executor.runAll();
+    assertEquals(Collections.singletonList("a2"), log);
+  }
+
+  @Test
+  public void rejectedCallbackDoesNotBlockItsKey() {
+    final boolean[] rejecting = {true};
+    final ManualExecutor manualExecutor = new ManualExecutor();
+    ExecutorEventTarget target =
+        new ExecutorEventTarget(
+            new Executor() {
+              @Override
+              public void execute(Runnable command) {
+                if (rejecting[0]) {
+                  throw new RejectedExecutionException("saturated");
+                }
+                manualExecutor.execute(command);
+              }
+            },
+            LOGGER);
+    List<String> log = new ArrayList<>();
+
+    try {
+      target.postEvent("a", record(log, "a1"));
+      fail("Expected the callback to be rejected");
+    } catch (RejectedExecutionException expected) {
+      // The caller decides how to report this.
+    }
+    rejecting[0] = false;
+    target.postEvent("a", record(log, "a2"));
+
+    manualExecutor.runAll();
+    assertEquals(Collections.singletonList("a2"), log);
+  }
+
+  @Test
+  public void rejectedResubmissionIsLoggedOnTheExecutorThread() {
+    final boolean[] rejecting = {false};
+    final ManualExecutor manualExecutor = new ManualExecutor();
+    final List<String> errors = new ArrayList<>();
+    Logger logger =
+        new Logger() {
+          @Override
+          public void onLogMessage(Level level, String tag, String message, long msTimestamp) {
+            if (level == Level.ERROR) {
+              errors.add(message);
+            }
+          }
+
+          @Override
+          public Level getLogLevel() {
+            return Level.DEBUG;
+          }
+        };
+    ExecutorEventTarget target =
+        new ExecutorEventTarget(
+            new Executor() {
+              @Override
+              public void execute(Runnable command) {
+                if (rejecting[0]) {
+                  throw new RejectedExecutionException("saturated");
+                }
+                manualExecutor.execute(command);
+              }
+            },
+            new LogWrapper(logger, "EventTarget"));
+    List<String> log = new ArrayList<>();
+    target.postEvent("a", record(log, "a1"));
+    target.postEvent("a", record(log, "a2"));
+
+    // Handing the queue back to the executor after a1 fails, which must not escape run().
+    rejecting[0] = true;
+    manualExecutor.tasks.remove(0).run();
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0).contains("rejected 1 callback(s)"));
+
+    rejecting[0] = false;
+    target.postEvent("a", record(log, "a3"));
+    manualExecutor.runAll();
+    assertEquals(Arrays.asList("a1", "a3"), log);
+  }
+
+  @Test
+  public void eachKeyIsOrderedOnThreadPool() throws InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    ExecutorEventTarget target = new ExecutorEventTarget(pool, LOGGER);
+    int keys = 50;
+    int eventsPerKey = 100;
+    final CountDownLatch done = new CountDownLatch(keys * eventsPerKey);
+    final List<List<Integer>> logs = new ArrayList<>();
+    for (int key = 0; key < keys; key++) {
+      logs.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < eventsPerKey; i++) {
+      for (int key = 0; key < keys; key++) {
+        final List<Integer> log = logs.get(key);
+        final int value = i;
+        target.postEvent(
+            key,
+            new Runnable() {
+              @Override
+              public void run() {
+                log.add(value);
+                done.countDown();
+              }
+            });
+      }
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    pool.shutdown();
+    for (List<Integer> log : logs) {
+      assertEquals(eventsPerKey, log.size());
+      for (int i = 0; i < eventsPerKey; i++) {
+        assertEquals(i, (int) log.get(i));
+      }
+    }
+  }
+}
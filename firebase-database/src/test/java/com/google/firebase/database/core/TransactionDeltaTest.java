@@ -0,0 +1,113 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import static com.google.firebase.database.UnitTestHelpers.node;
+import static com.google.firebase.database.UnitTestHelpers.path;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.PriorityUtilities;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TransactionDeltaTest {
+
+  @Test
+  public void counterIsSentAsIncrementAtRoot() {
+    TransactionDelta delta = new TransactionDelta();
+    assertTrue(delta.add(Path.getEmptyPath(), NodeFromJSON(5L), NodeFromJSON(6L)));
+
+    assertEquals(ServerValue.increment(1L), delta.getIncrementAtRoot());
+  }
+
+  @Test
+  public void missingValueCountsAsZero() {
+    TransactionDelta delta = new TransactionDelta();
+    assertTrue(delta.add(Path.getEmptyPath(), EmptyNode.Empty(), NodeFromJSON(3L)));
+
+    assertEquals(ServerValue.increment(3L), delta.getIncrementAtRoot());
+  }
+
+  @Test
+  public void changedChildrenAreSentAsUpdate() {
+    TransactionDelta delta = new TransactionDelta();
+    assertTrue(
+        delta.add(
+            Path.getEmptyPath(),
+            node("{'likes': 10, 'stats': {'views': 1.5}, 'title': 'a'}"),
+            node("{'likes': 11, 'stats': {'views': 2.5, 'shares': 1}, 'title': 'a'}")));
+
+    Map<String, Object> expected = new HashMap<String, Object>();
+    expected.put("likes", ServerValue.increment(1L));
+    expected.put("stats/views", ServerValue.increment(1.0));
+    expected.put("stats/shares", ServerValue.increment(1L));
+    assertNull(delta.getIncrementAtRoot());
+    assertEquals(expected, delta.getUpdate());
+  }
+
+  @Test
+  public void queuedTransactionsAreAddedUp() {
+    TransactionDelta delta = new TransactionDelta();
+    assertTrue(delta.add(path("likes"), NodeFromJSON(10L), NodeFromJSON(11L)));
+    assertTrue(delta.add(path("likes"), NodeFromJSON(11L), NodeFromJSON(12L)));
+    assertTrue(delta.add(path("stock"), NodeFromJSON(4L), NodeFromJSON(3L)));
+
+    Map<String, Object> expected = new HashMap<String, Object>();
+    expected.put("likes", ServerValue.increment(2L));
+    expected.put("stock", ServerValue.increment(-1L));
+    assertEquals(expected, delta.getUpdate());
+  }
+
+  @Test
+  public void unchangedDataIsEmpty() {
+    TransactionDelta delta = new TransactionDelta();
+    assertTrue(delta.add(Path.getEmptyPath(), node("{'a': 1}"), node("{'a': 1}")));
+
+    assertTrue(delta.isEmpty());
+  }
+
+  @Test
+  public void changesOtherThanNumbersAreRejected() {
+    assertFalse(new TransactionDelta().add(path("a"), NodeFromJSON("x"), NodeFromJSON(1L)));
+    assertFalse(new TransactionDelta().add(path("a"), NodeFromJSON(1L), NodeFromJSON("x")));
+    assertFalse(new TransactionDelta().add(path("a"), NodeFromJSON(1L), EmptyNode.Empty()));
+    assertFalse(new TransactionDelta().add(path("a"), node("{'b': 1}"), NodeFromJSON(1L)));
+    assertFalse(
+        new TransactionDelta()
+            .add(
+                path("a"),
+                NodeFromJSON(1L),
+                NodeFromJSON(2L).updatePriority(PriorityUtilities.parsePriority("p"))));
+  }
+
+  @Test
+  public void overlappingIncrementsAreRejected() {
+    TransactionDelta delta = new TransactionDelta();
+    assertTrue(delta.add(path("a"), NodeFromJSON(1L), NodeFromJSON(2L)));
+
+    assertFalse(delta.add(path("a/b"), EmptyNode.Empty(), NodeFromJSON(1L)));
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import static com.google.firebase.database.UnitTestHelpers.fromSingleQuotedString;
+import static com.google.firebase.database.UnitTestHelpers.node;
+import static com.google.firebase.database.UnitTestHelpers.path;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.snapshot.EmptyNode;
+import java.util.Collections;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class WriteTreeTest {
+
+  private static CompoundWrite merge(String json) {
+    return CompoundWrite.fromValue(fromSingleQuotedString(json));
+  }
+
+  @Test
+  public void getWriteFindsWritesById() {
+    WriteTree writeTree = new WriteTree();
+    writeTree.addOverwrite(path("a"), NodeFromJSON(1L), 1L, true);
+    writeTree.addMerge(path("b"), merge("{'c': 2}"), 2L);
+
+    assertEquals(path("a"), writeTree.getWrite(1).getPath());
+    assertEquals(path("b"), writeTree.getWrite(2).getPath());
+    assertNull(writeTree.getWrite(3));
+    assertTrue(writeTree.removeWrite(1));
+    assertNull(writeTree.getWrite(1));
+  }
+
+  @Test
+  public void removingOverlappingWriteRebuildsItsSubtree() {
+    WriteTree writeTree = new WriteTree();
+    writeTree.addOverwrite(path("a/b"), NodeFromJSON(1L), 1L, true);
+    writeTree.addOverwrite(path("a/b/c"), NodeFromJSON(2L), 2L, true);
+    writeTree.addOverwrite(path("x"), NodeFromJSON(3L), 3L, true);
+
+    assertTrue(writeTree.removeWrite(1));
+    assertNull(writeTree.getCompleteWriteData(path("a/b")));
+    assertEquals(NodeFromJSON(2L), writeTree.getCompleteWriteData(path("a/b/c")));
+    assertEquals(NodeFromJSON(3L), writeTree.getCompleteWriteData(path("x")));
+  }
+
+  @Test
+  public void removingWriteKeepsLaterWritesBelowIt() {
+    WriteTree writeTree = new WriteTree();
+    writeTree.addOverwrite(path("a"), node("{'b': 1}"), 1L, true);
+    writeTree.addMerge(path("a/c"), merge("{'d': 2, 'e/f': 3}"), 2L);
+
+    assertTrue(writeTree.removeWrite(1));
+    assertNull(writeTree.getCompleteWriteData(path("a/b")));
+    assertEquals(NodeFromJSON(2L), writeTree.getCompleteWriteData(path("a/c/d")));
+    assertEquals(NodeFromJSON(3L), writeTree.getCompleteWriteData(path("a/c/e/f")));
+  }
+
+  @Test
+  public void removingShadowedWriteIsNotVisible() {
+    WriteTree writeTree = new WriteTree();
+    writeTree.addOverwrite(path("a/c"), NodeFromJSON(2L), 1L, true);
+    writeTree.addOverwrite(path("a"), node("{'b': 1}"), 2L, true);
+
+    assertFalse(writeTree.removeWrite(1));
+    assertEquals(node("{'b': 1}"), writeTree.getCompleteWriteData(path("a")));
+  }
+
+  @Test
+  public void removingWriteBelowAncestorMergeRebuildsTree() {
+    WriteTree writeTree = new WriteTree();
+    writeTree.addMerge(path("a"), merge("{'b/c': 1}"), 1L);
+    writeTree.addOverwrite(path("a/b"), node("{'d': 2}"), 2L, true);
+    writeTree.addOverwrite(path("a/b/e"), NodeFromJSON(3L), 3L, true);
+
+    assertTrue(writeTree.removeWrite(2));
+    assertEquals(NodeFromJSON(1L), writeTree.getCompleteWriteData(path("a/b/c")));
+    assertNull(writeTree.getCompleteWriteData(path("a/b/d")));
+    assertEquals(NodeFromJSON(3L), writeTree.getCompleteWriteData(path("a/b/e")));
+  }
+
+  @Test
+  public void excludedWritesOnlyConsiderWritesOnBranch() {
+    WriteTree writeTree = new WriteTree();
+    writeTree.addOverwrite(path("a"), node("{'x': 1, 'y': 2}"), 1L, true);
+    writeTree.addOverwrite(path("b"), NodeFromJSON(3L), 2L, true);
+    writeTree.addOverwrite(path("a/x"), NodeFromJSON(4L), 3L, true);
+    writeTree.addOverwrite(path("a/y"), NodeFromJSON(5L), 4L, false);
+
+    assertEquals(
+        node("{'x': 1, 'y': 2}"),
+        writeTree.calcCompleteEventCache(
+            path("a"), EmptyNode.Empty(), Collections.singletonList(3L)));
+    assertEquals(
+        node("{'x': 4, 'y': 5}"),
+        writeTree.calcCompleteEventCache(
+            path("a"), EmptyNode.Empty(), Collections.<Long>emptyList(), true));
+    assertEquals(
+        NodeFromJSON(3L),
+        writeTree.calcCompleteEventCache(
+            path("b"), null, Collections.singletonList(3L)));
+  }
+
+  @Test
+  public void purgeAllWritesClearsIndex() {
+    WriteTree writeTree = new WriteTree();
+    writeTree.addOverwrite(path("a"), NodeFromJSON(1L), 1L, true);
+    writeTree.addOverwrite(path("a/b"), NodeFromJSON(2L), 2L, true);
+
+    assertEquals(2, writeTree.purgeAllWrites().size());
+    assertNull(writeTree.getWrite(1));
+    assertNull(writeTree.getCompleteWriteData(path("a")));
+    writeTree.addOverwrite(path("a/b"), NodeFromJSON(3L), 3L, true);
+    assertTrue(writeTree.removeWrite(3));
+    assertNull(writeTree.getCompleteWriteData(path("a/b")));
+  }
+}
@@ -26,6 +26,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.google.firebase.database.core.CompoundWrite;
 import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.utilities.NodeSizeEstimator;
 import com.google.firebase.database.core.view.CacheNode;
 import com.google.firebase.database.core.view.QueryParams;
 import com.google.firebase.database.core.view.QuerySpec;
@@ -33,6 +34,11 @@ import com.google.firebase.database.snapshot.EmptyNode;
 import com.google.firebase.database.snapshot.Index;
 import com.google.firebase.database.snapshot.Node;
 import com.google.firebase.database.snapshot.PathIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import org.junit.Test;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
@@ -121,4 +127,177 @@ public class DefaultPersistenceManagerTest {
     Node actual = engine.serverCache(path(""));
     assertEquals(expected, actual);
   }
+
+  @Test
+  public void pruningRecordsCacheStats() {
+    MockPersistenceStorageEngine engine = new MockPersistenceStorageEngine();
+    engine.disableTransactionCheck = true;
+    TestCachePolicy cachePolicy = new TestCachePolicy(1.0f, Long.MAX_VALUE);
+    DefaultPersistenceManager manager =
+        new DefaultPersistenceManager(newFrozenTestConfig(), engine, cachePolicy);
+
+    Node fooData = NodeFromJSON(fromSingleQuotedString("{'a': 'aaaaaaaaaa', 'b': 'bbbbbbbbbb'}"));
+    manager.setQueryActive(defaultFooQuery);
+    manager.updateServerCache(defaultFooQuery, fooData);
+    manager.setQueryInactive(defaultFooQuery);
+    assertEquals(0, manager.getCacheStats().getPruneIncrements());
+    assertTrue(manager.getCacheStats().getEstimatedSizeBytes() > 0);
+
+    cachePolicy.pruneOnNextServerUpdate();
+    manager.updateServerCache(defaultQueryAt("bar"), NodeFromJSON("1"));
+
+    DefaultPersistenceManager.CacheStats stats = manager.getCacheStats();
+    assertEquals(1, stats.getPruneIncrements());
+    assertEquals(1, stats.getQueriesEvicted());
+    assertEquals(NodeSizeEstimator.estimateSerializedNodeSize(fooData), stats.getBytesEvicted());
+    assertEquals(EmptyNode.Empty(), engine.serverCache(path("foo")));
+  }
+
+  /** An executor that runs its tasks when asked to. */
+  private static class QueuedExecutor implements Executor {
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      for (Runnable task : tasks) {
+        task.run();
+      }
+      tasks.clear();
+    }
+  }
+
+  /** Caches data for an active default and an active limit query, like a previous app run. */
+  private MockPersistenceStorageEngine engineWithActiveQueries() {
+    return withActiveQueries(new MockPersistenceStorageEngine());
+  }
+
+  private MockPersistenceStorageEngine withActiveQueries(MockPersistenceStorageEngine engine) {
+    engine.disableTransactionCheck = true;
+    DefaultPersistenceManager manager =
+        new DefaultPersistenceManager(newFrozenTestConfig(), engine, CachePolicy.NONE);
+    manager.setQueryActive(defaultQueryAt("bar"));
+    manager.updateServerCache(defaultQueryAt("bar"), NodeFromJSON(1L));
+    manager.setQueryActive(limit3FooQuery);
+    manager.updateServerCache(
+        limit3FooQuery, NodeFromJSON(fromSingleQuotedString("{'a': 1, 'b': 2, 'c': 3}")));
+    manager.setTrackedQueryKeys(limit3FooQuery, childKeySet("a", "b", "c"));
+    engine.saveUserOverwrite(path("baz"), NodeFromJSON(2L), 1);
+    return engine;
+  }
+
+  @Test
+  public void warmUpPrefetchesPreviouslyActiveQueries() {
+    MockPersistenceStorageEngine engine = engineWithActiveQueries();
+    DefaultPersistenceManager manager =
+        new DefaultPersistenceManager(newFrozenTestConfig(), engine, CachePolicy.NONE);
+    QueuedExecutor executor = new QueuedExecutor();
+    manager.warmUp(executor);
+    executor.runAll();
+
+    // Data changed behind the manager's back isn't seen, since the prefetched data is used.
+    engine.overwriteServerCache(path(""), EmptyNode.Empty());
+    engine.removeAllUserWrites();
+
+    assertEquals(1, manager.loadUserWrites().size());
+    CacheNode bar = manager.serverCache(defaultQueryAt("bar"));
+    assertTrue(bar.isFullyInitialized());
+    assertEquals(NodeFromJSON(1L), bar.getNode());
+    CacheNode foo = manager.serverCache(limit3FooQuery);
+    assertTrue(foo.isFullyInitialized());
+    assertTrue(foo.isFiltered());
+    assertEquals(NodeFromJSON(fromSingleQuotedString("{'a': 1, 'b': 2, 'c': 3}")), foo.getNode());
+
+    // Prefetched data is only used once.
+    assertEquals(EmptyNode.Empty(), manager.serverCache(defaultQueryAt("bar")).getNode());
+  }
+
+  @Test
+  public void warmUpDataIsLoadedOnCallingThreadIfNotPrefetchedYet() {
+    MockPersistenceStorageEngine engine = engineWithActiveQueries();
+    DefaultPersistenceManager manager =
+        new DefaultPersistenceManager(newFrozenTestConfig(), engine, CachePolicy.NONE);
+    QueuedExecutor executor = new QueuedExecutor();
+    manager.warmUp(executor);
+
+    assertEquals(1, manager.loadUserWrites().size());
+    assertEquals(NodeFromJSON(1L), manager.serverCache(defaultQueryAt("bar")).getNode());
+    executor.runAll();
+    assertEquals(NodeFromJSON(1L), manager.serverCache(defaultQueryAt("bar")).getNode());
+  }
+
+  @Test
+  public void serverCacheUpdateDiscardsPrefetchedData() {
+    MockPersistenceStorageEngine engine = engineWithActiveQueries();
+    DefaultPersistenceManager manager =
+        new DefaultPersistenceManager(newFrozenTestConfig(), engine, CachePolicy.NONE);
+    QueuedExecutor executor = new QueuedExecutor();
+    manager.warmUp(executor);
+    executor.runAll();
+
+    manager.setQueryActive(defaultQueryAt("bar"));
+    manager.updateServerCache(defaultQueryAt("bar"), NodeFromJSON(5L));
+
+    assertEquals(NodeFromJSON(5L), manager.serverCache(defaultQueryAt("bar")).getNode());
+  }
+
+  /** A storage engine whose reads on the warm-up thread block until they are released. */
+  private static class BlockingWarmUpEngine extends MockPersistenceStorageEngine {
+    private final CountDownLatch warmUpStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseWarmUp = new CountDownLatch(1);
+    private volatile Thread warmUpThread;
+
+    @Override
+    public List<UserWriteRecord> loadUserWrites() {
+      if (Thread.currentThread() == warmUpThread) {
+        // Like a read waiting for the storage transaction of another thread.
+        warmUpStarted.countDown();
+        try {
+          releaseWarmUp.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return super.loadUserWrites();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void listenDuringInFlightWarmUpDoesNotWaitForIt() throws Exception {
+    final BlockingWarmUpEngine engine = new BlockingWarmUpEngine();
+    withActiveQueries(engine);
+    final DefaultPersistenceManager manager =
+        new DefaultPersistenceManager(newFrozenTestConfig(), engine, CachePolicy.NONE);
+    manager.warmUp(
+        new Executor() {
+          @Override
+          public void execute(Runnable task) {
+            // Only the first task, loading the user writes, is started. The others are left for
+            // the listen to run itself.
+            if (engine.warmUpThread == null) {
+              engine.warmUpThread = new Thread(task);
+              engine.warmUpThread.start();
+            }
+          }
+        });
+    engine.warmUpStarted.await();
+
+    // Listening reads the cache and the writes in a storage transaction, like SyncTree does.
+    Node bar =
+        manager.runInTransaction(
+            new Callable<Node>() {
+              @Override
+              public Node call() {
+                assertEquals(1, manager.loadUserWrites().size());
+                return manager.serverCache(defaultQueryAt("bar")).getNode();
+              }
+            });
+    assertEquals(NodeFromJSON(1L), bar);
+
+    engine.releaseWarmUp.countDown();
+    engine.warmUpThread.join();
+  }
 }
@@ -17,7 +17,9 @@ package com.google.firebase.database.core.persistence;
 import static com.google.firebase.database.UnitTestHelpers.asSet;
 import static com.google.firebase.database.UnitTestHelpers.ck;
 import static com.google.firebase.database.UnitTestHelpers.defaultQueryAt;
+import static com.google.firebase.database.UnitTestHelpers.node;
 import static com.google.firebase.database.UnitTestHelpers.path;
+import static com.google.firebase.database.UnitTestHelpers.repeatedString;
 import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -25,8 +27,10 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import com.google.firebase.database.core.CompoundWrite;
 import com.google.firebase.database.core.Path;
 import com.google.firebase.database.core.utilities.Clock;
+import com.google.firebase.database.core.utilities.NodeSizeEstimator;
 import com.google.firebase.database.core.utilities.TestClock;
 import com.google.firebase.database.core.view.QueryParams;
 import com.google.firebase.database.core.view.QuerySpec;
@@ -34,6 +38,7 @@ import com.google.firebase.database.logging.DefaultLogger;
 import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.logging.Logger;
 import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.Node;
 import com.google.firebase.database.snapshot.PathIndex;
 import java.util.Collections;
 import org.junit.Test;
@@ -209,6 +214,107 @@ public class TrackedQueryManagerTest {
     manager.verifyCache();
   }
 
+  @Test
+  public void pruneQueriesWithLargeFootprintsFirst() {
+    TestClock clock = new TestClock();
+    TrackedQueryManager manager = newManager(null, clock);
+
+    Node small = node("{'a': 'a'}");
+    Node large = NodeFromJSON(Collections.singletonMap("a", repeatedString("a", 100000)));
+    manager.setQueryActive(defaultQueryAt("small"));
+    manager.setQueryInactive(defaultQueryAt("small"));
+    manager.updateFootprints(defaultQueryAt("small"), small);
+    clock.tick();
+    manager.setQueryActive(defaultQueryAt("large"));
+    manager.setQueryInactive(defaultQueryAt("large"));
+    manager.updateFootprints(defaultQueryAt("large"), large);
+    clock.tick();
+
+    // The older query is tiny, so the large one is pruned first.
+    TrackedQueryManager.PruneResult result =
+        manager.pruneQueries(new TestCachePolicy(0.5f, Long.MAX_VALUE), 0);
+    PruneForest expected = new PruneForest().prune(path("large")).keep(path("small"));
+    assertEquals(expected, result.pruneForest);
+    assertEquals(1, result.queriesPruned);
+    assertEquals(NodeSizeEstimator.estimateSerializedNodeSize(large), result.bytesPruned);
+
+    manager.verifyCache();
+  }
+
+  @Test
+  public void overlappingQueriesDontCountDataTwice() {
+    TrackedQueryManager manager = newManager();
+    manager.setQueryActive(defaultQueryAt("foo"));
+    manager.setQueryInactive(defaultQueryAt("foo"));
+    manager.setQueryActive(defaultQueryAt("foo/bar"));
+    manager.setQueryInactive(defaultQueryAt("foo/bar"));
+
+    Node data = node("{'bar': {'a': 'aaaaaaaaaa', 'b': 'bbbbbbbbbb'}, 'baz': 'baz'}");
+    long dataSize = NodeSizeEstimator.estimateSerializedNodeSize(data);
+    assertEquals(dataSize, manager.updateFootprints(defaultQueryAt("foo"), data));
+    // The nested query receiving the same data doesn't change the total.
+    assertEquals(
+        0,
+        manager.updateFootprints(
+            defaultQueryAt("foo/bar"), data.getImmediateChild(ChildKey.fromString("bar"))));
+
+    TrackedQueryManager.PruneResult result =
+        manager.pruneQueries(new TestCachePolicy(1.0f, Long.MAX_VALUE), 0);
+    assertEquals(2, result.queriesPruned);
+    assertEquals(dataSize, result.bytesPruned);
+
+    manager.verifyCache();
+  }
+
+  @Test
+  public void mergesUpdateTheFootprintOfTheEnclosingQuery() {
+    MockPersistenceStorageEngine engine = new MockPersistenceStorageEngine();
+    engine.disableTransactionCheck = true;
+    TrackedQueryManager manager = newManager(engine, null);
+    manager.setQueryActive(DEFAULT_FOO_QUERY);
+    Node data = node("{'a': 'aaaaaaaaaa'}");
+    engine.overwriteServerCache(path("foo"), data);
+    manager.updateFootprints(DEFAULT_FOO_QUERY, data);
+
+    // A merge at the location of the query replaces all of its data.
+    Node replacement = node("{'a': 'aaaaaaaaaaaaaaaaaaaa'}");
+    CompoundWrite replaceFoo = CompoundWrite.emptyWrite().addWrite(path("foo"), replacement);
+    assertEquals(
+        NodeSizeEstimator.estimateSerializedNodeSize(replacement)
+            - NodeSizeEstimator.estimateSerializedNodeSize(data),
+        manager.updateFootprintsForMerge(Path.getEmptyPath(), replaceFoo));
+    engine.mergeIntoServerCache(Path.getEmptyPath(), replaceFoo);
+
+    // A merge below it only makes the footprint stale, without reading the replaced data.
+    CompoundWrite addB = CompoundWrite.emptyWrite().addWrite(path("b"), NodeFromJSON("bbbbbbbbbb"));
+    assertEquals(0, manager.updateFootprintsForMerge(path("foo"), addB));
+    engine.mergeIntoServerCache(path("foo"), addB);
+    assertEquals(
+        NodeSizeEstimator.estimateSerializedNodeSize(engine.serverCache(path("foo")))
+            - NodeSizeEstimator.estimateSerializedNodeSize(replacement),
+        manager.refreshStaleFootprints());
+    assertEquals(0, manager.refreshStaleFootprints());
+  }
+
+  @Test
+  public void pruneQueriesInBoundedIncrements() {
+    TestClock clock = new TestClock();
+    TrackedQueryManager manager = newManager(null, clock);
+    for (int i = 0; i < 500; i++) {
+      manager.setQueryActive(defaultQueryAt("" + i));
+      manager.setQueryInactive(defaultQueryAt("" + i));
+      clock.tick();
+    }
+
+    // 20% would be 100 queries, but LRUCachePolicy prunes at most 50 at once.
+    TrackedQueryManager.PruneResult result = manager.pruneQueries(new LRUCachePolicy(0), 100);
+    assertEquals(50, result.queriesPruned);
+    assertEquals(5000, result.bytesPruned);
+    assertEquals(450, manager.countOfTrackedQueries());
+
+    manager.verifyCache();
+  }
+
   @Test
   public void pruneQueriesOverMaxSize() {
     TestClock clock = new TestClock();
@@ -301,6 +407,31 @@ public class TrackedQueryManagerTest {
         Collections.<ChildKey>emptySet(), manager.getKnownCompleteChildren(path("foo/baz")));
   }
 
+  @Test
+  public void trackedKeysAreOnlyLoadedOnce() {
+    MockPersistenceStorageEngine engine = new MockPersistenceStorageEngine();
+    engine.disableTransactionCheck = true;
+    TrackedQueryManager manager = newManager(engine, null);
+
+    manager.setQueryActive(SAMPLE_FOO_QUERY);
+    long id = manager.findTrackedQuery(SAMPLE_FOO_QUERY).id;
+    engine.saveTrackedQueryKeys(id, asSet(ck("a"), ck("b")));
+    assertEquals(asSet(ck("a"), ck("b")), manager.getTrackedKeys(id));
+
+    // Changes made behind the manager's back aren't seen once the keys are loaded.
+    engine.saveTrackedQueryKeys(id, asSet(ck("z")));
+    assertEquals(asSet(ck("a"), ck("b")), manager.getKnownCompleteChildren(path("foo")));
+
+    // Updates write the in-memory keys as a whole.
+    manager.updateTrackedKeys(id, asSet(ck("c")), asSet(ck("a")));
+    assertEquals(asSet(ck("b"), ck("c")), manager.getTrackedKeys(id));
+    assertEquals(asSet(ck("b"), ck("c")), engine.loadTrackedQueryKeys(id));
+
+    manager.setTrackedKeys(id, asSet(ck("d")));
+    assertEquals(asSet(ck("d")), manager.getTrackedKeys(id));
+    assertEquals(asSet(ck("d")), engine.loadTrackedQueryKeys(id));
+  }
+
   @Test
   public void ensureTrackedQueryForNewQuery() {
     TestClock clock = new TestClock();
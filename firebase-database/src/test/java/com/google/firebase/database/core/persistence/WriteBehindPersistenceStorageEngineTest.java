@@ -0,0 +1,288 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core.persistence;
+
+import static com.google.firebase.database.UnitTestHelpers.childKeySet;
+import static com.google.firebase.database.UnitTestHelpers.defaultQueryAt;
+import static com.google.firebase.database.UnitTestHelpers.node;
+import static com.google.firebase.database.UnitTestHelpers.path;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.logging.DefaultLogger;
+import com.google.firebase.database.logging.LogWrapper;
+import com.google.firebase.database.logging.Logger;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.Node;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class WriteBehindPersistenceStorageEngineTest {
+
+  /** An executor that only runs scheduled tasks when asked to. */
+  private static class ManualExecutor extends ScheduledThreadPoolExecutor {
+    private final List<Runnable> scheduled = new ArrayList<>();
+
+    ManualExecutor() {
+      super(1);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      scheduled.add(command);
+      return null;
+    }
+
+    void runScheduled() {
+      while (!scheduled.isEmpty()) {
+        scheduled.remove(0).run();
+      }
+    }
+  }
+
+  /** Counts the server cache overwrites and tracked key saves that reach the wrapped engine. */
+  private static class CountingEngine extends MockPersistenceStorageEngine {
+    int serverCacheOverwrites = 0;
+    int trackedKeySaves = 0;
+    boolean failServerCacheOverwrites = false;
+
+    @Override
+    public void saveTrackedQueryKeys(long trackedQueryId, Set<ChildKey> keys) {
+      trackedKeySaves++;
+      super.saveTrackedQueryKeys(trackedQueryId, keys);
+    }
+
+    @Override
+    public void overwriteServerCache(Path path, Node node) {
+      if (failServerCacheOverwrites) {
+        throw new RuntimeException("Disk full");
+      }
+      serverCacheOverwrites++;
+      super.overwriteServerCache(path, node);
+    }
+  }
+
+  private final CountingEngine engine = new CountingEngine();
+  private final ManualExecutor executor = new ManualExecutor();
+
+  private WriteBehindPersistenceStorageEngine newEngine(boolean durableUserWrites) {
+    LogWrapper logger =
+        new LogWrapper(
+            new DefaultLogger(Logger.Level.DEBUG, null), "WriteBehindPersistenceStorageEngineTest");
+    return new WriteBehindPersistenceStorageEngine(engine, executor, logger, durableUserWrites);
+  }
+
+  private static void runInTransaction(PersistenceStorageEngine engine, Runnable runnable) {
+    engine.beginTransaction();
+    try {
+      runnable.run();
+      engine.setTransactionSuccessful();
+    } finally {
+      engine.endTransaction();
+    }
+  }
+
+  @Test
+  public void serverCacheReadsIncludeQueuedWrites() {
+    final WriteBehindPersistenceStorageEngine writeBehind = newEngine(true);
+    runInTransaction(
+        writeBehind,
+        new Runnable() {
+          @Override
+          public void run() {
+            writeBehind.overwriteServerCache(path("foo"), node("{'a': 1, 'b': 2}"));
+            writeBehind.mergeIntoServerCache(path("foo"), node("{'b': 3, 'c': 4}"));
+          }
+        });
+
+    assertEquals(EmptyNode.Empty(), engine.serverCache(path("foo")));
+    Node expected = node("{'a': 1, 'b': 3, 'c': 4}");
+    assertEquals(expected, writeBehind.serverCache(path("foo")));
+    assertEquals(NodeFromJSON(3L), writeBehind.serverCache(path("foo/b")));
+    assertEquals(
+        node("{'a': 1, 'c': 4}"),
+        writeBehind.serverCache(path("foo"), childKeySet("a", "c")));
+
+    executor.runScheduled();
+    assertEquals(expected, engine.serverCache(path("foo")));
+    assertEquals(expected, writeBehind.serverCache(path("foo")));
+  }
+
+  @Test
+  public void trackedQueryKeyReadsCommitQueuedWrites() {
+    final WriteBehindPersistenceStorageEngine writeBehind = newEngine(true);
+    runInTransaction(
+        writeBehind,
+        new Runnable() {
+          @Override
+          public void run() {
+            writeBehind.saveTrackedQuery(
+                new TrackedQuery(1, defaultQueryAt("foo"), 0, false, true));
+            writeBehind.saveTrackedQueryKeys(1, childKeySet("a", "b"));
+          }
+        });
+
+    assertEquals(childKeySet("a", "b"), writeBehind.loadTrackedQueryKeys(1));
+    assertEquals(childKeySet("a", "b"), engine.loadTrackedQueryKeys(1));
+  }
+
+  @Test
+  public void overwritesReplaceQueuedWritesBelowThem() {
+    final WriteBehindPersistenceStorageEngine writeBehind = newEngine(true);
+    for (int i = 0; i < 10; i++) {
+      final int value = i;
+      runInTransaction(
+          writeBehind,
+          new Runnable() {
+            @Override
+            public void run() {
+              writeBehind.overwriteServerCache(path("foo/bar"), NodeFromJSON((long) value));
+              writeBehind.overwriteServerCache(path("foo"), node("{'bar': " + value + "}"));
+            }
+          });
+    }
+
+    executor.runScheduled();
+    assertEquals(1, engine.serverCacheOverwrites);
+    assertEquals(node("{'bar': 9}"), engine.serverCache(path("foo")));
+  }
+
+  @Test
+  public void trackedKeySavesReplaceQueuedKeyWritesOfTheirQuery() {
+    final WriteBehindPersistenceStorageEngine writeBehind = newEngine(true);
+    runInTransaction(
+        writeBehind,
+        new Runnable() {
+          @Override
+          public void run() {
+            writeBehind.saveTrackedQuery(
+                new TrackedQuery(1, defaultQueryAt("foo"), 0, false, true));
+            writeBehind.saveTrackedQueryKeys(1, childKeySet("a"));
+            writeBehind.updateTrackedQueryKeys(1, childKeySet("b"), childKeySet());
+            writeBehind.saveTrackedQueryKeys(1, childKeySet("a", "b", "c"));
+          }
+        });
+
+    executor.runScheduled();
+    assertEquals(1, engine.trackedKeySaves);
+    assertEquals(childKeySet("a", "b", "c"), engine.loadTrackedQueryKeys(1));
+  }
+
+  @Test
+  public void durableUserWritesAreCommittedImmediately() {
+    final WriteBehindPersistenceStorageEngine writeBehind = newEngine(true);
+    runInTransaction(
+        writeBehind,
+        new Runnable() {
+          @Override
+          public void run() {
+            writeBehind.overwriteServerCache(path("foo"), NodeFromJSON("1"));
+            writeBehind.saveUserOverwrite(path("foo"), NodeFromJSON("2"), 1);
+          }
+        });
+
+    assertEquals(1, engine.loadUserWrites().size());
+    assertEquals(NodeFromJSON("1"), engine.serverCache(path("foo")));
+  }
+
+  @Test
+  public void nonDurableUserWritesAreQueued() {
+    final WriteBehindPersistenceStorageEngine writeBehind = newEngine(false);
+    runInTransaction(
+        writeBehind,
+        new Runnable() {
+          @Override
+          public void run() {
+            writeBehind.saveUserOverwrite(path("foo"), NodeFromJSON("2"), 1);
+          }
+        });
+
+    assertTrue(engine.loadUserWrites().isEmpty());
+    executor.runScheduled();
+    assertEquals(1, engine.loadUserWrites().size());
+  }
+
+  @Test
+  public void failedTransactionsAreNotCommitted() {
+    final WriteBehindPersistenceStorageEngine writeBehind = newEngine(true);
+    runInTransaction(
+        writeBehind,
+        new Runnable() {
+          @Override
+          public void run() {
+            writeBehind.overwriteServerCache(path("foo"), NodeFromJSON("1"));
+          }
+        });
+
+    writeBehind.beginTransaction();
+    writeBehind.overwriteServerCache(path("foo"), NodeFromJSON("2"));
+    writeBehind.endTransaction();
+
+    assertEquals(NodeFromJSON("1"), writeBehind.serverCache(path("foo")));
+    executor.runScheduled();
+    assertEquals(NodeFromJSON("1"), engine.serverCache(path("foo")));
+  }
+
+  @Test
+  public void readsInsideTransactionDoNotCommitItsWrites() {
+    WriteBehindPersistenceStorageEngine writeBehind = newEngine(true);
+    writeBehind.beginTransaction();
+    writeBehind.saveTrackedQuery(new TrackedQuery(1, defaultQueryAt("foo"), 0, false, true));
+    writeBehind.pruneCache(path(""), new PruneForest());
+    writeBehind.overwriteServerCache(path("foo"), NodeFromJSON("1"));
+    assertEquals(NodeFromJSON("1"), writeBehind.serverCache(path("foo")));
+    assertTrue(writeBehind.loadTrackedQueries().isEmpty());
+    writeBehind.endTransaction();
+
+    executor.runScheduled();
+    assertTrue(engine.loadTrackedQueries().isEmpty());
+    assertEquals(EmptyNode.Empty(), engine.serverCache(path("foo")));
+  }
+
+  @Test
+  public void failedCommitsAreReportedOnceAndDropped() {
+    final WriteBehindPersistenceStorageEngine writeBehind = newEngine(true);
+    engine.failServerCacheOverwrites = true;
+    writeBehind.overwriteServerCache(path("foo"), NodeFromJSON("1"));
+    executor.runScheduled();
+    engine.failServerCacheOverwrites = false;
+
+    try {
+      writeBehind.overwriteServerCache(path("bar"), NodeFromJSON("2"));
+      fail("Expected the failed commit to be reported");
+    } catch (RuntimeException e) {
+      assertEquals("Disk full", e.getCause().getMessage());
+    }
+
+    writeBehind.overwriteServerCache(path("bar"), NodeFromJSON("2"));
+    assertEquals(EmptyNode.Empty(), writeBehind.serverCache(path("foo")));
+    executor.runScheduled();
+    assertEquals(NodeFromJSON("2"), engine.serverCache(path("bar")));
+    assertEquals(EmptyNode.Empty(), engine.serverCache(path("foo")));
+  }
+}
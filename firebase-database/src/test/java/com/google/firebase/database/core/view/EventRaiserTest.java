@@ -0,0 +1,108 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import com.google.firebase.database.UnitTestHelpers;
+import com.google.firebase.database.core.CoreTestHelpers;
+import com.google.firebase.database.core.DatabaseConfig;
+import com.google.firebase.database.core.EventRegistration;
+import com.google.firebase.database.core.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class EventRaiserTest {
+
+  /** An executor that rejects the first tasks it is given and holds on to the rest. */
+  private static class RejectingExecutor implements Executor {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private int rejectionsLeft;
+
+    RejectingExecutor(int rejections) {
+      this.rejectionsLeft = rejections;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      if (rejectionsLeft > 0) {
+        rejectionsLeft--;
+        throw new RejectedExecutionException("saturated");
+      }
+      tasks.add(command);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+
+  private static Event event(
+      final EventRegistration registration, final List<String> log, final String name) {
+    return new Event() {
+      @Override
+      public Path getPath() {
+        return Path.getEmptyPath();
+      }
+
+      @Override
+      public EventRegistration getEventRegistration() {
+        return registration;
+      }
+
+      @Override
+      public void fire() {
+        log.add(name);
+      }
+
+      @Override
+      public String toString() {
+        return name;
+      }
+    };
+  }
+
+  @Test
+  public void rejectedEventsDoNotStopListeners() {
+    RejectingExecutor executor = new RejectingExecutor(1);
+    DatabaseConfig config = UnitTestHelpers.newTestConfig();
+    config.setCallbackExecutor(executor);
+    CoreTestHelpers.freezeContext(config);
+    EventRaiser raiser = new EventRaiser(config);
+    EventRegistration first = mock(EventRegistration.class);
+    EventRegistration second = mock(EventRegistration.class);
+    List<String> log = new ArrayList<>();
+
+    // The events of the first listener are rejected, which doesn't keep the second one's from
+    // being posted.
+    raiser.raiseEvents(Arrays.asList(event(first, log, "first1"), event(second, log, "second1")));
+    // Once the executor accepts callbacks again, the first listener receives its next events.
+    raiser.raiseEvents(Arrays.asList(event(first, log, "first2")));
+
+    executor.runAll();
+    assertEquals(Arrays.asList("second1", "first2"), log);
+  }
+}
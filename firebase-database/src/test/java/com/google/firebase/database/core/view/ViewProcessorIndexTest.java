@@ -0,0 +1,168 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core.view;
+
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.WriteTree;
+import com.google.firebase.database.core.WriteTreeRef;
+import com.google.firebase.database.core.operation.OperationSource;
+import com.google.firebase.database.core.operation.Overwrite;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.Index;
+import com.google.firebase.database.snapshot.IndexedNode;
+import com.google.firebase.database.snapshot.NamedNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.PathIndex;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ViewProcessorIndexTest {
+
+  private static final Index SCORE_INDEX = new PathIndex(new Path("score"));
+
+  private static Map<String, Object> scores(int count) {
+    Map<String, Object> children = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      Map<String, Object> child = new HashMap<>();
+      child.put("score", (long) i);
+      children.put("child-" + i, child);
+    }
+    return children;
+  }
+
+  private static ViewCache emptyViewCache() {
+    CacheNode empty = new CacheNode(IndexedNode.from(EmptyNode.Empty(), SCORE_INDEX), false, false);
+    return new ViewCache(empty, empty);
+  }
+
+  private static ViewProcessor.ProcessorResult applyServerOverwrite(
+      ViewProcessor processor, ViewCache viewCache, Node node) {
+    WriteTreeRef writes = new WriteTreeRef(Path.getEmptyPath(), new WriteTree());
+    return processor.applyOperation(
+        viewCache, new Overwrite(OperationSource.SERVER, Path.getEmptyPath(), node), writes, null);
+  }
+
+  private static List<ChildKey> keysInOrder(IndexedNode node) {
+    List<ChildKey> keys = new ArrayList<>();
+    for (NamedNode child : node) {
+      keys.add(child.getName());
+    }
+    return keys;
+  }
+
+  @Test
+  public void fullOverwriteKeepsChildrenInIndexOrder() {
+    ViewProcessor processor =
+        new ViewProcessor(QueryParams.DEFAULT_PARAMS.orderBy(SCORE_INDEX).getNodeFilter());
+    Map<String, Object> data = scores(100);
+    ViewCache viewCache =
+        applyServerOverwrite(processor, emptyViewCache(), NodeFromJSON(data)).viewCache;
+    // Build the index, like generating the initial child_added events does.
+    keysInOrder(viewCache.getEventCache().getIndexedNode());
+
+    Map<String, Object> moved = new HashMap<>();
+    moved.put("score", 1000L);
+    data.put("child-5", moved);
+    data.remove("child-7");
+    Map<String, Object> added = new HashMap<>();
+    added.put("score", -1L);
+    data.put("child-new", added);
+    Node newNode = NodeFromJSON(data);
+    ViewProcessor.ProcessorResult result = applyServerOverwrite(processor, viewCache, newNode);
+
+    // One change per child plus the value change.
+    assertEquals(4, result.changes.size());
+    IndexedNode eventCache = result.viewCache.getEventCache().getIndexedNode();
+    IndexedNode expected = IndexedNode.from(newNode, SCORE_INDEX);
+    assertEquals(keysInOrder(expected), keysInOrder(eventCache));
+    ChildKey movedKey = ChildKey.fromString("child-5");
+    assertEquals(
+        ChildKey.fromString("child-99"),
+        eventCache.getPredecessorChildName(
+            movedKey, newNode.getImmediateChild(movedKey), SCORE_INDEX));
+    ChildKey addedKey = ChildKey.fromString("child-new");
+    assertNull(
+        eventCache.getPredecessorChildName(
+            addedKey, newNode.getImmediateChild(addedKey), SCORE_INDEX));
+  }
+
+  @Test
+  public void fullOverwriteWithManyChangesBuildsIndexLazily() {
+    ViewProcessor processor =
+        new ViewProcessor(QueryParams.DEFAULT_PARAMS.orderBy(SCORE_INDEX).getNodeFilter());
+    ViewCache viewCache =
+        applyServerOverwrite(processor, emptyViewCache(), NodeFromJSON(scores(50))).viewCache;
+    keysInOrder(viewCache.getEventCache().getIndexedNode());
+
+    Map<String, Object> reversed = new HashMap<>();
+    for (int i = 0; i < 50; i++) {
+      Map<String, Object> child = new HashMap<>();
+      child.put("score", (long) -i);
+      reversed.put("child-" + i, child);
+    }
+    Node newNode = NodeFromJSON(reversed);
+    IndexedNode eventCache =
+        applyServerOverwrite(processor, viewCache, newNode)
+            .viewCache
+            .getEventCache()
+            .getIndexedNode();
+    assertEquals(keysInOrder(IndexedNode.from(newNode, SCORE_INDEX)), keysInOrder(eventCache));
+  }
+
+  // @Test
+  public void benchmarkSingleChildUpdateInLargeList() {
+    int childCount = 10000;
+    int updates = 200;
+    ViewProcessor processor =
+        new ViewProcessor(QueryParams.DEFAULT_PARAMS.orderBy(SCORE_INDEX).getNodeFilter());
+    Map<String, Object> data = scores(childCount);
+    ViewCache viewCache =
+        applyServerOverwrite(processor, emptyViewCache(), NodeFromJSON(data)).viewCache;
+    keysInOrder(viewCache.getEventCache().getIndexedNode());
+
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < updates; i++) {
+      Map<String, Object> child = new HashMap<>();
+      child.put("score", (long) childCount + i);
+      data.put("child-" + i, child);
+      ViewProcessor.ProcessorResult result =
+          applyServerOverwrite(processor, viewCache, NodeFromJSON(data));
+      viewCache = result.viewCache;
+      IndexedNode eventCache = viewCache.getEventCache().getIndexedNode();
+      for (Change change : result.changes) {
+        if (change.getChildKey() != null) {
+          eventCache.getPredecessorChildName(
+              change.getChildKey(), change.getIndexedNode().getNode(), SCORE_INDEX);
+        }
+      }
+    }
+    System.err.println(
+        String.format(
+            "%d single child updates of a %d child list took %dms",
+            updates, childCount, System.currentTimeMillis() - start));
+  }
+}
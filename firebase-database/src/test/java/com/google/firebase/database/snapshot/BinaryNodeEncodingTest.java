@@ -0,0 +1,122 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import static com.google.firebase.database.UnitTestHelpers.fromSingleQuotedString;
+import static com.google.firebase.database.UnitTestHelpers.node;
+import static com.google.firebase.database.UnitTestHelpers.path;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.util.JsonMapper;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BinaryNodeEncodingTest {
+
+  private static void assertRoundTrips(Node node) {
+    byte[] encoded = BinaryNodeEncoding.encode(node);
+    assertTrue(BinaryNodeEncoding.isBinaryEncoded(encoded));
+    Node decoded = BinaryNodeEncoding.decodeNode(encoded);
+    assertEquals(node, decoded);
+    assertEquals(node.getHash(), decoded.getHash());
+  }
+
+  @Test
+  public void roundTripsLeafNodes() {
+    assertRoundTrips(EmptyNode.Empty());
+    assertRoundTrips(NodeFromJSON("string"));
+    assertRoundTrips(NodeFromJSON("ünicöde 😀"));
+    assertRoundTrips(NodeFromJSON(0L));
+    assertRoundTrips(NodeFromJSON(-1L));
+    assertRoundTrips(NodeFromJSON(Long.MAX_VALUE));
+    assertRoundTrips(NodeFromJSON(Long.MIN_VALUE));
+    assertRoundTrips(NodeFromJSON(1.5));
+    assertRoundTrips(NodeFromJSON(-0.25));
+    assertRoundTrips(NodeFromJSON(true));
+    assertRoundTrips(NodeFromJSON(false));
+  }
+
+  @Test
+  public void roundTripsChildrenNodes() {
+    assertRoundTrips(
+        node("{ 'foo': { 'bar': true, 'baz': 'string' }, 'qux': 2, 'quu': 1.2, '1': 'a' }"));
+    assertRoundTrips(node("{ 'a': { 'a': { 'a': 1 } }, 'b': { 'a': 2 } }"));
+
+    Map<String, Object> manyChildren = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      manyChildren.put("key-" + i, i);
+    }
+    assertRoundTrips(NodeFromJSON(manyChildren));
+  }
+
+  @Test
+  public void roundTripsPriorities() {
+    assertRoundTrips(node("{ '.value': 'leaf', '.priority': 3 }"));
+    assertRoundTrips(node("{ '.value': 4, '.priority': 'p' }"));
+    assertRoundTrips(
+        node(
+            "{ 'a': { '.value': 1, '.priority': 2.5 }, "
+                + "'b': { 'c': true, '.priority': 'b' }, '.priority': 1 }"));
+  }
+
+  @Test
+  public void roundTripsServerValues() {
+    assertRoundTrips(
+        node("{ 'time': { '.sv': 'timestamp' }, 'count': { '.sv': { 'increment': 1 } } }"));
+  }
+
+  @Test
+  public void roundTripsMerges() {
+    CompoundWrite merge =
+        CompoundWrite.emptyWrite()
+            .addWrite(path("a/b"), node("{ 'c': 1 }"))
+            .addWrite(path("d"), NodeFromJSON("leaf"))
+            .addWrite(path("e/f/g"), EmptyNode.Empty());
+    assertEquals(merge, BinaryNodeEncoding.decodeMerge(BinaryNodeEncoding.encode(merge)));
+  }
+
+  @Test
+  public void isSmallerThanJson() throws Exception {
+    Map<String, Object> data = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      data.put(
+          "item-" + i, fromSingleQuotedString("{ 'name': 'name', 'count': 12345, 'ok': true }"));
+    }
+    Node node = NodeFromJSON(data);
+    byte[] json =
+        JsonMapper.serializeJsonValue(node.getValue(true)).getBytes(Charset.forName("UTF-8"));
+    byte[] binary = BinaryNodeEncoding.encode(node);
+    assertTrue(binary.length < json.length);
+  }
+
+  @Test
+  public void detectsJson() {
+    Charset utf8 = Charset.forName("UTF-8");
+    assertFalse(BinaryNodeEncoding.isBinaryEncoded("{\"a\":1}".getBytes(utf8)));
+    assertFalse(BinaryNodeEncoding.isBinaryEncoded("\"string\"".getBytes(utf8)));
+    assertFalse(BinaryNodeEncoding.isBinaryEncoded("null".getBytes(utf8)));
+    assertFalse(BinaryNodeEncoding.isBinaryEncoded("1".getBytes(utf8)));
+  }
+}
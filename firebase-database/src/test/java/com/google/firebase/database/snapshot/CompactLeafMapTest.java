@@ -0,0 +1,216 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CompactLeafMapTest {
+
+  private static Map<ChildKey, Node> leaves(int count) {
+    Map<ChildKey, Node> children = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      Object value;
+      switch (i % 4) {
+        case 0:
+          value = (long) i;
+          break;
+        case 1:
+          value = i + 0.5;
+          break;
+        case 2:
+          value = i % 3 == 0;
+          break;
+        default:
+          value = "value-" + i;
+      }
+      children.put(ChildKey.fromString("key-" + i), NodeFromJSON(value));
+    }
+    return children;
+  }
+
+  private static ImmutableSortedMap<ChildKey, Node> regular(Map<ChildKey, Node> children) {
+    return ImmutableSortedMap.Builder.fromMap(children, ChildrenNode.NAME_ONLY_COMPARATOR);
+  }
+
+  @Test
+  public void leavesAreStoredCompactly() {
+    Map<ChildKey, Node> children = leaves(100);
+    ImmutableSortedMap<ChildKey, Node> compact = CompactLeafMap.fromMap(children);
+
+    assertTrue(compact instanceof CompactLeafMap);
+    assertEquals(regular(children), compact);
+    assertEquals(100, compact.size());
+    assertEquals(NodeFromJSON(12L), compact.get(ChildKey.fromString("key-12")));
+    assertEquals(NodeFromJSON(13.5), compact.get(ChildKey.fromString("key-13")));
+    assertEquals(NodeFromJSON(false), compact.get(ChildKey.fromString("key-14")));
+    assertEquals(NodeFromJSON("value-15"), compact.get(ChildKey.fromString("key-15")));
+    assertNull(compact.get(ChildKey.fromString("missing")));
+  }
+
+  @Test
+  public void smallOrPrioritizedChildrenAreNotCompacted() {
+    Map<ChildKey, Node> children = leaves(CompactLeafMap.MIN_COMPACT_SIZE - 1);
+    assertFalse(CompactLeafMap.fromMap(children) instanceof CompactLeafMap);
+
+    children = leaves(100);
+    children.put(
+        ChildKey.fromString("key-0"),
+        NodeFromJSON(0L).updatePriority(PriorityUtilities.parsePriority(1L)));
+    assertFalse(CompactLeafMap.fromMap(children) instanceof CompactLeafMap);
+
+    children = leaves(100);
+    Map<String, Object> object = new HashMap<>();
+    object.put("a", 1L);
+    children.put(ChildKey.fromString("object"), NodeFromJSON(object));
+    assertFalse(CompactLeafMap.fromMap(children) instanceof CompactLeafMap);
+  }
+
+  @Test
+  public void nodesFromJsonAreCompactAndEqual() {
+    Map<String, Object> data = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      data.put("" + i, i % 2 == 0 ? (Object) (long) i : "value-" + i);
+    }
+    Node node = NodeFromJSON(data);
+    Map<ChildKey, Node> children = new HashMap<>();
+    for (Map.Entry<String, Object> entry : data.entrySet()) {
+      children.put(ChildKey.fromString(entry.getKey()), NodeFromJSON(entry.getValue()));
+    }
+    Node expected = new ChildrenNode(regular(children), PriorityUtilities.NullPriority());
+
+    assertEquals(expected, node);
+    assertEquals(expected.getHash(), node.getHash());
+    assertEquals(expected.getValue(), node.getValue());
+    assertEquals(ChildKey.fromString("0"), ((ChildrenNode) node).getFirstChildKey());
+    assertEquals(ChildKey.fromString("99"), ((ChildrenNode) node).getLastChildKey());
+  }
+
+  @Test
+  public void updatesReturnRegularMaps() {
+    Map<ChildKey, Node> children = leaves(100);
+    ImmutableSortedMap<ChildKey, Node> compact = CompactLeafMap.fromMap(children);
+    ChildKey updated = ChildKey.fromString("key-12");
+    ChildKey removed = ChildKey.fromString("key-13");
+
+    ImmutableSortedMap<ChildKey, Node> inserted = compact.insert(updated, NodeFromJSON("new"));
+    assertFalse(inserted instanceof CompactLeafMap);
+    children.put(updated, NodeFromJSON("new"));
+    assertEquals(regular(children), inserted);
+
+    assertSame(compact, compact.remove(ChildKey.fromString("missing")));
+    ImmutableSortedMap<ChildKey, Node> afterRemove = inserted.remove(removed);
+    children.remove(removed);
+    assertEquals(regular(children), afterRemove);
+  }
+
+  @Test
+  public void navigationMatchesRegularMap() {
+    Map<ChildKey, Node> children = leaves(50);
+    ImmutableSortedMap<ChildKey, Node> compact = CompactLeafMap.fromMap(children);
+    ImmutableSortedMap<ChildKey, Node> regular = regular(children);
+    List<ChildKey> probes = new ArrayList<>(children.keySet());
+    probes.add(ChildKey.fromString("key-10a"));
+    probes.add(ChildKey.fromString("a"));
+    probes.add(ChildKey.fromString("z"));
+
+    for (ChildKey key : probes) {
+      assertSameEntries(regular.iteratorFrom(key), compact.iteratorFrom(key));
+      assertSameEntries(regular.reverseIteratorFrom(key), compact.reverseIteratorFrom(key));
+      if (regular.containsKey(key)) {
+        assertEquals(regular.getPredecessorKey(key), compact.getPredecessorKey(key));
+        assertEquals(regular.getSuccessorKey(key), compact.getSuccessorKey(key));
+        assertEquals(regular.indexOf(key), compact.indexOf(key));
+      }
+    }
+    assertSameEntries(regular.reverseIterator(), compact.reverseIterator());
+    assertEquals(regular.getMinKey(), compact.getMinKey());
+    assertEquals(regular.getMaxKey(), compact.getMaxKey());
+  }
+
+  private static void assertSameEntries(
+      Iterator<Map.Entry<ChildKey, Node>> expected, Iterator<Map.Entry<ChildKey, Node>> actual) {
+    while (expected.hasNext()) {
+      assertTrue(actual.hasNext());
+      assertEquals(expected.next(), actual.next());
+    }
+    assertFalse(actual.hasNext());
+  }
+
+  @Test
+  public void childKeysAreInterned() {
+    assertSame(ChildKey.fromString("name"), ChildKey.fromString("name"));
+    assertSame(ChildKey.fromString("12"), ChildKey.fromString("12"));
+    assertSame(ChildKey.getPriorityKey(), ChildKey.fromString(".priority"));
+    assertTrue(ChildKey.fromString("2").compareTo(ChildKey.fromString("10")) < 0);
+  }
+
+  // @Test
+  public void benchmarkHeapUsageOfLeafHeavyNode() {
+    Map<String, Object> data = new HashMap<>();
+    for (int i = 0; i < 200000; i++) {
+      data.put("child-" + i, i % 2 == 0 ? (Object) (long) i : "value-" + i);
+    }
+
+    long before = usedHeap();
+    Node regular = regularNodeFromJSON(data);
+    long regularBytes = usedHeap() - before;
+
+    before = usedHeap();
+    Node compact = NodeFromJSON(data);
+    long compactBytes = usedHeap() - before;
+
+    // Keep both nodes reachable until they are measured.
+    assertEquals(regular, compact);
+    System.err.println(
+        "200k leaves: regular "
+            + regularBytes / data.size()
+            + " bytes/leaf, compact "
+            + compactBytes / data.size()
+            + " bytes/leaf");
+  }
+
+  private static Node regularNodeFromJSON(Map<String, Object> data) {
+    Map<ChildKey, Node> children = new HashMap<>();
+    for (Map.Entry<String, Object> entry : data.entrySet()) {
+      children.put(ChildKey.fromString(entry.getKey()), NodeFromJSON(entry.getValue()));
+    }
+    return new ChildrenNode(regular(children), PriorityUtilities.NullPriority());
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
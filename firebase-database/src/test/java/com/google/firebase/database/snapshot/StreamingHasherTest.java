@@ -0,0 +1,121 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import static com.google.firebase.database.UnitTestHelpers.fromSingleQuotedString;
+import static com.google.firebase.database.UnitTestHelpers.repeatedString;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.database.core.utilities.Utilities;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StreamingHasherTest {
+
+  private static void assertSameHash(String... parts) {
+    StreamingHasher hasher = new StreamingHasher();
+    StringBuilder joined = new StringBuilder();
+    for (String part : parts) {
+      hasher.append(part);
+      joined.append(part);
+    }
+    assertEquals(joined.length(), hasher.length());
+    assertEquals(Utilities.sha1HexDigest(joined.toString()), hasher.finish());
+  }
+
+  @Test
+  public void matchesStringHashing() {
+    assertSameHash("");
+    assertSameHash("ascii");
+    assertSameHash("priority:", "number:3ff0000000000000", ":");
+    assertSameHash("ünïcödé", "日本語", "😀 emoji");
+    // Unpaired surrogates are encoded as '?'.
+    assertSameHash("\uD83D", "x\uDE00y");
+    assertSameHash(repeatedString("0123456789😀", 1000));
+  }
+
+  @Test
+  public void nodeHashesMatchHashRepresentation() {
+    Node node =
+        NodeFromJSON(
+                fromSingleQuotedString(
+                    "{ 'a': { '.value': 1, '.priority': 2.5 }, "
+                        + "'c': { 'd': true, '.priority': 'c' }, 'e': 'ë', '.priority': 1 }"))
+            .updateImmediateChild(
+                ChildKey.fromString("b"),
+                new StringNode("needs \\ \"escaping\"", PriorityUtilities.NullPriority()));
+    assertEquals(
+        Utilities.sha1HexDigest(node.getHashRepresentation(Node.HashVersion.V1)), node.getHash());
+    for (NamedNode child : node) {
+      Node childNode = child.getNode();
+      assertEquals(
+          Utilities.sha1HexDigest(childNode.getHashRepresentation(Node.HashVersion.V1)),
+          childNode.getHash());
+    }
+  }
+
+  @Test
+  public void leafHashRepresentationsMatch() {
+    Node[] leaves = {
+      NodeFromJSON("plain"),
+      NodeFromJSON("needs \\ \"escaping\""),
+      NodeFromJSON(3L).updatePriority(NodeFromJSON("p")),
+      NodeFromJSON(true)
+    };
+    for (Node leaf : leaves) {
+      for (Node.HashVersion version : Node.HashVersion.values()) {
+        StreamingHasher hasher = new StreamingHasher();
+        ((LeafNode<?>) leaf).appendHashRepresentation(version, hasher);
+        assertEquals(
+            Utilities.sha1HexDigest(leaf.getHashRepresentation(version)), hasher.finish());
+      }
+    }
+  }
+
+  // @Test
+  public void benchmarkHashingLargeNode() {
+    Map<String, Object> data = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      data.put("child-" + i, "value-" + i);
+    }
+    List<Node> nodes = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      // Hashes are cached per node, so every iteration needs a fresh copy.
+      nodes.add(NodeFromJSON(data));
+    }
+
+    long start = System.currentTimeMillis();
+    for (Node node : nodes) {
+      node.getHash();
+    }
+    System.err.println(
+        "Hashed 100k children in " + (System.currentTimeMillis() - start) / 10 + "ms");
+
+    start = System.currentTimeMillis();
+    for (Node node : nodes) {
+      CompoundHash.fromNode(node);
+    }
+    System.err.println(
+        "Compound hashed 100k children in " + (System.currentTimeMillis() - start) / 10 + "ms");
+  }
+}
@@ -0,0 +1,404 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.tubesock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.database.connection.ConnectionContext;
+import com.google.firebase.database.logging.DefaultLogger;
+import com.google.firebase.database.logging.Logger;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PerMessageDeflateTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static String repetitiveJson(int children) {
+    StringBuilder sb = new StringBuilder("{\"t\":\"d\",\"d\":{\"b\":{\"p\":\"chats/room\",\"d\":{");
+    for (int i = 0; i < children; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(String.format(Locale.US, "\"msg-%05d\":", i))
+          .append("{\"author\":\"user-")
+          .append(i % 7)
+          .append("\",\"text\":\"Hello \u00e9\u00e8 world\",\"timestamp\":")
+          .append(1660000000000L + i)
+          .append('}');
+    }
+    return sb.append("}},\"a\":\"d\"}}").toString();
+  }
+
+  /** Sends a message through a client and a server side extension, like they would be framed. */
+  private static byte[] roundTrip(
+      PerMessageDeflate sender, PerMessageDeflate receiver, byte[] data) {
+    int length = sender.deflate(data);
+    byte[] payload = Arrays.copyOf(sender.getDeflatedBytes(), length);
+    // Split the message into two frames to check that decompression is streamed.
+    int split = payload.length / 2;
+    receiver.inflate(Arrays.copyOfRange(payload, 0, split), /*fin=*/ false);
+    receiver.inflate(Arrays.copyOfRange(payload, split, payload.length), /*fin=*/ true);
+    return receiver.takeInflatedMessage();
+  }
+
+  @Test
+  public void messagesRoundTripWithContextTakeover() {
+    PerMessageDeflate client = new PerMessageDeflate(false, false);
+    PerMessageDeflate server = new PerMessageDeflate(false, false);
+    byte[] message = repetitiveJson(100).getBytes(UTF8);
+
+    int firstLength = client.deflate(message);
+    assertTrue(firstLength < message.length / 5);
+    byte[] payload = Arrays.copyOf(client.getDeflatedBytes(), firstLength);
+    server.inflate(payload, /*fin=*/ true);
+    assertArrayEquals(message, server.takeInflatedMessage());
+
+    // The second copy of the same message refers back to the first one.
+    int secondLength = client.deflate(message);
+    assertTrue(secondLength < firstLength / 5);
+    server.inflate(Arrays.copyOf(client.getDeflatedBytes(), secondLength), /*fin=*/ true);
+    assertArrayEquals(message, server.takeInflatedMessage());
+    assertArrayEquals(message, roundTrip(client, server, message));
+  }
+
+  @Test
+  public void messagesRoundTripWithoutContextTakeover() {
+    PerMessageDeflate client = new PerMessageDeflate(true, true);
+    PerMessageDeflate server = new PerMessageDeflate(true, true);
+    for (int i = 0; i < 3; i++) {
+      byte[] message = repetitiveJson(10 + i).getBytes(UTF8);
+      assertArrayEquals(message, roundTrip(client, server, message));
+    }
+  }
+
+  @Test
+  public void largeMessagesGrowTheBuffers() {
+    PerMessageDeflate client = new PerMessageDeflate(false, false);
+    PerMessageDeflate server = new PerMessageDeflate(false, false);
+    byte[] message = repetitiveJson(20000).getBytes(UTF8);
+    assertArrayEquals(message, roundTrip(client, server, message));
+    byte[] small = repetitiveJson(2).getBytes(UTF8);
+    assertArrayEquals(small, roundTrip(client, server, small));
+  }
+
+  @Test
+  public void parsesServerResponse() {
+    assertNull(PerMessageDeflate.fromServerResponse(null));
+    assertTrue(
+        PerMessageDeflate.fromServerResponse(
+                "permessage-deflate; server_no_context_takeover; server_max_window_bits=10")
+            != null);
+  }
+
+  @Test(expected = WebSocketException.class)
+  public void rejectsClientWindowBits() {
+    PerMessageDeflate.fromServerResponse("permessage-deflate; client_max_window_bits=10");
+  }
+
+  @Test
+  public void closeReleasesBothHalves() {
+    PerMessageDeflate deflate = new PerMessageDeflate(false, false);
+    byte[] message = repetitiveJson(10).getBytes(UTF8);
+    assertArrayEquals(message, roundTrip(deflate, deflate, message));
+    deflate.close();
+
+    try {
+      deflate.deflate(message);
+      fail("Expected the closed extension to reject messages");
+    } catch (WebSocketException e) {
+      // expected
+    }
+    try {
+      deflate.inflate(message, /*fin=*/ true);
+      fail("Expected the closed extension to reject messages");
+    } catch (WebSocketException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = WebSocketException.class)
+  public void rejectsUnknownExtensions() {
+    PerMessageDeflate.fromServerResponse("x-webkit-deflate-frame");
+  }
+
+  /**
+   * A stand-in for the server side of a single connection, which echoes every message back. If it
+   * accepts the extension, messages are echoed in two compressed frames.
+   */
+  private static class DeflateEchoServer implements Runnable {
+    final ServerSocket serverSocket;
+    final PerMessageDeflate deflate = new PerMessageDeflate(false, false);
+    final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    final boolean acceptsDeflate;
+    volatile long bytesReceived = 0;
+
+    DeflateEchoServer(boolean acceptsDeflate) throws IOException {
+      this.acceptsDeflate = acceptsDeflate;
+      serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    URI getUri() {
+      return URI.create("ws://127.0.0.1:" + serverSocket.getLocalPort() + "/.ws");
+    }
+
+    @Override
+    public void run() {
+      try (Socket socket = serverSocket.accept()) {
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        OutputStream output = socket.getOutputStream();
+        boolean offered = false;
+        String line;
+        while (!(line = readLine(input)).isEmpty()) {
+          offered |= line.toLowerCase(Locale.US).startsWith("sec-websocket-extensions:");
+        }
+        received.add(offered);
+        output.write(
+            ("HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + (acceptsDeflate ? "Sec-WebSocket-Extensions: permessage-deflate\r\n" : "")
+                    + "\r\n")
+                .getBytes(UTF8));
+        while (true) {
+          int first = input.readUnsignedByte();
+          int second = input.readUnsignedByte();
+          long length = second & 0x7f;
+          int header = 6;
+          if (length == 126) {
+            length = input.readUnsignedShort();
+            header += 2;
+          } else if (length == 127) {
+            length = input.readLong();
+            header += 8;
+          }
+          byte[] mask = new byte[4];
+          input.readFully(mask);
+          byte[] payload = new byte[(int) length];
+          input.readFully(payload);
+          for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (payload[i] ^ mask[i % 4]);
+          }
+          bytesReceived += header + length;
+          if ((first & 0xf) == WebSocket.OPCODE_CLOSE) {
+            output.write(new byte[] {(byte) 0x88, 0});
+            return;
+          }
+          byte[] message = payload;
+          if ((first & 0x40) != 0) {
+            deflate.inflate(payload, /*fin=*/ true);
+            message = deflate.takeInflatedMessage();
+          }
+          received.add(new String(message, UTF8));
+          echo(output, message);
+        }
+      } catch (IOException e) {
+        received.add(e);
+      } finally {
+        deflate.close();
+      }
+    }
+
+    private void echo(OutputStream output, byte[] message) throws IOException {
+      if (!acceptsDeflate) {
+        writeFrame(output, 0x80 | WebSocket.OPCODE_TEXT, message);
+        return;
+      }
+      int length = deflate.deflate(message);
+      byte[] payload = Arrays.copyOf(deflate.getDeflatedBytes(), length);
+      int split = payload.length / 2;
+      writeFrame(output, WebSocket.OPCODE_TEXT | 0x40, Arrays.copyOfRange(payload, 0, split));
+      writeFrame(output, 0x80, Arrays.copyOfRange(payload, split, payload.length));
+    }
+
+    private static void writeFrame(OutputStream output, int first, byte[] payload)
+        throws IOException {
+      output.write(first);
+      if (payload.length < 126) {
+        output.write(payload.length);
+      } else {
+        output.write(126);
+        output.write(payload.length >> 8);
+        output.write(payload.length & 0xff);
+      }
+      output.write(payload);
+      output.flush();
+    }
+
+    private static String readLine(DataInputStream input) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      int b;
+      while ((b = input.read()) != '\n') {
+        if (b != '\r') {
+          sb.append((char) b);
+        }
+      }
+      return sb.toString();
+    }
+  }
+
+  private static WebSocket newClient(URI uri, final BlockingQueue<String> messages) {
+    ConnectionContext context =
+        new ConnectionContext(
+            new DefaultLogger(Logger.Level.NONE, null),
+            null,
+            null,
+            null,
+            false,
+            "test",
+            "test",
+            "test",
+            null,
+            0);
+    WebSocket client = new WebSocket(context, uri);
+    client.setEventHandler(
+        new WebSocketEventHandler() {
+          @Override
+          public void onOpen() {
+            messages.add("open");
+          }
+
+          @Override
+          public void onMessage(WebSocketMessage message) {
+            messages.add(message.getText());
+          }
+
+          @Override
+          public void onClose() {}
+
+          @Override
+          public void onError(WebSocketException e) {
+            messages.add("error: " + e);
+          }
+
+          @Override
+          public void onLogMessage(String msg) {}
+        });
+    return client;
+  }
+
+  @Test
+  public void compressedMessagesRoundTripThroughWebSocket() throws Exception {
+    DeflateEchoServer server = new DeflateEchoServer(/*acceptsDeflate=*/ true);
+    Thread serverThread = new Thread(server);
+    serverThread.start();
+
+    BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    WebSocket client = newClient(server.getUri(), messages);
+    client.connect();
+    assertEquals("open", messages.poll(10, TimeUnit.SECONDS));
+    String json = repetitiveJson(200);
+    client.send(json);
+    client.send("{\"t\":\"c\"}");
+
+    assertEquals(true, server.received.poll(10, TimeUnit.SECONDS));
+    assertEquals(json, server.received.poll(10, TimeUnit.SECONDS));
+    assertEquals("{\"t\":\"c\"}", server.received.poll(10, TimeUnit.SECONDS));
+    assertEquals(json, messages.poll(10, TimeUnit.SECONDS));
+    assertEquals("{\"t\":\"c\"}", messages.poll(10, TimeUnit.SECONDS));
+    assertTrue(server.bytesReceived < json.length() / 5);
+
+    client.close();
+    client.blockClose();
+    serverThread.join();
+    server.serverSocket.close();
+  }
+
+  @Test
+  public void shortMessagesRoundTripWithoutCompression() throws Exception {
+    DeflateEchoServer server = new DeflateEchoServer(/*acceptsDeflate=*/ false);
+    Thread serverThread = new Thread(server);
+    serverThread.start();
+
+    BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    WebSocket client = newClient(server.getUri(), messages);
+    client.connect();
+    assertEquals("open", messages.poll(10, TimeUnit.SECONDS));
+    client.send("{\"t\":\"c\"}");
+    client.send("");
+
+    assertEquals(true, server.received.poll(10, TimeUnit.SECONDS));
+    assertEquals("{\"t\":\"c\"}", server.received.poll(10, TimeUnit.SECONDS));
+    assertEquals("", server.received.poll(10, TimeUnit.SECONDS));
+    assertEquals("{\"t\":\"c\"}", messages.poll(10, TimeUnit.SECONDS));
+    assertEquals("", messages.poll(10, TimeUnit.SECONDS));
+
+    // The empty close frame is masked like any other short frame.
+    client.close();
+    client.blockClose();
+    serverThread.join();
+    assertTrue(server.received.isEmpty());
+    server.serverSocket.close();
+  }
+
+  // @Test
+  public void benchmarkCompression() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    PerMessageDeflate client = new PerMessageDeflate(false, false);
+    PerMessageDeflate server = new PerMessageDeflate(false, false);
+    byte[][] messages = new byte[500][];
+    long uncompressedBytes = 0;
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = repetitiveJson(20 + i % 50).getBytes(UTF8);
+      uncompressedBytes += messages[i].length;
+    }
+
+    long compressedBytes = 0;
+    long deflateCpuNanos = 0;
+    long inflateCpuNanos = 0;
+    for (byte[] message : messages) {
+      long start = threads.getCurrentThreadCpuTime();
+      int length = client.deflate(message);
+      long deflated = threads.getCurrentThreadCpuTime();
+      server.inflate(Arrays.copyOf(client.getDeflatedBytes(), length), /*fin=*/ true);
+      server.takeInflatedMessage();
+      inflateCpuNanos += threads.getCurrentThreadCpuTime() - deflated;
+      deflateCpuNanos += deflated - start;
+      compressedBytes += length;
+    }
+    double megabytes = uncompressedBytes / (1024.0 * 1024.0);
+    System.err.println(
+        String.format(
+            Locale.US,
+            "%d bytes sent as %d bytes on the wire (%.1f%%), deflate %.1fms/MB, inflate %.1fms/MB",
+            uncompressedBytes,
+            compressedBytes,
+            100.0 * compressedBytes / uncompressedBytes,
+            deflateCpuNanos / 1e6 / megabytes,
+            inflateCpuNanos / 1e6 / megabytes));
+  }
+}
@@ -15,8 +15,11 @@
 package com.google.firebase.database.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import com.google.firebase.database.connection.util.StringListReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -62,4 +65,46 @@ public class JsonMapperTest {
     Object value = JsonMapper.parseJsonValue(jsonString);
     assertEquals(root, value);
   }
+
+  @Test
+  public void readerParsingMatchesStringParsing() throws IOException {
+    String json =
+        "{\"int\":1,\"negative\":-2147483648,\"long\":9223372036854775807,\"double\":1.5,"
+            + "\"exponent\":1e3,\"bool\":true,\"null\":null,\"string\":\"\\u00fcnic\\\"ode\","
+            + "\"list\":[1,\"a\",{\"b\":false}],\"nested\":{\"a\":{\"b\":2.0}}}";
+    Map<String, Object> expected = JsonMapper.parseJson(json);
+    Map<String, Object> actual = JsonMapper.parseJson(new StringReader(json));
+    assertEquals(expected, actual);
+    for (String key : expected.keySet()) {
+      Object value = expected.get(key);
+      if (value != null) {
+        assertEquals(key, value.getClass(), actual.get(key).getClass());
+      }
+    }
+  }
+
+  @Test
+  public void canParseJsonSplitAcrossFrames() throws IOException {
+    String json = "{\"r\":12,\"b\":{\"s\":\"ok\",\"d\":{\"key\":[1,2,3]}}}";
+    StringListReader reader = new StringListReader();
+    for (int i = 0; i < json.length(); i += 5) {
+      reader.addString(json.substring(i, Math.min(i + 5, json.length())));
+    }
+    reader.freeze();
+    Map<String, Object> decoded = JsonMapper.parseJson(reader);
+    assertEquals(JsonMapper.parseJson(json), decoded);
+    assertEquals(12, decoded.get("r"));
+  }
+
+  @Test
+  public void readerParsingRejectsNonObjects() {
+    for (String json : Arrays.asList("[1,2]", "\"string\"", "{\"a\":", "")) {
+      try {
+        JsonMapper.parseJson(new StringReader(json));
+        fail("Expected IOException for " + json);
+      } catch (IOException expected) {
+        // Expected.
+      }
+    }
+  }
 }
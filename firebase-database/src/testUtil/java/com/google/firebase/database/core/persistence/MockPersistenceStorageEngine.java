@@ -65,6 +65,16 @@ public class MockPersistenceStorageEngine implements PersistenceStorageEngine {
     return getCurrentNode(path);
   }
 
+  @Override
+  public Node serverCache(Path path, Set<ChildKey> childKeys) {
+    Node node = getCurrentNode(path);
+    Node filteredNode = EmptyNode.Empty();
+    for (ChildKey key : childKeys) {
+      filteredNode = filteredNode.updateImmediateChild(key, node.getImmediateChild(key));
+    }
+    return filteredNode;
+  }
+
   @Override
   public void saveUserOverwrite(Path path, Node node, long writeId) {
     verifyInsideTransaction();
@@ -53,4 +53,9 @@ public class TestCachePolicy implements CachePolicy {
   public long getMaxNumberOfQueriesToKeep() {
     return maxNumberToKeep;
   }
+
+  @Override
+  public long getMaxQueriesToPruneAtOnce() {
+    return Long.MAX_VALUE;
+  }
 }
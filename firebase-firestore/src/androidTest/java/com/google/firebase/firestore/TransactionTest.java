@@ -773,6 +773,38 @@ public class TransactionTest {
     assertEquals(options.getMaxAttempts(), count.get());
   }
 
+  @Test
+  public void testLocalCacheValidationFailsBeforeCommit() {
+    TransactionOptions options =
+        new TransactionOptions.Builder()
+            .setMaxAttempts(1)
+            .setLocalCacheValidationEnabled(true)
+            .build();
+
+    FirebaseFirestore firestore = testFirestore();
+    DocumentReference doc1 = firestore.collection("counters").document();
+    waitFor(doc1.set(map("count", 15)));
+    Task<Void> transactionTask =
+        firestore.runTransaction(
+            options,
+            transaction -> {
+              transaction.get(doc1);
+              // The acknowledged write updates the local cache with a newer version of the
+              // document, which is detected before the commit is sent.
+              waitFor(doc1.set(map("count", 1234)));
+              transaction.update(doc1, "count", 16);
+              return null;
+            });
+
+    Exception e = waitForException(transactionTask);
+    assertEquals(Code.ABORTED, ((FirebaseFirestoreException) e).getCode());
+    // Only the local validation produces this message; a rejected commit would fail with the
+    // backend's precondition error instead.
+    assertTrue(e.getMessage().contains("changed after it was read in this transaction"));
+    DocumentSnapshot snapshot = waitFor(doc1.get(Source.SERVER));
+    assertEquals(1234L, (long) snapshot.getLong("count"));
+  }
+
   @Test
   public void testTransactionOptionsZeroMaxAttempts_shouldThrowIllegalArgumentException() {
     assertThrows(
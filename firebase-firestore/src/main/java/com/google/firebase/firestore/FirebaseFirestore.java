@@ -555,6 +555,20 @@ public class FirebaseFirestore {
     return client.waitForPendingWrites();
   }
 
+  /**
+   * Returns a snapshot of performance statistics of this instance, for example the size of the
+   * memory cache and how many attempts transactions needed.
+   *
+   * @return A {@code Task} that resolves with the current statistics.
+   */
+  @NonNull
+  public Task<FirestoreStats> getStats() {
+    ensureClientConfigured();
+    return client
+        .getStats()
+        .continueWith(Executors.DIRECT_EXECUTOR, task -> new FirestoreStats(task.getResult()));
+  }
+
   @VisibleForTesting
   AsyncQueue getAsyncQueue() {
     return asyncQueue;
@@ -27,6 +27,29 @@ public final class FirebaseFirestoreSettings {
    */
   public static final long CACHE_SIZE_UNLIMITED = -1;
 
+  /**
+   * Constant to use with {@link FirebaseFirestoreSettings.Builder#setPersistencePageCacheSizeBytes}
+   * and {@link FirebaseFirestoreSettings.Builder#setPersistenceSynchronousLevel} to keep SQLite's
+   * default.
+   */
+  public static final int SQLITE_DEFAULT = -1;
+
+  /**
+   * Synchronous level that hands writes to the operating system without waiting for them to reach
+   * the disk. An application crash doesn't lose data, but a power loss may.
+   */
+  public static final int SYNCHRONOUS_OFF = 0;
+
+  /**
+   * Synchronous level that waits for the disk less often than {@link #SYNCHRONOUS_FULL}. With
+   * write-ahead logging, a power loss may roll back the most recent writes but doesn't corrupt the
+   * cache.
+   */
+  public static final int SYNCHRONOUS_NORMAL = 1;
+
+  /** Synchronous level that waits for every write to reach the disk. */
+  public static final int SYNCHRONOUS_FULL = 2;
+
   /** @hide */
   public static final String DEFAULT_HOST = "firestore.googleapis.com";
 
@@ -39,6 +62,10 @@ public final class FirebaseFirestoreSettings {
     private boolean sslEnabled;
     private boolean persistenceEnabled;
     private long cacheSizeBytes;
+    private boolean lruMemoryCacheEnabled;
+    private long persistencePageCacheSizeBytes;
+    private boolean persistenceWriteAheadLoggingEnabled;
+    private int persistenceSynchronousLevel;
 
     /** Constructs a new {@code FirebaseFirestoreSettings} Builder object. */
     public Builder() {
@@ -46,6 +73,10 @@ public final class FirebaseFirestoreSettings {
       sslEnabled = true;
       persistenceEnabled = true;
       cacheSizeBytes = DEFAULT_CACHE_SIZE_BYTES;
+      lruMemoryCacheEnabled = false;
+      persistencePageCacheSizeBytes = SQLITE_DEFAULT;
+      persistenceWriteAheadLoggingEnabled = false;
+      persistenceSynchronousLevel = SQLITE_DEFAULT;
     }
 
     /**
@@ -58,6 +89,10 @@ public final class FirebaseFirestoreSettings {
       sslEnabled = settings.sslEnabled;
       persistenceEnabled = settings.persistenceEnabled;
       cacheSizeBytes = settings.cacheSizeBytes;
+      lruMemoryCacheEnabled = settings.lruMemoryCacheEnabled;
+      persistencePageCacheSizeBytes = settings.persistencePageCacheSizeBytes;
+      persistenceWriteAheadLoggingEnabled = settings.persistenceWriteAheadLoggingEnabled;
+      persistenceSynchronousLevel = settings.persistenceSynchronousLevel;
     }
 
     /**
@@ -116,6 +151,73 @@ public final class FirebaseFirestoreSettings {
       return this;
     }
 
+    /**
+     * Enables or disables keeping documents in the memory cache after they are no longer used,
+     * when local persistent storage is disabled. By default, documents are removed from memory as
+     * soon as no listener or pending write refers to them. If enabled, they are kept until the
+     * cache grows beyond the size set with {@link #setCacheSizeBytes(long)}, and then removed
+     * starting with the least recently used ones, so that queries can be served from cache again.
+     *
+     * @return A settings object on which the memory cache is configured as specified by the given
+     *     {@code value}.
+     */
+    @NonNull
+    public Builder setLruMemoryCacheEnabled(boolean value) {
+      this.lruMemoryCacheEnabled = value;
+      return this;
+    }
+
+    /**
+     * Sets how much memory SQLite may use to cache pages of the local persistent storage. A larger
+     * page cache saves disk reads when large query results are loaded. By default, SQLite's own
+     * default is used.
+     *
+     * @return A settings object on which the page cache size is configured as specified by the
+     *     given {@code value}.
+     */
+    @NonNull
+    public Builder setPersistencePageCacheSizeBytes(long value) {
+      if (value != SQLITE_DEFAULT && value <= 0) {
+        throw new IllegalArgumentException("Page cache size must be positive");
+      }
+      this.persistencePageCacheSizeBytes = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables write-ahead logging for local persistent storage. With write-ahead
+     * logging, a transaction appends its changes to a log instead of rewriting the database, which
+     * makes applying large remote events cheaper. It is disabled by default.
+     *
+     * @return A settings object on which write-ahead logging is configured as specified by the
+     *     given {@code value}.
+     */
+    @NonNull
+    public Builder setPersistenceWriteAheadLoggingEnabled(boolean value) {
+      this.persistenceWriteAheadLoggingEnabled = value;
+      return this;
+    }
+
+    /**
+     * Sets how often SQLite waits for writes to local persistent storage to reach the disk, to one
+     * of {@link #SYNCHRONOUS_OFF}, {@link #SYNCHRONOUS_NORMAL} or {@link #SYNCHRONOUS_FULL}. By
+     * default, SQLite's own default is used.
+     *
+     * @return A settings object on which the synchronous level is configured as specified by the
+     *     given {@code value}.
+     */
+    @NonNull
+    public Builder setPersistenceSynchronousLevel(int value) {
+      if (value != SQLITE_DEFAULT
+          && value != SYNCHRONOUS_OFF
+          && value != SYNCHRONOUS_NORMAL
+          && value != SYNCHRONOUS_FULL) {
+        throw new IllegalArgumentException("Unknown synchronous level: " + value);
+      }
+      this.persistenceSynchronousLevel = value;
+      return this;
+    }
+
     /** @return the host of the Cloud Firestore backend. */
     @NonNull
     public String getHost() {
@@ -137,6 +239,26 @@ public final class FirebaseFirestoreSettings {
       return cacheSizeBytes;
     }
 
+    /** @return boolean indicating whether unused documents are kept in the memory cache. */
+    public boolean isLruMemoryCacheEnabled() {
+      return lruMemoryCacheEnabled;
+    }
+
+    /** @return page cache size for on-disk data. */
+    public long getPersistencePageCacheSizeBytes() {
+      return persistencePageCacheSizeBytes;
+    }
+
+    /** @return boolean indicating whether write-ahead logging is enabled or not. */
+    public boolean isPersistenceWriteAheadLoggingEnabled() {
+      return persistenceWriteAheadLoggingEnabled;
+    }
+
+    /** @return synchronous level for on-disk data. */
+    public int getPersistenceSynchronousLevel() {
+      return persistenceSynchronousLevel;
+    }
+
     @NonNull
     public FirebaseFirestoreSettings build() {
       if (!this.sslEnabled && this.host.equals(DEFAULT_HOST)) {
@@ -151,6 +273,10 @@ public final class FirebaseFirestoreSettings {
   private final boolean sslEnabled;
   private final boolean persistenceEnabled;
   private final long cacheSizeBytes;
+  private final boolean lruMemoryCacheEnabled;
+  private final long persistencePageCacheSizeBytes;
+  private final boolean persistenceWriteAheadLoggingEnabled;
+  private final int persistenceSynchronousLevel;
 
   /** Constructs a {@code FirebaseFirestoreSettings} object based on the values in the Builder. */
   private FirebaseFirestoreSettings(Builder builder) {
@@ -158,6 +284,10 @@ public final class FirebaseFirestoreSettings {
     sslEnabled = builder.sslEnabled;
     persistenceEnabled = builder.persistenceEnabled;
     cacheSizeBytes = builder.cacheSizeBytes;
+    lruMemoryCacheEnabled = builder.lruMemoryCacheEnabled;
+    persistencePageCacheSizeBytes = builder.persistencePageCacheSizeBytes;
+    persistenceWriteAheadLoggingEnabled = builder.persistenceWriteAheadLoggingEnabled;
+    persistenceSynchronousLevel = builder.persistenceSynchronousLevel;
   }
 
   @Override
@@ -173,7 +303,11 @@ public final class FirebaseFirestoreSettings {
     return host.equals(that.host)
         && sslEnabled == that.sslEnabled
         && persistenceEnabled == that.persistenceEnabled
-        && cacheSizeBytes == that.cacheSizeBytes;
+        && cacheSizeBytes == that.cacheSizeBytes
+        && lruMemoryCacheEnabled == that.lruMemoryCacheEnabled
+        && persistencePageCacheSizeBytes == that.persistencePageCacheSizeBytes
+        && persistenceWriteAheadLoggingEnabled == that.persistenceWriteAheadLoggingEnabled
+        && persistenceSynchronousLevel == that.persistenceSynchronousLevel;
   }
 
   @Override
@@ -182,6 +316,10 @@ public final class FirebaseFirestoreSettings {
     result = 31 * result + (sslEnabled ? 1 : 0);
     result = 31 * result + (persistenceEnabled ? 1 : 0);
     result = 31 * result + (int) cacheSizeBytes;
+    result = 31 * result + (lruMemoryCacheEnabled ? 1 : 0);
+    result = 31 * result + (int) persistencePageCacheSizeBytes;
+    result = 31 * result + (persistenceWriteAheadLoggingEnabled ? 1 : 0);
+    result = 31 * result + persistenceSynchronousLevel;
     return result;
   }
 
@@ -197,6 +335,14 @@ public final class FirebaseFirestoreSettings {
         + persistenceEnabled
         + ", cacheSizeBytes="
         + cacheSizeBytes
+        + ", lruMemoryCacheEnabled="
+        + lruMemoryCacheEnabled
+        + ", persistencePageCacheSizeBytes="
+        + persistencePageCacheSizeBytes
+        + ", persistenceWriteAheadLoggingEnabled="
+        + persistenceWriteAheadLoggingEnabled
+        + ", persistenceSynchronousLevel="
+        + persistenceSynchronousLevel
         + "}";
   }
 
@@ -223,4 +369,33 @@ public final class FirebaseFirestoreSettings {
   public long getCacheSizeBytes() {
     return cacheSizeBytes;
   }
+
+  /**
+   * Returns whether documents that are no longer used are kept in the memory cache, up to the
+   * cache size, when local persistent storage is disabled.
+   */
+  public boolean isLruMemoryCacheEnabled() {
+    return lruMemoryCacheEnabled;
+  }
+
+  /**
+   * Returns how much memory SQLite may use to cache pages of the local persistent storage, or
+   * {@link #SQLITE_DEFAULT}.
+   */
+  public long getPersistencePageCacheSizeBytes() {
+    return persistencePageCacheSizeBytes;
+  }
+
+  /** Returns whether local persistent storage uses write-ahead logging. */
+  public boolean isPersistenceWriteAheadLoggingEnabled() {
+    return persistenceWriteAheadLoggingEnabled;
+  }
+
+  /**
+   * Returns how often SQLite waits for writes to local persistent storage to reach the disk, or
+   * {@link #SQLITE_DEFAULT}.
+   */
+  public int getPersistenceSynchronousLevel() {
+    return persistenceSynchronousLevel;
+  }
 }
@@ -0,0 +1,141 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.core.FirestoreClient;
+import com.google.firebase.firestore.core.SyncEngine;
+import com.google.firebase.firestore.local.MemoryPersistence;
+import com.google.firebase.firestore.remote.GrpcChannelPool;
+import com.google.firebase.firestore.remote.RemoteStore;
+
+/**
+ * A snapshot of performance statistics of a {@link FirebaseFirestore} instance, as returned by
+ * {@link FirebaseFirestore#getStats()}.
+ */
+public final class FirestoreStats {
+  @Nullable private final MemoryPersistence.CacheStats memoryCacheStats;
+  private final SyncEngine.TransactionStats transactionStats;
+  private final GrpcChannelPool.Stats channelPoolStats;
+  @Nullable private final RemoteStore.ReconnectStats reconnectStats;
+
+  FirestoreStats(FirestoreClient.Stats stats) {
+    this.memoryCacheStats = stats.getMemoryCacheStats();
+    this.transactionStats = stats.getTransactionStats();
+    this.channelPoolStats = stats.getChannelPoolStats();
+    this.reconnectStats = stats.getReconnectStats();
+  }
+
+  /**
+   * Returns the estimated size of the memory cache in bytes. Only tracked if local persistent
+   * storage is disabled and the LRU memory cache is enabled, and 0 otherwise.
+   */
+  public long getMemoryCacheSizeBytes() {
+    return memoryCacheStats != null ? memoryCacheStats.getByteSize() : 0;
+  }
+
+  /**
+   * Returns the number of documents in the memory cache, or 0 if local persistent storage is
+   * enabled.
+   */
+  public int getMemoryCacheDocumentCount() {
+    return memoryCacheStats != null ? memoryCacheStats.getDocumentCount() : 0;
+  }
+
+  /** Returns how many times the LRU memory cache exceeded its size and was trimmed. */
+  public int getMemoryCacheEvictionCount() {
+    return memoryCacheStats != null ? memoryCacheStats.getEvictionCount() : 0;
+  }
+
+  /** Returns the total number of documents removed from the LRU memory cache to fit its size. */
+  public long getMemoryCacheDocumentsEvicted() {
+    return memoryCacheStats != null ? memoryCacheStats.getDocumentsEvicted() : 0;
+  }
+
+  /** Returns the total number of queries removed from the LRU memory cache to fit its size. */
+  public long getMemoryCacheTargetsEvicted() {
+    return memoryCacheStats != null ? memoryCacheStats.getTargetsEvicted() : 0;
+  }
+
+  /** Returns the number of transactions that committed. */
+  public int getTransactionsCommitted() {
+    return transactionStats.getCommittedCount();
+  }
+
+  /** Returns the number of transactions that failed, after all their attempts. */
+  public int getTransactionsFailed() {
+    return transactionStats.getFailedCount();
+  }
+
+  /** Returns the number of attempts made by all completed transactions, including retries. */
+  public long getTransactionAttempts() {
+    return transactionStats.getAttemptCount();
+  }
+
+  /**
+   * Returns the sum of the times from starting to completing each transaction, including retries
+   * and backoff.
+   */
+  public long getTransactionLatencyMillis() {
+    return transactionStats.getTotalLatencyMs();
+  }
+
+  /**
+   * Returns the number of gRPC channels created in this process. Instances that connect to the
+   * same host share a channel, so this is process-wide rather than per instance.
+   */
+  public int getChannelsCreated() {
+    return channelPoolStats.getChannelsCreated();
+  }
+
+  /** Returns how many times an instance connected over a channel shared with other instances. */
+  public int getChannelsReused() {
+    return channelPoolStats.getChannelsReused();
+  }
+
+  /**
+   * Returns the time the most recently created channel took to become ready, or -1 if no channel
+   * has become ready yet.
+   */
+  public long getLastHandshakeLatencyMillis() {
+    return channelPoolStats.getLastHandshakeLatencyMs();
+  }
+
+  /** Returns the mean time channels took to become ready, or -1 if none has become ready yet. */
+  public long getAverageHandshakeLatencyMillis() {
+    return channelPoolStats.getAverageHandshakeLatencyMs();
+  }
+
+  /** Returns the number of queries re-sent to the backend when the last connection opened. */
+  public int getLastReconnectTargetsRelistened() {
+    return reconnectStats != null ? reconnectStats.getTargetsRelistened() : 0;
+  }
+
+  /**
+   * Returns the number of documents received after the last connection opened, until all
+   * re-sent queries were up to date.
+   */
+  public int getLastReconnectDocumentsDownloaded() {
+    return reconnectStats != null ? reconnectStats.getDocumentsDownloaded() : 0;
+  }
+
+  /**
+   * Returns the time from the last connection opening until all re-sent queries were up to date,
+   * or -1 if they are not up to date yet or no connection was opened.
+   */
+  public long getLastReconnectTimeToCurrentMillis() {
+    return reconnectStats != null ? reconnectStats.getTimeToCurrentMs() : -1;
+  }
+}
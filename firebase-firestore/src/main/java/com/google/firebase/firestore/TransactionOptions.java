@@ -26,14 +26,17 @@ public final class TransactionOptions {
   static final int DEFAULT_MAX_ATTEMPTS_COUNT = 5;
 
   private final int maxAttempts;
+  private final boolean localCacheValidationEnabled;
 
-  private TransactionOptions(int maxAttempts) {
+  private TransactionOptions(int maxAttempts, boolean localCacheValidationEnabled) {
     this.maxAttempts = maxAttempts;
+    this.localCacheValidationEnabled = localCacheValidationEnabled;
   }
 
   /** A Builder for creating {@code TransactionOptions}. */
   public static final class Builder {
     private int maxAttempts = DEFAULT_MAX_ATTEMPTS_COUNT;
+    private boolean localCacheValidationEnabled = false;
 
     /** Constructs a new {@code TransactionOptions} Builder object. */
     public Builder() {}
@@ -44,6 +47,7 @@ public final class TransactionOptions {
      */
     public Builder(@NonNull TransactionOptions options) {
       maxAttempts = options.maxAttempts;
+      localCacheValidationEnabled = options.localCacheValidationEnabled;
     }
 
     /**
@@ -61,6 +65,23 @@ public final class TransactionOptions {
       return this;
     }
 
+    /**
+     * Enables or disables checking the documents read in a transaction against the local cache
+     * before committing.
+     *
+     * <p>If a listener has already received a newer version of a document that was read in the
+     * transaction, the commit is bound to fail. With this option enabled, the attempt fails
+     * immediately and is retried without first sending the commit to the backend. The default
+     * value is false.
+     *
+     * @return This builder
+     */
+    @NonNull
+    public Builder setLocalCacheValidationEnabled(boolean enabled) {
+      this.localCacheValidationEnabled = enabled;
+      return this;
+    }
+
     /**
      * Build the {@code TransactionOptions} object.
      *
@@ -68,7 +89,7 @@ public final class TransactionOptions {
      */
     @NonNull
     public TransactionOptions build() {
-      return new TransactionOptions(maxAttempts);
+      return new TransactionOptions(maxAttempts, localCacheValidationEnabled);
     }
   }
 
@@ -81,6 +102,16 @@ public final class TransactionOptions {
     return maxAttempts;
   }
 
+  /**
+   * Returns whether the documents read in a transaction are checked against the local cache before
+   * committing. Default is false.
+   *
+   * @return Whether local cache validation is enabled
+   */
+  public boolean isLocalCacheValidationEnabled() {
+    return localCacheValidationEnabled;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -88,16 +119,24 @@ public final class TransactionOptions {
 
     TransactionOptions that = (TransactionOptions) o;
 
-    return maxAttempts == that.maxAttempts;
+    return maxAttempts == that.maxAttempts
+        && localCacheValidationEnabled == that.localCacheValidationEnabled;
   }
 
   @Override
   public int hashCode() {
-    return maxAttempts;
+    int result = maxAttempts;
+    result = 31 * result + (localCacheValidationEnabled ? 1 : 0);
+    return result;
   }
 
   @Override
   public String toString() {
-    return "TransactionOptions{" + "maxAttempts=" + maxAttempts + '}';
+    return "TransactionOptions{"
+        + "maxAttempts="
+        + maxAttempts
+        + ", localCacheValidationEnabled="
+        + localCacheValidationEnabled
+        + '}';
   }
 }
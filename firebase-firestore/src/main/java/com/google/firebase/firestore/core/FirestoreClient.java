@@ -36,6 +36,7 @@ import com.google.firebase.firestore.bundle.NamedQuery;
 import com.google.firebase.firestore.core.EventManager.ListenOptions;
 import com.google.firebase.firestore.local.IndexBackfiller;
 import com.google.firebase.firestore.local.LocalStore;
+import com.google.firebase.firestore.local.MemoryPersistence;
 import com.google.firebase.firestore.local.Persistence;
 import com.google.firebase.firestore.local.QueryResult;
 import com.google.firebase.firestore.local.Scheduler;
@@ -44,6 +45,7 @@ import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.FieldIndex;
 import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.remote.Datastore;
+import com.google.firebase.firestore.remote.GrpcChannelPool;
 import com.google.firebase.firestore.remote.GrpcMetadataProvider;
 import com.google.firebase.firestore.remote.RemoteSerializer;
 import com.google.firebase.firestore.remote.RemoteStore;
@@ -64,6 +66,46 @@ public final class FirestoreClient {
   private static final String LOG_TAG = "FirestoreClient";
   private static final int MAX_CONCURRENT_LIMBO_RESOLUTIONS = 100;
 
+  /** A snapshot of the statistics of the components of a client. */
+  public static final class Stats {
+    @Nullable private final MemoryPersistence.CacheStats memoryCacheStats;
+    private final SyncEngine.TransactionStats transactionStats;
+    private final GrpcChannelPool.Stats channelPoolStats;
+    @Nullable private final RemoteStore.ReconnectStats reconnectStats;
+
+    Stats(
+        @Nullable MemoryPersistence.CacheStats memoryCacheStats,
+        SyncEngine.TransactionStats transactionStats,
+        GrpcChannelPool.Stats channelPoolStats,
+        @Nullable RemoteStore.ReconnectStats reconnectStats) {
+      this.memoryCacheStats = memoryCacheStats;
+      this.transactionStats = transactionStats;
+      this.channelPoolStats = channelPoolStats;
+      this.reconnectStats = reconnectStats;
+    }
+
+    /** Returns the statistics of the memory cache, or null if persistence is enabled. */
+    @Nullable
+    public MemoryPersistence.CacheStats getMemoryCacheStats() {
+      return memoryCacheStats;
+    }
+
+    public SyncEngine.TransactionStats getTransactionStats() {
+      return transactionStats;
+    }
+
+    /** Returns the stats of the channel pool, which is shared by all instances in the process. */
+    public GrpcChannelPool.Stats getChannelPoolStats() {
+      return channelPoolStats;
+    }
+
+    /** Returns the cost of the last watch stream (re-)connect, or null if it never connected. */
+    @Nullable
+    public RemoteStore.ReconnectStats getReconnectStats() {
+      return reconnectStats;
+    }
+  }
+
   private final DatabaseInfo databaseInfo;
   private final CredentialsProvider<User> authProvider;
   private final CredentialsProvider<String> appCheckProvider;
@@ -146,6 +188,20 @@ public final class FirestoreClient {
     return asyncQueue.enqueue(() -> remoteStore.enableNetwork());
   }
 
+  /** Returns a snapshot of the statistics of the components of this client. */
+  public Task<Stats> getStats() {
+    this.verifyNotTerminated();
+    return asyncQueue.enqueue(
+        () ->
+            new Stats(
+                persistence instanceof MemoryPersistence
+                    ? ((MemoryPersistence) persistence).getCacheStats()
+                    : null,
+                syncEngine.getTransactionStats(),
+                GrpcChannelPool.getInstance().getStats(),
+                remoteStore.getLastReconnectStats()));
+  }
+
   /** Terminates this client, cancels all writes / listeners, and releases all resources. */
   public Task<Void> terminate() {
     authProvider.removeChangeListener();
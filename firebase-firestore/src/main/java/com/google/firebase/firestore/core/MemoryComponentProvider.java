@@ -16,8 +16,11 @@ package com.google.firebase.firestore.core;
 
 import androidx.annotation.Nullable;
 import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.firestore.local.IndexBackfiller;
+import com.google.firebase.firestore.local.LocalSerializer;
 import com.google.firebase.firestore.local.LocalStore;
+import com.google.firebase.firestore.local.LruGarbageCollector;
 import com.google.firebase.firestore.local.MemoryPersistence;
 import com.google.firebase.firestore.local.Persistence;
 import com.google.firebase.firestore.local.QueryEngine;
@@ -26,12 +29,13 @@ import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.mutation.MutationBatchResult;
 import com.google.firebase.firestore.remote.AndroidConnectivityMonitor;
 import com.google.firebase.firestore.remote.RemoteEvent;
+import com.google.firebase.firestore.remote.RemoteSerializer;
 import com.google.firebase.firestore.remote.RemoteStore;
 import io.grpc.Status;
 
 /**
  * Provides all components needed for Firestore with in-memory persistence. Uses EagerGC garbage
- * collection.
+ * collection, unless an LRU memory cache is enabled in the settings.
  */
 public class MemoryComponentProvider extends ComponentProvider {
 
@@ -64,6 +68,15 @@ public class MemoryComponentProvider extends ComponentProvider {
 
   @Override
   protected Persistence createPersistence(Configuration configuration) {
+    FirebaseFirestoreSettings settings = configuration.getSettings();
+    if (settings.isLruMemoryCacheEnabled()) {
+      LocalSerializer serializer =
+          new LocalSerializer(
+              new RemoteSerializer(configuration.getDatabaseInfo().getDatabaseId()));
+      LruGarbageCollector.Params params =
+          LruGarbageCollector.Params.WithCacheSizeBytes(settings.getCacheSizeBytes());
+      return MemoryPersistence.createLruGcMemoryPersistence(params, serializer);
+    }
     return MemoryPersistence.createEagerGcMemoryPersistence();
   }
 
@@ -50,6 +50,7 @@ public class SQLiteComponentProvider extends MemoryComponentProvider {
         configuration.getDatabaseInfo().getPersistenceKey(),
         configuration.getDatabaseInfo().getDatabaseId(),
         serializer,
-        params);
+        params,
+        SQLitePersistence.DatabaseOptions.FromSettings(configuration.getSettings()));
   }
 }
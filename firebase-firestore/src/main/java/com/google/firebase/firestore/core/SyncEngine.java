@@ -102,6 +102,41 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
 
   private static final String TAG = SyncEngine.class.getSimpleName();
 
+  /** A snapshot of the totals of the transactions run by a SyncEngine. */
+  public static final class TransactionStats {
+    private final int committedCount;
+    private final int failedCount;
+    private final long attemptCount;
+    private final long totalLatencyMs;
+
+    TransactionStats(int committedCount, int failedCount, long attemptCount, long totalLatencyMs) {
+      this.committedCount = committedCount;
+      this.failedCount = failedCount;
+      this.attemptCount = attemptCount;
+      this.totalLatencyMs = totalLatencyMs;
+    }
+
+    /** Returns the number of transactions that committed. */
+    public int getCommittedCount() {
+      return committedCount;
+    }
+
+    /** Returns the number of transactions that failed after their last attempt. */
+    public int getFailedCount() {
+      return failedCount;
+    }
+
+    /** Returns the number of attempts of all completed transactions, including retries. */
+    public long getAttemptCount() {
+      return attemptCount;
+    }
+
+    /** Returns the sum of the end-to-end latencies of all completed transactions. */
+    public long getTotalLatencyMs() {
+      return totalLatencyMs;
+    }
+  }
+
   /** Interface implemented by EventManager to handle notifications from SyncEngine. */
   interface SyncEngineCallback {
     /** Handles new view snapshots. */
@@ -159,6 +194,12 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
 
   private SyncEngineCallback syncEngineListener;
 
+  // Totals of the completed transactions, only accessed on the worker queue.
+  private int transactionsCommitted;
+  private int transactionsFailed;
+  private long transactionAttempts;
+  private long transactionLatencyMs;
+
   public SyncEngine(
       LocalStore localStore,
       RemoteStore remoteStore,
@@ -315,7 +356,27 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
       AsyncQueue asyncQueue,
       TransactionOptions options,
       Function<Transaction, Task<TResult>> updateFunction) {
-    return new TransactionRunner<TResult>(asyncQueue, remoteStore, options, updateFunction).run();
+    TransactionRunner<TResult> runner =
+        new TransactionRunner<TResult>(asyncQueue, remoteStore, options, updateFunction);
+    return runner
+        .run()
+        .addOnCompleteListener(
+            asyncQueue.getExecutor(),
+            task -> {
+              if (task.isSuccessful()) {
+                ++transactionsCommitted;
+              } else {
+                ++transactionsFailed;
+              }
+              transactionAttempts += runner.getAttemptCount();
+              transactionLatencyMs += runner.getLatencyMs();
+            });
+  }
+
+  /** Returns the totals of the transactions that completed so far. */
+  public TransactionStats getTransactionStats() {
+    return new TransactionStats(
+        transactionsCommitted, transactionsFailed, transactionAttempts, transactionLatencyMs);
   }
 
   public Task<Long> runCountQuery(Query query) {
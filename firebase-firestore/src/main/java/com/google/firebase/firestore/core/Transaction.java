@@ -20,11 +20,14 @@ import static com.google.firebase.firestore.util.Assert.hardAssert;
 import android.annotation.SuppressLint;
 import androidx.annotation.Nullable;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.FirebaseFirestoreException.Code;
 import com.google.firebase.firestore.core.UserData.ParsedSetData;
 import com.google.firebase.firestore.core.UserData.ParsedUpdateData;
+import com.google.firebase.firestore.local.LocalStore;
+import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MutableDocument;
 import com.google.firebase.firestore.model.SnapshotVersion;
@@ -38,7 +41,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -51,6 +56,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class Transaction {
   private final Datastore datastore;
+  private final Executor lookupExecutor;
+  @Nullable private final LocalStore localStore;
   private final HashMap<DocumentKey, SnapshotVersion> readVersions = new HashMap<>();
   private final ArrayList<Mutation> mutations = new ArrayList<>();
   private boolean committed;
@@ -69,8 +76,35 @@ public class Transaction {
    */
   private Set<DocumentKey> writtenDocs = new HashSet<>();
 
+  /**
+   * Keys whose lookup has been requested but not yet sent to the backend. All lookups issued before
+   * the lookup executor gets to run are sent as a single BatchGetDocuments request.
+   */
+  @Nullable private PendingLookup pendingLookup;
+
+  private static class PendingLookup {
+    private final Set<DocumentKey> keys = new LinkedHashSet<>();
+    private final TaskCompletionSource<Map<DocumentKey, MutableDocument>> completionSource =
+        new TaskCompletionSource<>();
+  }
+
   public Transaction(Datastore d) {
-    datastore = d;
+    this(d, Executors.DIRECT_EXECUTOR, /* localStore= */ null);
+  }
+
+  /**
+   * Creates a new transaction.
+   *
+   * @param d The datastore used to read and commit documents.
+   * @param lookupExecutor The executor that sends lookups. Lookups requested before the executor
+   *     runs are coalesced into a single request.
+   * @param localStore If set, the read versions are compared with the local cache before commit so
+   *     that transactions on documents known to have changed fail without a round trip.
+   */
+  public Transaction(Datastore d, Executor lookupExecutor, @Nullable LocalStore localStore) {
+    this.datastore = d;
+    this.lookupExecutor = lookupExecutor;
+    this.localStore = localStore;
   }
 
   /**
@@ -86,17 +120,65 @@ public class Transaction {
               "Firestore transactions require all reads to be executed before all writes.",
               Code.INVALID_ARGUMENT));
     }
-    return datastore
-        .lookup(keys)
+
+    PendingLookup lookup;
+    boolean scheduleLookup = false;
+    synchronized (this) {
+      if (pendingLookup == null) {
+        pendingLookup = new PendingLookup();
+        scheduleLookup = true;
+      }
+      lookup = pendingLookup;
+      lookup.keys.addAll(keys);
+    }
+    if (scheduleLookup) {
+      lookupExecutor.execute(this::sendPendingLookup);
+    }
+
+    return lookup
+        .completionSource
+        .getTask()
         .continueWithTask(
+            Executors.DIRECT_EXECUTOR,
+            task -> {
+              if (!task.isSuccessful()) {
+                return Tasks.forException(task.getException());
+              }
+              Map<DocumentKey, MutableDocument> docs = task.getResult();
+              List<MutableDocument> results = new ArrayList<>();
+              for (DocumentKey key : keys) {
+                MutableDocument doc = docs.get(key);
+                if (doc != null) {
+                  recordVersion(doc);
+                  results.add(doc);
+                }
+              }
+              return Tasks.forResult(results);
+            });
+  }
+
+  /** Sends all lookups that were requested since the last call as one request. */
+  private void sendPendingLookup() {
+    PendingLookup lookup;
+    synchronized (this) {
+      lookup = pendingLookup;
+      pendingLookup = null;
+    }
+
+    datastore
+        .lookup(new ArrayList<>(lookup.keys))
+        .addOnCompleteListener(
             Executors.DIRECT_EXECUTOR,
             task -> {
               if (task.isSuccessful()) {
+                Map<DocumentKey, MutableDocument> docs = new HashMap<>();
                 for (MutableDocument doc : task.getResult()) {
-                  recordVersion(doc);
+                  docs.put(doc.getKey(), doc);
                 }
+                lookup.completionSource.setResult(docs);
+              } else {
+                lookup.completionSource.setException(task.getException());
               }
-              return task;
             });
   }
 
@@ -141,6 +223,14 @@ public class Transaction {
       mutations.add(new VerifyMutation(key, precondition(key)));
     }
     committed = true;
+
+    if (localStore != null) {
+      FirebaseFirestoreException staleReadError = validateReadVersions(localStore);
+      if (staleReadError != null) {
+        return Tasks.forException(staleReadError);
+      }
+    }
+
     return datastore
         .commit(mutations)
         .continueWithTask(
@@ -173,7 +263,36 @@ public class Transaction {
     return executor;
   }
 
-  private void recordVersion(MutableDocument doc) throws FirebaseFirestoreException {
+  /**
+   * Compares the versions read in this transaction with the local cache. If the cache already
+   * holds a newer version of a document, the commit is bound to fail its precondition, so an
+   * ABORTED error is returned instead of sending the commit. Documents that were read as missing
+   * carry no read time to compare with, so they are left to the backend's precondition.
+   *
+   * <p>Must be called on the worker queue.
+   */
+  @Nullable
+  private FirebaseFirestoreException validateReadVersions(LocalStore localStore) {
+    Map<DocumentKey, SnapshotVersion> versions;
+    synchronized (this) {
+      versions = new HashMap<>(readVersions);
+    }
+    for (Map.Entry<DocumentKey, SnapshotVersion> entry : versions.entrySet()) {
+      if (entry.getValue().equals(SnapshotVersion.NONE)) {
+        continue;
+      }
+      Document cachedDoc = localStore.readDocument(entry.getKey());
+      if ((cachedDoc.isFoundDocument() || cachedDoc.isNoDocument())
+          && cachedDoc.getVersion().compareTo(entry.getValue()) > 0) {
+        return new FirebaseFirestoreException(
+            "Document " + entry.getKey() + " changed after it was read in this transaction.",
+            Code.ABORTED);
+      }
+    }
+    return null;
+  }
+
+  private synchronized void recordVersion(MutableDocument doc) throws FirebaseFirestoreException {
     SnapshotVersion docVersion;
     if (doc.isFoundDocument()) {
       docVersion = doc.getVersion();
@@ -25,13 +25,24 @@ import com.google.firebase.firestore.util.AsyncQueue;
 import com.google.firebase.firestore.util.AsyncQueue.TimerId;
 import com.google.firebase.firestore.util.ExponentialBackoff;
 import com.google.firebase.firestore.util.Function;
+import com.google.firebase.firestore.util.Logger;
 
 /** TransactionRunner encapsulates the logic needed to run and retry transactions with backoff. */
 public class TransactionRunner<TResult> {
+  private static final String TAG = "TransactionRunner";
+
   private AsyncQueue asyncQueue;
   private RemoteStore remoteStore;
   private Function<Transaction, Task<TResult>> updateFunction;
   private int attemptsRemaining;
+  private final boolean localCacheValidationEnabled;
+
+  /** The number of times the update function has been run so far. */
+  private int attemptCount;
+  /** When run() was called, used to report the end-to-end latency of the transaction. */
+  private long startTimeMs;
+  /** The end-to-end latency, or -1 if the transaction has not completed yet. */
+  private long latencyMs = -1;
 
   private ExponentialBackoff backoff;
   private TaskCompletionSource<TResult> taskSource = new TaskCompletionSource<>();
@@ -46,21 +57,38 @@ public class TransactionRunner<TResult> {
     this.remoteStore = remoteStore;
     this.updateFunction = updateFunction;
     this.attemptsRemaining = options.getMaxAttempts();
+    this.localCacheValidationEnabled = options.isLocalCacheValidationEnabled();
 
     backoff = new ExponentialBackoff(asyncQueue, TimerId.RETRY_TRANSACTION);
   }
 
   /** Runs the transaction and returns a Task containing the result. */
   public Task<TResult> run() {
+    startTimeMs = System.currentTimeMillis();
     runWithBackoff();
     return taskSource.getTask();
   }
 
+  /** Returns how many times the update function has been run so far. */
+  public int getAttemptCount() {
+    return attemptCount;
+  }
+
+  /**
+   * Returns the time between the call to run() and the completion of the transaction, or -1 if the
+   * transaction has not completed yet.
+   */
+  public long getLatencyMs() {
+    return latencyMs;
+  }
+
   private void runWithBackoff() {
     attemptsRemaining -= 1;
     backoff.backoffAndRun(
         () -> {
-          final Transaction transaction = remoteStore.createTransaction();
+          ++attemptCount;
+          final Transaction transaction =
+              remoteStore.createTransaction(localCacheValidationEnabled);
           updateFunction
               .apply(transaction)
               .addOnCompleteListener(
@@ -75,6 +103,7 @@ public class TransactionRunner<TResult> {
                               asyncQueue.getExecutor(),
                               (@NonNull Task<Void> commitTask) -> {
                                 if (commitTask.isSuccessful()) {
+                                  recordCompletion(/* successful= */ true);
                                   taskSource.setResult(userTask.getResult());
                                 } else {
                                   handleTransactionError(commitTask);
@@ -89,10 +118,21 @@ public class TransactionRunner<TResult> {
     if (attemptsRemaining > 0 && isRetryableTransactionError(task.getException())) {
       runWithBackoff();
     } else {
+      recordCompletion(/* successful= */ false);
       taskSource.setException(task.getException());
     }
   }
 
+  private void recordCompletion(boolean successful) {
+    latencyMs = System.currentTimeMillis() - startTimeMs;
+    Logger.debug(
+        TAG,
+        "Transaction %s after %d attempt(s) in %dms",
+        successful ? "committed" : "failed",
+        attemptCount,
+        latencyMs);
+  }
+
   private static boolean isRetryableTransactionError(Exception e) {
     if (e instanceof FirebaseFirestoreException) {
       // In transactions, the backend will fail outdated reads with FAILED_PRECONDITION,
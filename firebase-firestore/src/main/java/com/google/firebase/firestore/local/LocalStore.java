@@ -162,6 +162,7 @@ public final class LocalStore implements BundleCallback {
     targetIdByTarget = new HashMap<>();
 
     persistence.getReferenceDelegate().setInMemoryPins(localViewReferences);
+    persistence.getReferenceDelegate().setActiveTargets(queryDataByTarget);
 
     initializeUserComponents(initialUser);
   }
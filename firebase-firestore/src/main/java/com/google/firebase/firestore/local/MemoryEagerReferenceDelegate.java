@@ -14,6 +14,7 @@
 
 package com.google.firebase.firestore.local;
 
+import android.util.SparseArray;
 import com.google.firebase.firestore.core.ListenSequence;
 import com.google.firebase.firestore.model.DocumentKey;
 import java.util.ArrayList;
@@ -41,6 +42,11 @@ class MemoryEagerReferenceDelegate implements ReferenceDelegate {
     this.inMemoryPins = inMemoryPins;
   }
 
+  @Override
+  public void setActiveTargets(SparseArray<?> activeTargetIds) {
+    // Active targets are supplied to each garbage collection pass instead.
+  }
+
   @Override
   public void addReference(DocumentKey key) {
     orphanedDocuments.remove(key);
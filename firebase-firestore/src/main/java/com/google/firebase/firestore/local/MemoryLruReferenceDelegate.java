@@ -17,6 +17,8 @@ package com.google.firebase.firestore.local;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
 import android.util.SparseArray;
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.firestore.core.ListenSequence;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
@@ -29,24 +31,25 @@ import java.util.Map;
 /** Provides LRU garbage collection functionality for MemoryPersistence. */
 class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
   private final MemoryPersistence persistence;
-  private final LocalSerializer serializer;
   private final Map<DocumentKey, Long> orphanedSequenceNumbers;
   private ReferenceSet inMemoryPins;
+  @Nullable private SparseArray<?> activeTargetIds;
   private final LruGarbageCollector garbageCollector;
   private final ListenSequence listenSequence;
   private long currentSequenceNumber;
+  private final long cacheSizeBudget;
+  private int evictionCount;
+  private long targetsEvicted;
+  private long documentsEvicted;
 
-  MemoryLruReferenceDelegate(
-      MemoryPersistence persistence,
-      LruGarbageCollector.Params params,
-      LocalSerializer serializer) {
+  MemoryLruReferenceDelegate(MemoryPersistence persistence, LruGarbageCollector.Params params) {
     this.persistence = persistence;
-    this.serializer = serializer;
     this.orphanedSequenceNumbers = new HashMap<>();
     this.listenSequence =
         new ListenSequence(persistence.getTargetCache().getHighestListenSequenceNumber());
     this.currentSequenceNumber = ListenSequence.INVALID;
     this.garbageCollector = new LruGarbageCollector(this, params);
+    this.cacheSizeBudget = params.minBytesThreshold;
   }
 
   @Override
@@ -67,9 +70,44 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     hardAssert(
         currentSequenceNumber != ListenSequence.INVALID,
         "Committing a transaction without having started one");
+    evictIfOverBudget();
     currentSequenceNumber = ListenSequence.INVALID;
   }
 
+  /**
+   * Runs LRU garbage collection inline until the cache fits into the configured budget or nothing
+   * else can be removed. Eviction only starts once the active targets have been registered, since
+   * without them we cannot tell which targets are safe to remove.
+   */
+  private void evictIfOverBudget() {
+    if (activeTargetIds == null
+        || cacheSizeBudget == FirebaseFirestoreSettings.CACHE_SIZE_UNLIMITED) {
+      return;
+    }
+
+    while (getByteSize() > cacheSizeBudget) {
+      LruGarbageCollector.Results results = garbageCollector.collect(activeTargetIds);
+      if (!results.hasRun()
+          || (results.getTargetsRemoved() == 0 && results.getDocumentsRemoved() == 0)) {
+        break;
+      }
+      ++evictionCount;
+      targetsEvicted += results.getTargetsRemoved();
+      documentsEvicted += results.getDocumentsRemoved();
+    }
+  }
+
+  /** Returns a snapshot of the current cache size and the evictions performed so far. */
+  MemoryPersistence.CacheStats getCacheStats() {
+    MemoryRemoteDocumentCache documentCache = persistence.getRemoteDocumentCache();
+    return new MemoryPersistence.CacheStats(
+        getByteSize(),
+        documentCache.getDocumentCount(),
+        evictionCount,
+        targetsEvicted,
+        documentsEvicted);
+  }
+
   @Override
   public long getCurrentSequenceNumber() {
     hardAssert(
@@ -110,6 +148,11 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     this.inMemoryPins = inMemoryPins;
   }
 
+  @Override
+  public void setActiveTargets(SparseArray<?> activeTargetIds) {
+    this.activeTargetIds = activeTargetIds;
+  }
+
   @Override
   public int removeTargets(long upperBound, SparseArray<?> activeTargetIds) {
     return persistence.getTargetCache().removeQueries(upperBound, activeTargetIds);
@@ -188,14 +231,13 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
 
   @Override
   public long getByteSize() {
-    // Note that this method is only used for testing because this delegate is only
-    // used for testing. The algorithm here (loop through everything, serialize it
-    // and count bytes) is inefficient and inexact, but won't run in production.
+    // All sizes are maintained incrementally as entries are added and removed, so this is cheap
+    // enough to check after every transaction.
     long count = 0;
-    count += persistence.getTargetCache().getByteSize(serializer);
-    count += persistence.getRemoteDocumentCache().getByteSize(serializer);
+    count += persistence.getTargetCache().getByteSize();
+    count += persistence.getRemoteDocumentCache().getByteSize();
     for (MemoryMutationQueue queue : persistence.getMutationQueues()) {
-      count += queue.getByteSize(serializer);
+      count += queue.getByteSize();
     }
     return count;
   }
@@ -69,11 +69,22 @@ final class MemoryMutationQueue implements MutationQueue {
    */
   private ByteString lastStreamToken;
 
+  /** Estimates the number of bytes a mutation batch occupies in the queue. */
+  interface BatchSizer {
+    long getSize(MutationBatch batch);
+  }
+
   private final MemoryPersistence persistence;
   private final MemoryIndexManager indexManager;
 
-  MemoryMutationQueue(MemoryPersistence persistence, User user) {
+  /** Used to compute the size of each batch as it is added or removed. */
+  private final BatchSizer sizer;
+  /** The sum of the sizes of all batches in the queue, maintained incrementally. */
+  private long byteSize;
+
+  MemoryMutationQueue(MemoryPersistence persistence, User user, BatchSizer sizer) {
     this.persistence = persistence;
+    this.sizer = sizer;
     queue = new ArrayList<>();
 
     batchesByDocumentKey = new ImmutableSortedSet<>(emptyList(), DocumentReference.BY_KEY);
@@ -146,6 +157,7 @@ final class MemoryMutationQueue implements MutationQueue {
 
     MutationBatch batch = new MutationBatch(batchId, localWriteTime, baseMutations, mutations);
     queue.add(batch);
+    byteSize += sizer.getSize(batch);
 
     // Track references by document key and index collection parents.
     for (Mutation mutation : mutations) {
@@ -298,6 +310,7 @@ final class MemoryMutationQueue implements MutationQueue {
     hardAssert(batchIndex == 0, "Can only remove the first entry of the mutation queue");
 
     queue.remove(0);
+    byteSize -= sizer.getSize(batch);
 
     // Remove entries from the index too.
     ImmutableSortedSet<DocumentReference> references = batchesByDocumentKey;
@@ -372,11 +385,7 @@ final class MemoryMutationQueue implements MutationQueue {
     return index;
   }
 
-  long getByteSize(LocalSerializer serializer) {
-    long count = 0;
-    for (MutationBatch batch : queue) {
-      count += serializer.encodeMutationBatch(batch).getSerializedSize();
-    }
-    return count;
+  long getByteSize() {
+    return byteSize;
   }
 }
@@ -27,6 +27,53 @@ import java.util.Map;
  */
 public final class MemoryPersistence extends Persistence {
 
+  /** A snapshot of the size of a MemoryPersistence cache and the evictions performed on it. */
+  public static final class CacheStats {
+    private final long byteSize;
+    private final int documentCount;
+    private final int evictionCount;
+    private final long targetsEvicted;
+    private final long documentsEvicted;
+
+    CacheStats(
+        long byteSize,
+        int documentCount,
+        int evictionCount,
+        long targetsEvicted,
+        long documentsEvicted) {
+      this.byteSize = byteSize;
+      this.documentCount = documentCount;
+      this.evictionCount = evictionCount;
+      this.targetsEvicted = targetsEvicted;
+      this.documentsEvicted = documentsEvicted;
+    }
+
+    /** Returns the estimated size of the cache in bytes. Always 0 with eager garbage collection. */
+    public long getByteSize() {
+      return byteSize;
+    }
+
+    /** Returns the number of documents in the remote document cache. */
+    public int getDocumentCount() {
+      return documentCount;
+    }
+
+    /** Returns how many times the cache exceeded its budget and was trimmed. */
+    public int getEvictionCount() {
+      return evictionCount;
+    }
+
+    /** Returns the total number of targets removed to stay within the budget. */
+    public long getTargetsEvicted() {
+      return targetsEvicted;
+    }
+
+    /** Returns the total number of documents removed to stay within the budget. */
+    public long getDocumentsEvicted() {
+      return documentsEvicted;
+    }
+  }
+
   // The persistence objects backing MemoryPersistence are retained here to make it easier to write
   // tests affecting both the in-memory and SQLite-backed persistence layers. Tests can create a new
   // LocalStore wrapping this Persistence instance and this will make the in-memory persistence
@@ -37,31 +84,46 @@ public final class MemoryPersistence extends Persistence {
   private final MemoryTargetCache targetCache;
   private final MemoryBundleCache bundleCache;
   private final MemoryRemoteDocumentCache remoteDocumentCache;
+  private final MemoryMutationQueue.BatchSizer batchSizer;
   private ReferenceDelegate referenceDelegate;
 
   private boolean started;
 
   public static MemoryPersistence createEagerGcMemoryPersistence() {
-    MemoryPersistence persistence = new MemoryPersistence();
+    // Eager GC never consults the cache size, so skip the cost of computing it.
+    MemoryPersistence persistence =
+        new MemoryPersistence(document -> 0, targetData -> 0, batch -> 0);
     persistence.setReferenceDelegate(new MemoryEagerReferenceDelegate(persistence));
     return persistence;
   }
 
+  /**
+   * Creates a MemoryPersistence that uses LRU garbage collection. Once a LocalStore is attached,
+   * the cache is trimmed at the end of any transaction that leaves it larger than {@code
+   * params.minBytesThreshold}.
+   */
   public static MemoryPersistence createLruGcMemoryPersistence(
       LruGarbageCollector.Params params, LocalSerializer serializer) {
-    MemoryPersistence persistence = new MemoryPersistence();
-    persistence.setReferenceDelegate(
-        new MemoryLruReferenceDelegate(persistence, params, serializer));
+    MemoryPersistence persistence =
+        new MemoryPersistence(
+            document -> serializer.encodeMaybeDocument(document).getSerializedSize(),
+            targetData -> serializer.encodeTargetData(targetData).getSerializedSize(),
+            batch -> serializer.encodeMutationBatch(batch).getSerializedSize());
+    persistence.setReferenceDelegate(new MemoryLruReferenceDelegate(persistence, params));
     return persistence;
   }
 
   /** Use static helpers to instantiate */
-  private MemoryPersistence() {
+  private MemoryPersistence(
+      MemoryRemoteDocumentCache.DocumentSizer documentSizer,
+      MemoryTargetCache.TargetSizer targetSizer,
+      MemoryMutationQueue.BatchSizer batchSizer) {
+    this.batchSizer = batchSizer;
     mutationQueues = new HashMap<>();
     indexManager = new MemoryIndexManager();
-    targetCache = new MemoryTargetCache(this);
+    targetCache = new MemoryTargetCache(this, targetSizer);
     bundleCache = new MemoryBundleCache();
-    remoteDocumentCache = new MemoryRemoteDocumentCache();
+    remoteDocumentCache = new MemoryRemoteDocumentCache(documentSizer);
     overlays = new HashMap<>();
   }
 
@@ -84,6 +146,14 @@ public final class MemoryPersistence extends Persistence {
     return started;
   }
 
+  /** Returns the current size of the cache and the number of evictions performed so far. */
+  public CacheStats getCacheStats() {
+    if (referenceDelegate instanceof MemoryLruReferenceDelegate) {
+      return ((MemoryLruReferenceDelegate) referenceDelegate).getCacheStats();
+    }
+    return new CacheStats(0, remoteDocumentCache.getDocumentCount(), 0, 0, 0);
+  }
+
   @Override
   ReferenceDelegate getReferenceDelegate() {
     return referenceDelegate;
@@ -97,7 +167,7 @@ public final class MemoryPersistence extends Persistence {
   MutationQueue getMutationQueue(User user, IndexManager indexManager) {
     MemoryMutationQueue queue = mutationQueues.get(user);
     if (queue == null) {
-      queue = new MemoryMutationQueue(this, user);
+      queue = new MemoryMutationQueue(this, user, batchSizer);
       mutationQueues.put(user, queue);
     }
     return queue;
@@ -35,12 +35,22 @@ import javax.annotation.Nonnull;
 /** In-memory cache of remote documents. */
 final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
 
+  /** Estimates the number of bytes a document occupies in the cache. */
+  interface DocumentSizer {
+    long getSize(Document document);
+  }
+
   /** Underlying cache of documents and their read times. */
   private ImmutableSortedMap<DocumentKey, Document> docs;
   /** Manages the collection group index. */
   private IndexManager indexManager;
+  /** Used to compute the size of each document as it is added or removed. */
+  private final DocumentSizer sizer;
+  /** The sum of the sizes of all documents in the cache, maintained incrementally. */
+  private long byteSize;
 
-  MemoryRemoteDocumentCache() {
+  MemoryRemoteDocumentCache(DocumentSizer sizer) {
+    this.sizer = sizer;
     docs = emptyDocumentMap();
   }
 
@@ -55,7 +65,13 @@ final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
     hardAssert(
         !readTime.equals(SnapshotVersion.NONE),
         "Cannot add document to the RemoteDocumentCache with a read time of zero");
-    docs = docs.insert(document.getKey(), document.mutableCopy().setReadTime(readTime));
+    Document previous = docs.get(document.getKey());
+    if (previous != null) {
+      byteSize -= sizer.getSize(previous);
+    }
+    Document updated = document.mutableCopy().setReadTime(readTime);
+    docs = docs.insert(document.getKey(), updated);
+    byteSize += sizer.getSize(updated);
 
     indexManager.addToCollectionParentIndex(document.getKey().getCollectionPath());
   }
@@ -66,7 +82,11 @@ final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
 
     ImmutableSortedMap<DocumentKey, Document> deletedDocs = emptyDocumentMap();
     for (DocumentKey key : keys) {
-      docs = docs.remove(key);
+      Document previous = docs.get(key);
+      if (previous != null) {
+        byteSize -= sizer.getSize(previous);
+        docs = docs.remove(key);
+      }
       deletedDocs =
           deletedDocs.insert(key, MutableDocument.newNoDocument(key, SnapshotVersion.NONE));
     }
@@ -139,12 +159,14 @@ final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
     return new DocumentIterable();
   }
 
-  long getByteSize(LocalSerializer serializer) {
-    long count = 0;
-    for (Document doc : new DocumentIterable()) {
-      count += serializer.encodeMaybeDocument(doc).getSerializedSize();
-    }
-    return count;
+  /** Returns the estimated size of all cached documents. Runs in constant time. */
+  long getByteSize() {
+    return byteSize;
+  }
+
+  /** Returns the number of cached documents. */
+  int getDocumentCount() {
+    return docs.size();
   }
 
   /**
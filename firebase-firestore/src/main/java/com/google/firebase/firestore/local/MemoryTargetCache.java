@@ -31,6 +31,11 @@ import java.util.Map;
  */
 final class MemoryTargetCache implements TargetCache {
 
+  /** Estimates the number of bytes a target occupies in the cache. */
+  interface TargetSizer {
+    long getSize(TargetData targetData);
+  }
+
   /** Maps a target to the data about that target. */
   private final Map<Target, TargetData> targets = new HashMap<>();
 
@@ -45,10 +50,15 @@ final class MemoryTargetCache implements TargetCache {
 
   private long highestSequenceNumber = 0;
 
+  /** The sum of the sizes of all targets in the cache, maintained incrementally. */
+  private long byteSize;
+
   private final MemoryPersistence persistence;
+  private final TargetSizer sizer;
 
-  MemoryTargetCache(MemoryPersistence persistence) {
+  MemoryTargetCache(MemoryPersistence persistence, TargetSizer sizer) {
     this.persistence = persistence;
+    this.sizer = sizer;
   }
 
   @Override
@@ -87,7 +97,11 @@ final class MemoryTargetCache implements TargetCache {
 
   @Override
   public void addTargetData(TargetData targetData) {
-    targets.put(targetData.getTarget(), targetData);
+    TargetData previous = targets.put(targetData.getTarget(), targetData);
+    if (previous != null) {
+      byteSize -= sizer.getSize(previous);
+    }
+    byteSize += sizer.getSize(targetData);
     int targetId = targetData.getTargetId();
     if (targetId > highestTargetId) {
       highestTargetId = targetId;
@@ -105,7 +119,10 @@ final class MemoryTargetCache implements TargetCache {
 
   @Override
   public void removeTargetData(TargetData targetData) {
-    targets.remove(targetData.getTarget());
+    TargetData previous = targets.remove(targetData.getTarget());
+    if (previous != null) {
+      byteSize -= sizer.getSize(previous);
+    }
     references.removeReferencesForId(targetData.getTargetId());
   }
 
@@ -124,6 +141,7 @@ final class MemoryTargetCache implements TargetCache {
       long sequenceNumber = entry.getValue().getSequenceNumber();
       if (sequenceNumber <= upperBound && activeTargetIds.get(targetId) == null) {
         it.remove();
+        byteSize -= sizer.getSize(entry.getValue());
         removeMatchingKeysForTargetId(targetId);
         removed++;
       }
@@ -172,11 +190,8 @@ final class MemoryTargetCache implements TargetCache {
     return references.containsKey(key);
   }
 
-  long getByteSize(LocalSerializer serializer) {
-    long count = 0;
-    for (Map.Entry<Target, TargetData> entry : targets.entrySet()) {
-      count += serializer.encodeTargetData(entry.getValue()).getSerializedSize();
-    }
-    return count;
+  /** Returns the estimated size of all cached targets. Runs in constant time. */
+  long getByteSize() {
+    return byteSize;
   }
 }
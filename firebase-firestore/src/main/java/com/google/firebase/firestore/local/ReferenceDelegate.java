@@ -14,6 +14,7 @@
 
 package com.google.firebase.firestore.local;
 
+import android.util.SparseArray;
 import com.google.firebase.firestore.model.DocumentKey;
 
 /**
@@ -34,6 +35,12 @@ interface ReferenceDelegate {
    */
   void setInMemoryPins(ReferenceSet inMemoryPins);
 
+  /**
+   * Registers the targets that are actively listened to. Implementations that evict data outside
+   * of a scheduled garbage collection pass must not remove these targets.
+   */
+  void setActiveTargets(SparseArray<?> activeTargetIds);
+
   /** Notify the delegate that the given document was added to a target. */
   void addReference(DocumentKey key);
 
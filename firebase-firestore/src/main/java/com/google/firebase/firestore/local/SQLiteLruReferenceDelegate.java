@@ -108,6 +108,11 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     this.inMemoryPins = inMemoryPins;
   }
 
+  @Override
+  public void setActiveTargets(SparseArray<?> activeTargetIds) {
+    // Active targets are supplied to each garbage collection pass instead.
+  }
+
   @Override
   public void addReference(DocumentKey key) {
     writeSentinel(key);
@@ -32,6 +32,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.FirebaseFirestoreException.Code;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.firestore.auth.User;
 import com.google.firebase.firestore.model.DatabaseId;
 import com.google.firebase.firestore.util.Consumer;
@@ -46,7 +47,9 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A SQLite-backed instance of Persistence.
@@ -60,6 +63,89 @@ public final class SQLitePersistence extends Persistence {
    */
   public static final int MAX_ARGS = 900;
 
+  /**
+   * Tuning knobs that are applied to the SQLite connection when it is opened. The defaults leave
+   * SQLite's journal mode, synchronous level and page cache untouched.
+   */
+  public static class DatabaseOptions {
+    /** Indicates that a setting should be left at SQLite's default. */
+    public static final int UNCHANGED = -1;
+
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    public static DatabaseOptions Default() {
+      return new DatabaseOptions(
+          UNCHANGED, /* writeAheadLogging= */ false, UNCHANGED, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /** Returns the options for the persistence tuning settings of the given instance settings. */
+    public static DatabaseOptions FromSettings(FirebaseFirestoreSettings settings) {
+      long pageCacheSizeBytes = settings.getPersistencePageCacheSizeBytes();
+      return Default()
+          .withPageCacheSizeKb(
+              pageCacheSizeBytes == FirebaseFirestoreSettings.SQLITE_DEFAULT
+                  ? UNCHANGED
+                  : (pageCacheSizeBytes + 1023) / 1024)
+          .withWriteAheadLogging(settings.isPersistenceWriteAheadLoggingEnabled())
+          .withSynchronous(settings.getPersistenceSynchronousLevel());
+    }
+
+    final long pageCacheSizeKb;
+    final boolean writeAheadLogging;
+    final int synchronous;
+    final int statementCacheSize;
+
+    DatabaseOptions(
+        long pageCacheSizeKb, boolean writeAheadLogging, int synchronous, int statementCacheSize) {
+      this.pageCacheSizeKb = pageCacheSizeKb;
+      this.writeAheadLogging = writeAheadLogging;
+      this.synchronous = synchronous;
+      this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Returns a copy of these options with SQLite's page cache limited to the given size, or left
+     * at SQLite's default if {@link #UNCHANGED}.
+     *
+     * @see "https://www.sqlite.org/pragma.html#pragma_cache_size"
+     */
+    public DatabaseOptions withPageCacheSizeKb(long pageCacheSizeKb) {
+      return new DatabaseOptions(
+          pageCacheSizeKb, writeAheadLogging, synchronous, statementCacheSize);
+    }
+
+    /**
+     * Returns a copy of these options that switches the database to write-ahead logging. Since the
+     * connection is opened in exclusive locking mode, no shared-memory file is created.
+     *
+     * @see "https://www.sqlite.org/wal.html"
+     */
+    public DatabaseOptions withWriteAheadLogging(boolean writeAheadLogging) {
+      return new DatabaseOptions(
+          pageCacheSizeKb, writeAheadLogging, synchronous, statementCacheSize);
+    }
+
+    /**
+     * Returns a copy of these options with the given {@code synchronous} level: 0 (OFF), 1
+     * (NORMAL) or 2 (FULL), or {@link #UNCHANGED} to keep SQLite's default.
+     *
+     * @see "https://www.sqlite.org/pragma.html#pragma_synchronous"
+     */
+    public DatabaseOptions withSynchronous(int synchronous) {
+      return new DatabaseOptions(
+          pageCacheSizeKb, writeAheadLogging, synchronous, statementCacheSize);
+    }
+
+    /**
+     * Returns a copy of these options that keeps up to the given number of compiled statements per
+     * SQL string. Zero disables statement caching.
+     */
+    public DatabaseOptions withStatementCacheSize(int statementCacheSize) {
+      return new DatabaseOptions(
+          pageCacheSizeKb, writeAheadLogging, synchronous, statementCacheSize);
+    }
+  }
+
   /**
    * Creates the database name that is used to identify the database to be used with a Firestore
    * instance. Note that this needs to stay stable across releases. The database is uniquely
@@ -105,6 +191,8 @@ public final class SQLitePersistence extends Persistence {
         public void onRollback() {}
       };
 
+  private final StatementCache statementCache;
+
   private SQLiteDatabase db;
   private boolean started;
 
@@ -114,10 +202,20 @@ public final class SQLitePersistence extends Persistence {
       DatabaseId databaseId,
       LocalSerializer serializer,
       LruGarbageCollector.Params params) {
+    this(context, persistenceKey, databaseId, serializer, params, DatabaseOptions.Default());
+  }
+
+  public SQLitePersistence(
+      Context context,
+      String persistenceKey,
+      DatabaseId databaseId,
+      LocalSerializer serializer,
+      LruGarbageCollector.Params params,
+      DatabaseOptions options) {
     this(
         serializer,
         params,
-        new OpenHelper(context, serializer, databaseName(persistenceKey, databaseId)));
+        new OpenHelper(context, serializer, databaseName(persistenceKey, databaseId), options));
   }
 
   public SQLitePersistence(
@@ -128,6 +226,7 @@ public final class SQLitePersistence extends Persistence {
     this.bundleCache = new SQLiteBundleCache(this, this.serializer);
     this.remoteDocumentCache = new SQLiteRemoteDocumentCache(this, this.serializer);
     this.referenceDelegate = new SQLiteLruReferenceDelegate(this, params);
+    this.statementCache = new StatementCache(openHelper.options.statementCacheSize);
   }
 
   @Override
@@ -148,6 +247,9 @@ public final class SQLitePersistence extends Persistence {
               + " is, call setPersistenceEnabled(true)) in one of them.",
           e);
     }
+    // Queries aren't kept in the statement cache, but SQLiteDatabase reuses their compiled form by
+    // SQL string. It only keeps 25 of them by default, so allow for as many as SQLite supports.
+    db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
     targetCache.start();
     referenceDelegate.start(targetCache.getHighestListenSequenceNumber());
   }
@@ -156,6 +258,7 @@ public final class SQLitePersistence extends Persistence {
   public void shutdown() {
     hardAssert(started, "SQLitePersistence shutdown without start!");
     started = false;
+    statementCache.evictAll();
     db.close();
     db = null;
   }
@@ -300,17 +403,30 @@ public final class SQLitePersistence extends Persistence {
   static class OpenHelper extends SQLiteOpenHelper {
 
     private final LocalSerializer serializer;
+    private final DatabaseOptions options;
     private boolean configured;
 
-    private OpenHelper(Context context, LocalSerializer serializer, String databaseName) {
-      this(context, serializer, databaseName, SQLiteSchema.VERSION);
+    private OpenHelper(
+        Context context, LocalSerializer serializer, String databaseName, DatabaseOptions options) {
+      this(context, serializer, databaseName, SQLiteSchema.VERSION, options);
     }
 
     @VisibleForTesting
     OpenHelper(
         Context context, LocalSerializer serializer, String databaseName, int schemaVersion) {
+      this(context, serializer, databaseName, schemaVersion, DatabaseOptions.Default());
+    }
+
+    @VisibleForTesting
+    OpenHelper(
+        Context context,
+        LocalSerializer serializer,
+        String databaseName,
+        int schemaVersion,
+        DatabaseOptions options) {
       super(context, databaseName, null, schemaVersion);
       this.serializer = serializer;
+      this.options = options;
     }
 
     @Override
@@ -318,7 +434,26 @@ public final class SQLitePersistence extends Persistence {
       // Note that this is only called automatically by the SQLiteOpenHelper base class on Jelly
       // Bean and above.
       configured = true;
-      Cursor cursor = db.rawQuery("PRAGMA locking_mode = EXCLUSIVE", new String[0]);
+      runPragma(db, "PRAGMA locking_mode = EXCLUSIVE");
+
+      if (options.pageCacheSizeKb != DatabaseOptions.UNCHANGED) {
+        // Negative values are interpreted by SQLite as a size in KiB rather than in pages.
+        runPragma(db, "PRAGMA cache_size = -" + options.pageCacheSizeKb);
+      }
+      if (options.writeAheadLogging) {
+        runPragma(db, "PRAGMA journal_mode = WAL");
+      }
+      if (options.synchronous != DatabaseOptions.UNCHANGED) {
+        runPragma(db, "PRAGMA synchronous = " + options.synchronous);
+      }
+    }
+
+    /**
+     * Runs the given PRAGMA statement. Some PRAGMAs return a result row, which execSQL rejects on
+     * older API levels, so they are run as queries instead.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+      Cursor cursor = db.rawQuery(pragma, new String[0]);
       cursor.close();
     }
 
@@ -374,14 +509,78 @@ public final class SQLitePersistence extends Persistence {
    * Execute the given non-query SQL statement. Equivalent to {@code execute(prepare(sql), args)}.
    */
   void execute(String sql, Object... args) {
-    // Note that unlike db.query and friends, execSQL already takes Object[] bindArgs so there's no
-    // need to go through the bind dance below.
-    db.execSQL(sql, args);
+    if (statementCache.isEnabled()) {
+      execute(prepare(sql), args);
+    } else {
+      // Note that unlike db.query and friends, execSQL already takes Object[] bindArgs so there's
+      // no need to go through the bind dance below.
+      db.execSQL(sql, args);
+    }
   }
 
-  /** Prepare the given non-query SQL statement. */
+  /**
+   * Prepare the given non-query SQL statement. Compiled statements are cached by their SQL string
+   * and shared between callers, so the returned statement must not be closed.
+   */
   SQLiteStatement prepare(String sql) {
-    return db.compileStatement(sql);
+    if (!statementCache.isEnabled()) {
+      return db.compileStatement(sql);
+    }
+    SQLiteStatement statement = statementCache.get(sql);
+    if (statement == null) {
+      statement = db.compileStatement(sql);
+      statementCache.put(sql, statement);
+    }
+    return statement;
+  }
+
+  /** Returns the number of compiled statements that were reused instead of being recompiled. */
+  @VisibleForTesting
+  long getStatementCacheHitCount() {
+    return statementCache.hitCount;
+  }
+
+  /**
+   * An LRU cache of compiled statements keyed by their SQL string. Evicted statements are closed to
+   * release their native resources.
+   */
+  private static class StatementCache extends LinkedHashMap<String, SQLiteStatement> {
+    private final int maxSize;
+    private long hitCount;
+
+    StatementCache(int maxSize) {
+      super(/* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+      this.maxSize = maxSize;
+    }
+
+    boolean isEnabled() {
+      return maxSize > 0;
+    }
+
+    @Nullable
+    SQLiteStatement get(String sql) {
+      SQLiteStatement statement = super.get(sql);
+      if (statement != null) {
+        ++hitCount;
+      }
+      return statement;
+    }
+
+    void evictAll() {
+      for (SQLiteStatement statement : values()) {
+        statement.close();
+      }
+      clear();
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+      if (size() > maxSize) {
+        eldest.getValue().close();
+        return true;
+      }
+      return false;
+    }
   }
 
   /**
@@ -606,6 +805,11 @@ public final class SQLitePersistence extends Persistence {
     private int subqueriesPerformed = 0;
     private final Iterator<Object> argsIter;
 
+    // The SQL of the most recent subquery. All subqueries except the last one bind the same number
+    // of arguments, so their SQL only needs to be built once.
+    @Nullable private String lastSubquerySql;
+    private int lastSubqueryArgCount;
+
     // Limit for the number of host parameters beyond which a query will be split into several
     // subqueries. Deliberately set way below 999 as a safety measure because this class doesn't
     // attempt to check for placeholders in the query {@link head}; if it only relied on the number
@@ -666,19 +870,27 @@ public final class SQLitePersistence extends Persistence {
       return subqueryArgs.toArray();
     }
 
+    private String getSubquerySql(int argCount) {
+      if (lastSubquerySql == null || lastSubqueryArgCount != argCount) {
+        // The placeholders for argsHead are part of head, so only the remaining arguments get one.
+        lastSubquerySql = head + repeatSequence("?", argCount - argsHead.size(), ", ") + tail;
+        lastSubqueryArgCount = argCount;
+      }
+      return lastSubquerySql;
+    }
+
     /** Performs the next subquery and returns a {@link Query} object for method chaining. */
     Query performNextSubquery() {
       ++subqueriesPerformed;
       Object[] subqueryArgs = getNextSubqueryArgs();
-      return db.query(head + repeatSequence("?", subqueryArgs.length, ", ") + tail)
-          .binding(subqueryArgs);
+      return db.query(getSubquerySql(subqueryArgs.length)).binding(subqueryArgs);
     }
 
     /** Executes the next subquery. */
     void executeNextSubquery() {
       ++subqueriesPerformed;
       Object[] subqueryArgs = getNextSubqueryArgs();
-      db.execute(head + repeatSequence("?", subqueryArgs.length, ", ") + tail, subqueryArgs);
+      db.execute(getSubquerySql(subqueryArgs.length), subqueryArgs);
     }
 
     /** How many subqueries were performed. */
@@ -36,7 +36,6 @@ import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.MethodDescriptor;
 import io.grpc.android.AndroidChannelBuilder;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /** Manages the gRPC channel and encapsulates all SSL and gRPC initialization. */
@@ -47,6 +46,7 @@ public class GrpcCallProvider {
 
   private static Supplier<ManagedChannelBuilder<?>> overrideChannelBuilderSupplier;
 
+  private GrpcChannelPool.Lease channelLease;
   private Task<ManagedChannel> channelTask;
   private final AsyncQueue asyncQueue;
 
@@ -124,66 +124,11 @@ public class GrpcCallProvider {
         task -> Tasks.forResult(task.getResult().newCall(methodDescriptor, callOptions)));
   }
 
-  /** Shuts down the gRPC channel and the internal worker queue. */
+  /**
+   * Releases the gRPC channel. The channel is shut down if no other Firestore instance is using it.
+   */
   void shutdown() {
-    // Handling shutdown synchronously to avoid re-enqueuing on the AsyncQueue after shutdown has
-    // started.
-    ManagedChannel channel;
-    try {
-      channel = Tasks.await(channelTask);
-    } catch (ExecutionException e) {
-      Logger.warn(
-          FirestoreChannel.class.getSimpleName(),
-          "Channel is not initialized, shutdown will just do nothing. Channel initializing run into exception: %s",
-          e);
-      return;
-    } catch (InterruptedException e) {
-      Logger.warn(
-          FirestoreChannel.class.getSimpleName(),
-          "Interrupted while retrieving the gRPC Managed Channel");
-      // Preserve interrupt status
-      Thread.currentThread().interrupt();
-      return;
-    }
-
-    channel.shutdown();
-    try {
-      // TODO(rsgowman): Investigate occasional hangs in channel.shutdown().
-      //
-      // While running the integration tests, channel.shutdown() will occasionally timeout.
-      // (Typically on ~4-5 different tests, differing from one run to the next.) We should
-      // figure this out. But in the meantime, just use an exceptionally short timeout here
-      // and skip straight to shutdownNow() which works every time. (We don't support shutting
-      // down Firestore, so this should only be triggered from the test suite.)
-      if (!channel.awaitTermination(1, TimeUnit.SECONDS)) {
-        Logger.debug(
-            FirestoreChannel.class.getSimpleName(),
-            "Unable to gracefully shutdown the gRPC ManagedChannel. Will attempt an immediate shutdown.");
-        channel.shutdownNow();
-
-        // gRPC docs claim "Although forceful, the shutdown process is still not
-        // instantaneous; isTerminated() will likely return false immediately after this
-        // method returns." Therefore, we still need to awaitTermination() again.
-        if (!channel.awaitTermination(60, TimeUnit.SECONDS)) {
-          // Something bad has happened. We could assert, but this is just resource cleanup
-          // for a resource that is likely only released at the end of the execution. So
-          // instead, we'll just log the error.
-          Logger.warn(
-              FirestoreChannel.class.getSimpleName(),
-              "Unable to forcefully shutdown the gRPC ManagedChannel.");
-        }
-      }
-    } catch (InterruptedException e) {
-      // (Re-)Cancel if current thread also interrupted
-      channel.shutdownNow();
-
-      // Similar to above, something bad happened, but it's not worth asserting. Just log it.
-      Logger.warn(
-          FirestoreChannel.class.getSimpleName(),
-          "Interrupted while shutting down the gRPC Managed Channel");
-      // Preserve interrupt status
-      Thread.currentThread().interrupt();
-    }
+    GrpcChannelPool.getInstance().release(channelLease);
   }
 
   /**
@@ -202,11 +147,21 @@ public class GrpcCallProvider {
    * @param channel The channel to monitor the connectivity state of.
    */
   private void onConnectivityStateChange(ManagedChannel channel) {
+    if (!isCurrentChannel(channel)) {
+      // The channel was replaced by resetChannel() but may still be used by other Firestore
+      // instances. It is no longer our concern.
+      return;
+    }
+
     ConnectivityState newState = channel.getState(true);
     Logger.debug(LOG_TAG, "Current gRPC connectivity state: " + newState);
     // Clear the timer, so we don't end up with multiple connectivityAttemptTimers.
     clearConnectivityAttemptTimer();
 
+    if (newState == ConnectivityState.READY) {
+      GrpcChannelPool.getInstance().onChannelReady(channelLease);
+    }
+
     if (newState == ConnectivityState.CONNECTING) {
       Logger.debug(LOG_TAG, "Setting the connectivityAttemptTimer");
       connectivityAttemptTimer =
@@ -227,31 +182,58 @@ public class GrpcCallProvider {
   private void resetChannel(ManagedChannel channel) {
     asyncQueue.enqueueAndForget(
         () -> {
-          channel.shutdownNow();
-          initChannelTask();
+          if (!isCurrentChannel(channel)) {
+            return;
+          }
+          // The channel may be shared with other Firestore instances, so it is only shut down once
+          // all of them have moved to the replacement channel.
+          channelLease =
+              GrpcChannelPool.getInstance()
+                  .reset(channelLease, () -> initChannel(context, databaseInfo));
+          initChannelTask(channelLease);
         });
   }
 
   private void initChannelTask() {
-    // We execute network initialization on a separate thread to not block operations that depend on
-    // the AsyncQueue.
+    // Channels are shared between Firestore instances that connect to the same host, unless tests
+    // have overridden how channels are built.
+    String poolKey =
+        overrideChannelBuilderSupplier == null
+            ? GrpcChannelPool.keyFor(databaseInfo.getHost(), databaseInfo.isSslEnabled())
+            : null;
+    channelLease =
+        GrpcChannelPool.getInstance().acquire(poolKey, () -> initChannel(context, databaseInfo));
+    initChannelTask(channelLease);
+  }
+
+  private void initChannelTask(GrpcChannelPool.Lease lease) {
+    // The pool creates the channel on a separate thread to not block operations that depend on the
+    // AsyncQueue.
     this.channelTask =
-        Tasks.call(
-            Executors.BACKGROUND_EXECUTOR,
-            () -> {
-              ManagedChannel channel = initChannel(context, databaseInfo);
-              asyncQueue.enqueueAndForget(() -> onConnectivityStateChange(channel));
-              FirestoreGrpc.FirestoreStub firestoreStub =
-                  FirestoreGrpc.newStub(channel)
-                      .withCallCredentials(firestoreHeaders)
-                      // Ensure all callbacks are issued on the worker queue. If this call is
-                      // removed, all calls need to be audited to make sure they are executed on the
-                      // right thread.
-                      .withExecutor(asyncQueue.getExecutor());
-              callOptions = firestoreStub.getCallOptions();
-              Logger.debug(LOG_TAG, "Channel successfully reset.");
-              return channel;
-            });
+        lease
+            .getChannelTask()
+            .continueWith(
+                Executors.BACKGROUND_EXECUTOR,
+                task -> {
+                  ManagedChannel channel = task.getResult();
+                  asyncQueue.enqueueAndForget(() -> onConnectivityStateChange(channel));
+                  FirestoreGrpc.FirestoreStub firestoreStub =
+                      FirestoreGrpc.newStub(channel)
+                          .withCallCredentials(firestoreHeaders)
+                          // Ensure all callbacks are issued on the worker queue. If this call is
+                          // removed, all calls need to be audited to make sure they are executed on
+                          // the right thread.
+                          .withExecutor(asyncQueue.getExecutor());
+                  callOptions = firestoreStub.getCallOptions();
+                  Logger.debug(LOG_TAG, "Channel successfully reset.");
+                  return channel;
+                });
+  }
+
+  /** Returns whether the given channel is the one this provider currently issues calls on. */
+  private boolean isCurrentChannel(ManagedChannel channel) {
+    Task<ManagedChannel> currentChannelTask = channelLease.getChannelTask();
+    return currentChannelTask.isSuccessful() && currentChannelTask.getResult() == channel;
   }
 
   private void clearConnectivityAttemptTimer() {
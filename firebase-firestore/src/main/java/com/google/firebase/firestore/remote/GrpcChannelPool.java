@@ -0,0 +1,280 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.util.Executors;
+import com.google.firebase.firestore.util.Logger;
+import com.google.firebase.firestore.util.Supplier;
+import io.grpc.ManagedChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process-wide pool of gRPC channels.
+ *
+ * <p>Firestore instances that talk to the same host with the same transport security share one
+ * channel, and therefore one HTTP/2 connection and TLS handshake. Per-instance authentication is
+ * attached to each call through call credentials, so it does not affect which channel is used.
+ * Every instance still opens its own watch and write streams, which gRPC multiplexes over the
+ * shared connection.
+ *
+ * <p>Channels are reference counted and shut down once the last instance using them releases
+ * them.
+ */
+// PORTING NOTE: This class only exists on Android.
+public final class GrpcChannelPool {
+
+  private static final String LOG_TAG = "GrpcChannelPool";
+
+  private static final GrpcChannelPool instance = new GrpcChannelPool();
+
+  /** A channel in the pool, along with the number of GrpcCallProviders using it. */
+  static final class Lease {
+    @Nullable private final String key;
+    private final Task<ManagedChannel> channelTask;
+    private final long createTimeMs;
+    private int refCount;
+    private boolean readyRecorded;
+
+    private Lease(@Nullable String key, Task<ManagedChannel> channelTask) {
+      this.key = key;
+      this.channelTask = channelTask;
+      this.createTimeMs = System.currentTimeMillis();
+    }
+
+    Task<ManagedChannel> getChannelTask() {
+      return channelTask;
+    }
+  }
+
+  /** A snapshot of the connection reuse and handshake latency metrics of the pool. */
+  public static final class Stats {
+    private final int channelsCreated;
+    private final int channelsReused;
+    private final long lastHandshakeLatencyMs;
+    private final long averageHandshakeLatencyMs;
+
+    private Stats(
+        int channelsCreated,
+        int channelsReused,
+        long lastHandshakeLatencyMs,
+        long averageHandshakeLatencyMs) {
+      this.channelsCreated = channelsCreated;
+      this.channelsReused = channelsReused;
+      this.lastHandshakeLatencyMs = lastHandshakeLatencyMs;
+      this.averageHandshakeLatencyMs = averageHandshakeLatencyMs;
+    }
+
+    /** Returns the number of channels created by the pool. */
+    public int getChannelsCreated() {
+      return channelsCreated;
+    }
+
+    /** Returns how many times an existing channel was handed to a new Firestore instance. */
+    public int getChannelsReused() {
+      return channelsReused;
+    }
+
+    /**
+     * Returns the time between creating the most recent channel and it becoming ready to send
+     * calls, or -1 if no channel has become ready yet.
+     */
+    public long getLastHandshakeLatencyMs() {
+      return lastHandshakeLatencyMs;
+    }
+
+    /** Returns the mean handshake latency over all channels, or -1 if none became ready yet. */
+    public long getAverageHandshakeLatencyMs() {
+      return averageHandshakeLatencyMs;
+    }
+  }
+
+  /** The current channel for each pool key. Channels that have been reset are removed. */
+  private final Map<String, Lease> leases = new HashMap<>();
+
+  private int channelsCreated;
+  private int channelsReused;
+  private long lastHandshakeLatencyMs = -1;
+  private long totalHandshakeLatencyMs;
+  private int handshakesCompleted;
+
+  public static GrpcChannelPool getInstance() {
+    return instance;
+  }
+
+  @VisibleForTesting
+  GrpcChannelPool() {}
+
+  /** Returns the pool key for channels to the given host. */
+  static String keyFor(String host, boolean sslEnabled) {
+    return (sslEnabled ? "https://" : "http://") + host;
+  }
+
+  /**
+   * Returns a lease on the channel for the given key, creating the channel on a background thread
+   * if the pool does not have one yet.
+   *
+   * @param key The pool key, or null if the channel must not be shared.
+   * @param channelFactory Creates the channel if needed. Called on a background thread.
+   */
+  synchronized Lease acquire(@Nullable String key, Supplier<ManagedChannel> channelFactory) {
+    Lease lease = key != null ? leases.get(key) : null;
+    if (lease != null) {
+      ++channelsReused;
+      Logger.debug(LOG_TAG, "Reusing gRPC channel for %s", key);
+    } else {
+      ++channelsCreated;
+      lease = new Lease(key, Tasks.call(Executors.BACKGROUND_EXECUTOR, channelFactory::get));
+      if (key != null) {
+        leases.put(key, lease);
+      }
+    }
+    ++lease.refCount;
+    return lease;
+  }
+
+  /**
+   * Releases a lease obtained from {@link #acquire}. If no other instance uses the channel, it is
+   * shut down. Blocks until the channel is initialized and, if applicable, shut down.
+   */
+  void release(Lease lease) {
+    synchronized (this) {
+      --lease.refCount;
+      if (lease.refCount > 0) {
+        return;
+      }
+      if (lease.key != null && leases.get(lease.key) == lease) {
+        leases.remove(lease.key);
+      }
+    }
+    shutdownChannel(lease.channelTask);
+  }
+
+  /**
+   * Replaces a channel that failed to connect. Other instances that still use the stale channel
+   * move to the replacement once they reset it as well; the stale channel is shut down when the
+   * last of them has done so.
+   *
+   * @return A lease on the replacement channel.
+   */
+  Lease reset(Lease staleLease, Supplier<ManagedChannel> channelFactory) {
+    Lease lease;
+    synchronized (this) {
+      if (staleLease.key != null && leases.get(staleLease.key) == staleLease) {
+        leases.remove(staleLease.key);
+      }
+      lease = acquire(staleLease.key, channelFactory);
+      --staleLease.refCount;
+      if (staleLease.refCount > 0) {
+        return lease;
+      }
+    }
+    staleLease.channelTask.addOnSuccessListener(
+        Executors.BACKGROUND_EXECUTOR, ManagedChannel::shutdownNow);
+    return lease;
+  }
+
+  /** Records the handshake latency of a channel the first time it becomes ready. */
+  synchronized void onChannelReady(Lease lease) {
+    if (lease.readyRecorded) {
+      return;
+    }
+    lease.readyRecorded = true;
+    lastHandshakeLatencyMs = System.currentTimeMillis() - lease.createTimeMs;
+    totalHandshakeLatencyMs += lastHandshakeLatencyMs;
+    ++handshakesCompleted;
+    Logger.debug(
+        LOG_TAG,
+        "gRPC channel for %s became ready after %dms",
+        lease.key,
+        lastHandshakeLatencyMs);
+  }
+
+  /** Returns a snapshot of the metrics of this pool. */
+  public synchronized Stats getStats() {
+    return new Stats(
+        channelsCreated,
+        channelsReused,
+        lastHandshakeLatencyMs,
+        handshakesCompleted == 0 ? -1 : totalHandshakeLatencyMs / handshakesCompleted);
+  }
+
+  private static void shutdownChannel(Task<ManagedChannel> channelTask) {
+    // Handling shutdown synchronously to avoid re-enqueuing on the AsyncQueue after shutdown has
+    // started.
+    ManagedChannel channel;
+    try {
+      channel = Tasks.await(channelTask);
+    } catch (ExecutionException e) {
+      Logger.warn(
+          FirestoreChannel.class.getSimpleName(),
+          "Channel is not initialized, shutdown will just do nothing. Channel initializing run into exception: %s",
+          e);
+      return;
+    } catch (InterruptedException e) {
+      Logger.warn(
+          FirestoreChannel.class.getSimpleName(),
+          "Interrupted while retrieving the gRPC Managed Channel");
+      // Preserve interrupt status
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    channel.shutdown();
+    try {
+      // TODO(rsgowman): Investigate occasional hangs in channel.shutdown().
+      //
+      // While running the integration tests, channel.shutdown() will occasionally timeout.
+      // (Typically on ~4-5 different tests, differing from one run to the next.) We should
+      // figure this out. But in the meantime, just use an exceptionally short timeout here
+      // and skip straight to shutdownNow() which works every time. (We don't support shutting
+      // down Firestore, so this should only be triggered from the test suite.)
+      if (!channel.awaitTermination(1, TimeUnit.SECONDS)) {
+        Logger.debug(
+            FirestoreChannel.class.getSimpleName(),
+            "Unable to gracefully shutdown the gRPC ManagedChannel. Will attempt an immediate shutdown.");
+        channel.shutdownNow();
+
+        // gRPC docs claim "Although forceful, the shutdown process is still not
+        // instantaneous; isTerminated() will likely return false immediately after this
+        // method returns." Therefore, we still need to awaitTermination() again.
+        if (!channel.awaitTermination(60, TimeUnit.SECONDS)) {
+          // Something bad has happened. We could assert, but this is just resource cleanup
+          // for a resource that is likely only released at the end of the execution. So
+          // instead, we'll just log the error.
+          Logger.warn(
+              FirestoreChannel.class.getSimpleName(),
+              "Unable to forcefully shutdown the gRPC ManagedChannel.");
+        }
+      }
+    } catch (InterruptedException e) {
+      // (Re-)Cancel if current thread also interrupted
+      channel.shutdownNow();
+
+      // Similar to above, something bad happened, but it's not worth asserting. Just log it.
+      Logger.warn(
+          FirestoreChannel.class.getSimpleName(),
+          "Interrupted while shutting down the gRPC Managed Channel");
+      // Preserve interrupt status
+      Thread.currentThread().interrupt();
+    }
+  }
+}
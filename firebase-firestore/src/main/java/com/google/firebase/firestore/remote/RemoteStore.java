@@ -39,16 +39,25 @@ import com.google.firebase.firestore.remote.WatchChange.ExistenceFilterWatchChan
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChangeType;
 import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.AsyncQueue.DelayedTask;
+import com.google.firebase.firestore.util.AsyncQueue.TimerId;
 import com.google.firebase.firestore.util.Logger;
 import com.google.firebase.firestore.util.Util;
 import com.google.protobuf.ByteString;
 import io.grpc.Status;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 /**
  * RemoteStore handles all interaction with the backend through a simple, clean interface. This
@@ -62,6 +71,83 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
   /** The log tag to use for this class. */
   private static final String LOG_TAG = "RemoteStore";
 
+  /** The maximum number of targets to send to the watch stream at once when it (re-)opens. */
+  private static final int RELISTEN_BATCH_SIZE = 25;
+
+  /**
+   * The delay between the batches of targets sent to the watch stream when it (re-)opens. A +/- 50%
+   * jitter is applied, so that clients that reconnect at the same time drift apart.
+   */
+  private static final long RELISTEN_BATCH_DELAY_MS = 50;
+
+  /**
+   * The order in which targets are re-sent when the watch stream opens: the most recently used
+   * targets (those with the highest sequence number) first, and limbo resolutions last.
+   */
+  private static final Comparator<TargetData> RELISTEN_ORDER =
+      (left, right) -> {
+        boolean leftIsLimbo = left.getPurpose() == QueryPurpose.LIMBO_RESOLUTION;
+        boolean rightIsLimbo = right.getPurpose() == QueryPurpose.LIMBO_RESOLUTION;
+        if (leftIsLimbo != rightIsLimbo) {
+          return leftIsLimbo ? 1 : -1;
+        }
+        return Long.compare(right.getSequenceNumber(), left.getSequenceNumber());
+      };
+
+  /**
+   * The cost of bringing the active targets up to date after the watch stream (re-)opened. Targets
+   * that are removed before they become CURRENT do not count towards {@link
+   * #getTimeToCurrentMs()}.
+   */
+  public static final class ReconnectStats {
+    private final int targetsRelistened;
+    private final long startTimeMs;
+    private int documentsDownloaded;
+    private long timeToCurrentMs = -1;
+
+    private ReconnectStats(int targetsRelistened, long startTimeMs) {
+      this.targetsRelistened = targetsRelistened;
+      this.startTimeMs = startTimeMs;
+    }
+
+    private ReconnectStats copy() {
+      ReconnectStats copy = new ReconnectStats(targetsRelistened, startTimeMs);
+      copy.documentsDownloaded = documentsDownloaded;
+      copy.timeToCurrentMs = timeToCurrentMs;
+      return copy;
+    }
+
+    /** Returns the number of targets that were re-sent to the backend. */
+    public int getTargetsRelistened() {
+      return targetsRelistened;
+    }
+
+    /** Returns the number of documents received until all re-sent targets became CURRENT. */
+    public int getDocumentsDownloaded() {
+      return documentsDownloaded;
+    }
+
+    /**
+     * Returns the time between opening the stream and all re-sent targets becoming CURRENT, or -1
+     * if they are not all CURRENT yet.
+     */
+    public long getTimeToCurrentMs() {
+      return timeToCurrentMs;
+    }
+
+    @Override
+    public String toString() {
+      return "ReconnectStats{"
+          + "targetsRelistened="
+          + targetsRelistened
+          + ", documentsDownloaded="
+          + documentsDownloaded
+          + ", timeToCurrentMs="
+          + timeToCurrentMs
+          + '}';
+    }
+  }
+
   /** A callback interface for events from RemoteStore. */
   public interface RemoteStoreCallback {
     /**
@@ -113,6 +199,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
   private final RemoteStoreCallback remoteStoreCallback;
   private final LocalStore localStore;
   private final Datastore datastore;
+  private final AsyncQueue workerQueue;
   private final ConnectivityMonitor connectivityMonitor;
 
   /**
@@ -133,6 +220,21 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
   private final WriteStream writeStream;
   @Nullable private WatchChangeAggregator watchChangeAggregator;
 
+  /**
+   * The IDs of the targets that still need to be sent to the watch stream since it opened, in the
+   * order in which they will be sent. Limbo resolutions that are started while targets are pending
+   * are queued here as well, so that they go out in batches.
+   */
+  private final LinkedHashSet<Integer> pendingRelistens = new LinkedHashSet<>();
+
+  /** The timer that sends the next batch of pending targets, if any. */
+  @Nullable private DelayedTask relistenTimer;
+
+  /** The re-sent targets that have not become CURRENT since the watch stream opened. */
+  private final Set<Integer> targetsAwaitingCurrent = new HashSet<>();
+
+  @Nullable private ReconnectStats reconnectStats;
+
   /**
    * A list of up to MAX_PENDING_WRITES writes that we have fetched from the LocalStore via
    * fillWritePipeline() and have or will send to the write stream.
@@ -158,6 +260,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     this.remoteStoreCallback = remoteStoreCallback;
     this.localStore = localStore;
     this.datastore = datastore;
+    this.workerQueue = workerQueue;
     this.connectivityMonitor = connectivityMonitor;
 
     listenTargets = new HashMap<>();
@@ -363,7 +466,13 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     if (shouldStartWatchStream()) {
       startWatchStream();
     } else if (watchStream.isOpen()) {
-      sendWatchRequest(targetData);
+      if (!pendingRelistens.isEmpty()
+          && targetData.getPurpose() == QueryPurpose.LIMBO_RESOLUTION) {
+        // Don't jump ahead of the targets that are still waiting to be re-sent.
+        pendingRelistens.add(targetId);
+      } else {
+        sendWatchRequest(targetData);
+      }
     }
   }
 
@@ -385,10 +494,13 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     hardAssert(
         targetData != null, "stopListening called on target no currently watched: %d", targetId);
 
-    // The watch stream might not be started if we're in a disconnected state
-    if (watchStream.isOpen()) {
+    // The watch stream might not be started if we're in a disconnected state. Targets that are
+    // still pending were never sent, so there is nothing to unwatch.
+    boolean wasPending = pendingRelistens.remove(targetId);
+    if (watchStream.isOpen() && !wasPending) {
       sendUnwatchRequest(targetId);
     }
+    markTargetCurrent(targetId);
 
     if (listenTargets.isEmpty()) {
       if (watchStream.isOpen()) {
@@ -428,6 +540,13 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     // changes and so we'll never be able to complete the batch. When we start up again the server
     // is going to resend these changes anyway, so just toss the accumulated state.
     watchChangeAggregator = null;
+
+    pendingRelistens.clear();
+    targetsAwaitingCurrent.clear();
+    if (relistenTimer != null) {
+      relistenTimer.cancel();
+      relistenTimer = null;
+    }
   }
 
   private void startWatchStream() {
@@ -441,10 +560,82 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
   }
 
   private void handleWatchStreamOpen() {
-    // Restore any existing watches.
-    for (TargetData targetData : listenTargets.values()) {
+    // Restore any existing watches. The most recently used targets are sent first, and large sets
+    // of targets are sent in batches so that reconnecting clients don't all flood the backend with
+    // their full set of targets at the same time.
+    List<TargetData> targets = new ArrayList<>(listenTargets.values());
+    Collections.sort(targets, RELISTEN_ORDER);
+    for (TargetData targetData : targets) {
+      pendingRelistens.add(targetData.getTargetId());
+    }
+    targetsAwaitingCurrent.addAll(pendingRelistens);
+    reconnectStats = new ReconnectStats(targets.size(), System.currentTimeMillis());
+    sendPendingRelistens();
+  }
+
+  /** Sends the next batch of pending targets and schedules the batch after it. */
+  private void sendPendingRelistens() {
+    relistenTimer = null;
+    if (!watchStream.isOpen()) {
+      return;
+    }
+
+    Iterator<Integer> it = pendingRelistens.iterator();
+    for (int i = 0; i < RELISTEN_BATCH_SIZE && it.hasNext(); ++i) {
+      TargetData targetData = listenTargets.get(it.next());
+      it.remove();
       sendWatchRequest(targetData);
     }
+
+    if (!pendingRelistens.isEmpty()) {
+      long jitterMs = (long) ((Math.random() - 0.5) * RELISTEN_BATCH_DELAY_MS);
+      relistenTimer =
+          workerQueue.enqueueAfterDelay(
+              TimerId.LISTEN_STREAM_RELISTEN,
+              RELISTEN_BATCH_DELAY_MS + jitterMs,
+              this::sendPendingRelistens);
+    }
+  }
+
+  /** Updates the reconnect stats for a watch change received while targets are catching up. */
+  private void recordReconnectProgress(WatchChange watchChange) {
+    if (targetsAwaitingCurrent.isEmpty()) {
+      return;
+    }
+
+    if (watchChange instanceof DocumentChange) {
+      if (((DocumentChange) watchChange).getNewDocument() != null) {
+        ++reconnectStats.documentsDownloaded;
+      }
+    } else if (watchChange instanceof WatchTargetChange) {
+      WatchTargetChange targetChange = (WatchTargetChange) watchChange;
+      if (targetChange.getChangeType() == WatchTargetChangeType.Current) {
+        // An empty list of target IDs applies to all targets.
+        List<Integer> targetIds =
+            targetChange.getTargetIds().isEmpty()
+                ? new ArrayList<>(targetsAwaitingCurrent)
+                : targetChange.getTargetIds();
+        for (int targetId : targetIds) {
+          markTargetCurrent(targetId);
+        }
+      }
+    }
+  }
+
+  private void markTargetCurrent(int targetId) {
+    if (targetsAwaitingCurrent.remove(targetId) && targetsAwaitingCurrent.isEmpty()) {
+      reconnectStats.timeToCurrentMs = System.currentTimeMillis() - reconnectStats.startTimeMs;
+      Logger.debug(LOG_TAG, "All targets are current after reconnect: %s", reconnectStats);
+    }
+  }
+
+  /**
+   * Returns a snapshot of the cost of the most recent (re-)connection of the watch stream, or null
+   * if the watch stream has not been opened yet.
+   */
+  @Nullable
+  public ReconnectStats getLastReconnectStats() {
+    return reconnectStats != null ? reconnectStats.copy() : null;
   }
 
   private void handleWatchChange(SnapshotVersion snapshotVersion, WatchChange watchChange) {
@@ -455,6 +646,8 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
         (watchStream != null) && (watchChangeAggregator != null),
         "WatchStream and WatchStreamAggregator should both be non-null");
 
+    recordReconnectProgress(watchChange);
+
     WatchTargetChange watchTargetChange =
         watchChange instanceof WatchTargetChange ? (WatchTargetChange) watchChange : null;
 
@@ -577,6 +770,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
       // Ignore targets that have been removed already.
       if (listenTargets.containsKey(targetId)) {
         listenTargets.remove(targetId);
+        markTargetCurrent(targetId);
         watchChangeAggregator.removeTarget(targetId);
         remoteStoreCallback.handleRejectedListen(targetId, targetChange.getCause());
       }
@@ -737,8 +931,14 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     }
   }
 
-  public Transaction createTransaction() {
-    return new Transaction(datastore);
+  /**
+   * Creates a new transaction. Lookups issued before the worker queue runs next are sent as one
+   * request. If {@code validateWithLocalCache} is set, the read versions are checked against the
+   * local cache before the transaction is committed.
+   */
+  public Transaction createTransaction(boolean validateWithLocalCache) {
+    return new Transaction(
+        datastore, workerQueue::enqueueAndForget, validateWithLocalCache ? localStore : null);
   }
 
   @Override
@@ -62,6 +62,8 @@ public class AsyncQueue {
      */
     LISTEN_STREAM_IDLE,
     LISTEN_STREAM_CONNECTION_BACKOFF,
+    /** A timer used to send the next batch of targets to the listen stream after a reconnect. */
+    LISTEN_STREAM_RELISTEN,
     WRITE_STREAM_IDLE,
     WRITE_STREAM_CONNECTION_BACKOFF,
     HEALTH_CHECK_TIMEOUT,
@@ -0,0 +1,121 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.core;
+
+import static com.google.firebase.firestore.testutil.TestUtil.deletedDoc;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.docMap;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.FirebaseFirestoreException.Code;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.local.LocalStore;
+import com.google.firebase.firestore.local.PersistenceTestHelpers;
+import com.google.firebase.firestore.local.QueryEngine;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MutableDocument;
+import com.google.firebase.firestore.remote.Datastore;
+import com.google.firebase.firestore.util.Executors;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TransactionTest {
+  private static final DocumentKey KEY = key("coll/a");
+
+  private Datastore datastore;
+  private LocalStore localStore;
+
+  @Before
+  public void setUp() {
+    datastore = mock(Datastore.class);
+    when(datastore.lookup(anyList()))
+        .thenReturn(
+            Tasks.forResult(Collections.singletonList(doc(KEY, 1, map("value", "read")))));
+    when(datastore.commit(anyList())).thenReturn(Tasks.forResult(Collections.emptyList()));
+
+    localStore =
+        new LocalStore(
+            PersistenceTestHelpers.createEagerGCMemoryPersistence(),
+            new QueryEngine(),
+            User.UNAUTHENTICATED);
+    localStore.start();
+  }
+
+  @Test
+  public void testStaleReadFailsWithoutSendingCommit() {
+    MutableDocument newer = doc(KEY, 2, map("value", "changed"));
+    localStore.applyBundledDocuments(docMap(newer), /* bundleId= */ "");
+
+    Transaction transaction =
+        new Transaction(datastore, Executors.DIRECT_EXECUTOR, localStore);
+    transaction.lookup(Collections.singletonList(KEY));
+    transaction.delete(KEY);
+    Task<Void> result = transaction.commit();
+
+    assertTrue(result.isComplete());
+    assertEquals(Code.ABORTED, ((FirebaseFirestoreException) result.getException()).getCode());
+    verify(datastore, never()).commit(any());
+  }
+
+  @Test
+  public void testUpToDateReadSendsCommit() {
+    MutableDocument same = doc(KEY, 1, map("value", "read"));
+    localStore.applyBundledDocuments(docMap(same), /* bundleId= */ "");
+
+    Transaction transaction =
+        new Transaction(datastore, Executors.DIRECT_EXECUTOR, localStore);
+    transaction.lookup(Collections.singletonList(KEY));
+    transaction.delete(KEY);
+    Task<Void> result = transaction.commit();
+
+    assertTrue(result.isSuccessful());
+    verify(datastore, times(1)).commit(any());
+  }
+
+  @Test
+  public void testMissingDocumentCachedAsDeletedSendsCommit() {
+    when(datastore.lookup(anyList()))
+        .thenReturn(Tasks.forResult(Collections.singletonList(deletedDoc("coll/a", 2))));
+    localStore.applyBundledDocuments(docMap(deletedDoc("coll/a", 3)), /* bundleId= */ "");
+
+    Transaction transaction =
+        new Transaction(datastore, Executors.DIRECT_EXECUTOR, localStore);
+    transaction.lookup(Collections.singletonList(KEY));
+    transaction.delete(KEY);
+    Task<Void> result = transaction.commit();
+
+    assertTrue(result.isSuccessful());
+    verify(datastore, times(1)).commit(any());
+  }
+}
@@ -14,6 +14,21 @@
 
 package com.google.firebase.firestore.local;
 
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.util.SparseArray;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.model.MutableDocument;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
@@ -25,4 +40,86 @@ public class MemoryLruGarbageCollectorTest extends LruGarbageCollectorTestCase {
   Persistence createPersistence(LruGarbageCollector.Params params) {
     return PersistenceTestHelpers.createLRUMemoryPersistence(params);
   }
+
+  @Test
+  public void testTracksDocumentSizeIncrementally() {
+    MemoryPersistence persistence =
+        PersistenceTestHelpers.createLRUMemoryPersistence(LruGarbageCollector.Params.Default());
+    MemoryRemoteDocumentCache documentCache = persistence.getRemoteDocumentCache();
+    documentCache.setIndexManager(new MemoryIndexManager());
+
+    MutableDocument doc = doc("docs/a", 1, map("foo", "bar"));
+    persistence.runTransaction("Add", () -> documentCache.add(doc, doc.getVersion()));
+    long size = documentCache.getByteSize();
+    assertTrue(size > 0);
+
+    // Replacing a document should not count it twice.
+    persistence.runTransaction("Replace", () -> documentCache.add(doc, doc.getVersion()));
+    assertEquals(size, documentCache.getByteSize());
+
+    persistence.runTransaction(
+        "Remove", () -> documentCache.removeAll(singletonList(key("docs/a"))));
+    assertEquals(0, documentCache.getByteSize());
+
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testTracksMutationQueueSizeIncrementally() {
+    MemoryPersistence persistence =
+        PersistenceTestHelpers.createLRUMemoryPersistence(LruGarbageCollector.Params.Default());
+    MemoryMutationQueue queue =
+        (MemoryMutationQueue)
+            persistence.getMutationQueue(User.UNAUTHENTICATED, new MemoryIndexManager());
+
+    MutationBatch batch =
+        persistence.runTransaction(
+            "Add",
+            () ->
+                queue.addMutationBatch(
+                    Timestamp.now(), emptyList(), singletonList(setMutation("docs/a", map()))));
+    assertTrue(queue.getByteSize() > 0);
+    assertEquals(
+        ((LruDelegate) persistence.getReferenceDelegate()).getByteSize(),
+        persistence.getTargetCache().getByteSize()
+            + persistence.getRemoteDocumentCache().getByteSize()
+            + queue.getByteSize());
+
+    persistence.runTransaction("Remove", () -> queue.removeMutationBatch(batch));
+    assertEquals(0, queue.getByteSize());
+
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testEvictsInlineWhenOverBudget() {
+    long budget = 1000;
+    MemoryPersistence persistence =
+        PersistenceTestHelpers.createLRUMemoryPersistence(
+            LruGarbageCollector.Params.WithCacheSizeBytes(budget));
+    ReferenceDelegate referenceDelegate = persistence.getReferenceDelegate();
+    referenceDelegate.setInMemoryPins(new ReferenceSet());
+    referenceDelegate.setActiveTargets(new SparseArray<>());
+    MemoryRemoteDocumentCache documentCache = persistence.getRemoteDocumentCache();
+    documentCache.setIndexManager(new MemoryIndexManager());
+
+    int documentCount = 100;
+    for (int i = 0; i < documentCount; ++i) {
+      MutableDocument doc = doc("docs/doc_" + i, 1, map("foo", "bar", "baz", i));
+      persistence.runTransaction(
+          "Add document",
+          () -> {
+            documentCache.add(doc, doc.getVersion());
+            referenceDelegate.removeMutationReference(doc.getKey());
+          });
+    }
+
+    MemoryPersistence.CacheStats stats = persistence.getCacheStats();
+    assertTrue(stats.getByteSize() <= budget);
+    assertTrue(stats.getEvictionCount() > 0);
+    assertTrue(stats.getDocumentsEvicted() > 0);
+    assertEquals(documentCount - stats.getDocumentsEvicted(), stats.getDocumentCount());
+
+    persistence.shutdown();
+  }
 }
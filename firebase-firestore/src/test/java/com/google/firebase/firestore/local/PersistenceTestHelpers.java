@@ -63,6 +63,23 @@ public final class PersistenceTestHelpers {
     return openSQLitePersistence(nextSQLiteDatabaseName(), params);
   }
 
+  public static SQLitePersistence createSQLitePersistence(
+      SQLitePersistence.DatabaseOptions options) {
+    DatabaseId databaseId = DatabaseId.forProject("projectId");
+    LocalSerializer serializer = new LocalSerializer(new RemoteSerializer(databaseId));
+    Context context = ApplicationProvider.getApplicationContext();
+    SQLitePersistence persistence =
+        new SQLitePersistence(
+            context,
+            nextSQLiteDatabaseName(),
+            databaseId,
+            serializer,
+            LruGarbageCollector.Params.Default(),
+            options);
+    persistence.start();
+    return persistence;
+  }
+
   /** Creates and starts a new MemoryPersistence instance for testing. */
   public static MemoryPersistence createEagerGCMemoryPersistence() {
     MemoryPersistence persistence = MemoryPersistence.createEagerGcMemoryPersistence();
@@ -0,0 +1,148 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.model.MutableDocument;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SQLitePersistenceTest {
+  // Set to true to run the benchmarks in this file.
+  private static final boolean RUN_BENCHMARK_TESTS = false;
+
+  private static final String INSERT_BUNDLE =
+      "INSERT INTO bundles (bundle_id, create_time_seconds) VALUES (?, ?)";
+
+  @Test
+  public void testReusesCompiledStatements() {
+    SQLitePersistence persistence =
+        PersistenceTestHelpers.createSQLitePersistence(
+            SQLitePersistence.DatabaseOptions.Default());
+
+    persistence.execute(INSERT_BUNDLE, "a", 1);
+    long hits = persistence.getStatementCacheHitCount();
+    persistence.execute(INSERT_BUNDLE, "b", 2);
+    assertEquals(hits + 1, persistence.getStatementCacheHitCount());
+
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testDisabledStatementCacheStillExecutes() {
+    SQLitePersistence persistence =
+        PersistenceTestHelpers.createSQLitePersistence(
+            SQLitePersistence.DatabaseOptions.Default().withStatementCacheSize(0));
+
+    persistence.execute(INSERT_BUNDLE, "a", 1);
+    persistence.execute(INSERT_BUNDLE, "b", 2);
+    assertEquals(0, persistence.getStatementCacheHitCount());
+    assertEquals(
+        Long.valueOf(2),
+        persistence.query("SELECT COUNT(*) FROM bundles").firstValue(row -> row.getLong(0)));
+
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testAppliesPersistenceSettings() {
+    FirebaseFirestoreSettings settings =
+        new FirebaseFirestoreSettings.Builder()
+            .setPersistenceWriteAheadLoggingEnabled(true)
+            .setPersistenceSynchronousLevel(FirebaseFirestoreSettings.SYNCHRONOUS_NORMAL)
+            .setPersistencePageCacheSizeBytes(1024 * 1024)
+            .build();
+    SQLitePersistence persistence =
+        PersistenceTestHelpers.createSQLitePersistence(
+            SQLitePersistence.DatabaseOptions.FromSettings(settings));
+
+    assertEquals(
+        "wal", persistence.query("PRAGMA journal_mode").firstValue(row -> row.getString(0)));
+    assertEquals(
+        Long.valueOf(1), persistence.query("PRAGMA synchronous").firstValue(row -> row.getLong(0)));
+    assertEquals(
+        Long.valueOf(-1024),
+        persistence.query("PRAGMA cache_size").firstValue(row -> row.getLong(0)));
+
+    persistence.shutdown();
+  }
+
+  /**
+   * Measures how quickly documents from remote events are written to the RemoteDocumentCache with
+   * and without statement caching. Only runs if {@link #RUN_BENCHMARK_TESTS} is set.
+   */
+  @Test
+  public void benchmarkRemoteEventApplication() {
+    assumeTrue(RUN_BENCHMARK_TESTS);
+    int batches = 100;
+    int documentsPerBatch = 100;
+    long uncachedMs =
+        applyRemoteDocuments(
+            SQLitePersistence.DatabaseOptions.Default().withStatementCacheSize(0),
+            batches,
+            documentsPerBatch);
+    long cachedMs =
+        applyRemoteDocuments(
+            SQLitePersistence.DatabaseOptions.Default(), batches, documentsPerBatch);
+    long walMs =
+        applyRemoteDocuments(
+            SQLitePersistence.DatabaseOptions.Default()
+                .withWriteAheadLogging(true)
+                .withSynchronous(FirebaseFirestoreSettings.SYNCHRONOUS_NORMAL),
+            batches,
+            documentsPerBatch);
+
+    int total = batches * documentsPerBatch;
+    System.err.println("Uncached statements: " + (total * 1000L / uncachedMs) + " docs/s");
+    System.err.println("Cached statements: " + (total * 1000L / cachedMs) + " docs/s");
+    System.err.println("Cached statements with WAL: " + (total * 1000L / walMs) + " docs/s");
+    assertTrue(cachedMs > 0);
+  }
+
+  private static long applyRemoteDocuments(
+      SQLitePersistence.DatabaseOptions options, int batches, int documentsPerBatch) {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence(options);
+    RemoteDocumentCache remoteDocumentCache = persistence.getRemoteDocumentCache();
+    remoteDocumentCache.setIndexManager(new MemoryIndexManager());
+
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < batches; ++i) {
+      int batch = i;
+      persistence.runTransaction(
+          "Apply remote event",
+          () -> {
+            for (int j = 0; j < documentsPerBatch; ++j) {
+              MutableDocument doc = doc("coll/doc" + j, batch + 1, map("batch", batch, "doc", j));
+              remoteDocumentCache.add(doc, version(batch + 1));
+            }
+          });
+    }
+    long duration = Math.max(1, System.currentTimeMillis() - start);
+
+    persistence.shutdown();
+    return duration;
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.util.Supplier;
+import io.grpc.ManagedChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GrpcChannelPoolTest {
+  private static final String KEY = GrpcChannelPool.keyFor("firestore.googleapis.com", true);
+
+  private final GrpcChannelPool pool = new GrpcChannelPool();
+
+  /** Creates mock channels and remembers them in the order they were created. */
+  private static class ChannelFactory implements Supplier<ManagedChannel> {
+    final List<ManagedChannel> channels = new ArrayList<>();
+
+    @Override
+    public synchronized ManagedChannel get() {
+      ManagedChannel channel = mock(ManagedChannel.class);
+      try {
+        when(channel.awaitTermination(anyLong(), any())).thenReturn(true);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      channels.add(channel);
+      return channel;
+    }
+
+    synchronized int getCreatedCount() {
+      return channels.size();
+    }
+  }
+
+  /** Runs blocking pool calls off the main thread, where Tasks.await() is not allowed. */
+  private static <T> T onBackgroundThread(Callable<T> callable) throws Exception {
+    FutureTask<T> task = new FutureTask<>(callable);
+    new Thread(task).start();
+    return task.get(10, TimeUnit.SECONDS);
+  }
+
+  private static ManagedChannel channelOf(GrpcChannelPool.Lease lease) throws Exception {
+    return onBackgroundThread(() -> Tasks.await(lease.getChannelTask()));
+  }
+
+  private void release(GrpcChannelPool.Lease lease) throws Exception {
+    onBackgroundThread(
+        () -> {
+          pool.release(lease);
+          return null;
+        });
+  }
+
+  @Test
+  public void instancesForTheSameHostShareAChannel() throws Exception {
+    ChannelFactory factory = new ChannelFactory();
+    GrpcChannelPool.Lease first = pool.acquire(KEY, factory);
+    GrpcChannelPool.Lease second = pool.acquire(KEY, factory);
+
+    assertSame(first, second);
+    assertSame(channelOf(first), channelOf(second));
+    assertEquals(1, factory.getCreatedCount());
+    assertEquals(1, pool.getStats().getChannelsCreated());
+    assertEquals(1, pool.getStats().getChannelsReused());
+  }
+
+  @Test
+  public void differentHostsAndUnsharedChannelsGetTheirOwnChannel() throws Exception {
+    ChannelFactory factory = new ChannelFactory();
+    GrpcChannelPool.Lease secure = pool.acquire(KEY, factory);
+    GrpcChannelPool.Lease plain =
+        pool.acquire(GrpcChannelPool.keyFor("firestore.googleapis.com", false), factory);
+    GrpcChannelPool.Lease unshared1 = pool.acquire(null, factory);
+    GrpcChannelPool.Lease unshared2 = pool.acquire(null, factory);
+
+    assertNotSame(channelOf(secure), channelOf(plain));
+    assertNotSame(channelOf(unshared1), channelOf(unshared2));
+    assertEquals(4, factory.getCreatedCount());
+    assertEquals(0, pool.getStats().getChannelsReused());
+  }
+
+  @Test
+  public void channelIsSharedByAllInstancesUntilTheLastOneReleasesIt() throws Exception {
+    ChannelFactory factory = new ChannelFactory();
+    List<GrpcChannelPool.Lease> leases = new ArrayList<>();
+    // Like the five databases of a multi-database app.
+    for (int i = 0; i < 5; i++) {
+      leases.add(pool.acquire(KEY, factory));
+    }
+    ManagedChannel channel = channelOf(leases.get(0));
+    assertEquals(1, factory.getCreatedCount());
+    assertEquals(4, pool.getStats().getChannelsReused());
+
+    for (int i = 0; i < 4; i++) {
+      release(leases.get(i));
+    }
+    verify(channel, never()).shutdown();
+
+    release(leases.get(4));
+    verify(channel).shutdown();
+
+    // Once shut down, the channel is no longer handed out.
+    GrpcChannelPool.Lease next = pool.acquire(KEY, factory);
+    assertNotSame(channel, channelOf(next));
+    assertEquals(2, factory.getCreatedCount());
+  }
+
+  @Test
+  public void resetChannelIsShutDownOnceNoInstanceUsesIt() throws Exception {
+    ChannelFactory factory = new ChannelFactory();
+    GrpcChannelPool.Lease first = pool.acquire(KEY, factory);
+    GrpcChannelPool.Lease second = pool.acquire(KEY, factory);
+    ManagedChannel staleChannel = channelOf(first);
+
+    GrpcChannelPool.Lease replacement = pool.reset(first, factory);
+    assertNotSame(staleChannel, channelOf(replacement));
+    verify(staleChannel, never()).shutdownNow();
+
+    // The second instance moves to the same replacement, after which the stale channel is unused.
+    assertSame(replacement, pool.reset(second, factory));
+    assertEquals(2, factory.getCreatedCount());
+    verify(staleChannel, timeout(10_000)).shutdownNow();
+  }
+
+  @Test
+  public void handshakeLatencyIsRecordedOncePerChannel() throws Exception {
+    ChannelFactory factory = new ChannelFactory();
+    assertEquals(-1, pool.getStats().getLastHandshakeLatencyMs());
+    assertEquals(-1, pool.getStats().getAverageHandshakeLatencyMs());
+
+    GrpcChannelPool.Lease lease = pool.acquire(KEY, factory);
+    pool.onChannelReady(lease);
+    long latency = pool.getStats().getLastHandshakeLatencyMs();
+    pool.onChannelReady(lease);
+
+    assertEquals(latency, pool.getStats().getLastHandshakeLatencyMs());
+    assertEquals(latency, pool.getStats().getAverageHandshakeLatencyMs());
+  }
+}
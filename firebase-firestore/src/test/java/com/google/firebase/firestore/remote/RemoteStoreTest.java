@@ -0,0 +1,251 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.core.OnlineState;
+import com.google.firebase.firestore.local.LocalStore;
+import com.google.firebase.firestore.local.PersistenceTestHelpers;
+import com.google.firebase.firestore.local.QueryEngine;
+import com.google.firebase.firestore.local.QueryPurpose;
+import com.google.firebase.firestore.local.TargetData;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.SnapshotVersion;
+import com.google.firebase.firestore.model.mutation.MutationBatchResult;
+import com.google.firebase.firestore.remote.WatchChange.DocumentChange;
+import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
+import com.google.firebase.firestore.remote.WatchChange.WatchTargetChangeType;
+import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.AsyncQueue.TimerId;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RemoteStoreTest {
+  private static final int BATCH_SIZE = 25;
+
+  private AsyncQueue queue;
+  private MockDatastore datastore;
+  private RemoteStore remoteStore;
+
+  private static class NoOpCallback implements RemoteStore.RemoteStoreCallback {
+    @Override
+    public void handleRemoteEvent(RemoteEvent remoteEvent) {}
+
+    @Override
+    public void handleRejectedListen(int targetId, Status error) {}
+
+    @Override
+    public void handleSuccessfulWrite(MutationBatchResult successfulWrite) {}
+
+    @Override
+    public void handleRejectedWrite(int batchId, Status error) {}
+
+    @Override
+    public void handleOnlineStateChange(OnlineState onlineState) {}
+
+    @Override
+    public ImmutableSortedSet<DocumentKey> getRemoteKeysForTarget(int targetId) {
+      return DocumentKey.emptyKeySet();
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    queue = new AsyncQueue();
+    datastore =
+        new MockDatastore(
+            PersistenceTestHelpers.nextDatabaseInfo(),
+            queue,
+            ApplicationProvider.getApplicationContext());
+    queue.runSync(
+        () -> {
+          LocalStore localStore =
+              new LocalStore(
+                  PersistenceTestHelpers.createEagerGCMemoryPersistence(),
+                  new QueryEngine(),
+                  User.UNAUTHENTICATED);
+          localStore.start();
+          ConnectivityMonitor connectivityMonitor =
+              new ConnectivityMonitor() {
+                @Override
+                public void addCallback(
+                    com.google.firebase.firestore.util.Consumer<NetworkStatus> callback) {}
+
+                @Override
+                public void shutdown() {}
+              };
+          remoteStore =
+              new RemoteStore(
+                  new NoOpCallback(), localStore, datastore, queue, connectivityMonitor);
+        });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    queue.runSync(() -> remoteStore.shutdown());
+  }
+
+  private static TargetData target(int targetId, long sequenceNumber, QueryPurpose purpose) {
+    return new TargetData(query("coll" + targetId).toTarget(), targetId, sequenceNumber, purpose);
+  }
+
+  /** Listens to the given targets while offline, then connects. */
+  private void connectWithTargets(List<TargetData> targets) throws Exception {
+    queue.runSync(
+        () -> {
+          for (TargetData targetData : targets) {
+            remoteStore.listen(targetData);
+          }
+          remoteStore.start();
+        });
+  }
+
+  private Set<Integer> sentTargets() {
+    return datastore.activeTargets().keySet();
+  }
+
+  @Test
+  public void targetsAreResentMostRecentlyUsedFirstInBatches() throws Exception {
+    List<TargetData> targets = new ArrayList<>();
+    for (int targetId = 1; targetId <= 2 * BATCH_SIZE + 5; targetId++) {
+      targets.add(target(targetId, /* sequenceNumber= */ targetId, QueryPurpose.LISTEN));
+    }
+    Collections.shuffle(targets);
+    connectWithTargets(targets);
+
+    // The first batch holds the targets with the highest sequence numbers.
+    assertEquals(BATCH_SIZE, sentTargets().size());
+    for (int targetId = BATCH_SIZE + 6; targetId <= 2 * BATCH_SIZE + 5; targetId++) {
+      assertTrue(sentTargets().contains(targetId));
+    }
+
+    queue.runDelayedTasksUntil(TimerId.LISTEN_STREAM_RELISTEN);
+    assertEquals(2 * BATCH_SIZE, sentTargets().size());
+    assertFalse(sentTargets().contains(1));
+
+    queue.runDelayedTasksUntil(TimerId.LISTEN_STREAM_RELISTEN);
+    assertEquals(2 * BATCH_SIZE + 5, sentTargets().size());
+    assertFalse(queue.containsDelayedTask(TimerId.LISTEN_STREAM_RELISTEN));
+  }
+
+  @Test
+  public void limboResolutionsWaitForPendingTargets() throws Exception {
+    List<TargetData> targets = new ArrayList<>();
+    targets.add(target(1, /* sequenceNumber= */ 1, QueryPurpose.LIMBO_RESOLUTION));
+    for (int targetId = 2; targetId <= BATCH_SIZE + 1; targetId++) {
+      targets.add(target(targetId, /* sequenceNumber= */ 0, QueryPurpose.LISTEN));
+    }
+    connectWithTargets(targets);
+
+    // The limbo resolution is sorted behind all queries, even though it was used more recently.
+    assertFalse(sentTargets().contains(1));
+
+    // A limbo resolution started during the re-listen is queued behind the pending targets too.
+    TargetData limboTarget = target(100, /* sequenceNumber= */ 2, QueryPurpose.LIMBO_RESOLUTION);
+    queue.runSync(() -> remoteStore.listen(limboTarget));
+    assertFalse(sentTargets().contains(100));
+
+    queue.runDelayedTasksUntil(TimerId.LISTEN_STREAM_RELISTEN);
+    assertTrue(sentTargets().contains(1));
+    assertTrue(sentTargets().contains(100));
+  }
+
+  @Test
+  public void pendingTargetsThatStopListeningAreNeverSent() throws Exception {
+    List<TargetData> targets = new ArrayList<>();
+    for (int targetId = 1; targetId <= BATCH_SIZE + 1; targetId++) {
+      targets.add(target(targetId, /* sequenceNumber= */ targetId, QueryPurpose.LISTEN));
+    }
+    connectWithTargets(targets);
+    assertFalse(sentTargets().contains(1));
+
+    queue.runSync(() -> remoteStore.stopListening(1));
+    queue.runDelayedTasksUntil(TimerId.LISTEN_STREAM_RELISTEN);
+
+    assertEquals(BATCH_SIZE, datastore.getWatchStreamRequestCount());
+    assertFalse(sentTargets().contains(1));
+  }
+
+  @Test
+  public void reconnectStatsTrackTheCostOfCatchingUp() throws Exception {
+    queue.runSync(() -> assertNull(remoteStore.getLastReconnectStats()));
+    List<TargetData> targets = new ArrayList<>();
+    for (int targetId = 1; targetId <= 3; targetId++) {
+      targets.add(target(targetId, /* sequenceNumber= */ targetId, QueryPurpose.LISTEN));
+    }
+    connectWithTargets(targets);
+
+    queue.runSync(
+        () -> {
+          datastore.writeWatchChange(
+              new WatchTargetChange(WatchTargetChangeType.Added, asList(1, 2, 3)),
+              SnapshotVersion.NONE);
+          datastore.writeWatchChange(
+              new DocumentChange(
+                  asList(1),
+                  Collections.emptyList(),
+                  DocumentKey.fromPathString("coll1/a"),
+                  doc("coll1/a", 1, map("key", "a"))),
+              SnapshotVersion.NONE);
+          datastore.writeWatchChange(
+              new WatchTargetChange(WatchTargetChangeType.Current, asList(1, 2)),
+              SnapshotVersion.NONE);
+        });
+
+    RemoteStore.ReconnectStats[] stats = new RemoteStore.ReconnectStats[1];
+    queue.runSync(() -> stats[0] = remoteStore.getLastReconnectStats());
+    assertEquals(3, stats[0].getTargetsRelistened());
+    assertEquals(1, stats[0].getDocumentsDownloaded());
+    assertEquals(-1, stats[0].getTimeToCurrentMs());
+
+    queue.runSync(
+        () ->
+            datastore.writeWatchChange(
+                new WatchTargetChange(WatchTargetChangeType.Current, asList(3)),
+                SnapshotVersion.NONE));
+
+    // The earlier snapshot is not updated, the new one is.
+    assertEquals(-1, stats[0].getTimeToCurrentMs());
+    queue.runSync(() -> stats[0] = remoteStore.getLastReconnectStats());
+    assertTrue(stats[0].getTimeToCurrentMs() >= 0);
+  }
+
+  private static List<Integer> asList(Integer... targetIds) {
+    List<Integer> list = new ArrayList<>();
+    Collections.addAll(list, targetIds);
+    return list;
+  }
+}
@@ -56,6 +56,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
@@ -69,6 +70,8 @@ import java.util.zip.GZIPOutputStream;
 final class CctTransportBackend implements TransportBackend {
 
   private static final String LOG_TAG = "CctTransportBackend";
+  private static final Encoding PROTOBUF_ENCODING = Encoding.of("proto");
+  private static final Encoding JSON_ENCODING = Encoding.of("json");
 
   private static final int CONNECTION_TIME_OUT = 30000;
   private static final int READ_TIME_OUT = 130000;
@@ -239,48 +242,64 @@ final class CctTransportBackend implements TransportBackend {
         requestBuilder.setSource(entry.getKey());
       }
 
-      List<LogEvent> logEvents = new ArrayList<>();
+      List<EventInternal> events = new ArrayList<>();
       for (EventInternal eventInternal : entry.getValue()) {
-        EncodedPayload encodedPayload = eventInternal.getEncodedPayload();
-        Encoding encoding = encodedPayload.getEncoding();
-
-        LogEvent.Builder event;
-        if (encoding.equals(Encoding.of("proto"))) {
-          event = LogEvent.protoBuilder(encodedPayload.getBytes());
-        } else if (encoding.equals(Encoding.of("json"))) {
-          event =
-              LogEvent.jsonBuilder(new String(encodedPayload.getBytes(), Charset.forName("UTF-8")));
+        Encoding encoding = eventInternal.getEncodedPayload().getEncoding();
+        if (encoding.equals(PROTOBUF_ENCODING) || encoding.equals(JSON_ENCODING)) {
+          events.add(eventInternal);
         } else {
           Logging.w(LOG_TAG, "Received event of unsupported encoding %s. Skipping...", encoding);
-          continue;
         }
-
-        event
-            .setEventTimeMs(eventInternal.getEventMillis())
-            .setEventUptimeMs(eventInternal.getUptimeMillis())
-            .setTimezoneOffsetSeconds(eventInternal.getLong(KEY_TIMEZONE_OFFSET))
-            .setNetworkConnectionInfo(
-                NetworkConnectionInfo.builder()
-                    .setNetworkType(
-                        NetworkConnectionInfo.NetworkType.forNumber(
-                            eventInternal.getInteger(KEY_NETWORK_TYPE)))
-                    .setMobileSubtype(
-                        NetworkConnectionInfo.MobileSubtype.forNumber(
-                            eventInternal.getInteger(KEY_MOBILE_SUBTYPE)))
-                    .build());
-
-        if (eventInternal.getCode() != null) {
-          event.setEventCode(eventInternal.getCode());
-        }
-        logEvents.add(event.build());
       }
-      requestBuilder.setLogEvents(logEvents);
+      // Log events are created while the request is encoded, so that only the one being written
+      // is held in memory in its encoded form instead of the whole batch.
+      requestBuilder.setLogEvents(
+          new AbstractList<LogEvent>() {
+            @Override
+            public LogEvent get(int index) {
+              return toLogEvent(events.get(index));
+            }
+
+            @Override
+            public int size() {
+              return events.size();
+            }
+          });
       batchedRequests.add(requestBuilder.build());
     }
 
     return BatchedLogRequest.create(batchedRequests);
   }
 
+  private static LogEvent toLogEvent(EventInternal eventInternal) {
+    EncodedPayload encodedPayload = eventInternal.getEncodedPayload();
+    LogEvent.Builder event;
+    if (encodedPayload.getEncoding().equals(PROTOBUF_ENCODING)) {
+      event = LogEvent.protoBuilder(encodedPayload.getBytes());
+    } else {
+      event = LogEvent.jsonBuilder(new String(encodedPayload.getBytes(), Charset.forName("UTF-8")));
+    }
+
+    event
+        .setEventTimeMs(eventInternal.getEventMillis())
+        .setEventUptimeMs(eventInternal.getUptimeMillis())
+        .setTimezoneOffsetSeconds(eventInternal.getLong(KEY_TIMEZONE_OFFSET))
+        .setNetworkConnectionInfo(
+            NetworkConnectionInfo.builder()
+                .setNetworkType(
+                    NetworkConnectionInfo.NetworkType.forNumber(
+                        eventInternal.getInteger(KEY_NETWORK_TYPE)))
+                .setMobileSubtype(
+                    NetworkConnectionInfo.MobileSubtype.forNumber(
+                        eventInternal.getInteger(KEY_MOBILE_SUBTYPE)))
+                .build());
+
+    if (eventInternal.getCode() != null) {
+      event.setEventCode(eventInternal.getCode());
+    }
+    return event.build();
+  }
+
   private HttpResponse doSend(HttpRequest request) throws IOException {
 
     Logging.i(LOG_TAG, "Making request to: %s", request.url);
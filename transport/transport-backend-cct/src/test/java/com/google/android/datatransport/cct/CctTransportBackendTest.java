@@ -48,7 +48,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.zip.GZIPOutputStream;
 import org.junit.Rule;
@@ -194,6 +196,40 @@ public class CctTransportBackendTest {
     assertEquals(BackendResponse.ok(3), response);
   }
 
+  @Test
+  public void send_withManyEvents_shouldSendThemAll() {
+    stubFor(
+        post(urlEqualTo("/api"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json;charset=UTF8;")
+                    .withBody("{\"nextRequestWaitMillis\":3}")));
+    List<EventInternal> events = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      events.add(
+          BACKEND.decorate(
+              EventInternal.builder()
+                  .setEventMillis(INITIAL_WALL_TIME)
+                  .setUptimeMillis(INITIAL_UPTIME)
+                  .setTransportName(CCT_TRANSPORT_NAME)
+                  .setEncodedPayload(new EncodedPayload(PROTOBUF_ENCODING, PAYLOAD.toByteArray()))
+                  .build()));
+    }
+    BackendRequest backendRequest =
+        BackendRequest.builder()
+            .setEvents(events)
+            .setExtras(new CCTDestination(TEST_ENDPOINT, null).getExtras())
+            .build();
+
+    BackendResponse response = BACKEND.send(backendRequest);
+
+    verify(
+        postRequestedFor(urlEqualTo("/api"))
+            .withRequestBody(matchingJsonPath("$[?(@.logRequest[0].logEvent.size() == 500)]")));
+    assertEquals(BackendResponse.ok(3), response);
+  }
+
   @Test
   public void testCCTContainsRightAndroidClientInfo() {
     stubFor(
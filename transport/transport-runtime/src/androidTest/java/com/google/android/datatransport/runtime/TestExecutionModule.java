@@ -17,6 +17,7 @@ package com.google.android.datatransport.runtime;
 import dagger.Module;
 import dagger.Provides;
 import java.util.concurrent.Executor;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 @Module
@@ -26,4 +27,11 @@ abstract class TestExecutionModule {
   static Executor executor() {
     return Runnable::run;
   }
+
+  @Singleton
+  @Provides
+  @Named("UPLOAD_EXECUTOR")
+  static Executor uploadExecutor() {
+    return Runnable::run;
+  }
 }
@@ -37,7 +37,9 @@ import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
 import javax.inject.Provider;
 import org.junit.Test;
@@ -184,6 +186,31 @@ public class SQLiteEventStoreTest {
     assertThat(payloadRows).isEqualTo(0);
   }
 
+  @Test
+  public void persist_afterClose_shouldCompileItsStatementsAgain() {
+    PersistedEvent event1 = store.persist(TRANSPORT_CONTEXT, EVENT);
+    store.close();
+    PersistedEvent event2 = store.persist(TRANSPORT_CONTEXT, EVENT);
+
+    assertThat(store.loadBatch(TRANSPORT_CONTEXT)).containsExactly(event1, event2).inOrder();
+  }
+
+  @Test
+  public void loadBatch_shouldStopLoadingOnceTheByteSizeIsReached() {
+    // Each payload is 5 bytes, so the batch is full after two events.
+    SQLiteEventStore store =
+        newStoreWithConfig(clock, CONFIG.toBuilder().setLoadBatchByteSize(10).build(), packageName);
+    PersistedEvent event1 = store.persist(TRANSPORT_CONTEXT, EVENT);
+    PersistedEvent event2 = store.persist(TRANSPORT_CONTEXT, EVENT);
+    PersistedEvent event3 = store.persist(TRANSPORT_CONTEXT, EVENT);
+
+    Iterable<PersistedEvent> batch = store.loadBatch(TRANSPORT_CONTEXT);
+    assertThat(batch).containsExactly(event1, event2).inOrder();
+
+    store.recordSuccess(batch);
+    assertThat(store.loadBatch(TRANSPORT_CONTEXT)).containsExactly(event3);
+  }
+
   @Test
   public void persist_withEventsOfDifferentPriority_shouldEndBeStoredUnderDifferentContexts() {
     TransportContext ctx1 =
@@ -286,30 +313,282 @@ public class SQLiteEventStoreTest {
   }
 
   @Test
-  public void persist_whenDbSizeOnDiskIsAtLimit_shouldRecordLogEventDroppedDueToCacheFull() {
+  public void persist_withCompressiblePayload_correctlyRoundTrips() {
+    EventInternal event =
+        EVENT.toBuilder()
+            .setEncodedPayload(new EncodedPayload(JSON_ENCODING, compressiblePayload()))
+            .build();
+    SQLiteEventStore inlineStore =
+        newStoreWithConfig(
+            clock, CONFIG.toBuilder().setMaxBlobByteSizePerRow(80 * 1024).build(), packageName);
+
+    // The compressed payload is stored inline by one store and in chunks by the other.
+    for (SQLiteEventStore storeUnderTest : Arrays.asList(inlineStore, store)) {
+      PersistedEvent newEvent = storeUnderTest.persist(TRANSPORT_CONTEXT, event);
+
+      assertThat(storeUnderTest.loadBatch(TRANSPORT_CONTEXT)).containsExactly(newEvent);
+      assertThat(storeUnderTest.getByteSize()).isLessThan((long) event.getPayload().length);
+    }
+  }
+
+  @Test
+  public void persist_withCompression_shouldFitMoreEventsInStorage() {
+    EventInternal event =
+        EVENT.toBuilder()
+            .setEncodedPayload(new EncodedPayload(JSON_ENCODING, compressiblePayload()))
+            .build();
+    EventStoreConfig rawConfig =
+        CONFIG.toBuilder()
+            .setMaxBlobByteSizePerRow(80 * 1024)
+            .setMinCompressedPayloadByteSize(Integer.MAX_VALUE)
+            .build();
+    SQLiteEventStore measuringStore = newStoreWithConfig(clock, rawConfig, packageName);
+    measuringStore.persist(TRANSPORT_CONTEXT, event);
+    long rawEventBytes = measuringStore.getByteSize();
+
+    long maxStorageSize = 20 * rawEventBytes;
+    SQLiteEventStore compressingStore =
+        newStoreWithConfig(
+            clock,
+            rawConfig.toBuilder()
+                .setMaxStorageSizeInBytes(maxStorageSize)
+                .setMinCompressedPayloadByteSize(
+                    EventStoreConfig.DEFAULT.getMinCompressedPayloadByteSize())
+                .build(),
+            packageName);
+    SQLiteEventStore rawStore =
+        newStoreWithConfig(
+            clock,
+            rawConfig.toBuilder().setMaxStorageSizeInBytes(maxStorageSize).build(),
+            packageName);
+
+    // Both stores are filled well past their limit, so both have to evict events.
+    int persisted = 400;
+    for (int i = 0; i < persisted; i++) {
+      compressingStore.persist(TRANSPORT_CONTEXT, event);
+      rawStore.persist(TRANSPORT_CONTEXT, event);
+    }
+
+    long rawEvents = DatabaseUtils.queryNumEntries(rawStore.getDb(), "events");
+    long compressedEvents = DatabaseUtils.queryNumEntries(compressingStore.getDb(), "events");
+    // Eviction brings a full store down to 90% of its limit.
+    assertThat(rawEvents).isAtLeast(18L);
+    assertThat(rawEvents).isAtMost(20L);
+    assertThat(compressingStore.getByteSize()).isAtMost(maxStorageSize);
+    assertThat(compressedEvents).isLessThan((long) persisted);
+    // The payload compresses to about an eighth of its size, so the same storage holds several
+    // times as many events.
+    assertThat(compressedEvents).isAtLeast(4 * rawEvents);
+  }
+
+  @Test
+  public void loadBatch_withTruncatedCompressedPayload_shouldDropTheEvent() {
+    EventInternal event =
+        EVENT.toBuilder()
+            .setEncodedPayload(new EncodedPayload(JSON_ENCODING, compressiblePayload()))
+            .build();
+    store.persist(TRANSPORT_CONTEXT, event);
+    // Losing the last chunk leaves a compressed stream that inflates without errors but never
+    // finishes.
+    store
+        .getDb()
+        .delete(
+            "event_payloads",
+            "sequence_num = (SELECT MAX(sequence_num) FROM event_payloads)",
+            new String[0]);
+
+    Iterable<PersistedEvent> events = store.loadBatch(TRANSPORT_CONTEXT);
+
+    assertThat(events).isEmpty();
+    assertThat(DatabaseUtils.queryNumEntries(store.getDb(), "events")).isEqualTo(0);
+    assertThat(DatabaseUtils.queryNumEntries(store.getDb(), "event_payloads")).isEqualTo(0);
+    assertInvalidPayloadDropped(store, 1);
+  }
+
+  @Test
+  public void loadBatch_withCorruptedCompressedPayload_shouldDropTheEvent() {
+    EventInternal event =
+        EVENT.toBuilder()
+            .setEncodedPayload(new EncodedPayload(JSON_ENCODING, compressiblePayload()))
+            .build();
+    SQLiteEventStore inlineStore =
+        newStoreWithConfig(
+            clock, CONFIG.toBuilder().setMaxBlobByteSizePerRow(80 * 1024).build(), packageName);
+    inlineStore.persist(TRANSPORT_CONTEXT, event);
+    inlineStore.getDb().execSQL("UPDATE events SET payload = X'0102030405060708'");
+    inlineStore.persist(TRANSPORT_CONTEXT, EVENT);
+
+    Iterable<PersistedEvent> events = inlineStore.loadBatch(TRANSPORT_CONTEXT);
+
+    // The intact event is still uploaded.
+    assertThat(events).hasSize(1);
+    assertThat(events.iterator().next().getEvent().getPayload()).isEqualTo(EVENT.getPayload());
+    assertThat(DatabaseUtils.queryNumEntries(inlineStore.getDb(), "events")).isEqualTo(1);
+    assertInvalidPayloadDropped(inlineStore, 1);
+  }
+
+  private static void assertInvalidPayloadDropped(SQLiteEventStore store, long count) {
+    LogSourceMetrics logSourceMetrics =
+        LogSourceMetrics.newBuilder()
+            .setLogSource(EVENT.getTransportName())
+            .addLogEventDropped(
+                LogEventDropped.newBuilder()
+                    .setEventsDroppedCount(count)
+                    .setReason(LogEventDropped.Reason.INVALID_PAYLOD)
+                    .build())
+            .build();
+    assertThat(store.loadClientMetrics().getLogSourceMetricsList())
+        .comparingElementsUsing(CLIENT_METRICS_CORRESPONDENCE)
+        .contains(logSourceMetrics);
+  }
+
+  private static byte[] compressiblePayload() {
+    StringBuilder payload = new StringBuilder("[");
+    for (int i = 0; i < 100; i++) {
+      payload.append(
+          String.format(
+              Locale.US, "{\"name\":\"_st\",\"durationUs\":%d,\"counter\":%d},", i * 37, i));
+    }
+    return payload.append("]").toString().getBytes(Charset.forName("UTF-8"));
+  }
+
+  @Test
+  public void persist_whenStorageIsFull_shouldEvictOldestLowPriorityEvents() {
+    store.persist(TRANSPORT_CONTEXT, EVENT);
+    long eventBytes = store.getByteSize();
+    SQLiteEventStore storeUnderTest =
+        newStoreWithConfig(
+            clock,
+            CONFIG.toBuilder()
+                .setLoadBatchSize(20)
+                .setMaxStorageSizeInBytes(10 * eventBytes)
+                .build(),
+            packageName);
+    for (int i = 1; i <= 5; i++) {
+      storeUnderTest.persist(
+          TRANSPORT_CONTEXT.withPriority(Priority.VERY_LOW),
+          EVENT.toBuilder().setEventMillis(1000 + i).build());
+      storeUnderTest.persist(
+          TRANSPORT_CONTEXT.withPriority(Priority.HIGHEST),
+          EVENT.toBuilder().setEventMillis(i).build());
+    }
+    clock.advance(10_000);
+
+    assertThat(
+            storeUnderTest.persist(
+                TRANSPORT_CONTEXT, EVENT.toBuilder().setEventMillis(10_000).build()))
+        .isNotNull();
+
+    // Bringing the store back below 90% full evicts the two oldest very low priority events, even
+    // though the highest priority events are older.
+    Map<Long, Priority> remaining = new HashMap<>();
+    for (PersistedEvent event : storeUnderTest.loadBatch(TRANSPORT_CONTEXT)) {
+      remaining.put(event.getEvent().getEventMillis(), event.getTransportContext().getPriority());
+    }
+    assertThat(remaining).hasSize(9);
+    assertThat(remaining).doesNotContainKey(1001L);
+    assertThat(remaining).doesNotContainKey(1002L);
+    assertThat(storeUnderTest.getByteSize()).isEqualTo(9 * eventBytes);
+
+    LogSourceMetrics logSourceMetrics =
+        LogSourceMetrics.newBuilder()
+            .setLogSource(EVENT.getTransportName())
+            .addLogEventDropped(
+                LogEventDropped.newBuilder()
+                    .setEventsDroppedCount(2)
+                    .setReason(REASON_CACHE_FULL)
+                    .build())
+            .build();
+    assertThat(storeUnderTest.loadClientMetrics().getLogSourceMetricsList())
+        .comparingElementsUsing(CLIENT_METRICS_CORRESPONDENCE)
+        .contains(logSourceMetrics);
+  }
+
+  @Test
+  public void persist_whenManyEventsMustBeEvicted_shouldEvictThemAcrossPages() {
+    store.persist(TRANSPORT_CONTEXT, EVENT);
+    long eventBytes = store.getByteSize();
     SQLiteEventStore storeUnderTest =
         newStoreWithConfig(
             clock,
-            CONFIG.toBuilder().setMaxStorageSizeInBytes(store.getByteSize()).build(),
+            CONFIG.toBuilder().setMaxStorageSizeInBytes(200 * eventBytes).build(),
             packageName);
+    for (int i = 0; i < 200; i++) {
+      storeUnderTest.persist(TRANSPORT_CONTEXT, EVENT);
+    }
+    byte[] largePayload = new byte[(int) (100 * eventBytes)];
+    new Random(42).nextBytes(largePayload);
+    EventInternal largeEvent =
+        EventInternal.builder()
+            .setTransportName("42")
+            .setEventMillis(2)
+            .setUptimeMillis(2)
+            .setEncodedPayload(new EncodedPayload(JSON_ENCODING, largePayload))
+            .build();
 
-    storeUnderTest.persist(TRANSPORT_CONTEXT, EVENT);
+    assertThat(storeUnderTest.persist(TRANSPORT_CONTEXT, largeEvent)).isNotNull();
+
+    // Getting back to 90% of the limit takes evicting 120 events, more than fit in one page.
+    assertThat(DatabaseUtils.queryNumEntries(storeUnderTest.getDb(), "events")).isEqualTo(81);
+    assertThat(storeUnderTest.getByteSize()).isEqualTo(80 * eventBytes + largePayload.length);
+  }
+
+  @Test
+  public void persist_withNonAsciiMetadata_shouldCountItsUtf8Size() {
+    EventInternal event =
+        EVENT.toBuilder()
+            .setEncodedPayload(new EncodedPayload(JSON_ENCODING, new byte[] {1, 2, 3}))
+            .addMetadata("k\u00e9y", "v\u20acl")
+            .build();
+
+    store.persist(TRANSPORT_CONTEXT, event);
+
+    // key1value1key2value2 is 20 bytes, "k\u00e9y" 4 bytes and "v\u20acl" 5 bytes in UTF-8.
+    assertThat(store.getByteSize()).isEqualTo(3 + 20 + 4 + 5);
+  }
+
+  @Test
+  public void persist_whenEventIsLargerThanStorage_shouldDropItAsPayloadTooBig() {
+    store.persist(TRANSPORT_CONTEXT, EVENT);
+    SQLiteEventStore storeUnderTest =
+        newStoreWithConfig(
+            clock,
+            CONFIG.toBuilder().setMaxStorageSizeInBytes(store.getByteSize() - 1).build(),
+            packageName);
+
+    assertThat(storeUnderTest.persist(TRANSPORT_CONTEXT, EVENT)).isNull();
 
-    ClientMetrics clientMetrics = storeUnderTest.loadClientMetrics();
     LogSourceMetrics logSourceMetrics =
         LogSourceMetrics.newBuilder()
             .setLogSource(EVENT.getTransportName())
             .addLogEventDropped(
                 LogEventDropped.newBuilder()
                     .setEventsDroppedCount(1)
-                    .setReason(REASON_CACHE_FULL)
+                    .setReason(LogEventDropped.Reason.PAYLOAD_TOO_BIG)
                     .build())
             .build();
-    assertThat(clientMetrics.getLogSourceMetricsList())
+    assertThat(storeUnderTest.loadClientMetrics().getLogSourceMetricsList())
         .comparingElementsUsing(CLIENT_METRICS_CORRESPONDENCE)
         .contains(logSourceMetrics);
   }
 
+  @Test
+  public void getByteSize_shouldTrackPersistedAndDeletedEvents() {
+    PersistedEvent event1 = store.persist(TRANSPORT_CONTEXT, EVENT);
+    long eventBytes = store.getByteSize();
+    assertThat(eventBytes).isGreaterThan((long) EVENT.getPayload().length);
+
+    store.persist(TRANSPORT_CONTEXT, EVENT);
+    assertThat(store.getByteSize()).isEqualTo(2 * eventBytes);
+
+    store.recordSuccess(Collections.singleton(event1));
+    assertThat(store.getByteSize()).isEqualTo(eventBytes);
+
+    clock.advance(HOUR + 1);
+    store.cleanUp();
+    assertThat(store.getByteSize()).isEqualTo(0);
+  }
+
   @Test
   public void recordSuccess_deletesEvents() {
     PersistedEvent newEvent1 = store.persist(TRANSPORT_CONTEXT, EVENT);
@@ -444,23 +723,6 @@ public class SQLiteEventStoreTest {
     assertThat(store.hasPendingEventsFor(ANOTHER_TRANSPORT_CONTEXT)).isFalse();
   }
 
-  @Test
-  public void persist_whenDbSizeOnDiskIsAtLimit_shouldNotPersistNewEvents() {
-    SQLiteEventStore storeUnderTest =
-        newStoreWithConfig(
-            clock,
-            CONFIG.toBuilder().setMaxStorageSizeInBytes(store.getByteSize()).build(),
-            packageName);
-    assertThat(storeUnderTest.persist(TRANSPORT_CONTEXT, EVENT)).isNull();
-
-    storeUnderTest =
-        newStoreWithConfig(
-            clock,
-            CONFIG.toBuilder().setMaxStorageSizeInBytes(store.getByteSize() + 1).build(),
-            packageName);
-    assertThat(storeUnderTest.persist(TRANSPORT_CONTEXT, EVENT)).isNotNull();
-  }
-
   @Test
   public void loadBatch_shouldLoadNoMoreThanBatchSizeItems() {
     for (int i = 0; i <= CONFIG.getLoadBatchSize(); i++) {
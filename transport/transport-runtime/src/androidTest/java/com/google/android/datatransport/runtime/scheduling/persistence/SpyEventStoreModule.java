@@ -55,6 +55,12 @@ public abstract class SpyEventStoreModule {
   @Binds
   abstract ClientHealthMetricsStore clientHealthMetricsStore(SQLiteEventStore store);
 
+  @Provides
+  @Named("PERSIST_BATCH_SIZE")
+  static int persistBatchSize(EventStoreConfig config) {
+    return config.getPersistBatchSize();
+  }
+
   @Provides
   @Named("SCHEMA_VERSION")
   static int schemaVersion() {
@@ -32,9 +32,12 @@ public abstract class TestEventStoreModule {
     return EventStoreConfig.builder()
         .setMaxStorageSizeInBytes(MAX_DB_STORAGE_SIZE_IN_BYTES)
         .setLoadBatchSize(LOAD_BATCH_SIZE)
+        .setLoadBatchByteSize(512 * 1024)
         .setCriticalSectionEnterTimeoutMs(LOCK_TIME_OUT_MS)
         .setEventCleanUpAge(60 * 1000)
         .setMaxBlobByteSizePerRow(80 * 1000)
+        .setPersistBatchSize(50)
+        .setMinCompressedPayloadByteSize(1024)
         .build();
   }
 
@@ -47,6 +50,12 @@ public abstract class TestEventStoreModule {
   @Binds
   abstract ClientHealthMetricsStore clientHealthMetricsStore(SQLiteEventStore store);
 
+  @Provides
+  @Named("PERSIST_BATCH_SIZE")
+  static int persistBatchSize(EventStoreConfig config) {
+    return config.getPersistBatchSize();
+  }
+
   @Provides
   @Named("SCHEMA_VERSION")
   static int schemaVersion() {
@@ -19,14 +19,38 @@ import dagger.Module;
 import dagger.Provides;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 @Module
 abstract class ExecutionModule {
+  private static final int MAX_CONCURRENT_UPLOADS = 3;
+  private static final long UPLOAD_THREAD_KEEP_ALIVE_SECONDS = 30;
+
   @Singleton
   @Provides
   @SuppressLint("ThreadPoolCreation")
   static Executor executor() {
     return new SafeLoggingExecutor(Executors.newSingleThreadExecutor());
   }
+
+  /** Runs uploads, which spend most of their time waiting for the network, concurrently. */
+  @Singleton
+  @Provides
+  @Named("UPLOAD_EXECUTOR")
+  @SuppressLint("ThreadPoolCreation")
+  static Executor uploadExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            MAX_CONCURRENT_UPLOADS,
+            MAX_CONCURRENT_UPLOADS,
+            UPLOAD_THREAD_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>());
+    executor.allowCoreThreadTimeOut(true);
+    return new SafeLoggingExecutor(executor);
+  }
 }
@@ -22,14 +22,25 @@ import com.google.android.datatransport.runtime.backends.BackendRegistry;
 import com.google.android.datatransport.runtime.backends.TransportBackend;
 import com.google.android.datatransport.runtime.scheduling.jobscheduling.WorkScheduler;
 import com.google.android.datatransport.runtime.scheduling.persistence.EventStore;
+import com.google.android.datatransport.runtime.synchronization.SynchronizationException;
 import com.google.android.datatransport.runtime.synchronization.SynchronizationGuard;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 import javax.inject.Inject;
+import javax.inject.Named;
 
 /**
  * Scheduler which persists the events, schedules the services which ultimately logs these events to
  * the corresponding backends. This respects network conditions and QoS.
+ *
+ * <p>Events are persisted in groups: events that are scheduled while earlier ones are waiting to be
+ * persisted are written in one transaction, up to a configurable number of events per
+ * transaction. Callbacks are only called once the transaction of their event has been committed.
  */
 public class DefaultScheduler implements Scheduler {
 
@@ -39,6 +50,29 @@ public class DefaultScheduler implements Scheduler {
   private final BackendRegistry backendRegistry;
   private final EventStore eventStore;
   private final SynchronizationGuard guard;
+  private final int persistBatchSize;
+
+  /** Events waiting to be persisted, in the order they were scheduled. Guarded by itself. */
+  private final List<PendingEvent> pendingEvents = new ArrayList<>();
+
+  // Whether a task to persist the pending events is queued on the executor. Guarded by
+  // pendingEvents.
+  private boolean persistQueued = false;
+
+  private static class PendingEvent {
+    final TransportContext transportContext;
+    final EventInternal event;
+    final TransportScheduleCallback callback;
+
+    PendingEvent(
+        TransportContext transportContext,
+        EventInternal event,
+        TransportScheduleCallback callback) {
+      this.transportContext = transportContext;
+      this.event = event;
+      this.callback = callback;
+    }
+  }
 
   @Inject
   public DefaultScheduler(
@@ -46,12 +80,24 @@ public class DefaultScheduler implements Scheduler {
       BackendRegistry backendRegistry,
       WorkScheduler workScheduler,
       EventStore eventStore,
-      SynchronizationGuard guard) {
+      SynchronizationGuard guard,
+      @Named("PERSIST_BATCH_SIZE") int persistBatchSize) {
     this.executor = executor;
     this.backendRegistry = backendRegistry;
     this.workScheduler = workScheduler;
     this.eventStore = eventStore;
     this.guard = guard;
+    this.persistBatchSize = Math.max(1, persistBatchSize);
+  }
+
+  /** Creates a scheduler that persists every event in its own transaction. */
+  public DefaultScheduler(
+      Executor executor,
+      BackendRegistry backendRegistry,
+      WorkScheduler workScheduler,
+      EventStore eventStore,
+      SynchronizationGuard guard) {
+    this(executor, backendRegistry, workScheduler, eventStore, guard, 1);
   }
 
   /**
@@ -78,17 +124,84 @@ public class DefaultScheduler implements Scheduler {
               return;
             }
             EventInternal decoratedEvent = transportBackend.decorate(event);
-            guard.runCriticalSection(
-                () -> {
-                  eventStore.persist(transportContext, decoratedEvent);
-                  workScheduler.schedule(transportContext, 1);
-                  return null;
-                });
-            callback.onSchedule(null);
+            enqueue(new PendingEvent(transportContext, decoratedEvent, callback));
           } catch (Exception e) {
             LOGGER.warning("Error scheduling event " + e.getMessage());
             callback.onSchedule(e);
           }
         });
   }
+
+  private void enqueue(PendingEvent pendingEvent) {
+    synchronized (pendingEvents) {
+      pendingEvents.add(pendingEvent);
+      if (persistQueued) {
+        return;
+      }
+      persistQueued = true;
+    }
+    // Queued behind the events that are already being scheduled, so that they are persisted in the
+    // same batch.
+    executor.execute(this::persistPendingEvents);
+  }
+
+  private void persistPendingEvents() {
+    List<PendingEvent> batch;
+    boolean morePending;
+    synchronized (pendingEvents) {
+      int size = Math.min(pendingEvents.size(), persistBatchSize);
+      batch = new ArrayList<>(pendingEvents.subList(0, size));
+      pendingEvents.subList(0, size).clear();
+      morePending = !pendingEvents.isEmpty();
+      persistQueued = morePending;
+    }
+    if (morePending) {
+      executor.execute(this::persistPendingEvents);
+    }
+    persistPendingEvents(batch);
+  }
+
+  private void persistPendingEvents(List<PendingEvent> batch) {
+    try {
+      persist(batch);
+    } catch (SynchronizationException e) {
+      // The store couldn't be locked, which persisting the events one by one won't change.
+      LOGGER.warning("Error scheduling event " + e.getMessage());
+      for (PendingEvent pendingEvent : batch) {
+        pendingEvent.callback.onSchedule(e);
+      }
+      return;
+    } catch (Exception e) {
+      if (batch.size() > 1) {
+        // The whole transaction was rolled back. Persist the events one by one, so that only the
+        // events that fail report an error.
+        for (PendingEvent pendingEvent : batch) {
+          persistPendingEvents(Collections.singletonList(pendingEvent));
+        }
+        return;
+      }
+      LOGGER.warning("Error scheduling event " + e.getMessage());
+      batch.get(0).callback.onSchedule(e);
+      return;
+    }
+    for (PendingEvent pendingEvent : batch) {
+      pendingEvent.callback.onSchedule(null);
+    }
+  }
+
+  /** Persists the events in one transaction and schedules uploads for their contexts. */
+  private void persist(List<PendingEvent> batch) {
+    guard.runCriticalSection(
+        () -> {
+          Set<TransportContext> transportContexts = new LinkedHashSet<>();
+          for (PendingEvent pendingEvent : batch) {
+            eventStore.persist(pendingEvent.transportContext, pendingEvent.event);
+            transportContexts.add(pendingEvent.transportContext);
+          }
+          for (TransportContext transportContext : transportContexts) {
+            workScheduler.schedule(transportContext, 1);
+          }
+          return null;
+        });
+  }
 }
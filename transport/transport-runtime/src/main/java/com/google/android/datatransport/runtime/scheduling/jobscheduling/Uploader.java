@@ -20,6 +20,7 @@ import android.net.NetworkInfo;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.VisibleForTesting;
 import com.google.android.datatransport.Encoding;
+import com.google.android.datatransport.Priority;
 import com.google.android.datatransport.runtime.EncodedPayload;
 import com.google.android.datatransport.runtime.EventInternal;
 import com.google.android.datatransport.runtime.TransportContext;
@@ -38,14 +39,22 @@ import com.google.android.datatransport.runtime.synchronization.SynchronizationG
 import com.google.android.datatransport.runtime.time.Clock;
 import com.google.android.datatransport.runtime.time.Monotonic;
 import com.google.android.datatransport.runtime.time.WallTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Executor;
 import javax.inject.Inject;
+import javax.inject.Named;
 
-/** Handles upload of all the events corresponding to a backend. */
+/**
+ * Handles upload of all the events corresponding to a backend.
+ *
+ * <p>Uploads to different destinations run concurrently on the executor, while uploads to the same
+ * destination run one after the other so that a batch is never sent twice.
+ */
 public class Uploader {
 
   private static final String LOG_TAG = "Uploader";
@@ -61,13 +70,17 @@ public class Uploader {
   private final Clock uptimeClock;
   private final ClientHealthMetricsStore clientHealthMetricsStore;
 
+  // Uploads waiting for an upload to the same destination to finish, keyed by destination. A
+  // destination is present while an upload to it is running.
+  private final Map<TransportContext, Queue<Runnable>> pendingUploads = new HashMap<>();
+
   @Inject
   public Uploader(
       Context context,
       BackendRegistry backendRegistry,
       EventStore eventStore,
       WorkScheduler workScheduler,
-      Executor executor,
+      @Named("UPLOAD_EXECUTOR") Executor executor,
       SynchronizationGuard guard,
       @WallTime Clock clock,
       @Monotonic Clock uptimeClock,
@@ -91,7 +104,7 @@ public class Uploader {
   }
 
   public void upload(TransportContext transportContext, int attemptNumber, Runnable callback) {
-    this.executor.execute(
+    Runnable upload =
         () -> {
           try {
             guard.runCriticalSection(eventStore::cleanUp);
@@ -109,7 +122,35 @@ public class Uploader {
           } finally {
             callback.run();
           }
-        });
+        };
+    // Events of all priorities are sent to the same destination, see EventStore#loadBatch.
+    TransportContext destination = transportContext.withPriority(Priority.DEFAULT);
+    synchronized (pendingUploads) {
+      Queue<Runnable> queued = pendingUploads.get(destination);
+      if (queued != null) {
+        queued.add(upload);
+        return;
+      }
+      pendingUploads.put(destination, new ArrayDeque<>());
+    }
+    executor.execute(() -> runUpload(destination, upload));
+  }
+
+  private void runUpload(TransportContext destination, Runnable upload) {
+    try {
+      upload.run();
+    } finally {
+      Runnable next;
+      synchronized (pendingUploads) {
+        next = pendingUploads.get(destination).poll();
+        if (next == null) {
+          pendingUploads.remove(destination);
+        }
+      }
+      if (next != null) {
+        executor.execute(() -> runUpload(destination, next));
+      }
+    }
   }
 
   @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
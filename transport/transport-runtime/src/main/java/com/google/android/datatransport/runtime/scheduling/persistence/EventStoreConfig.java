@@ -20,29 +20,56 @@ import com.google.auto.value.AutoValue;
 abstract class EventStoreConfig {
   private static final long MAX_DB_STORAGE_SIZE_IN_BYTES = 10 * 1024 * 1024;
   private static final int LOAD_BATCH_SIZE = 200;
+  private static final long LOAD_BATCH_BYTE_SIZE = 512 * 1024;
   private static final int LOCK_TIME_OUT_MS = 10000;
   private static final long DURATION_ONE_WEEK_MS = 7 * 24 * 60 * 60 * 1000;
   private static final int MAX_BLOB_BYTE_SIZE_PER_ROW = 80 * 1024;
+  private static final int PERSIST_BATCH_SIZE = 50;
+  private static final int MIN_COMPRESSED_PAYLOAD_BYTE_SIZE = 1024;
 
   static final EventStoreConfig DEFAULT =
       EventStoreConfig.builder()
           .setMaxStorageSizeInBytes(MAX_DB_STORAGE_SIZE_IN_BYTES)
           .setLoadBatchSize(LOAD_BATCH_SIZE)
+          .setLoadBatchByteSize(LOAD_BATCH_BYTE_SIZE)
           .setCriticalSectionEnterTimeoutMs(LOCK_TIME_OUT_MS)
           .setEventCleanUpAge(DURATION_ONE_WEEK_MS)
           .setMaxBlobByteSizePerRow(MAX_BLOB_BYTE_SIZE_PER_ROW)
+          .setPersistBatchSize(PERSIST_BATCH_SIZE)
+          .setMinCompressedPayloadByteSize(MIN_COMPRESSED_PAYLOAD_BYTE_SIZE)
           .build();
 
   abstract long getMaxStorageSizeInBytes();
 
   abstract int getLoadBatchSize();
 
+  /**
+   * The payload size at which a batch stops loading further events, so that the memory used to
+   * upload a batch doesn't grow with the number of events. A batch holds at least one event.
+   */
+  abstract long getLoadBatchByteSize();
+
   abstract int getCriticalSectionEnterTimeoutMs();
 
   abstract long getEventCleanUpAge();
 
   abstract int getMaxBlobByteSizePerRow();
 
+  /**
+   * The maximum number of scheduled events that are persisted in one transaction. Events that are
+   * scheduled while earlier ones are being persisted are committed together, which saves a disk
+   * sync per event at the cost of a longer wait for the first events of a batch. 1 persists every
+   * event in its own transaction.
+   */
+  abstract int getPersistBatchSize();
+
+  /**
+   * Payloads of at least this many bytes are compressed with deflate when they are persisted, and
+   * count towards the max storage size with their compressed size. Payloads that don't get smaller
+   * are stored as they are. {@link Integer#MAX_VALUE} disables compression.
+   */
+  abstract int getMinCompressedPayloadByteSize();
+
   static EventStoreConfig.Builder builder() {
     return new AutoValue_EventStoreConfig.Builder();
   }
@@ -51,9 +78,12 @@ abstract class EventStoreConfig {
     return builder()
         .setMaxStorageSizeInBytes(getMaxStorageSizeInBytes())
         .setLoadBatchSize(getLoadBatchSize())
+        .setLoadBatchByteSize(getLoadBatchByteSize())
         .setCriticalSectionEnterTimeoutMs(getCriticalSectionEnterTimeoutMs())
         .setEventCleanUpAge(getEventCleanUpAge())
-        .setMaxBlobByteSizePerRow(getMaxBlobByteSizePerRow());
+        .setMaxBlobByteSizePerRow(getMaxBlobByteSizePerRow())
+        .setPersistBatchSize(getPersistBatchSize())
+        .setMinCompressedPayloadByteSize(getMinCompressedPayloadByteSize());
   }
 
   @AutoValue.Builder
@@ -62,12 +92,18 @@ abstract class EventStoreConfig {
 
     abstract Builder setLoadBatchSize(int value);
 
+    abstract Builder setLoadBatchByteSize(long value);
+
     abstract Builder setCriticalSectionEnterTimeoutMs(int value);
 
     abstract Builder setEventCleanUpAge(long value);
 
     abstract Builder setMaxBlobByteSizePerRow(int value);
 
+    abstract Builder setPersistBatchSize(int value);
+
+    abstract Builder setMinCompressedPayloadByteSize(int value);
+
     abstract EventStoreConfig build();
   }
 }
@@ -39,6 +39,12 @@ public abstract class EventStoreModule {
   @Binds
   abstract ClientHealthMetricsStore clientHealthMetricsStore(SQLiteEventStore store);
 
+  @Provides
+  @Named("PERSIST_BATCH_SIZE")
+  static int persistBatchSize(EventStoreConfig config) {
+    return config.getPersistBatchSize();
+  }
+
   @Provides
   @Named("SCHEMA_VERSION")
   static int schemaVersion() {
@@ -18,7 +18,9 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteStatement;
 import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Base64;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
@@ -42,6 +44,8 @@ import com.google.android.datatransport.runtime.time.Clock;
 import com.google.android.datatransport.runtime.time.Monotonic;
 import com.google.android.datatransport.runtime.time.WallTime;
 import com.google.android.datatransport.runtime.util.PriorityMapping;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -51,6 +55,9 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
@@ -68,6 +75,14 @@ public class SQLiteEventStore
 
   private static final int LOCK_RETRY_BACK_OFF_MILLIS = 50;
   private static final Encoding PROTOBUF_ENCODING = Encoding.of("proto");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final long UNKNOWN_SIZE = -1;
+  // When the store is full, events are evicted until it is at most this full, so that eviction
+  // runs once per many persisted events instead of once per event.
+  private static final int EVICTION_TARGET_PERCENT = 90;
+  // Eviction candidates are read in pages, so a full store doesn't load all of its events.
+  private static final int EVICTION_PAGE_SIZE = 100;
+  private static final int COMPRESSION_BUFFER_SIZE = 8 * 1024;
 
   private final SchemaManager schemaManager;
   private final Clock wallClock;
@@ -75,6 +90,17 @@ public class SQLiteEventStore
   private final EventStoreConfig config;
   private final Provider<String> packageName;
 
+  // Statements that insert events, compiled once for the database they were compiled on. They are
+  // only used inside transactions, which no two threads run at once.
+  private SQLiteDatabase insertStatementsDb;
+  private SQLiteStatement insertEventStatement;
+  private SQLiteStatement insertPayloadStatement;
+  private SQLiteStatement insertMetadataStatement;
+
+  // The sum of the stored_bytes of all events, or UNKNOWN_SIZE until it is first needed. Like the
+  // statements above, it is only used inside transactions.
+  private long storedBytes = UNKNOWN_SIZE;
+
   @Inject
   SQLiteEventStore(
       @WallTime Clock wallClock,
@@ -108,34 +134,57 @@ public class SQLiteEventStore
         transportContext.getPriority(),
         event.getTransportName(),
         transportContext.getBackendName());
+    // Compress before the transaction, so that other threads don't wait for it.
+    byte[] rawPayloadBytes = event.getEncodedPayload().getBytes();
+    byte[] compressedPayloadBytes =
+        rawPayloadBytes.length >= config.getMinCompressedPayloadByteSize()
+            ? deflate(rawPayloadBytes)
+            : null;
+    boolean compressed =
+        compressedPayloadBytes != null && compressedPayloadBytes.length < rawPayloadBytes.length;
+    byte[] payloadBytes = compressed ? compressedPayloadBytes : rawPayloadBytes;
     long newRowId =
         inTransaction(
             db -> {
-              // drop new events until old ones are uploaded and removed.
-              // TODO(vkryachko): come up with a more sophisticated algorithm for limiting disk
-              // space.
-              if (isStorageAtLimit()) {
+              long eventBytes = payloadBytes.length;
+              for (Map.Entry<String, String> entry : event.getMetadata().entrySet()) {
+                eventBytes += utf8Length(entry.getKey()) + utf8Length(entry.getValue());
+              }
+              if (eventBytes > config.getMaxStorageSizeInBytes()) {
                 recordLogEventDropped(
-                    1, LogEventDropped.Reason.CACHE_FULL, event.getTransportName());
+                    1, LogEventDropped.Reason.PAYLOAD_TOO_BIG, event.getTransportName());
                 return -1L;
               }
+              long bytesAfterPersist = getStoredBytes(db) + eventBytes;
+              if (bytesAfterPersist > config.getMaxStorageSizeInBytes()) {
+                evict(
+                    db,
+                    bytesAfterPersist
+                        - config.getMaxStorageSizeInBytes() * EVICTION_TARGET_PERCENT / 100);
+              }
 
               long contextId = ensureTransportContext(db, transportContext);
               int maxBlobSizePerRow = config.getMaxBlobByteSizePerRow();
+              ensureInsertStatements(db);
 
-              byte[] payloadBytes = event.getEncodedPayload().getBytes();
               boolean inline = payloadBytes.length <= maxBlobSizePerRow;
-              ContentValues values = new ContentValues();
-              values.put("context_id", contextId);
-              values.put("transport_name", event.getTransportName());
-              values.put("timestamp_ms", event.getEventMillis());
-              values.put("uptime_ms", event.getUptimeMillis());
-              values.put("payload_encoding", event.getEncodedPayload().getEncoding().getName());
-              values.put("code", event.getCode());
-              values.put("num_attempts", 0);
-              values.put("inline", inline);
-              values.put("payload", inline ? payloadBytes : new byte[0]);
-              long newEventId = db.insert("events", null, values);
+              SQLiteStatement insertEvent = insertEventStatement;
+              insertEvent.bindLong(1, contextId);
+              insertEvent.bindString(2, event.getTransportName());
+              insertEvent.bindLong(3, event.getEventMillis());
+              insertEvent.bindLong(4, event.getUptimeMillis());
+              insertEvent.bindString(5, event.getEncodedPayload().getEncoding().getName());
+              if (event.getCode() != null) {
+                insertEvent.bindLong(6, event.getCode());
+              } else {
+                insertEvent.bindNull(6);
+              }
+              insertEvent.bindLong(7, inline ? 1 : 0);
+              insertEvent.bindBlob(8, inline ? payloadBytes : new byte[0]);
+              insertEvent.bindLong(9, eventBytes);
+              insertEvent.bindLong(10, compressed ? 1 : 0);
+              long newEventId = insertEvent.executeInsert();
+              storedBytes += eventBytes;
               if (!inline) {
                 int numChunks = (int) Math.ceil((double) payloadBytes.length / maxBlobSizePerRow);
 
@@ -145,21 +194,18 @@ public class SQLiteEventStore
                           payloadBytes,
                           (chunk - 1) * maxBlobSizePerRow,
                           Math.min((chunk) * maxBlobSizePerRow, payloadBytes.length));
-                  ContentValues payloadValues = new ContentValues();
-                  payloadValues.put("event_id", newEventId);
-                  payloadValues.put("sequence_num", chunk);
-                  payloadValues.put("bytes", chunkBytes);
-                  db.insert("event_payloads", null, payloadValues);
+                  insertPayloadStatement.bindLong(1, newEventId);
+                  insertPayloadStatement.bindLong(2, chunk);
+                  insertPayloadStatement.bindBlob(3, chunkBytes);
+                  insertPayloadStatement.executeInsert();
                 }
               }
 
-              // TODO: insert all with one sql query.
               for (Map.Entry<String, String> entry : event.getMetadata().entrySet()) {
-                ContentValues metadata = new ContentValues();
-                metadata.put("event_id", newEventId);
-                metadata.put("name", entry.getKey());
-                metadata.put("value", entry.getValue());
-                db.insert("event_metadata", null, metadata);
+                insertMetadataStatement.bindLong(1, newEventId);
+                insertMetadataStatement.bindString(2, entry.getKey());
+                insertMetadataStatement.bindString(3, entry.getValue());
+                insertMetadataStatement.executeInsert();
               }
               return newEventId;
             });
@@ -170,6 +216,122 @@ public class SQLiteEventStore
     return PersistedEvent.create(newRowId, transportContext, event);
   }
 
+  /** Compiles the statements used by {@link #persist} if they aren't compiled for {@code db}. */
+  private void ensureInsertStatements(SQLiteDatabase db) {
+    if (insertStatementsDb == db) {
+      return;
+    }
+    closeInsertStatements();
+    insertEventStatement =
+        db.compileStatement(
+            "INSERT INTO events (context_id, transport_name, timestamp_ms, uptime_ms,"
+                + " payload_encoding, code, num_attempts, inline, payload, stored_bytes,"
+                + " compressed)"
+                + " VALUES (?, ?, ?, ?, ?, ?, 0, ?, ?, ?, ?)");
+    insertPayloadStatement =
+        db.compileStatement(
+            "INSERT INTO event_payloads (event_id, sequence_num, bytes) VALUES (?, ?, ?)");
+    insertMetadataStatement =
+        db.compileStatement("INSERT INTO event_metadata (event_id, name, value) VALUES (?, ?, ?)");
+    insertStatementsDb = db;
+  }
+
+  private void closeInsertStatements() {
+    if (insertStatementsDb == null) {
+      return;
+    }
+    insertEventStatement.close();
+    insertPayloadStatement.close();
+    insertMetadataStatement.close();
+    insertStatementsDb = null;
+  }
+
+  private long getStoredBytes(SQLiteDatabase db) {
+    if (storedBytes == UNKNOWN_SIZE) {
+      SQLiteStatement sumStoredBytes =
+          db.compileStatement("SELECT IFNULL(SUM(stored_bytes), 0) FROM events");
+      try {
+        storedBytes = sumStoredBytes.simpleQueryForLong();
+      } finally {
+        sumStoredBytes.close();
+      }
+    }
+    return storedBytes;
+  }
+
+  /**
+   * Evicts at least {@code bytesToFree} bytes of events in one go.
+   *
+   * <p>The oldest events are evicted first, with ages weighted by priority: the age of a very low
+   * priority event counts four times, that of a default priority event twice and that of a highest
+   * priority event once. So a very low priority event is evicted before highest priority events
+   * that are up to four times as old. During long offline periods this keeps recent and important
+   * events at the expense of stale, unimportant ones.
+   */
+  private void evict(SQLiteDatabase db, long bytesToFree) {
+    String query =
+        "SELECT e._id, e.stored_bytes, e.transport_name"
+            + " FROM events AS e, transport_contexts AS t WHERE e.context_id = t._id"
+            + " ORDER BY (? - e.timestamp_ms) * CASE t.priority"
+            + " WHEN "
+            + PriorityMapping.toInt(Priority.VERY_LOW)
+            + " THEN 4 WHEN "
+            + PriorityMapping.toInt(Priority.DEFAULT)
+            + " THEN 2 ELSE 1 END DESC, e._id"
+            + " LIMIT "
+            + EVICTION_PAGE_SIZE
+            + " OFFSET ";
+    String[] selectionArgs = new String[] {String.valueOf(wallClock.getTime())};
+    List<Long> evictedIds = new ArrayList<>();
+    Map<String, Integer> evictedCounts = new HashMap<>();
+    long freedBytes = 0;
+    boolean morePages = true;
+    while (freedBytes < bytesToFree && morePages) {
+      long bytesLeftToFree = bytesToFree - freedBytes;
+      long[] page =
+          tryWithCursor(
+              db.rawQuery(query + evictedIds.size(), selectionArgs),
+              cursor -> {
+                long pageBytes = 0;
+                while (pageBytes < bytesLeftToFree && cursor.moveToNext()) {
+                  evictedIds.add(cursor.getLong(0));
+                  pageBytes += cursor.getLong(1);
+                  String transportName = cursor.getString(2);
+                  Integer count = evictedCounts.get(transportName);
+                  evictedCounts.put(transportName, count == null ? 1 : count + 1);
+                }
+                return new long[] {pageBytes, cursor.getCount()};
+              });
+      freedBytes += page[0];
+      morePages = page[1] == EVICTION_PAGE_SIZE;
+    }
+    if (evictedIds.isEmpty()) {
+      return;
+    }
+    Logging.d(LOG_TAG, "Storage is full, evicting %d events", evictedIds.size());
+    db.delete("events", "_id in (" + TextUtils.join(",", evictedIds) + ")", new String[0]);
+    storedBytes -= freedBytes;
+    for (Map.Entry<String, Integer> entry : evictedCounts.entrySet()) {
+      recordLogEventDropped(entry.getValue(), LogEventDropped.Reason.CACHE_FULL, entry.getKey());
+    }
+  }
+
+  /**
+   * Deletes the events matching {@code whereClause}. The stored size is summed up again the next
+   * time it is needed, instead of summing up the deleted events on every delete.
+   */
+  private int deleteEvents(SQLiteDatabase db, String whereClause, String[] whereArgs) {
+    int deleted = db.delete("events", whereClause, whereArgs);
+    if (deleted > 0) {
+      storedBytes = UNKNOWN_SIZE;
+    }
+    return deleted;
+  }
+
+  private static int utf8Length(String value) {
+    return value.getBytes(UTF_8).length;
+  }
+
   private long ensureTransportContext(SQLiteDatabase db, TransportContext transportContext) {
     Long existingId = getTransportContextId(db, transportContext);
     if (existingId != null) {
@@ -247,7 +409,7 @@ public class SQLiteEventStore
                 }
                 return null;
               });
-          db.compileStatement("DELETE FROM events WHERE num_attempts >= " + MAX_RETRIES).execute();
+          deleteEvents(db, "num_attempts >= " + MAX_RETRIES, new String[0]);
           return null;
         });
   }
@@ -258,8 +420,7 @@ public class SQLiteEventStore
       return;
     }
 
-    String query = "DELETE FROM events WHERE _id in " + toIdList(events);
-    getDb().compileStatement(query).execute();
+    inTransaction(db -> deleteEvents(db, "_id in " + toIdList(events), new String[0]));
   }
 
   private static String toIdList(Iterable<PersistedEvent> events) {
@@ -339,17 +500,20 @@ public class SQLiteEventStore
   public Iterable<PersistedEvent> loadBatch(TransportContext transportContext) {
     return inTransaction(
         db -> {
-          List<PersistedEvent> events = loadEvents(db, transportContext, config.getLoadBatchSize());
+          List<PersistedEvent> events =
+              loadEvents(
+                  db, transportContext, config.getLoadBatchSize(), config.getLoadBatchByteSize());
           for (Priority p : Priority.values()) {
             if (p == transportContext.getPriority()) {
               continue;
             }
             int space = config.getLoadBatchSize() - events.size();
-            if (space <= 0) {
+            long byteSpace = config.getLoadBatchByteSize() - payloadByteSize(events);
+            if (space <= 0 || byteSpace <= 0) {
               break;
             }
             List<PersistedEvent> additional =
-                loadEvents(db, transportContext.withPriority(p), space);
+                loadEvents(db, transportContext.withPriority(p), space, byteSpace);
             events.addAll(additional);
           }
           return join(events, loadMetadata(db, events));
@@ -401,12 +565,20 @@ public class SQLiteEventStore
                 return null;
               });
 
-          return db.delete("events", "timestamp_ms < ?", selectionArgs);
+          return deleteEvents(db, "timestamp_ms < ?", selectionArgs);
         });
   }
 
   @Override
   public void close() {
+    if (insertStatementsDb != null) {
+      // In a transaction, so that the statements aren't closed while an event is being persisted.
+      inTransaction(
+          db -> {
+            closeInsertStatements();
+            return null;
+          });
+    }
     schemaManager.close();
   }
 
@@ -416,6 +588,7 @@ public class SQLiteEventStore
         db -> {
           db.delete("events", null, new String[] {});
           db.delete("transport_contexts", null, new String[] {});
+          storedBytes = 0;
           return null;
         });
   }
@@ -427,9 +600,21 @@ public class SQLiteEventStore
     return Base64.decode(value, Base64.DEFAULT);
   }
 
-  /** Loads all events for a backend. */
+  private static long payloadByteSize(List<PersistedEvent> events) {
+    long size = 0;
+    for (PersistedEvent event : events) {
+      size += event.getEvent().getEncodedPayload().getBytes().length;
+    }
+    return size;
+  }
+
+  /**
+   * Loads up to {@code limit} events for a backend, stopping early once their payloads add up to
+   * {@code byteLimit}. Payloads of the events that aren't loaded aren't read. Events whose
+   * compressed payload can't be inflated are deleted instead of being loaded.
+   */
   private List<PersistedEvent> loadEvents(
-      SQLiteDatabase db, TransportContext transportContext, int limit) {
+      SQLiteDatabase db, TransportContext transportContext, int limit, long byteLimit) {
     List<PersistedEvent> events = new ArrayList<>();
     Long contextId = getTransportContextId(db, transportContext);
     if (contextId == null) {
@@ -448,6 +633,7 @@ public class SQLiteEventStore
               "payload",
               "code",
               "inline",
+              "compressed",
             },
             "context_id = ?",
             new String[] {contextId.toString()},
@@ -456,32 +642,53 @@ public class SQLiteEventStore
             null,
             String.valueOf(limit)),
         cursor -> {
-          while (cursor.moveToNext()) {
+          long loadedBytes = 0;
+          List<Long> invalidIds = new ArrayList<>();
+          Map<String, Integer> invalidCounts = new HashMap<>();
+          while (loadedBytes < byteLimit && cursor.moveToNext()) {
             long id = cursor.getLong(0);
             boolean inline = cursor.getInt(7) != 0;
+            boolean compressed = cursor.getInt(8) != 0;
             EventInternal.Builder event =
                 EventInternal.builder()
                     .setTransportName(cursor.getString(1))
                     .setEventMillis(cursor.getLong(2))
                     .setUptimeMillis(cursor.getLong(3));
+            byte[] payload;
             if (inline) {
-              event.setEncodedPayload(
-                  new EncodedPayload(toEncoding(cursor.getString(4)), cursor.getBlob(5)));
+              payload = compressed ? inflate(cursor.getBlob(5)) : cursor.getBlob(5);
             } else {
-              event.setEncodedPayload(
-                  new EncodedPayload(toEncoding(cursor.getString(4)), readPayload(id)));
+              payload = readPayload(id, compressed);
+            }
+            if (payload == null) {
+              String transportName = cursor.getString(1);
+              Integer count = invalidCounts.get(transportName);
+              invalidCounts.put(transportName, count == null ? 1 : count + 1);
+              invalidIds.add(id);
+              continue;
             }
+            event.setEncodedPayload(new EncodedPayload(toEncoding(cursor.getString(4)), payload));
             if (!cursor.isNull(6)) {
               event.setCode(cursor.getInt(6));
             }
             events.add(PersistedEvent.create(id, transportContext, event.build()));
+            loadedBytes += payload.length;
+          }
+          if (!invalidIds.isEmpty()) {
+            deleteEvents(db, "_id in (" + TextUtils.join(",", invalidIds) + ")", new String[0]);
+            for (Map.Entry<String, Integer> entry : invalidCounts.entrySet()) {
+              recordLogEventDropped(
+                  entry.getValue(), LogEventDropped.Reason.INVALID_PAYLOD, entry.getKey());
+            }
           }
           return null;
         });
     return events;
   }
 
-  private byte[] readPayload(long eventId) {
+  /** Returns the payload stored in chunks, or null if its compressed form is corrupted. */
+  @Nullable
+  private byte[] readPayload(long eventId, boolean compressed) {
     return tryWithCursor(
         getDb()
             .query(
@@ -493,6 +700,21 @@ public class SQLiteEventStore
                 null,
                 "sequence_num"),
         cursor -> {
+          if (compressed) {
+            // Chunks are inflated as they are read, without joining the compressed chunks first.
+            Inflater inflater = new Inflater();
+            try {
+              ByteArrayOutputStream output = new ByteArrayOutputStream();
+              while (cursor.moveToNext()) {
+                if (!inflate(inflater, cursor.getBlob(0), output)) {
+                  return null;
+                }
+              }
+              return isComplete(inflater) ? output.toByteArray() : null;
+            } finally {
+              inflater.end();
+            }
+          }
           List<byte[]> chunks = new ArrayList<>();
           int totalLength = 0;
           while (cursor.moveToNext()) {
@@ -512,6 +734,75 @@ public class SQLiteEventStore
         });
   }
 
+  private static byte[] deflate(byte[] bytes) {
+    Deflater deflater = new Deflater();
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[COMPRESSION_BUFFER_SIZE];
+      while (!deflater.finished()) {
+        output.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** Returns the inflated payload, or null if it is corrupted. */
+  @Nullable
+  private static byte[] inflate(byte[] bytes) {
+    Inflater inflater = new Inflater();
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      return inflate(inflater, bytes, output) && isComplete(inflater)
+          ? output.toByteArray()
+          : null;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Inflates the next part of a compressed payload into {@code output}.
+   *
+   * @return false if the payload is corrupted, in which case its event is dropped so that it
+   *     doesn't block the upload of other events
+   */
+  private static boolean inflate(Inflater inflater, byte[] input, ByteArrayOutputStream output) {
+    inflater.setInput(input);
+    byte[] buffer = new byte[COMPRESSION_BUFFER_SIZE];
+    try {
+      while (!inflater.needsInput() && !inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && inflater.needsDictionary()) {
+          throw new DataFormatException("Payloads are compressed without a dictionary");
+        }
+        output.write(buffer, 0, length);
+      }
+      return true;
+    } catch (DataFormatException e) {
+      Logging.e(LOG_TAG, "Couldn't inflate a stored payload, dropping it", e);
+      return false;
+    }
+  }
+
+  /**
+   * Checks that the whole compressed payload has been read, which isn't the case if chunks are
+   * missing or the payload has been cut off.
+   */
+  private static boolean isComplete(Inflater inflater) {
+    if (!inflater.finished()) {
+      Logging.w(
+          LOG_TAG,
+          "Stored payload is truncated after %d inflated bytes, dropping it",
+          inflater.getBytesWritten());
+      return false;
+    }
+    return true;
+  }
+
   private static Encoding toEncoding(@Nullable String value) {
     if (value == null) {
       return PROTOBUF_ENCODING;
@@ -768,6 +1059,10 @@ public class SQLiteEventStore
       T result = criticalSection.execute();
       db.setTransactionSuccessful();
       return result;
+    } catch (RuntimeException e) {
+      // The stored size may include changes that are rolled back.
+      storedBytes = UNKNOWN_SIZE;
+      throw e;
     } finally {
       db.endTransaction();
     }
@@ -781,6 +1076,9 @@ public class SQLiteEventStore
       T result = function.apply(db);
       db.setTransactionSuccessful();
       return result;
+    } catch (RuntimeException e) {
+      storedBytes = UNKNOWN_SIZE;
+      throw e;
     } finally {
       db.endTransaction();
     }
@@ -796,28 +1094,10 @@ public class SQLiteEventStore
     }
   }
 
-  private boolean isStorageAtLimit() {
-    long byteSize = getPageCount() * getPageSize();
-
-    return byteSize >= config.getMaxStorageSizeInBytes();
-  }
-
+  /** Returns the bytes taken by stored events, which are limited by the max storage size. */
   @VisibleForTesting
   long getByteSize() {
-    return getPageCount() * getPageSize();
-  }
-
-  /** Gets the page size of the database. Typically 4096. */
-  private long getPageSize() {
-    return getDb().compileStatement("PRAGMA page_size").simpleQueryForLong();
-  }
-
-  /**
-   * Gets the number of pages in the database file. Multiplying this with the page size yields the
-   * approximate size of the database on disk (including the WAL, if relevant).
-   */
-  private long getPageCount() {
-    return getDb().compileStatement("PRAGMA page_count").simpleQueryForLong();
+    return inTransaction(this::getStoredBytes);
   }
 
   @VisibleForTesting
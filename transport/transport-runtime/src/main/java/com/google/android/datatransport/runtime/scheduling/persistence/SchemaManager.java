@@ -101,7 +101,7 @@ final class SchemaManager extends SQLiteOpenHelper {
   private static final String DROP_GLOBAL_LOG_EVENT_STATE_SQL =
       "DROP TABLE IF EXISTS global_log_event_state";
 
-  static int SCHEMA_VERSION = 5;
+  static int SCHEMA_VERSION = 7;
 
   private static final SchemaManager.Migration MIGRATE_TO_V1 =
       (db) -> {
@@ -138,8 +138,34 @@ final class SchemaManager extends SQLiteOpenHelper {
         db.execSQL(CREATE_INITIAL_GLOBAL_LOG_EVENT_STATE_VALUE_SQL);
       };
 
+  // The bytes an event takes in storage: its payload, wherever it is stored, and its metadata.
+  // LENGTH counts characters for text, so the metadata is cast to get its size in UTF-8.
+  private static final String COMPUTE_STORED_BYTES_SQL_V6 =
+      "UPDATE events SET stored_bytes = LENGTH(payload)"
+          + " + IFNULL((SELECT SUM(LENGTH(bytes)) FROM event_payloads"
+          + " WHERE event_payloads.event_id = events._id), 0)"
+          + " + IFNULL((SELECT SUM(LENGTH(CAST(name AS BLOB)) + LENGTH(CAST(value AS BLOB)))"
+          + " FROM event_metadata"
+          + " WHERE event_metadata.event_id = events._id), 0)";
+
+  private static final SchemaManager.Migration MIGRATION_TO_V6 =
+      db -> {
+        db.execSQL("ALTER TABLE events ADD COLUMN stored_bytes INTEGER NOT NULL DEFAULT 0");
+        db.execSQL(COMPUTE_STORED_BYTES_SQL_V6);
+      };
+
+  private static final SchemaManager.Migration MIGRATION_TO_V7 =
+      db -> db.execSQL("ALTER TABLE events ADD COLUMN compressed BOOLEAN NOT NULL DEFAULT 0");
+
   private static final List<Migration> INCREMENTAL_MIGRATIONS =
-      Arrays.asList(MIGRATE_TO_V1, MIGRATE_TO_V2, MIGRATE_TO_V3, MIGRATE_TO_V4, MIGRATION_TO_V5);
+      Arrays.asList(
+          MIGRATE_TO_V1,
+          MIGRATE_TO_V2,
+          MIGRATE_TO_V3,
+          MIGRATE_TO_V4,
+          MIGRATION_TO_V5,
+          MIGRATION_TO_V6,
+          MIGRATION_TO_V7);
 
   @Inject
   SchemaManager(
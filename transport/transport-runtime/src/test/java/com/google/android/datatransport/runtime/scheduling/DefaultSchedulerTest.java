@@ -0,0 +1,186 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.android.datatransport.runtime.scheduling;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.datatransport.Encoding;
+import com.google.android.datatransport.runtime.EncodedPayload;
+import com.google.android.datatransport.runtime.EventInternal;
+import com.google.android.datatransport.runtime.TransportContext;
+import com.google.android.datatransport.runtime.backends.BackendRegistry;
+import com.google.android.datatransport.runtime.backends.TransportBackend;
+import com.google.android.datatransport.runtime.scheduling.jobscheduling.WorkScheduler;
+import com.google.android.datatransport.runtime.scheduling.persistence.EventStore;
+import com.google.android.datatransport.runtime.synchronization.SynchronizationException;
+import com.google.android.datatransport.runtime.synchronization.SynchronizationGuard;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class DefaultSchedulerTest {
+  private static final TransportContext CONTEXT =
+      TransportContext.builder().setBackendName("backend").build();
+  private static final TransportContext OTHER_CONTEXT =
+      TransportContext.builder().setBackendName("other").build();
+
+  private final BackendRegistry mockRegistry = mock(BackendRegistry.class);
+  private final TransportBackend mockBackend = mock(TransportBackend.class);
+  private final WorkScheduler mockWorkScheduler = mock(WorkScheduler.class);
+  private final EventStore mockEventStore = mock(EventStore.class);
+  private final QueuedExecutor executor = new QueuedExecutor();
+  private final List<Exception> callbackResults = new ArrayList<>();
+  private int criticalSections = 0;
+  private boolean failCriticalSections = false;
+
+  private final SynchronizationGuard guard =
+      new SynchronizationGuard() {
+        @Override
+        public <T> T runCriticalSection(CriticalSection<T> criticalSection) {
+          criticalSections++;
+          if (failCriticalSections) {
+            throw new SynchronizationException("Timed out", null);
+          }
+          return criticalSection.execute();
+        }
+      };
+
+  /** An executor that runs its tasks in order when asked to. */
+  private static class QueuedExecutor implements Executor {
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+
+  @Before
+  public void setUp() {
+    when(mockRegistry.get(any())).thenReturn(mockBackend);
+    when(mockBackend.decorate(any())).thenAnswer(invocation -> invocation.getArgument(0));
+  }
+
+  private static EventInternal event(String transportName) {
+    return EventInternal.builder()
+        .setEventMillis(1)
+        .setUptimeMillis(2)
+        .setTransportName(transportName)
+        .setEncodedPayload(new EncodedPayload(Encoding.of("proto"), new byte[] {1}))
+        .build();
+  }
+
+  private void schedule(DefaultScheduler scheduler, TransportContext context, int count) {
+    for (int i = 0; i < count; i++) {
+      scheduler.schedule(context, event("event" + i), callbackResults::add);
+    }
+  }
+
+  @Test
+  public void eventsScheduledTogether_arePersistedInOneCriticalSection() {
+    DefaultScheduler scheduler =
+        new DefaultScheduler(
+            executor, mockRegistry, mockWorkScheduler, mockEventStore, guard, 10);
+
+    schedule(scheduler, CONTEXT, 3);
+    schedule(scheduler, OTHER_CONTEXT, 2);
+    executor.runAll();
+
+    assertThat(criticalSections).isEqualTo(1);
+    verify(mockEventStore, times(5)).persist(any(), any());
+    verify(mockWorkScheduler, times(1)).schedule(CONTEXT, 1);
+    verify(mockWorkScheduler, times(1)).schedule(OTHER_CONTEXT, 1);
+    assertThat(callbackResults).hasSize(5);
+    assertThat(callbackResults).containsExactly(null, null, null, null, null);
+  }
+
+  @Test
+  public void batchesAreLimitedToPersistBatchSize() {
+    DefaultScheduler scheduler =
+        new DefaultScheduler(
+            executor, mockRegistry, mockWorkScheduler, mockEventStore, guard, 2);
+
+    schedule(scheduler, CONTEXT, 5);
+    executor.runAll();
+
+    assertThat(criticalSections).isEqualTo(3);
+    verify(mockEventStore, times(5)).persist(any(), any());
+    assertThat(callbackResults).hasSize(5);
+  }
+
+  @Test
+  public void eventsScheduledAfterABatch_arePersistedInANewBatch() {
+    DefaultScheduler scheduler =
+        new DefaultScheduler(
+            executor, mockRegistry, mockWorkScheduler, mockEventStore, guard, 10);
+
+    schedule(scheduler, CONTEXT, 2);
+    executor.runAll();
+    schedule(scheduler, CONTEXT, 2);
+    executor.runAll();
+
+    assertThat(criticalSections).isEqualTo(2);
+    verify(mockEventStore, times(4)).persist(any(), any());
+  }
+
+  @Test
+  public void failedBatch_reportsErrorToEveryCallback() {
+    DefaultScheduler scheduler =
+        new DefaultScheduler(
+            executor, mockRegistry, mockWorkScheduler, mockEventStore, guard, 10);
+    failCriticalSections = true;
+
+    schedule(scheduler, CONTEXT, 3);
+    executor.runAll();
+
+    assertThat(callbackResults).hasSize(3);
+    for (Exception e : callbackResults) {
+      assertThat(e).isInstanceOf(SynchronizationException.class);
+    }
+  }
+
+  @Test
+  public void failingEvent_onlyReportsErrorToItsOwnCallback() {
+    DefaultScheduler scheduler =
+        new DefaultScheduler(
+            executor, mockRegistry, mockWorkScheduler, mockEventStore, guard, 10);
+    RuntimeException failure = new RuntimeException("disk full");
+    when(mockEventStore.persist(any(), eq(event("event1")))).thenThrow(failure);
+
+    schedule(scheduler, CONTEXT, 3);
+    executor.runAll();
+
+    // The failed batch is retried event by event.
+    assertThat(criticalSections).isEqualTo(4);
+    assertThat(callbackResults).containsExactly(null, failure, null).inOrder();
+  }
+}
@@ -26,6 +26,7 @@ import static org.mockito.Mockito.when;
 
 import androidx.test.core.app.ApplicationProvider;
 import com.google.android.datatransport.Encoding;
+import com.google.android.datatransport.Priority;
 import com.google.android.datatransport.runtime.EncodedPayload;
 import com.google.android.datatransport.runtime.EventInternal;
 import com.google.android.datatransport.runtime.TransportContext;
@@ -40,7 +41,9 @@ import com.google.android.datatransport.runtime.scheduling.persistence.InMemoryE
 import com.google.android.datatransport.runtime.scheduling.persistence.PersistedEvent;
 import com.google.android.datatransport.runtime.synchronization.SynchronizationGuard;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -135,6 +138,38 @@ public class UploaderTest {
     verify(mockRunnable, times(1)).run();
   }
 
+  @Test
+  public void upload_toSameDestination_waitsForRunningUpload() {
+    List<Runnable> tasks = new ArrayList<>();
+    Uploader queuedUploader =
+        spy(
+            new Uploader(
+                ApplicationProvider.getApplicationContext(),
+                mockRegistry,
+                store,
+                mockScheduler,
+                tasks::add,
+                guard,
+                () -> 2,
+                () -> 2,
+                mockClientHealthMetricsStore));
+    when(queuedUploader.isNetworkAvailable()).thenReturn(Boolean.FALSE);
+
+    queuedUploader.upload(TRANSPORT_CONTEXT, 1, mockRunnable);
+    queuedUploader.upload(TRANSPORT_CONTEXT.withPriority(Priority.VERY_LOW), 1, mockRunnable);
+    queuedUploader.upload(ANOTHER_TRANSPORT_CONTEXT, 1, mockRunnable);
+    // Uploads to different destinations start right away.
+    assertThat(tasks).hasSize(2);
+
+    tasks.remove(0).run();
+    // The upload of the other priority starts once the first upload is done.
+    assertThat(tasks).hasSize(2);
+    tasks.remove(0).run();
+    tasks.remove(0).run();
+    assertThat(tasks).isEmpty();
+    verify(mockRunnable, times(3)).run();
+  }
+
   @Test
   public void logAndUpdateStatus_okResponse() {
     when(mockBackend.send(any())).thenReturn(BackendResponse.ok(1000));
@@ -146,6 +146,23 @@ public class SchemaManagerTest {
     assertThat(inlineRows).isEqualTo(1);
   }
 
+  @Test
+  public void upgradingV5ToV6_nonEmptyDB_computesStoredBytes() {
+    int oldVersion = 5;
+    int newVersion = 6;
+    SchemaManager schemaManager =
+        new SchemaManager(ApplicationProvider.getApplicationContext(), DB_NAME, oldVersion);
+    SQLiteEventStore store =
+        new SQLiteEventStore(clock, new UptimeClock(), CONFIG, schemaManager, packageName);
+    PersistedEvent event1 = simulatedPersistOnV1Database(schemaManager, CONTEXT1, EVENT1);
+
+    schemaManager.onUpgrade(schemaManager.getWritableDatabase(), oldVersion, newVersion);
+
+    assertThat(store.loadBatch(CONTEXT1)).containsExactly(event1);
+    // "Hello", "key1", "value1", "key2" and "value2".
+    assertThat(store.getByteSize()).isEqualTo(25);
+  }
+
   @Test
   public void upgrade_toANonExistentVersion_fails() {
     int oldVersion = 1;